@@ -0,0 +1,162 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignerBenchmark.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.AlignmentConfig.Strategy;
+import org.utgenome.weaver.align.BitParallelSmithWaterman;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.sim.ReadSimulator.SimulatedRead;
+import org.utgenome.weaver.align.strategy.FMQuickScan;
+import org.utgenome.weaver.parallel.Reporter;
+
+/**
+ * Benchmarks of the alignment stages (quick scan and Smith-Waterman
+ * verification) and of the end-to-end throughput of each
+ * {@link AlignmentConfig.Strategy}. The scores are per read, so the
+ * throughput mode reports reads/sec.
+ * 
+ * @author leo
+ * 
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AlignerBenchmark
+{
+    @State(Scope.Thread)
+    public static class Queries
+    {
+        /**
+         * Reads in the forward strand of the reference
+         */
+        ACGTSequence[] query;
+        /**
+         * Reference region of each read, including the room for indels
+         */
+        ACGTSequence[] refWindow;
+        int[]          numAllowedDiffs;
+        Read[]         reads;
+
+        @Setup(Level.Trial)
+        public void setUp(SyntheticGenome g) {
+            AlignmentConfig config = new AlignmentConfig();
+            final int n = g.reads.size();
+            query = new ACGTSequence[n];
+            refWindow = new ACGTSequence[n];
+            numAllowedDiffs = new int[n];
+            reads = new Read[n];
+            for (int i = 0; i < n; ++i) {
+                SimulatedRead r = g.reads.get(i);
+                query[i] = r.strand == Strand.FORWARD ? r.seq : r.seq.reverseComplement();
+                int k = config.getMaximumEditDistance((int) r.seq.textSize());
+                long end = Math.min(r.origin + r.seq.textSize() + k, g.reference.textSize());
+                refWindow[i] = g.reference.subString(r.origin, end);
+                numAllowedDiffs[i] = k;
+                reads[i] = r.toRead();
+            }
+        }
+    }
+
+    /**
+     * Aligner of the strategy given as a benchmark parameter. BD and BWA
+     * strategies enumerate every k-difference path, and do not finish on the
+     * default read length in a practical time. Give them explicitly with
+     * shorter reads, e.g., <code>-p strategy=BD -p readLength=20</code>.
+     * 
+     * @author leo
+     * 
+     */
+    @State(Scope.Thread)
+    public static class StrategyState implements Reporter
+    {
+        @Param({ "BSF", "SF" })
+        public Strategy strategy;
+
+        Aligner         aligner;
+        long            numReported = 0;
+
+        @Setup(Level.Trial)
+        public void setUp(SyntheticGenome g) throws Exception {
+            AlignmentConfig config = new AlignmentConfig();
+            config.strategy = strategy;
+            aligner = Align.newAligner(new CommonDataSet(g.fmIndex, g.reference, config, this), config, this);
+        }
+
+        @Override
+        public void emit(Object result) throws Exception {
+            numReported++;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticGenome.NUM_READS)
+    public void quickScan(SyntheticGenome g, Queries q, Blackhole bh) {
+        for (ACGTSequence query : q.query) {
+            bh.consume(FMQuickScan.scanMismatchLocations(g.fmIndex, query, Strand.FORWARD));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticGenome.NUM_READS)
+    public void verification(Queries q, Blackhole bh) {
+        for (int i = 0; i < q.query.length; ++i) {
+            bh.consume(BitParallelSmithWaterman.alignBlock(q.refWindow[i], q.query[i], q.numAllowedDiffs[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticGenome.NUM_READS)
+    public long align(Queries q, StrategyState s) throws Exception {
+        for (Read r : q.reads) {
+            s.aligner.align(r, s);
+        }
+        return s.numReported;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// FMIndexBenchmark.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.FMIndex;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.SuffixInterval;
+
+/**
+ * Benchmarks of the FM-index primitives: rank (occurrence count) queries,
+ * backward search of exact patterns, locate through the sparse suffix array,
+ * and ACGTN counting on the packed sequence.
+ * 
+ * @author leo
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FMIndexBenchmark
+{
+    public static final int BATCH = 1024;
+
+    @State(Scope.Thread)
+    public static class Queries
+    {
+        private static final long SEED         = 0x5EED3L;
+        private static final int  PATTERN_SIZE = 32;
+
+        long[]                    positions    = new long[BATCH];
+        long[]                    saIndexes    = new long[BATCH];
+        ACGTSequence[]            patterns     = new ACGTSequence[BATCH];
+
+        @Setup(Level.Trial)
+        public void setUp(SyntheticGenome g) {
+            Random r = new Random(SEED);
+            long N = g.fmIndex.textSize();
+            for (int i = 0; i < BATCH; ++i) {
+                positions[i] = (long) (r.nextDouble() * N);
+                saIndexes[i] = (long) (r.nextDouble() * N);
+                long start = (long) (r.nextDouble() * (g.reference.textSize() - PATTERN_SIZE));
+                patterns[i] = g.reference.subString(start, start + PATTERN_SIZE);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void rank(SyntheticGenome g, Queries q, Blackhole bh) {
+        FMIndex fm = g.fmIndex.forwardIndex;
+        for (int i = 0; i < BATCH; ++i) {
+            bh.consume(fm.rankACGTN(q.positions[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long backwardSearch(SyntheticGenome g, Queries q) {
+        FMIndexOnGenome fm = g.fmIndex;
+        long hits = 0;
+        for (int i = 0; i < BATCH; ++i) {
+            ACGTSequence p = q.patterns[i];
+            SuffixInterval si = fm.wholeSARange();
+            for (long x = p.textSize() - 1; x >= 0 && si.hasEntry(); --x) {
+                si = fm.backwardSearch(Strand.FORWARD, p.getACGT(x), si);
+            }
+            hits += si.range();
+        }
+        return hits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long locate(SyntheticGenome g, Queries q) {
+        FMIndexOnGenome fm = g.fmIndex;
+        long sum = 0;
+        for (int i = 0; i < BATCH; ++i) {
+            sum += fm.toCoordinate(q.saIndexes[i], Strand.FORWARD);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void countACGTN(SyntheticGenome g, Queries q, Blackhole bh) {
+        ACGTSequence ref = g.reference;
+        long N = ref.textSize();
+        for (int i = 0; i < BATCH; ++i) {
+            long start = q.positions[i] % (N - 1024);
+            bh.consume(ref.fastCountACGTN(start, start + 1024));
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// IndexBuildBenchmark.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.dc3.DC3;
+import org.utgenome.weaver.align.sais.CyclicSAIS;
+import org.utgenome.weaver.align.sais.LSAIS;
+import org.utgenome.weaver.align.sais.SAIS;
+import org.utgenome.weaver.align.sais.UInt32Array;
+import org.utgenome.weaver.align.sim.ReadSimulator;
+
+/**
+ * Benchmarks of the suffix array construction algorithms used for building
+ * the BWT of a reference sequence
+ * 
+ * @author leo
+ * 
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexBuildBenchmark
+{
+    public static enum Algorithm {
+        CyclicSAIS, LSAIS, SAIS, DC3
+    }
+
+    @Param({ "CyclicSAIS", "LSAIS", "SAIS", "DC3" })
+    public Algorithm     algorithm;
+
+    @Param({ "1000000" })
+    public int           genomeSize;
+
+    private ACGTSequence seq;
+    private int[]        codes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        seq = ReadSimulator.randomGenome(genomeSize, SyntheticGenome.GENOME_SEED);
+        codes = new int[genomeSize];
+        for (int i = 0; i < genomeSize; ++i) {
+            codes[i] = (int) seq.lookup(i);
+        }
+    }
+
+    @Benchmark
+    public Object suffixArray() {
+        final int K = 5; // ACGTN
+        switch (algorithm) {
+        case CyclicSAIS:
+            return CyclicSAIS.SAIS(seq, new UInt32Array(genomeSize), K);
+        case LSAIS: {
+            int[] SA = new int[genomeSize];
+            LSAIS.suffixsort(seq, SA, K);
+            return SA;
+        }
+        case SAIS: {
+            int[] SA = new int[genomeSize];
+            SAIS.suffixsort(codes, SA, genomeSize, K);
+            return SA;
+        }
+        case DC3:
+        default:
+            return DC3.buildSuffixArray(seq);
+        }
+    }
+
+}
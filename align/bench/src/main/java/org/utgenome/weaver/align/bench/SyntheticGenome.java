@@ -0,0 +1,88 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// SyntheticGenome.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.FMIndexOnGenome.IndexType;
+import org.utgenome.weaver.align.sim.ReadSimulator;
+import org.utgenome.weaver.align.sim.ReadSimulator.SimulatedRead;
+
+/**
+ * Benchmark input shared by the FM-index and aligner benchmarks: a random
+ * reference of the given size, its FM-index, and reads sampled from the
+ * reference with mismatches and indels. Everything is generated from fixed
+ * seeds, so every run measures the same data.
+ * 
+ * @author leo
+ * 
+ */
+@State(Scope.Benchmark)
+public class SyntheticGenome
+{
+    public static final long   GENOME_SEED  = 0x5EED1L;
+    public static final long   READ_SEED    = 0x5EED2L;
+    public static final int    NUM_READS    = 1000;
+
+    @Param({ "1000000" })
+    public int                 genomeSize;
+
+    @Param({ "100" })
+    public int                 readLength;
+
+    @Param({ "0.01" })
+    public double              mismatchRate;
+
+    @Param({ "0.001" })
+    public double              indelRate;
+
+    @Param({ "OCC", "COMPACT", "WAVELET" })
+    public IndexType           indexType;
+
+    public ACGTSequence        reference;
+    public FMIndexOnGenome     fmIndex;
+    public List<SimulatedRead> reads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        reference = ReadSimulator.randomGenome(genomeSize, GENOME_SEED);
+        fmIndex = FMIndexOnGenome.buildFromSequence("synthetic", reference, indexType);
+
+        ReadSimulator sim = new ReadSimulator(reference, readLength, mismatchRate, indelRate, READ_SEED);
+        reads = new ArrayList<SimulatedRead>(NUM_READS);
+        for (int i = 0; i < NUM_READS; ++i) {
+            reads.add(sim.next());
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ACGTCounter.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+/**
+ * Sequence of ACGTN characters that supports counting the occurrences of
+ * characters within a range. {@link OccurrenceCountTable} uses this interface
+ * to compute ranks between its sampled rows.
+ * 
+ * @author leo
+ * 
+ */
+public interface ACGTCounter extends LSeq
+{
+    /**
+     * Count the number of occurrences of the base within the range [start,
+     * end)
+     * 
+     * @param base
+     * @param start
+     * @param end
+     *            (exclusive)
+     * @return
+     */
+    public long fastCount(ACGT base, long start, long end);
+
+    /**
+     * Count the occurrences of A, C, G, T and N within the range [start, end)
+     * 
+     * @param start
+     * @param end
+     *            (exclusive)
+     * @return array of counts indexed by {@link ACGT#code}
+     */
+    public long[] fastCountACGTN(long start, long end);
+
+    /**
+     * @return memory size of this sequence (bytes)
+     */
+    public long byteSize();
+
+}
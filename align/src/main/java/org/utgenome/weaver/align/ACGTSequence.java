@@ -30,7 +30,7 @@ import org.xerial.snappy.SnappyOutputStream;
 import org.xerial.util.log.Logger;
 
 import java.io.*;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
 
 /**
  * ACGT genome sequence with N, using 3-bit encoding. This class uses 3 long
@@ -41,18 +41,33 @@ import java.util.Arrays;
  * |N0 ... N63|B0 B1 ....  B31|B32 B33 ... B63|
  * </pre>
  * 
+ * <p>
+ * The blocks are stored in an {@link LLongArray}, whose 1GB segments are
+ * allocated off-heap, so the length of a sequence is not limited by the Java
+ * array size. A sequence saved with {@link #saveRawTo(File)} can be
+ * memory-mapped with {@link #map(File)} instead of being decoded into memory.
+ * </p>
+ * 
  * @author leo
  * 
  */
-public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
+public class ACGTSequence implements ACGTCounter, GenomeSequence, CharSequence
 {
     private static Logger     _logger        = Logger.getLogger(ACGTSequence.class);
 
     private static final int  LONG_BYTE_SIZE = 8;
-    private static final long MAX_SIZE       = (2 * 1024 * 1024 * 1024 * 8 * 8) / 3;
+    /**
+     * The maximum number of bases, with which the bit size (3 bits per base) of
+     * the sequence still fits in a long value
+     */
+    public static final long  MAX_SIZE       = (Long.MAX_VALUE / 3L / 64L) * 64L;
+    /**
+     * The number of long values read or written at a time in the compressed
+     * format
+     */
+    private static final int  IO_CHUNK_SIZE  = 1024 * 1024;
 
-    // 2G (max of Java array size) * 8 (long byte size) * 8 / 3 (bit) =  42G  (42G characters)
-    private long[]            seq;
+    private LLongArray        seq;
     private long              numBases;
     private long              capacity;
 
@@ -72,7 +87,7 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
      * @param src
      */
     public ACGTSequence(ACGTSequence src) {
-        this.seq = src.seq.clone();
+        this.seq = src.seq.copyOf(src.seq.size());
         this.numBases = src.numBases;
         this.capacity = src.capacity;
         this.hash = src.hash;
@@ -86,22 +101,103 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
     public ACGTSequence(CharSequence s) {
         this(countNonWhiteSpaces(s));
 
-        int index = 0;
+        BlockEncoder encoder = new BlockEncoder(seq);
         for (int i = 0; i < s.length(); ++i) {
             char ch = s.charAt(i);
             if (ch == ' ')
                 continue; // skip white space
-            byte code = ACGT.to3bitCode(ch);
-            set(index++, code);
+            encoder.append(ACGT.to3bitCode(ch));
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Create ACGTSeq from the input ACGT(N) sequence in ASCII characters, e.g.,
+     * the bytes read from a FASTQ file.
+     * 
+     * @param s
+     * @param offset
+     * @param len
+     */
+    public ACGTSequence(byte[] s, int offset, int len) {
+        this(countNonWhiteSpaces(s, offset, len));
+
+        BlockEncoder encoder = new BlockEncoder(seq);
+        for (int i = offset; i < offset + len; ++i) {
+            byte ch = s[i];
+            if (ch == ' ')
+                continue; // skip white space
+            encoder.append(ACGT.to3bitCode((char) (ch & 0xFF)));
         }
+        encoder.flush();
     }
 
+    /**
+     * Packs 3-bit codes into the |N|B0-B31|B32-B63| blocks 64 bases at a time,
+     * instead of updating three words per base.
+     * 
+     * @author leo
+     * 
+     */
+    private static class BlockEncoder
+    {
+        private final LLongArray dest;
+        private long             pos    = 0;
+        private int              offset = 0;
+        private long             n      = 0L;
+        private long             h      = 0L;
+        private long             l      = 0L;
+
+        public BlockEncoder(LLongArray dest) {
+            this.dest = dest;
+        }
+
+        public void append(int code) {
+            n = (n << 1) | (code >>> 2);
+            if (offset < 32)
+                h = (h << 2) | (code & 0x03);
+            else
+                l = (l << 2) | (code & 0x03);
+
+            if (++offset == 64)
+                flush();
+        }
+
+        public void flush() {
+            if (offset == 0)
+                return;
+            // left-align the remaining bases
+            n <<= 64 - offset;
+            if (offset <= 32) {
+                h <<= (32 - offset) * 2;
+                l = 0L;
+            }
+            else
+                l <<= (64 - offset) * 2;
+
+            dest.set(pos++, n);
+            dest.set(pos++, h);
+            dest.set(pos++, l);
+            offset = 0;
+            n = h = l = 0L;
+        }
+    }
+
+    /**
+     * Create a copy of this sequence in which N is replaced with A
+     * 
+     * @return
+     */
     public ACGTSequence replaceN_withA() {
         ACGTSequence newSeq = new ACGTSequence(this);
-        for (int i = 0; i < this.length(); ++i) {
-            if (this.getACGT(i) == ACGT.N) {
-                newSeq.set(i, ACGT.A);
-            }
+        newSeq.hash = 0;
+        for (long b = 0; b + 2 < seq.size(); b += 3) {
+            long nFlag = seq.get(b);
+            if (nFlag == 0L)
+                continue;
+            newSeq.seq.set(b, 0L);
+            newSeq.seq.setAND(b + 1, ~(interleave32With0(nFlag >>> 32) * 3L));
+            newSeq.seq.setAND(b + 2, ~(interleave32With0(nFlag) * 3L));
         }
         return newSeq;
     }
@@ -115,6 +211,15 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         return count;
     }
 
+    private static long countNonWhiteSpaces(byte[] s, int offset, int len) {
+        int count = 0;
+        for (int i = offset; i < offset + len; ++i) {
+            if (s[i] != ' ')
+                count++;
+        }
+        return count;
+    }
+
     /**
      * Create a sequence that can hold the given number of bases
      * 
@@ -126,35 +231,45 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         ensureArrayCapacity(numBases);
     }
 
-    private static int minArraySize(long numBases) {
-        long bitSize = numBases * 3L;
-        long blockBitSize = LONG_BYTE_SIZE * 3L * 8L;
-        long arraySize = ((bitSize + blockBitSize - 1L) / blockBitSize) * 3L;
-        if (arraySize > Integer.MAX_VALUE) {
+    private static long minArraySize(long numBases) {
+        if (numBases < 0 || numBases > MAX_SIZE) {
             throw new IllegalArgumentException(String.format("Cannot create ACGTSequece more than %,d size: %,d",
                     MAX_SIZE, numBases));
         }
-        return (int) arraySize;
+        long bitSize = numBases * 3L;
+        long blockBitSize = LONG_BYTE_SIZE * 3L * 8L;
+        return ((bitSize + blockBitSize - 1L) / blockBitSize) * 3L;
     }
 
     private void ensureArrayCapacity(long newCapacity) {
-        if (seq != null && newCapacity < (seq.length * 64L / 3L)) {
+        if (seq != null && newCapacity < (seq.size() * 64L / 3L)) {
             return;
         }
         long arraySize = minArraySize(newCapacity);
 
         if (seq == null) {
-            seq = new long[(int) arraySize];
+            seq = new LLongArray(arraySize);
         }
         else {
-            seq = Arrays.copyOf(seq, (int) arraySize);
+            seq = seq.copyOf(arraySize);
         }
-        this.capacity = (seq.length / 3L) * 64L;
+        this.capacity = (seq.size() / 3L) * 64L;
     }
 
-    private ACGTSequence(long[] rawSeq, long numBases) {
+    private ACGTSequence(LLongArray rawSeq, long numBases) {
         this.seq = rawSeq;
         this.numBases = numBases;
+        this.capacity = (rawSeq.size() / 3L) * 64L;
+    }
+
+    /**
+     * Raw 3-bit encoded array. Used for converting this sequence into another
+     * encoding, e.g., {@link CompactACGTSequence}
+     * 
+     * @return
+     */
+    LLongArray rawArray() {
+        return seq;
     }
 
     public ACGT getACGT(long index) {
@@ -163,12 +278,12 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
 
     @Override
     public long lookup(long index) {
-        int pos = (int) (index >> 6);
+        long pos = (index >> 6) * 3L;
         int offset = (int) (index & 0x03FL);
         int shift = 62 - ((int) (index & 0x1FL) << 1);
 
-        long nFlag = seq[pos * 3] & (1L << (63 - offset));
-        int code = (int) (seq[pos * 3 + (offset >> 5) + 1] >>> shift) & 0x03;
+        long nFlag = seq.get(pos) & (1L << (63 - offset));
+        int code = (int) (seq.get(pos + (offset >> 5) + 1) >>> shift) & 0x03;
         return nFlag == 0 ? code : 4;
     }
 
@@ -180,15 +295,15 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
     public void set(long index, long val) {
         // |N0 ... N63|B0 B1 ....  B31|B32 B33 ... B63|
         hash = 0; // reset the hash
-        int pos = (int) (index >> 6);
+        long pos = (index >> 6) * 3L;
         int offset = (int) (index & 0x3FL);
         int shift = (offset & 0x1F) << 1;
 
-        seq[pos * 3] &= ~(1L << (63 - offset));
-        seq[pos * 3] |= ((val >>> 2) & 0x01L) << (63 - offset);
-        int bPos = pos * 3 + (offset >> 5) + 1;
-        seq[bPos] &= ~(0xC000000000000000L >>> shift);
-        seq[bPos] |= (val & 0x03) << (62 - shift);
+        long nFlag = seq.get(pos) & ~(1L << (63 - offset));
+        seq.set(pos, nFlag | (((val >>> 2) & 0x01L) << (63 - offset)));
+        long bPos = pos + (offset >> 5) + 1;
+        long b = seq.get(bPos) & ~(0xC000000000000000L >>> shift);
+        seq.set(bPos, b | ((val & 0x03) << (62 - shift)));
     }
 
     public void append(ACGT base) {
@@ -214,17 +329,17 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
     public int hashCode() {
         if (hash != 0)
             return hash;
-        int numFilledBlocks = (int) (numBases / 64L * 3L);
+        long numFilledBlocks = numBases / 64L * 3L;
         long h = numBases * 31L;
-        int pos = 0;
+        long pos = 0;
         for (; pos < numFilledBlocks; ++pos) {
-            h += seq[pos] * 31L;
+            h += seq.get(pos) * 31L;
         }
         int offset = (int) (numBases % 64L);
         if (offset > 0) {
-            h += (seq[pos] & (~0L << 64 - offset)) * 31L;
-            h += (seq[pos + 1] & (offset < 32 ? ~0L << (32 - offset) * 2 : ~0L)) * 31L;
-            h += (seq[pos + 2] & (offset < 32 ? 0L : ~0L << (64 - offset) * 2)) * 31L;
+            h += (seq.get(pos) & (~0L << 64 - offset)) * 31L;
+            h += (seq.get(pos + 1) & (offset < 32 ? ~0L << (32 - offset) * 2 : ~0L)) * 31L;
+            h += (seq.get(pos + 2) & (offset < 32 ? 0L : ~0L << (64 - offset) * 2)) * 31L;
         }
         hash = (int) h;
         return hash;
@@ -239,10 +354,10 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         if (this.numBases != other.numBases)
             return false;
 
-        int numFilledBlocks = (int) (numBases / 64L * 3L);
-        int pos = 0;
+        long numFilledBlocks = numBases / 64L * 3L;
+        long pos = 0;
         for (; pos < numFilledBlocks; ++pos) {
-            if (this.seq[pos] != other.seq[pos])
+            if (this.seq.get(pos) != other.seq.get(pos))
                 return false;
         }
         int offset = (int) (numBases % 64L);
@@ -252,7 +367,7 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
             mask[1] = offset < 32 ? ~0L << (32 - offset) * 2 : ~0L;
             mask[2] = offset <= 32 ? 0L : ~0L << (64 - offset) * 2;
             for (int i = 0; i < mask.length; ++i) {
-                if ((seq[pos + i] & mask[i]) != (other.seq[pos + i] & mask[i]))
+                if ((seq.get(pos + i) & mask[i]) != (other.seq.get(pos + i) & mask[i]))
                     return false;
             }
         }
@@ -271,21 +386,19 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         if (start > end)
             throw new IllegalArgumentException(String.format("invalid range [%d, %d)", start, end));
         final long len = end - start;
-        int minArraySize = minArraySize(len);
         ACGTSequence ss = new ACGTSequence(len);
-        long[] dest = ss.seq;
-        Arrays.fill(dest, 0L);
+        LLongArray dest = ss.seq;
 
         for (long i = 0; i < len;) {
-            int sPos = (int) ((start + i) >> 6);
+            long sPos = ((start + i) >> 6) * 3L;
             int sOffset = (int) ((start + i) & 0x3FL);
-            int dPos = (int) (i >> 6);
+            long dPos = (i >> 6) * 3L;
             int dOffset = (int) (i & 0x3FL);
 
             int copyLen = 0;
-            long n = seq[sPos * 3];
-            long h = seq[sPos * 3 + 1];
-            long l = seq[sPos * 3 + 2];
+            long n = seq.get(sPos);
+            long h = seq.get(sPos + 1);
+            long l = seq.get(sPos + 2);
             if (sOffset == dOffset) {
                 copyLen = 64;
             }
@@ -321,9 +434,9 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
                     l = 0L;
                 }
             }
-            dest[dPos * 3] |= n;
-            dest[dPos * 3 + 1] |= h;
-            dest[dPos * 3 + 2] |= l;
+            dest.setOR(dPos, n);
+            dest.setOR(dPos + 1, h);
+            dest.setOR(dPos + 2, l);
 
             i += copyLen;
         }
@@ -336,6 +449,11 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         return numBases;
     }
 
+    @Override
+    public long byteSize() {
+        return seq.size() * LONG_BYTE_SIZE;
+    }
+
     /**
      * Create a reverse string of the this sequence. The sentinel is appended as
      * the last character of the resulting sequence.
@@ -345,12 +463,67 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
      */
     public ACGTSequence reverse() {
         ACGTSequence rev = new ACGTSequence(this.numBases);
-        for (long i = 0; i < numBases; ++i) {
-            rev.set(i, this.lookup(numBases - i - 1));
+        final long numBlocks = rev.seq.size() / 3;
+        if (numBlocks == 0)
+            return rev;
+
+        // Reverse the 64-base blocks, then shift out the padding, which comes at the head
+        for (long b = 0; b < numBlocks; ++b) {
+            long d = b * 3;
+            long s = (numBlocks - b - 1) * 3;
+            rev.seq.set(d, Long.reverse(seq.get(s)));
+            rev.seq.set(d + 1, reverse2bit(seq.get(s + 2)));
+            rev.seq.set(d + 2, reverse2bit(seq.get(s + 1)));
         }
+        int pad = (int) (numBlocks * 64L - numBases);
+        if (pad > 0)
+            shiftLeft(rev.seq, numBlocks, pad);
         return rev;
     }
 
+    /**
+     * Reverse the order of the 2-bit codes in the input
+     * 
+     * @param v
+     * @return
+     */
+    static long reverse2bit(long v) {
+        v = Long.reverse(v);
+        return ((v >>> 1) & 0x5555555555555555L) | ((v & 0x5555555555555555L) << 1);
+    }
+
+    private static long codeWordIndex(long w) {
+        return (w >>> 1) * 3 + 1 + (w & 0x01);
+    }
+
+    /**
+     * Shift the bases in the block array to the left (towards the head)
+     * 
+     * @param a
+     * @param numBlocks
+     * @param shift
+     *            0 < shift < 64
+     */
+    private static void shiftLeft(LLongArray a, long numBlocks, int shift) {
+        // N flags
+        for (long b = 0; b < numBlocks; ++b) {
+            long next = b + 1 < numBlocks ? a.get((b + 1) * 3) : 0L;
+            a.set(b * 3, (a.get(b * 3) << shift) | (next >>> (64 - shift)));
+        }
+        // 2-bit codes. Each word holds 32 bases
+        final long numWords = numBlocks * 2;
+        final int wShift = shift >>> 5;
+        final int bShift = (shift & 0x1F) << 1;
+        for (long w = 0; w < numWords; ++w) {
+            long x = w + wShift < numWords ? a.get(codeWordIndex(w + wShift)) : 0L;
+            if (bShift != 0) {
+                long y = w + wShift + 1 < numWords ? a.get(codeWordIndex(w + wShift + 1)) : 0L;
+                x = (x << bShift) | (y >>> (64 - bShift));
+            }
+            a.set(codeWordIndex(w), x);
+        }
+    }
+
     /**
      * Create a complementary sequence (not reversed)
      * 
@@ -359,21 +532,21 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
     public ACGTSequence complement() {
         ACGTSequence c = new ACGTSequence(this.numBases);
 
-        int numBlocks = seq.length / 3;
-        for (int i = 0; i < numBlocks; ++i) {
-            c.seq[i * 3] = this.seq[i * 3];
-            c.seq[i * 3 + 1] = ~(this.seq[i * 3 + 1]);
-            c.seq[i * 3 + 2] = ~(this.seq[i * 3 + 2]);
+        long numBlocks = c.seq.size() / 3;
+        for (long i = 0; i < numBlocks; ++i) {
+            c.seq.set(i * 3, this.seq.get(i * 3));
+            c.seq.set(i * 3 + 1, ~(this.seq.get(i * 3 + 1)));
+            c.seq.set(i * 3 + 2, ~(this.seq.get(i * 3 + 2)));
         }
         return c;
     }
 
     public ACGTSequence reverseComplement() {
         ACGTSequence rc = reverse();
-        int numBlocks = seq.length / 3;
-        for (int i = 0; i < numBlocks; ++i) {
-            rc.seq[i * 3 + 1] = ~(rc.seq[i * 3 + 1]);
-            rc.seq[i * 3 + 2] = ~(rc.seq[i * 3 + 2]);
+        long numBlocks = rc.seq.size() / 3;
+        for (long i = 0; i < numBlocks; ++i) {
+            rc.seq.set(i * 3 + 1, ~(rc.seq.get(i * 3 + 1)));
+            rc.seq.set(i * 3 + 2, ~(rc.seq.get(i * 3 + 2)));
         }
         return rc;
     }
@@ -392,21 +565,92 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         // The num bases must be always 2
 
         long numBases = in.readLong();
-        int longArraySize = minArraySize(numBases);
-        long[] seq = new long[longArraySize];
+        long longArraySize = minArraySize(numBases);
+        LLongArray seq = new LLongArray(longArraySize);
         SnappyInputStream sin = new SnappyInputStream(in);
-        int readBytes = sin.read(seq);
+        long[] chunk = new long[(int) Math.min(longArraySize, IO_CHUNK_SIZE)];
+        for (long i = 0; i < longArraySize;) {
+            int len = (int) Math.min(chunk.length, longArraySize - i);
+            int readBytes = sin.read(chunk, 0, len);
+            if (readBytes < len * LONG_BYTE_SIZE)
+                throw new EOFException(String.format("sequence data is truncated at %,d bases", i / 3 * 64));
+            for (int k = 0; k < len; ++k) {
+                seq.set(i++, chunk[k]);
+            }
+        }
         return new ACGTSequence(seq, numBases);
     }
 
     public void saveTo(DataOutputStream out) throws IOException {
         out.writeLong(this.numBases);
         SnappyOutputStream sout = new SnappyOutputStream(out);
-        int longArraySize = minArraySize(this.numBases);
-        sout.write(seq, 0, longArraySize);
+        long longArraySize = minArraySize(this.numBases);
+        long[] chunk = new long[(int) Math.min(longArraySize, IO_CHUNK_SIZE)];
+        for (long i = 0; i < longArraySize;) {
+            int len = (int) Math.min(chunk.length, longArraySize - i);
+            for (int k = 0; k < len; ++k) {
+                chunk[k] = seq.get(i++);
+            }
+            sout.write(chunk, 0, len);
+        }
         sout.flush();
     }
 
+    /**
+     * Save this sequence without compression, so that the file can be
+     * memory-mapped with {@link #map(File)}. The file consists of the number
+     * of bases (8 bytes) followed by the 3-word blocks in the native byte
+     * order, and thus can be mapped only on the machines of the same byte
+     * order.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void saveRawTo(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.setLength(0);
+            f.writeLong(this.numBases);
+        }
+        finally {
+            f.close();
+        }
+        long longArraySize = minArraySize(this.numBases);
+        LLongArray dest = new LLongArray(longArraySize, LBuffer.map(file, FileChannel.MapMode.READ_WRITE,
+                LONG_BYTE_SIZE, longArraySize * LONG_BYTE_SIZE));
+        for (long i = 0; i < longArraySize; ++i) {
+            dest.set(i, seq.get(i));
+        }
+        dest.flush();
+    }
+
+    /**
+     * Map the sequence file saved with {@link #saveRawTo(File)}. The blocks
+     * are not read into memory, but are paged in from the file (or the page
+     * cache shared with the other processes) on access. The returned sequence
+     * is read-only.
+     * 
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ACGTSequence map(File file) throws IOException {
+        long numBases;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            numBases = in.readLong();
+        }
+        finally {
+            in.close();
+        }
+        long longArraySize = minArraySize(numBases);
+        if (file.length() < LONG_BYTE_SIZE + longArraySize * LONG_BYTE_SIZE)
+            throw new EOFException(String.format("%s is too short to hold %,d bases", file, numBases));
+        LBuffer buffer = LBuffer.map(file, FileChannel.MapMode.READ_ONLY, LONG_BYTE_SIZE, longArraySize
+                * LONG_BYTE_SIZE);
+        return new ACGTSequence(new LLongArray(longArraySize, buffer), numBases);
+    }
+
     public void saveTo(File file) throws IOException {
         DataOutputStream d = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
         try {
@@ -458,9 +702,9 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
 
         if (base == ACGT.N) {
             // Count N
-            int sPos = (int) (start >>> 6);
+            long sPos = start >>> 6;
             int sOffset = (int) (start & 0x3FL);
-            int ePos = (int) ((end + 64L - 1L) >>> 6);
+            long ePos = (end + 64L - 1L) >>> 6;
             for (; sPos < ePos; ++sPos) {
                 long mask = ~0L;
                 if (sOffset != 0) {
@@ -472,14 +716,14 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
                     long rMask = (eOffset == 0) ? ~0L : ~((1L << (64 - eOffset)) - 1);
                     mask &= rMask;
                 }
-                count += Long.bitCount(seq[sPos * 3] & mask);
+                count += Long.bitCount(seq.get(sPos * 3) & mask);
             }
         }
         else {
             // Count A, C, G, T
-            int sPos = (int) (start >>> 5);
+            long sPos = start >>> 5;
             int sOffset = (int) (start & 0x1FL);
-            int ePos = (int) ((end + 32L - 1L) >>> 5);
+            long ePos = (end + 32L - 1L) >>> 5;
 
             for (; sPos < ePos; ++sPos) {
 
@@ -488,10 +732,10 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
                     mask >>>= sOffset * 2;
                     sOffset = 0;
                 }
-                int bIndex = sPos / 2 * 3;
-                int block = sPos % 2;
-                long v = seq[bIndex + 1 + block];
-                long nFlag = interleave32With0(seq[bIndex] >>> (32 * (1 - block)));
+                long bIndex = sPos / 2 * 3;
+                int block = (int) (sPos % 2);
+                long v = seq.get(bIndex + 1 + block);
+                long nFlag = interleave32With0(seq.get(bIndex) >>> (32 * (1 - block)));
                 if (sPos == ePos - 1) {
                     int eOffset = (int) (end & 0x1FL);
                     long rMask = (eOffset == 0) ? ~0L : ~((1L << (32 - eOffset) * 2) - 1);
@@ -515,9 +759,9 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
         long count[] = new long[5];
 
         // Count A, C, G, T
-        int sPos = (int) (start >>> 5);
+        long sPos = start >>> 5;
         int sOffset = (int) (start & 0x1FL);
-        int ePos = (int) ((end + 32L - 1L) >>> 5);
+        long ePos = (end + 32L - 1L) >>> 5;
 
         for (; sPos < ePos; ++sPos) {
 
@@ -526,10 +770,10 @@ public class ACGTSequence implements LSeq, GenomeSequence, CharSequence
                 mask >>>= sOffset * 2;
                 sOffset = 0;
             }
-            int bIndex = sPos / 2 * 3;
-            int block = sPos % 2;
-            long v = seq[bIndex + 1 + block];
-            long nFlag = interleave32With0(seq[bIndex] >>> (32 * (1 - block)));
+            long bIndex = sPos / 2 * 3;
+            int block = (int) (sPos % 2);
+            long v = seq.get(bIndex + 1 + block);
+            long nFlag = interleave32With0(seq.get(bIndex) >>> (32 * (1 - block)));
             if (sPos == ePos - 1) {
                 int eOffset = (int) (end & 0x1FL);
                 long rMask = (eOffset == 0) ? ~0L : ~((1L << (32 - eOffset) * 2) - 1);
@@ -0,0 +1,131 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ACGTSequenceView.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+/**
+ * Read-only view of an {@link ACGTSequence} in its reverse, complement and/or
+ * N-masked form. Bases are decoded on access from the packed words of the
+ * original sequence, so creating a view does not copy the sequence.
+ * 
+ * @author leo
+ * 
+ */
+public class ACGTSequenceView implements LSeq
+{
+    private final ACGTSequence seq;
+    private final boolean      reverse;
+    private final boolean      complement;
+    private final long         nCode;    // code reported for N 
+
+    public ACGTSequenceView(ACGTSequence seq) {
+        this(seq, false, false, ACGT.N.code);
+    }
+
+    private ACGTSequenceView(ACGTSequence seq, boolean reverse, boolean complement, long nCode) {
+        this.seq = seq;
+        this.reverse = reverse;
+        this.complement = complement;
+        this.nCode = nCode;
+    }
+
+    /**
+     * @return reverse of this view (not complemented)
+     */
+    public ACGTSequenceView reverse() {
+        return new ACGTSequenceView(seq, !reverse, complement, nCode);
+    }
+
+    /**
+     * @return complement of this view (not reversed)
+     */
+    public ACGTSequenceView complement() {
+        return new ACGTSequenceView(seq, reverse, !complement, nCode == ACGT.N.code ? nCode : (~nCode & 0x03));
+    }
+
+    public ACGTSequenceView reverseComplement() {
+        return reverse().complement();
+    }
+
+    /**
+     * @return view in which N is replaced with A
+     */
+    public ACGTSequenceView replaceN_withA() {
+        return new ACGTSequenceView(seq, reverse, complement, ACGT.A.code);
+    }
+
+    @Override
+    public long lookup(long index) {
+        long code = seq.lookup(reverse ? seq.textSize() - index - 1 : index);
+        if (code == ACGT.N.code)
+            return nCode;
+        return complement ? (~code & 0x03) : code;
+    }
+
+    public ACGT getACGT(long index) {
+        return ACGT.decode((byte) lookup(index));
+    }
+
+    @Override
+    public long textSize() {
+        return seq.textSize();
+    }
+
+    /**
+     * Create a copy of the range [start, end) of this view
+     * 
+     * @param start
+     * @param end
+     * @return
+     */
+    public ACGTSequence toACGTSequence(long start, long end) {
+        if (start > end)
+            throw new IllegalArgumentException(String.format("invalid range [%d, %d)", start, end));
+        ACGTSequence s = new ACGTSequence(end - start);
+        for (long i = start; i < end; ++i) {
+            s.set(i - start, lookup(i));
+        }
+        return s;
+    }
+
+    @Override
+    public void set(long index, long value) {
+        throw new UnsupportedOperationException("set");
+    }
+
+    @Override
+    public long increment(long index, long value) {
+        throw new UnsupportedOperationException("increment");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (long i = 0; i < textSize(); ++i) {
+            b.append(getACGT(i).toChar());
+        }
+        return b.toString();
+    }
+
+}
@@ -24,10 +24,19 @@
 //--------------------------------------
 package org.utgenome.weaver.align;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 
 import org.utgenome.UTGBException;
 import org.utgenome.weaver.GenomeWeaverCommand;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.FileSink;
+import org.utgenome.weaver.align.metrics.LogSink;
+import org.utgenome.weaver.align.metrics.MeteredAligner;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.AlignmentRecord;
 import org.utgenome.weaver.align.record.Read;
 import org.utgenome.weaver.align.record.ReadReader;
@@ -36,6 +45,8 @@ import org.utgenome.weaver.align.strategy.BWAState;
 import org.utgenome.weaver.align.strategy.BidirectionalBWT;
 import org.utgenome.weaver.align.strategy.BidirectionalSuffixFilter;
 import org.utgenome.weaver.align.strategy.SuffixFilter;
+import org.utgenome.weaver.parallel.AlignmentCoordinator;
+import org.utgenome.weaver.parallel.AlignmentJobClient;
 import org.utgenome.weaver.parallel.Reporter;
 import org.xerial.lens.SilkLens;
 import org.xerial.util.ObjectHandler;
@@ -78,29 +89,118 @@ public class Align extends GenomeWeaverCommand
         if (config.query == null && config.readFiles == null)
             throw new UTGBException("no query is given");
 
-        ReadReader reader = null;
+        if (config.daemon != null) {
+            // the daemon holds the index, so nothing needs to be loaded here
+            AlignmentJobClient.submit(config);
+            return;
+        }
+
+        ReadReader reader = openReader(config);
+        SAMOutput reporter = new SAMOutput(SequenceBoundary.load(config.refSeq), openOutput(config));
+
+        startMetricsReport(config.metricsInterval, config.metricsFile);
+        if (config.traceFile != null)
+            StageTimer.setTracing(true);
+        try {
+            if (config.workers != null) {
+                // distribute the reads to the alignment servers, which hold the index
+                try {
+                    reporter.init();
+                    new AlignmentCoordinator(config, reporter).run(reader);
+                }
+                finally {
+                    reporter.finish();
+                }
+                return;
+            }
+
+            CommonDataSet common = CommonDataSet.prepare(config, reporter);
+            try {
+                reporter.init();
+                query(common, reader);
+            }
+            finally {
+                reporter.finish();
+            }
+        }
+        finally {
+            AlignmentMetrics.getInstance().stopReporting();
+            reportStages(config.traceFile);
+        }
+    }
+
+    /**
+     * Log the estimated time of each alignment stage, and write the timeline
+     * of the sampled reads
+     * 
+     * @param traceFile
+     *            output file of the trace events. null for no output
+     * @throws IOException
+     */
+    public static void reportStages(String traceFile) throws IOException {
+        for (StageTimer.StageSummary s : StageTimer.summary())
+            _logger.info(s);
+        if (traceFile != null) {
+            StageTimer.writeTrace(traceFile);
+            _logger.info("stage timeline is written to %s", traceFile);
+        }
+    }
+
+    /**
+     * Expose the alignment metrics through JMX, and start reporting them
+     * periodically
+     * 
+     * @param intervalSec
+     *            report interval. No periodic report if intervalSec <= 0
+     * @param metricsFile
+     *            file to which the metrics are appended. null for the log
+     *            output
+     * @throws IOException
+     */
+    public static void startMetricsReport(int intervalSec, String metricsFile) throws IOException {
+        AlignmentMetrics.registerMBean();
+        if (intervalSec <= 0 && metricsFile == null)
+            return;
+
+        AlignmentMetrics metrics = AlignmentMetrics.getInstance();
+        metrics.addSink(metricsFile != null ? new FileSink(metricsFile) : new LogSink());
+        if (intervalSec > 0)
+            metrics.startReporting(intervalSec);
+    }
+
+    /**
+     * Open the reads given by the -q option or read files
+     * 
+     * @param config
+     * @return
+     * @throws Exception
+     */
+    public static ReadReader openReader(AlignmentConfig config) throws Exception {
         if (config.query != null) {
             _logger.info("query sequence: " + config.query);
-            reader = ReadReaderFactory.singleQueryReader(config.query);
+            return ReadReaderFactory.singleQueryReader(config.query);
         }
         else if (config.readFiles != null && !config.readFiles.isEmpty()) {
-            reader = ReadReaderFactory.createReader(config.readFiles);
+            return ReadReaderFactory.createReader(config.readFiles);
         }
         else {
             throw new UTGBException("no query is given");
         }
+    }
 
-        OutputStream out = config.silent ? new NullOutputStream() : new StandardOutputStream();
-        SAMOutput reporter = new SAMOutput(SequenceBoundary.load(config.refSeq), out);
-        CommonDataSet common = CommonDataSet.prepare(config, reporter);
-
-        try {
-            reporter.init();
-            query(common, reader);
-        }
-        finally {
-            reporter.finish();
-        }
+    /**
+     * Open the output stream of SAM records
+     * 
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static OutputStream openOutput(AlignmentConfig config) throws IOException {
+        if (config.silent)
+            return new NullOutputStream();
+        if (config.outputFile != null)
+            return new BufferedOutputStream(new FileOutputStream(config.outputFile));
+        return new StandardOutputStream();
     }
 
     public static void querySingle(FMIndexOnGenome fmIndex, ACGTSequence reference, String query, Reporter out)
@@ -110,33 +210,50 @@ public class Align extends GenomeWeaverCommand
     }
 
     public static void query(CommonDataSet common, ReadReader readReader) throws Exception {
+        Aligner aligner = newAligner(common, common.config, common.reporter);
+        readReader.parse(new PassReadToAligner(common, aligner));
+    }
 
-        _logger.debug("Alignment mode: %s", common.config.strategy.description);
+    /**
+     * Create an aligner of the strategy specified in the config
+     * 
+     * @param common
+     *            index and reference sequence
+     * @param config
+     * @param reporter
+     * @return
+     * @throws UTGBException
+     */
+    public static Aligner newAligner(CommonDataSet common, AlignmentConfig config, Reporter reporter)
+            throws UTGBException {
+
+        _logger.debug("Alignment mode: %s", config.strategy.description);
         Aligner aligner = null;
-        switch (common.config.strategy) {
+        // BD and BWA report the alignments to the reporter given here, so count them at this reporter
+        MeteredAligner.HitCounter hits = new MeteredAligner.HitCounter();
+        switch (config.strategy) {
         case BSF:
-            aligner = new BidirectionalSuffixFilter(common.fmIndex, common.reference, common.config);
+            aligner = new BidirectionalSuffixFilter(common.fmIndex, common.reference, config);
             break;
         case SF:
-            aligner = new SuffixFilter(common.fmIndex, common.reference, common.config);
+            aligner = new SuffixFilter(common.fmIndex, common.reference, config);
             break;
         case BD:
-            aligner = new BidirectionalBWT(common.fmIndex, common.reporter, common.config);
+            aligner = new BidirectionalBWT(common.fmIndex, hits.wrap(reporter), config);
             break;
         case BWA: {
-            BidirectionalBWT al = new BidirectionalBWT(common.fmIndex, common.reporter, common.config);
+            BidirectionalBWT al = new BidirectionalBWT(common.fmIndex, hits.wrap(reporter), config);
             al.disableBidirectionalSearch();
             aligner = al;
             break;
         }
         default:
-            throw new UTGBException(String.format("%s mode is not supported", common.config.strategy));
+            throw new UTGBException(String.format("%s mode is not supported", config.strategy));
             //        case BD:
             //            aligner = new BWAAligner(fmIndex, config, reporter);
             //            break;
         }
-
-        readReader.parse(new PassReadToAligner(common, aligner));
+        return new MeteredAligner(aligner, config.strategy, hits);
     }
 
     public static class CommonDataSet
@@ -160,13 +277,45 @@ public class Align extends GenomeWeaverCommand
             BWTFiles forwardDB = new BWTFiles(config.refSeq, Strand.FORWARD);
             SequenceBoundary b = SequenceBoundary.loadSilk(forwardDB.pacIndex());
 
-            FMIndexOnGenome fmIndex = FMIndexOnGenome.load(config.refSeq);
+            FMIndexOnGenome fmIndex = FMIndexOnGenome.load(config.refSeq, config.indexType, config.indexPlacement);
 
             _logger.info("loading reference sequence %s", forwardDB.pac());
-            ACGTSequence reference = ACGTSequence.loadFrom(forwardDB.pac());
+            ACGTSequence reference = FMIndexOnGenome.loadSequence(forwardDB.pac(), forwardDB.pacRaw(),
+                    config.indexPlacement);
+
+            CommonDataSet common = new CommonDataSet(fmIndex, reference, config, out);
+            _logger.info("index memory of %s: %,d bytes", config.refSeq, common.getIndexMemory());
+            AlignmentMetrics.getInstance().setIndexMemorySize(config.refSeq, common.getIndexMemory());
+            return common;
+
+        }
 
-            return new CommonDataSet(fmIndex, reference, config, out);
+        /**
+         * Create a data set that shares the index and reference sequence of
+         * this data set, but uses the given config and reporter. This is used
+         * for running several alignment jobs against a resident index.
+         * 
+         * @param config
+         * @param reporter
+         * @return
+         */
+        public CommonDataSet withConfig(AlignmentConfig config, Reporter reporter) {
+            return new CommonDataSet(fmIndex, reference, config, reporter);
+        }
 
+        public SequenceBoundary getSequenceBoundary() {
+            return fmIndex.getSequenceBoundary();
+        }
+
+        /**
+         * Memory size (bytes) of the index and reference sequence, computed from
+         * the sizes of the loaded BWT strings, rank structures, sampled suffix
+         * arrays and the reference sequence
+         * 
+         * @return
+         */
+        public long getIndexMemory() {
+            return fmIndex.byteSize() + reference.byteSize();
         }
 
     }
@@ -184,14 +333,29 @@ public class Align extends GenomeWeaverCommand
             this.aligner = aligner;
         }
 
+        @Override
+        public void init() throws Exception {
+            StageTimer.beginRead();
+            StageTimer.enter(Stage.PARSE);
+        }
+
         @Override
         public void handle(Read input) throws Exception {
+            StageTimer.exit(Stage.PARSE);
             aligner.align(input, common.reporter);
             count++;
             double time = timer.getElapsedTime();
             if (count % 10000 == 0) {
                 _logger.info("%,d reads are processed in %.2f sec. %,.0f reads/sec.", count, time, count / time);
             }
+            // the reader parses the next read after this method returns
+            StageTimer.beginRead();
+            StageTimer.enter(Stage.PARSE);
+        }
+
+        @Override
+        public void finish() throws Exception {
+            StageTimer.exit(Stage.PARSE);
         }
     }
 
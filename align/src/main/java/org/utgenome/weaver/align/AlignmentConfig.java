@@ -37,6 +37,8 @@ import org.xerial.util.opt.Option;
  */
 public class AlignmentConfig extends AlignmentScoreConfig
 {
+    private static final long serialVersionUID = 1L;
+
     @Option(symbol = "r", description = "reference sequence")
     public String       refSeq;
 
@@ -49,6 +51,9 @@ public class AlignmentConfig extends AlignmentScoreConfig
     @Option(longName = "silent", description = "disable output")
     public boolean      silent = false;
 
+    @Option(symbol = "o", longName = "output", description = "output SAM file. default = standard output")
+    public String       outputFile;
+
     public static enum Strategy {
         SF("suffix filter"), BSF("bi-directional suffix filter"), BD("bi-directional search"), BWA("bwa");
         public final String description;
@@ -61,14 +66,41 @@ public class AlignmentConfig extends AlignmentScoreConfig
     @Option(symbol = "m", description = "alignment strategy. bsf(bi-directional suffix filter:default), sf(suffix filter), bd(bidirectinal search), bwa (best-hit first)")
     public Strategy strategy = Strategy.BSF;
 
+    @Option(longName = "index", description = "FM-index type. occ (3-bit BWT:default), compact (2-bit BWT with N-bitmap), wavelet (wavelet matrix)")
+    public FMIndexOnGenome.IndexType indexType = FMIndexOnGenome.IndexType.OCC;
+
+    @Option(longName = "index-placement", description = "memory placement of the BWT and reference sequences. offheap (off-heap memory of this process:default), mmap (memory-mapped uncompressed files, created next to the index on first use and shared with the other processes on the host). Use GENOME_WEAVER_NUMA=interleave to interleave either over the NUMA nodes")
+    public FMIndexOnGenome.IndexPlacement indexPlacement = FMIndexOnGenome.IndexPlacement.OFFHEAP;
+
     public static enum ReportType {
         BESTHIT, ALLHITS, TOPL
     }
 
     @Option(symbol = "R", description = "reporting method. besthit (default), allhits, topL (top-L hits)")
-    public ReportType reportType = ReportType.BESTHIT;
+    public ReportType reportType      = ReportType.BESTHIT;
 
     @Option(symbol = "L", description = "number of hits to report (default=5). Used only when -R topL option is set")
-    public int        topL       = 5;
+    public int        topL            = 5;
+
+    @Option(longName = "workers", description = "comma-separated list of alignment servers (host:port) to which reads are distributed")
+    public String     workers;
+
+    @Option(longName = "batch", description = "number of reads sent to an alignment server at a time. default=1000")
+    public int        batchSize       = 1000;
+
+    @Option(longName = "metrics", description = "report the alignment metrics at the given interval (sec.). default=0 (no report)")
+    public int        metricsInterval = 0;
+
+    @Option(longName = "metrics-file", description = "append the alignment metrics to the given file as JSON lines")
+    public String     metricsFile;
+
+    @Option(longName = "daemon", description = "submit the alignment job to an alignment daemon (host:port) that keeps the index in memory")
+    public String     daemon;
+
+    @Option(longName = "trace", description = "write the timeline of the alignment stages to the given file (Chrome trace format)")
+    public String     traceFile;
+
+    @Option(longName = "secret-file", description = "file containing the shared secret of the alignment servers (--workers or --daemon)")
+    public String     secretFile;
 
 }
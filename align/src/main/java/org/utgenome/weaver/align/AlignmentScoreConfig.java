@@ -24,6 +24,8 @@
 //--------------------------------------
 package org.utgenome.weaver.align;
 
+import java.io.Serializable;
+
 import org.xerial.util.opt.Option;
 
 /**
@@ -32,8 +34,10 @@ import org.xerial.util.opt.Option;
  * @author leo
  * 
  */
-public class AlignmentScoreConfig
+public class AlignmentScoreConfig implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     @Option(symbol = "k", description = "maximum edit distances. float (percentage of read length) or int(num mismatches). [0.1 (10%)] ")
     public float k = 0.1f;
 
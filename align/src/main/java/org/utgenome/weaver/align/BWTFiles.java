@@ -67,10 +67,28 @@ public class BWTFiles
         return new File(prefixWithStrand + ".3bit");
     }
 
+    /**
+     * Uncompressed reference sequence for memory-mapping
+     * 
+     * @return
+     */
+    public File pacRaw() {
+        return new File(prefixWithStrand + ".3bit.raw");
+    }
+
     public File bwt() {
         return new File(prefixWithStrand + ".bwt");
     }
 
+    /**
+     * Uncompressed BWT for memory-mapping
+     * 
+     * @return
+     */
+    public File bwtRaw() {
+        return new File(prefixWithStrand + ".bwt.raw");
+    }
+
     public File sparseSuffixArray() {
         return new File(prefixWithStrand + ".ssa");
     }
@@ -36,6 +36,7 @@ import org.utgenome.weaver.align.sais.UInt32Array;
 import org.xerial.util.StopWatch;
 import org.xerial.util.log.Logger;
 import org.xerial.util.opt.Argument;
+import org.xerial.util.opt.Option;
 
 /**
  * Performs burrows-wheeler transform
@@ -68,6 +69,9 @@ public class BWTransform extends GenomeWeaverCommand
     @Argument(index = 0)
     private String fastaFile;
 
+    @Option(longName = "wavelet", description = "also create the wavelet matrices of the BWT strings (for align --index wavelet)")
+    private boolean buildWavelet = false;
+
     @Override
     public void execute(String[] args) throws Exception {
 
@@ -85,6 +89,10 @@ public class BWTransform extends GenomeWeaverCommand
         // Create a suffix array and BWT string of the forward/reverse ACGT sequence
         buildBWT(forwardDB);
         buildBWT(reverseDB);
+        if (buildWavelet) {
+            buildWaveletMatrix(forwardDB);
+            buildWaveletMatrix(reverseDB);
+        }
 
         _logger.info(String.format("finised %.2f sec.", timer.getElapsedTime()));
     }
@@ -94,20 +102,19 @@ public class BWTransform extends GenomeWeaverCommand
         // Create BWT string
         pac2bwt(db);
 
-        //        // Create a Wavelet array 
-        //        {
-        //            StopWatch timer = new StopWatch();
-        //            _logger.info("Creating wavelet array " + db.bwtWavelet());
-        //            IUPACSequence bwt = IUPACSequence.loadFrom(db.bwt());
-        //            WaveletArray wv = new WaveletArray(bwt, 16);
-        //            wv.saveTo(db.bwtWavelet());
-        //            _logger.info(String.format("done. %.2f sec.", timer.getElapsedTime()));
-        //        }
-        //
-        //        //BWT2SparseSA.bwt2sparseSA(db);
+        //BWT2SparseSA.bwt2sparseSA(db);
 
     }
 
+    public static void buildWaveletMatrix(BWTFiles db) throws IOException {
+        StopWatch timer = new StopWatch();
+        _logger.info("Creating wavelet matrix " + db.bwtWavelet());
+        ACGTSequence bwt = ACGTSequence.loadFrom(db.bwt());
+        WaveletMatrix wm = new WaveletMatrix(bwt);
+        wm.saveTo(db.bwtWavelet());
+        _logger.info(String.format("done. %.2f sec.", timer.getElapsedTime()));
+    }
+
     public static void pac2bwt(BWTFiles db) throws UTGBException, IOException {
 
         StopWatch timer = new StopWatch();
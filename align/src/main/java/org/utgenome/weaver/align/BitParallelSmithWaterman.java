@@ -28,6 +28,8 @@ import java.util.Arrays;
 
 import org.utgenome.weaver.align.SmithWatermanAligner.Alignment;
 import org.utgenome.weaver.align.SmithWatermanAligner.Trace;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.SWResult;
 import org.xerial.util.log.Logger;
 
@@ -139,11 +141,17 @@ public class BitParallelSmithWaterman
     }
 
     public static Alignment alignBlockDetailed(ACGTSequence ref, ACGTSequence query, int k) {
-        AlignBlocksDetailed a = new AlignBlocksDetailed((int) query.textSize(), k);
-        SWResult bestHit = a.align(ref, query);
-        if (bestHit == null)
-            return null;
-        return a.traceback(ref, query, bestHit.tailPos);
+        StageTimer.enter(Stage.SW_VERIFICATION);
+        try {
+            AlignBlocksDetailed a = new AlignBlocksDetailed((int) query.textSize(), k);
+            SWResult bestHit = a.align(ref, query);
+            if (bestHit == null)
+                return null;
+            return a.traceback(ref, query, bestHit.tailPos);
+        }
+        finally {
+            StageTimer.exit(Stage.SW_VERIFICATION);
+        }
     }
 
     public static void alignBlockDetailedNoTraceBack(ACGTSequence ref, ACGTSequence query, int k) {
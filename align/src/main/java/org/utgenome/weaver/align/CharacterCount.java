@@ -71,6 +71,15 @@ public class CharacterCount
         }
     }
 
+    public CharacterCount(WaveletMatrix W) {
+        W.rankAll(W.textSize(), count);
+        long sum = 0;
+        for (int i = 0; i < K; ++i) {
+            C[i] = sum;
+            sum += count[i];
+        }
+    }
+
     public long getCharacterCountSmallerThan(ACGT ch) {
         return C[ch.code];
     }
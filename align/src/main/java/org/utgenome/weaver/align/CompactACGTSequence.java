@@ -0,0 +1,251 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// CompactACGTSequence.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+/**
+ * ACGT sequence using 2-bit encoding. N is stored as A in the 2-bit array, and
+ * the positions of Ns are held in a separate sparse bitmap. Since Ns are rare in
+ * the BWT strings of genome sequences, this class uses 2/3 of the memory of
+ * {@link ACGTSequence}, and each occurrence count window covers more bases per
+ * cache line.
+ * 
+ * <pre>
+ *   (64-bit)       (64-bit)
+ * |B0 B1 ... B31|B32 B33 ... B63|
+ * </pre>
+ * 
+ * The N-bitmap consists of an {@link RSBitVector} that flags the 64-base
+ * blocks containing Ns, and N-flag words (N0 ... N63) only for the flagged
+ * blocks.
+ * 
+ * @author leo
+ * 
+ */
+public class CompactACGTSequence implements ACGTCounter
+{
+    private final long[]      seq;
+    private final long        numBases;
+
+    // N-bitmap
+    private final RSBitVector nBlock; // nBlock[b] = 1 if the b-th 64-base block contains N
+    private final long[]      nFlag; // N-flags of the flagged blocks. |N0 ... N63|
+    private final long[]      nRank; // the number of Ns before each flagged block. The last element holds the total count
+
+    private CompactACGTSequence(long[] seq, long numBases, RSBitVector nBlock, long[] nFlag, long[] nRank) {
+        this.seq = seq;
+        this.numBases = numBases;
+        this.nBlock = nBlock;
+        this.nFlag = nFlag;
+        this.nRank = nRank;
+    }
+
+    /**
+     * Convert the 3-bit encoded sequence into the 2-bit encoding
+     * 
+     * @param src
+     * @return
+     */
+    public static CompactACGTSequence encode(ACGTSequence src) {
+        final long numBases = src.textSize();
+        final LLongArray raw = src.rawArray();
+        final long numBlocks = (numBases + 63L) / 64L;
+        if (numBlocks * 2L > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("Cannot create CompactACGTSequence of size %,d", numBases));
+
+        long[] seq = new long[(int) numBlocks * 2];
+        RSBitVector nBlock = new RSBitVector(numBlocks);
+        int numFlaggedBlocks = 0;
+        for (int b = 0; b < numBlocks; ++b) {
+            long n = raw.get(b * 3L) & validBaseMask(numBases, b);
+            // Replace Ns with A (code 0)
+            long nh = ACGTSequence.interleave32With0(n >>> 32);
+            long nl = ACGTSequence.interleave32With0(n);
+            seq[b * 2] = raw.get(b * 3L + 1) & ~(nh | (nh << 1));
+            seq[b * 2 + 1] = raw.get(b * 3L + 2) & ~(nl | (nl << 1));
+            if (n != 0) {
+                nBlock.set(b);
+                numFlaggedBlocks++;
+            }
+        }
+        nBlock.refreshRankTable();
+
+        long[] nFlag = new long[numFlaggedBlocks];
+        long[] nRank = new long[numFlaggedBlocks + 1];
+        long count = 0;
+        for (int b = 0, j = 0; b < numBlocks; ++b) {
+            if (!nBlock.get(b))
+                continue;
+            nFlag[j] = raw.get(b * 3L) & validBaseMask(numBases, b);
+            nRank[j] = count;
+            count += Long.bitCount(nFlag[j]);
+            j++;
+        }
+        nRank[numFlaggedBlocks] = count;
+
+        return new CompactACGTSequence(seq, numBases, nBlock, nFlag, nRank);
+    }
+
+    private static long validBaseMask(long numBases, long block) {
+        long remaining = numBases - block * 64L;
+        return remaining >= 64L ? ~0L : ~(~0L >>> remaining);
+    }
+
+    @Override
+    public long textSize() {
+        return numBases;
+    }
+
+    @Override
+    public long byteSize() {
+        return (seq.length + nFlag.length + nRank.length) * 8L + nBlock.byteSize();
+    }
+
+    public ACGT getACGT(long index) {
+        return ACGT.decode((byte) lookup(index));
+    }
+
+    @Override
+    public long lookup(long index) {
+        int shift = 62 - ((int) (index & 0x1FL) << 1);
+        long code = (seq[(int) (index >>> 5)] >>> shift) & 0x03L;
+        if (code == 0 && isN(index))
+            return ACGT.N.code;
+        return code;
+    }
+
+    private boolean isN(long index) {
+        if (nFlag.length == 0)
+            return false;
+        long b = index >>> 6;
+        if (!nBlock.get(b))
+            return false;
+        int j = (int) nBlock.rank(true, b);
+        return (nFlag[j] & (1L << (63 - (index & 0x3FL)))) != 0;
+    }
+
+    /**
+     * Count the number of Ns in [0, index)
+     * 
+     * @param index
+     * @return
+     */
+    public long rankN(long index) {
+        if (nFlag.length == 0)
+            return 0;
+        long b = index >>> 6;
+        int j = (int) nBlock.rank(true, b);
+        long rank = nRank[j];
+        int offset = (int) (index & 0x3FL);
+        if (offset != 0 && nBlock.get(b))
+            rank += Long.bitCount(nFlag[j] & ~(~0L >>> offset));
+        return rank;
+    }
+
+    /**
+     * Bit mask for selecting the lower bit of each 2-bit code within [start,
+     * end) of the word at pos
+     */
+    private static long rangeMask(int pos, long start, long end) {
+        long mask = 0x5555555555555555L;
+        if (pos == (int) (start >>> 5))
+            mask &= ~0L >>> ((start & 0x1FL) << 1);
+        if (pos == (int) ((end - 1) >>> 5)) {
+            int eOffset = (int) (end & 0x1FL);
+            if (eOffset != 0)
+                mask &= ~(~0L >>> (eOffset << 1));
+        }
+        return mask;
+    }
+
+    @Override
+    public long fastCount(ACGT base, long start, long end) {
+        if (start >= end)
+            return 0;
+        long nCount = rankN(end) - rankN(start);
+        if (base == ACGT.N)
+            return nCount;
+
+        long count = 0;
+        int sPos = (int) (start >>> 5);
+        int ePos = (int) ((end + 31L) >>> 5);
+        for (int pos = sPos; pos < ePos; ++pos) {
+            long v = seq[pos];
+            long r = ((base.code & 0x02) == 0 ? ~v : v) >>> 1;
+            r &= ((base.code & 0x01) == 0 ? ~v : v);
+            count += Long.bitCount(r & rangeMask(pos, start, end));
+        }
+        // Ns are stored as A 
+        if (base == ACGT.A)
+            count -= nCount;
+        return count;
+    }
+
+    @Override
+    public long[] fastCountACGTN(long start, long end) {
+        long[] count = new long[5];
+        if (start >= end)
+            return count;
+
+        int sPos = (int) (start >>> 5);
+        int ePos = (int) ((end + 31L) >>> 5);
+        for (int pos = sPos; pos < ePos; ++pos) {
+            long v = seq[pos];
+            long h = v >>> 1;
+            long mask = rangeMask(pos, start, end);
+            long c = Long.bitCount(~h & v & mask);
+            long g = Long.bitCount(h & ~v & mask);
+            long t = Long.bitCount(h & v & mask);
+            count[ACGT.C.code] += c;
+            count[ACGT.G.code] += g;
+            count[ACGT.T.code] += t;
+            count[ACGT.A.code] += Long.bitCount(mask) - c - g - t;
+        }
+
+        long nCount = rankN(end) - rankN(start);
+        count[ACGT.A.code] -= nCount;
+        count[ACGT.N.code] = nCount;
+        return count;
+    }
+
+    @Override
+    public void set(long index, long value) {
+        throw new UnsupportedOperationException("set");
+    }
+
+    @Override
+    public long increment(long index, long value) {
+        throw new UnsupportedOperationException("increment");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (long i = 0; i < numBases; ++i) {
+            b.append(getACGT(i).toChar());
+        }
+        return b.toString();
+    }
+
+}
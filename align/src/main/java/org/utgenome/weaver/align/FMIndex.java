@@ -73,4 +73,13 @@ public interface FMIndex
      */
     public long count(ACGT ch, long start, long end);
 
+    /**
+     * Memory size of the BWT string and the rank structures (bytes). This is
+     * computed from the loaded data structures, so it does not depend on the
+     * heap usage at the time of the call.
+     * 
+     * @return
+     */
+    public long byteSize();
+
 }
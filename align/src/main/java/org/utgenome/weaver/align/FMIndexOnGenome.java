@@ -24,11 +24,14 @@
 //--------------------------------------
 package org.utgenome.weaver.align;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.utgenome.UTGBException;
 import org.utgenome.weaver.align.BWTransform.BWT;
 import org.utgenome.weaver.align.SequenceBoundary.PosOnGenome;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.strategy.SearchDirection;
 import org.xerial.util.StopWatch;
 import org.xerial.util.log.Logger;
@@ -57,7 +60,52 @@ public class FMIndexOnGenome
     private final SuffixInterval    wholeRange;
     private final SuffixInterval[]  initRange;
 
+    /**
+     * Representation of the BWT strings held in memory
+     * 
+     * @author leo
+     * 
+     */
+    public static enum IndexType {
+        OCC("3-bit BWT with occurrence count table"), COMPACT("2-bit BWT with N-bitmap and occurrence count table"), WAVELET(
+                "wavelet matrix of BWT");
+        public final String description;
+
+        private IndexType(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Memory placement of the BWT strings and the reference sequence. The JVM
+     * cannot bind memory to a NUMA node, so the placement over the nodes is
+     * given to the launcher (GENOME_WEAVER_NUMA=interleave runs the JVM under
+     * numactl --interleave=all, which also applies to the off-heap memory).
+     * 
+     * @author leo
+     * 
+     */
+    public static enum IndexPlacement {
+        OFFHEAP("off-heap memory of this process"), MMAP(
+                "memory-mapped files shared with the other processes through the page cache");
+        public final String description;
+
+        private IndexPlacement(String description) {
+            this.description = description;
+        }
+    }
+
     public static FMIndexOnGenome load(String fastaFilePrefix) throws UTGBException, IOException {
+        return load(fastaFilePrefix, IndexType.OCC);
+    }
+
+    public static FMIndexOnGenome load(String fastaFilePrefix, IndexType indexType) throws UTGBException,
+            IOException {
+        return load(fastaFilePrefix, indexType, IndexPlacement.OFFHEAP);
+    }
+
+    public static FMIndexOnGenome load(String fastaFilePrefix, IndexType indexType, IndexPlacement placement)
+            throws UTGBException, IOException {
 
         StopWatch sw = new StopWatch();
         _logger.info("Preparing FM-indexes");
@@ -74,17 +122,74 @@ public class FMIndexOnGenome
         SparseSuffixArray forwardSA = SparseSuffixArray.loadFrom(forwardDB.sparseSuffixArray());
         SparseSuffixArray backwardSA = SparseSuffixArray.loadFrom(backwardDB.sparseSuffixArray());
 
-        _logger.debug("Loading BWT files");
-        ACGTSequence seqF = ACGTSequence.loadFrom(forwardDB.bwt());
-        ACGTSequence seqR = ACGTSequence.loadFrom(backwardDB.bwt());
-
-        _logger.debug("Constructing Occ Tables");
-        FMIndex forwardIndex = new FMIndexOnOccTable(seqF, windowSize);
-        FMIndex reverseIndex = new FMIndexOnOccTable(seqR, windowSize);
+        _logger.debug("Loading BWT files: %s, placed in %s", indexType.description, placement.description);
+        FMIndex forwardIndex = loadFMIndex(forwardDB, indexType, placement);
+        FMIndex reverseIndex = loadFMIndex(backwardDB, indexType, placement);
         _logger.info("done. %.2f sec.", sw.getElapsedTime());
         return new FMIndexOnGenome(forwardIndex, reverseIndex, forwardSA, backwardSA, index, N, K);
     }
 
+    private static FMIndex loadFMIndex(BWTFiles db, IndexType indexType, IndexPlacement placement)
+            throws IOException {
+        if (indexType == IndexType.WAVELET && db.bwtWavelet().exists()) {
+            _logger.debug("Loading wavelet matrix %s", db.bwtWavelet());
+            return new FMIndexOnWaveletMatrix(WaveletMatrix.loadFrom(db.bwtWavelet()));
+        }
+
+        ACGTSequence bwt = loadSequence(db.bwt(), db.bwtRaw(), placement);
+        _logger.debug("Constructing Occ Table of %s", db.bwt());
+        return newFMIndex(bwt, indexType);
+    }
+
+    /**
+     * Load a sequence file saved by {@link ACGTSequence#saveTo(File)}. With
+     * {@link IndexPlacement#MMAP}, the uncompressed copy of the file is
+     * memory-mapped instead. The copy is created when it does not exist or is
+     * older than the original file.
+     * 
+     * @param file
+     * @param rawFile
+     *            uncompressed copy of the file
+     * @param placement
+     * @return
+     * @throws IOException
+     */
+    public static ACGTSequence loadSequence(File file, File rawFile, IndexPlacement placement) throws IOException {
+        if (placement != IndexPlacement.MMAP)
+            return ACGTSequence.loadFrom(file);
+
+        if (!rawFile.exists() || rawFile.lastModified() < file.lastModified()) {
+            _logger.info("creating %s", rawFile);
+            // Write to a temporary file first, since other processes may map the same file
+            File tmp = File.createTempFile(rawFile.getName(), ".tmp", rawFile.getAbsoluteFile().getParentFile());
+            try {
+                ACGTSequence.loadFrom(file).saveRawTo(tmp);
+                if (!tmp.renameTo(rawFile))
+                    throw new IOException(String.format("failed to rename %s to %s", tmp, rawFile));
+            }
+            finally {
+                tmp.delete();
+            }
+        }
+        _logger.debug("Mapping %s", rawFile);
+        return ACGTSequence.map(rawFile);
+    }
+
+    private static FMIndex newFMIndex(ACGTSequence bwt, IndexType indexType) {
+        switch (indexType) {
+        case COMPACT:
+            // The 3-bit sequence is discarded after the conversion
+            return new FMIndexOnOccTable(CompactACGTSequence.encode(bwt), windowSize);
+        case WAVELET:
+            // Built from the BWT when no prebuilt matrix (bwt --wavelet) is available. The BWT can be
+            // discarded after that, so the peak memory is the BWT plus the matrix
+            return new FMIndexOnWaveletMatrix(new WaveletMatrix(bwt));
+        case OCC:
+        default:
+            return new FMIndexOnOccTable(bwt, windowSize);
+        }
+    }
+
     private FMIndexOnGenome(FMIndex forwardIndex, FMIndex reverseIndex, SparseSuffixArray forwardSA,
             SparseSuffixArray backwardSA, SequenceBoundary index, long n, int k) {
         this.forwardIndex = forwardIndex;
@@ -103,13 +208,17 @@ public class FMIndexOnGenome
     }
 
     public static FMIndexOnGenome buildFromSequence(String name, ACGTSequence refF) {
+        return buildFromSequence(name, refF, IndexType.OCC);
+    }
+
+    public static FMIndexOnGenome buildFromSequence(String name, ACGTSequence refF, IndexType indexType) {
         ACGTSequence refR = refF.reverse();
         BWT bwtF = BWTransform.bwt(refF);
         BWT bwtR = BWTransform.bwt(refR);
 
         SequenceBoundary sequenceBoundary = SequenceBoundary.createFromSingleSeq(name, refF);
-        FMIndex forwardIndex = new FMIndexOnOccTable(bwtF.bwt, windowSize);
-        FMIndex reverseIndex = new FMIndexOnOccTable(bwtR.bwt, windowSize);
+        FMIndex forwardIndex = newFMIndex(bwtF.bwt, indexType);
+        FMIndex reverseIndex = newFMIndex(bwtR.bwt, indexType);
         return new FMIndexOnGenome(forwardIndex, reverseIndex, bwtF.ssa, bwtR.ssa, sequenceBoundary, refF.textSize(),
                 ACGT.values().length);
     }
@@ -135,6 +244,14 @@ public class FMIndexOnGenome
         return N;
     }
 
+    /**
+     * @return memory size of the forward/reverse BWT indexes and the sampled
+     *         suffix arrays (bytes)
+     */
+    public long byteSize() {
+        return forwardIndex.byteSize() + reverseIndex.byteSize() + forwardSA.byteSize() + reverseSA.byteSize();
+    }
+
     public SuffixInterval forwardSearch(Strand strand, ACGT nextBase, SuffixInterval si) {
         FMIndex fm = strand == Strand.FORWARD ? reverseIndex : forwardIndex;
         return fm.backwardSearch(nextBase, si);
@@ -231,22 +348,34 @@ public class FMIndexOnGenome
         //  1/0 -> 0 (forward index)
         //  1/1 -> 1 (reverse index)
         int fm = ~(strand.index ^ (searchDirection.isForward ? 0 : 1)) & 1;
-        if (fm == 0)
-            return forwardSA.get(saIndex, forwardIndex);
-        else
-            return N - reverseSA.get(saIndex, reverseIndex);
+        StageTimer.enter(Stage.COORDINATE);
+        try {
+            if (fm == 0)
+                return forwardSA.get(saIndex, forwardIndex);
+            else
+                return N - reverseSA.get(saIndex, reverseIndex);
+        }
+        finally {
+            StageTimer.exit(Stage.COORDINATE);
+        }
     }
 
     public long toCoordinate(long saIndex, Strand strand) {
         long pos = -1;
-        switch (strand) {
-        case FORWARD:
-            long sa = reverseSA.get(saIndex, reverseIndex);
-            pos = reverseIndex.textSize() - sa;
-            break;
-        case REVERSE:
-            pos = forwardSA.get(saIndex, forwardIndex);
-            break;
+        StageTimer.enter(Stage.COORDINATE);
+        try {
+            switch (strand) {
+            case FORWARD:
+                long sa = reverseSA.get(saIndex, reverseIndex);
+                pos = reverseIndex.textSize() - sa;
+                break;
+            case REVERSE:
+                pos = forwardSA.get(saIndex, forwardIndex);
+                break;
+            }
+        }
+        finally {
+            StageTimer.exit(Stage.COORDINATE);
         }
         return pos;
     }
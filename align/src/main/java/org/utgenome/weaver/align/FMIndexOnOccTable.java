@@ -26,15 +26,15 @@ package org.utgenome.weaver.align;
 
 public class FMIndexOnOccTable implements FMIndex
 {
-    private final ACGTSequence         seq;
+    private final ACGTCounter          seq;
     private final OccurrenceCountTable occ;
     private final CharacterCount       C;
 
-    public FMIndexOnOccTable(ACGTSequence seq) {
+    public FMIndexOnOccTable(ACGTCounter seq) {
         this(seq, 64); // use default window size
     }
 
-    public FMIndexOnOccTable(ACGTSequence seq, int windowSize) {
+    public FMIndexOnOccTable(ACGTCounter seq, int windowSize) {
         this.seq = seq;
         this.occ = new OccurrenceCountTable(seq, windowSize);
         this.C = new CharacterCount(occ, seq.textSize());
@@ -73,6 +73,11 @@ public class FMIndexOnOccTable implements FMIndex
         return seq.textSize();
     }
 
+    @Override
+    public long byteSize() {
+        return seq.byteSize() + occ.byteSize();
+    }
+
     @Override
     public long count(ACGT ch, long start, long end) {
         return occ.getOcc(ch, end) - occ.getOcc(ch, start);
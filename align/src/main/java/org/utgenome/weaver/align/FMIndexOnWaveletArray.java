@@ -63,9 +63,14 @@ public class FMIndexOnWaveletArray implements FMIndex
         return W.textSize();
     }
 
+    @Override
+    public long byteSize() {
+        return W.byteSize();
+    }
+
     @Override
     public long count(ACGT ch, long start, long end) {
-        throw new UnsupportedOperationException();
+        return W.rank(ch.code, end) - W.rank(ch.code, start);
     }
 
     @Override
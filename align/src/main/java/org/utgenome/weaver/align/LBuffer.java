@@ -0,0 +1,238 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// LBuffer.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap byte buffer addressable with 64-bit offsets. The buffer is split
+ * into 1GB segments of direct (or memory-mapped) {@link ByteBuffer}s, so it is
+ * not limited by the 2G-element limit of Java arrays and its contents are not
+ * scanned by the garbage collector.
+ * 
+ * Long (int) values must be accessed at offsets aligned to 8 (4) bytes, so that
+ * no value spans two segments. The large array classes ({@link LLongArray},
+ * {@link LIntArray}, etc.) are built on top of this buffer.
+ * 
+ * Buffers smaller than {@link #MAX_HEAP_BUFFER_SIZE} (e.g., the sequences of
+ * reads) are allocated on the heap, since allocating direct memory is costly
+ * and it is released only after the garbage collection finds the buffer.
+ * 
+ * @author leo
+ * 
+ */
+public class LBuffer
+{
+    private static final int        SEGMENT_BITS         = 30;
+    private static final long       SEGMENT_SIZE         = 1L << SEGMENT_BITS;
+    private static final long       SEGMENT_MASK         = SEGMENT_SIZE - 1;
+
+    /**
+     * Buffers up to this size are allocated on the heap
+     */
+    public static final int         MAX_HEAP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * total size of the off-heap buffers allocated or mapped so far
+     */
+    private static final AtomicLong allocatedBytes       = new AtomicLong(0);
+
+    private final long              byteSize;
+    private final ByteBuffer[]      segment;
+
+    private LBuffer(long byteSize, ByteBuffer[] segment) {
+        this.byteSize = byteSize;
+        this.segment = segment;
+        if (segment.length > 0 && segment[0].isDirect())
+            allocatedBytes.addAndGet(byteSize);
+    }
+
+    /**
+     * Total size of the off-heap buffers allocated or mapped so far, including
+     * the ones already released by the garbage collector
+     * 
+     * @return
+     */
+    public static long allocatedByteSize() {
+        return allocatedBytes.get();
+    }
+
+    private static int numSegments(long byteSize) {
+        return (int) ((byteSize + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+    }
+
+    private static long segmentSize(long byteSize, int i) {
+        return Math.min(SEGMENT_SIZE, byteSize - ((long) i << SEGMENT_BITS));
+    }
+
+    /**
+     * Allocate a zero-filled buffer, which is off-heap unless it is smaller
+     * than {@link #MAX_HEAP_BUFFER_SIZE}
+     * 
+     * @param byteSize
+     * @return
+     */
+    public static LBuffer allocate(long byteSize) {
+        if (byteSize < 0)
+            throw new IllegalArgumentException("negative buffer size: " + byteSize);
+
+        if (byteSize <= MAX_HEAP_BUFFER_SIZE)
+            return new LBuffer(byteSize, new ByteBuffer[] { ByteBuffer.allocate((int) byteSize).order(
+                    ByteOrder.nativeOrder()) });
+
+        ByteBuffer[] segment = new ByteBuffer[numSegments(byteSize)];
+        for (int i = 0; i < segment.length; ++i) {
+            segment[i] = ByteBuffer.allocateDirect((int) segmentSize(byteSize, i)).order(ByteOrder.nativeOrder());
+        }
+        return new LBuffer(byteSize, segment);
+    }
+
+    /**
+     * Map the file contents to a buffer. If the file is opened with
+     * {@link FileChannel.MapMode#READ_WRITE} mode and is shorter than byteSize,
+     * the file is extended. Values are stored in the native byte order.
+     * 
+     * @param file
+     * @param mode
+     * @param byteSize
+     * @return
+     * @throws IOException
+     */
+    public static LBuffer map(File file, FileChannel.MapMode mode, long byteSize) throws IOException {
+        return map(file, mode, 0, byteSize);
+    }
+
+    /**
+     * Map the file contents from the given position (e.g., after a header) to
+     * a buffer
+     * 
+     * @param file
+     * @param mode
+     * @param position
+     *            file offset of the buffer head
+     * @param byteSize
+     * @return
+     * @throws IOException
+     */
+    public static LBuffer map(File file, FileChannel.MapMode mode, long position, long byteSize) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            FileChannel channel = f.getChannel();
+            ByteBuffer[] segment = new ByteBuffer[numSegments(byteSize)];
+            for (int i = 0; i < segment.length; ++i) {
+                segment[i] = channel.map(mode, position + ((long) i << SEGMENT_BITS), segmentSize(byteSize, i))
+                        .order(ByteOrder.nativeOrder());
+            }
+            return new LBuffer(byteSize, segment);
+        }
+        finally {
+            // mapped buffers remain valid after the channel is closed 
+            f.close();
+        }
+    }
+
+    public long byteSize() {
+        return byteSize;
+    }
+
+    public byte getByte(long offset) {
+        return segment[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putByte(long offset, byte value) {
+        segment[(int) (offset >>> SEGMENT_BITS)].put((int) (offset & SEGMENT_MASK), value);
+    }
+
+    public int getInt(long offset) {
+        return segment[(int) (offset >>> SEGMENT_BITS)].getInt((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putInt(long offset, int value) {
+        segment[(int) (offset >>> SEGMENT_BITS)].putInt((int) (offset & SEGMENT_MASK), value);
+    }
+
+    public long getLong(long offset) {
+        return segment[(int) (offset >>> SEGMENT_BITS)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    public void putLong(long offset, long value) {
+        segment[(int) (offset >>> SEGMENT_BITS)].putLong((int) (offset & SEGMENT_MASK), value);
+    }
+
+    /**
+     * Copy the bytes in [offset, offset + len) to the array. The range may span
+     * several segments.
+     * 
+     * @param offset
+     * @param dst
+     * @param dstOffset
+     * @param len
+     */
+    public void getBytes(long offset, byte[] dst, int dstOffset, int len) {
+        while (len > 0) {
+            // duplicate the segment so that concurrent readers do not share the position
+            ByteBuffer s = segment[(int) (offset >>> SEGMENT_BITS)].duplicate();
+            int pos = (int) (offset & SEGMENT_MASK);
+            int n = Math.min(len, s.capacity() - pos);
+            s.position(pos);
+            s.get(dst, dstOffset, n);
+            offset += n;
+            dstOffset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Fill the whole buffer with the given long value. The buffer size must be
+     * a multiple of 8.
+     * 
+     * @param value
+     */
+    public void fill(long value) {
+        for (ByteBuffer s : segment) {
+            for (int i = 0; i + 8 <= s.capacity(); i += 8) {
+                s.putLong(i, value);
+            }
+        }
+    }
+
+    /**
+     * Write back the modified contents of a memory-mapped buffer to the file
+     */
+    public void flush() {
+        for (ByteBuffer s : segment) {
+            if (s instanceof MappedByteBuffer)
+                ((MappedByteBuffer) s).force();
+        }
+    }
+
+}
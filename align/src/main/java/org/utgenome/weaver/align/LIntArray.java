@@ -22,11 +22,11 @@
 //--------------------------------------
 package org.utgenome.weaver.align;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
- * Array capable to store more than 2G (2 x 1024 x 1024 x 1024) entries
+ * Array capable to store more than 2G (2 x 1024 x 1024 x 1024) entries. The
+ * values are stored off-heap in an {@link LBuffer}.
  * 
  * @author leo
  * 
@@ -34,35 +34,15 @@ import java.util.Iterator;
 public class LIntArray implements LSeq, Iterable<Long>
 {
 
-    private final long       size;
+    private final long        size;
 
-    private ArrayList<int[]> array;
-    private RSBitVector        flag;
+    private final LBuffer     buffer;
+    private final RSBitVector flag;
 
     public LIntArray(long size) {
         this.size = size;
         flag = new RSBitVector(size);
-
-        // (flag)|---(array pos)------|---------------------------|
-        // (flag)|------(32 bit)-------|------(index: 30bit)------|
-        int container = (int) (size >>> 30);
-        int remainder = offset(size);
-
-        array = new ArrayList<int[]>(container + 1);
-        for (int i = 0; i < container; i++) {
-            array.add(new int[0x40000000]);
-        }
-        if (remainder > 0)
-            array.add(new int[remainder]);
-
-    }
-
-    private int[] container(long index) {
-        return array.get((int) (index >>> 30));
-    }
-
-    private static int offset(long index) {
-        return (int) (index & 0x3FFFFFFFL);
+        buffer = LBuffer.allocate(size * 4);
     }
 
     public long textSize() {
@@ -70,13 +50,13 @@ public class LIntArray implements LSeq, Iterable<Long>
     }
 
     public long lookup(long index) {
-        long v = container(index)[offset(index)] & 0xFFFFFFFFL;
+        long v = buffer.getInt(index << 2) & 0xFFFFFFFFL;
         return flag.get(index) ? -v : v;
     }
 
     public void set(long index, long value) {
         flag.setBit(value < 0, index);
-        container(index)[offset(index)] = (int) Math.abs(value);
+        buffer.putInt(index << 2, (int) Math.abs(value));
     }
 
     @Override
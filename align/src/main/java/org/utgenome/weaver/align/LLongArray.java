@@ -25,11 +25,12 @@ package org.utgenome.weaver.align;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
- * Array capable to store more than 2G (2 x 1024 x 1024 x 1024) entries
+ * Array capable to store more than 2G (2 x 1024 x 1024 x 1024) entries. The
+ * values are stored in an {@link LBuffer}, which is off-heap unless the array
+ * is small.
  * 
  * @author leo
  * 
@@ -37,61 +38,76 @@ import java.util.Iterator;
 public class LLongArray implements Iterable<Long>
 {
 
-    private final long        size;
+    private final long    size;
 
-    private ArrayList<long[]> array;
+    private final LBuffer buffer;
 
     public LLongArray(long size) {
-        this.size = size;
-
-        // (flag)|---(array index)----|---------------------------|
-        // (flag)|------(31 bit)-------|------(index: 31bit)------|
-        int container = (int) (size >> 30);
-        int remainder = offset(size);
+        this(size, LBuffer.allocate(size * 8));
+    }
 
-        array = new ArrayList<long[]>(container + 1);
-        for (int i = 0; i < container; i++) {
-            array.add(new long[0x40000000]);
-        }
-        if (remainder > 0)
-            array.add(new long[remainder]);
+    /**
+     * Create an array view over the given buffer (e.g., a memory-mapped file)
+     * 
+     * @param size
+     *            the number of long values
+     * @param buffer
+     */
+    public LLongArray(long size, LBuffer buffer) {
+        if (buffer.byteSize() < size * 8)
+            throw new IllegalArgumentException(String.format("buffer is too small to hold %,d entries", size));
+        this.size = size;
+        this.buffer = buffer;
     }
 
     public long size() {
         return size;
     }
 
-    private long[] container(long index) {
-        return array.get((int) (index >> 31));
-    }
-
-    private static int offset(long index) {
-        return (int) (index & 0x3FFFFFFFL);
-    }
-
     public long get(long index) {
-        return container(index)[offset(index)];
+        return buffer.getLong(index << 3);
     }
 
     public void set(long index, long value) {
-        container(index)[offset(index)] = value;
+        buffer.putLong(index << 3, value);
     }
 
     public void setOR(long index, long value) {
-        container(index)[offset(index)] |= value;
+        long offset = index << 3;
+        buffer.putLong(offset, buffer.getLong(offset) | value);
     }
 
     public void setAND(long index, long value) {
-        container(index)[offset(index)] &= value;
+        long offset = index << 3;
+        buffer.putLong(offset, buffer.getLong(offset) & value);
     }
 
     public void fill(long value) {
-        for (int c = 0; c < array.size(); ++c) {
-            long[] container = array.get(c);
-            for (int i = 0; i < container.length; ++i) {
-                container[i] = value;
-            }
+        buffer.fill(value);
+    }
+
+    /**
+     * Write back the changes to the mapped file, if this array is a view over a
+     * memory-mapped file
+     */
+    public void flush() {
+        buffer.flush();
+    }
+
+    /**
+     * Create a new array of the given size, which holds the values of this
+     * array. The extended part is filled with zeros.
+     * 
+     * @param newSize
+     * @return
+     */
+    public LLongArray copyOf(long newSize) {
+        LLongArray copy = new LLongArray(newSize);
+        long len = Math.min(size, newSize);
+        for (long i = 0; i < len; ++i) {
+            copy.set(i, get(i));
         }
+        return copy;
     }
 
     public void saveTo(DataOutputStream out) throws IOException {
@@ -36,8 +36,8 @@ public class OccurrenceCountTable
 {
     private static Logger      _logger = Logger.getLogger(OccurrenceCountTable.class);
 
-    private long[][]           occTable;
-    private final ACGTSequence seq;
+    private final LLongArray   occTable;
+    private final ACGTCounter  seq;
     private final long         W;
     private final int          K;
 
@@ -45,32 +45,44 @@ public class OccurrenceCountTable
      * Create a character occurrence count table. This class saves the
      * occurrence counts of each character for every W-bp block.
      * 
+     * The table is stored in a single flat {@link LLongArray} (row-major, K
+     * counts per row) so that the counts of a block are contiguous in memory.
+     * The array is allocated off-heap, and thus is not limited by the Java
+     * array size and is interleaved over the NUMA nodes when the JVM runs
+     * under numactl --interleave.
+     * 
      * @param seq
      * @param windowSize
      */
-    public OccurrenceCountTable(ACGTSequence seq, int windowSize) {
+    public OccurrenceCountTable(ACGTCounter seq, int windowSize) {
         this.seq = seq;
         this.W = windowSize;
 
         _logger.trace("preparing occurrence count table...");
         this.K = ACGT.values().length;
-        final int numRows = (int) ((seq.textSize() + W) / W);
+        final long numRows = (seq.textSize() + W) / W;
 
-        occTable = new long[numRows][K];
-        for (int k = 0; k < K; ++k) {
-            occTable[0][k] = 0;
-        }
-        for (int i = 1; i < numRows; ++i) {
-            long start = ((i - 1)) * W;
+        occTable = new LLongArray(numRows * K);
+        for (long i = 1; i < numRows; ++i) {
+            long start = (i - 1) * W;
             long end = Math.min(start + W, seq.textSize());
             long[] count = seq.fastCountACGTN(start, end);
+            long prevRow = (i - 1) * K;
+            long row = i * K;
             for (int k = 0; k < K; ++k) {
-                occTable[i][k] = occTable[i - 1][k] + count[k];
+                occTable.set(row + k, occTable.get(prevRow + k) + count[k]);
             }
         }
         _logger.trace("done.");
     }
 
+    /**
+     * @return memory size of the table (bytes), excluding the sequence
+     */
+    public long byteSize() {
+        return occTable.size() * 8L;
+    }
+
     /**
      * Get the character occurrence counts of ACGTN in seq[0..index)
      * 
@@ -80,10 +92,11 @@ public class OccurrenceCountTable
     public long[] getOccACGTN(long index) {
         if (index > seq.textSize())
             index = seq.textSize();
-        int blockPos = (int) (index / W);
+        long blockPos = index / W;
         long[] occ = seq.fastCountACGTN(blockPos * W, index);
+        long row = blockPos * K;
         for (int i = 0; i < K; ++i) {
-            occ[i] += occTable[blockPos][i];
+            occ[i] += occTable.get(row + i);
         }
         return occ;
     }
@@ -99,10 +112,10 @@ public class OccurrenceCountTable
     public long getOcc(ACGT ch, long index) {
         if (index > seq.textSize())
             index = seq.textSize();
-        int blockPos = (int) (index / W);
+        long blockPos = index / W;
         // Look up the occurrence count table. 
         // And also count the characters using the original sequence
-        long occ = occTable[blockPos][ch.code] + seq.fastCount(ch, blockPos * W, index);
+        long occ = occTable.get(blockPos * K + ch.code) + seq.fastCount(ch, blockPos * W, index);
         return occ;
     }
 
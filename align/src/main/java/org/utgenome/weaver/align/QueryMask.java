@@ -38,7 +38,7 @@ public class QueryMask
     private BitVector[] patternMaskF;
     private BitVector[] patternMaskR; // reverse pattern
 
-    public QueryMask(ACGTSequence query) {
+    public QueryMask(LSeq query) {
         m = (int) query.textSize();
         patternMaskF = new BitVector[ACGT.exceptN.length];
         patternMaskR = new BitVector[ACGT.exceptN.length];
@@ -48,7 +48,7 @@ public class QueryMask
         }
 
         for (int i = 0; i < m; ++i) {
-            ACGT ch = query.getACGT(i);
+            ACGT ch = ACGT.decode((byte) query.lookup(i));
             if (ch == ACGT.N) {
                 for (ACGT each : ACGT.exceptN) {
                     patternMaskF[each.code].set(i);
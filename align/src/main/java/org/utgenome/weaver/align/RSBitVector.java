@@ -29,78 +29,167 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 /**
- * Bit-vector supporting rank/select operations. This bit vector is coded based
- * on Okanohara-kun's implementation.
+ * Bit-vector supporting rank/select operations. The rank directory follows
+ * Vigna's rank9: for each 512-bit super block, the number of 1s before the
+ * block and the relative counts of its 7 following 64-bit words (9 bits each)
+ * are stored in two longs, so rank needs no scan over the words. For select,
+ * the super blocks containing every {@link #SELECT_SAMPLE}-th 1 (and 0) are
+ * sampled, and the bit in a word is located with a broadword select.
+ * 
+ * The bits and the directory are split into chunks of 2^20 longs, so the
+ * vector can hold more than Integer.MAX_VALUE blocks.
  * 
  * @author leo
  * 
  */
 public class RSBitVector
 {
-    private static final int B          = 64;  // the number of bits in a block
-    private static final int M          = 4;   // block width to pre-compute the ranks  
-    private final long[]     block;
-    private long[]           rankTable  = null;
-    private final long       size;
-    private long             numberOf1s = 0;
+    private static final int    B             = 64;                  // the number of bits in a block
+    private static final int    CHUNK_SHIFT   = 20;
+    private static final int    CHUNK_MASK    = (1 << CHUNK_SHIFT) - 1;
+    private static final int    SELECT_SAMPLE = 512;
+    private static final byte[] selectInByte  = createSelectInByteTable();
+    private static final long   ONES_STEP_8   = 0x0101010101010101L;
+    private static final long   MSBS_STEP_8   = 0x8080808080808080L;
+
+    private final long[][]      block;
+    private final long          numBlocks;
+    private final long          size;
+
+    // rank9 directory: |#1s before the super block|relative counts of the words 1..7|
+    private long[][]            rankTable     = null;
+    private long                numberOf1s    = 0;
+    // super blocks containing the (k * SELECT_SAMPLE)-th 1 and 0
+    private long[]              selectOne     = null;
+    private long[]              selectZero    = null;
 
     public RSBitVector(long size) {
         this.size = size;
-        long blockSize = (size + B - 1) / B;
-        if (blockSize > Integer.MAX_VALUE)
-            throw new IllegalArgumentException("cannot create bit vector with size > " + Integer.MAX_VALUE
-                    + ". size = " + size);
-
-        this.block = new long[(int) blockSize];
+        this.numBlocks = (size + B - 1) / B;
+        this.block = newChunks(numBlocks);
         clear();
     }
 
-    private RSBitVector(long size, long[] block) {
+    private RSBitVector(long size, long[][] block) {
         this.size = size;
+        this.numBlocks = (size + B - 1) / B;
         this.block = block;
         refreshRankTable();
     }
 
+    private static long[][] newChunks(long length) {
+        int numChunks = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+        long[][] chunk = new long[numChunks][];
+        for (int i = 0; i < numChunks; ++i) {
+            long remaining = length - ((long) i << CHUNK_SHIFT);
+            chunk[i] = new long[(int) Math.min(remaining, 1L << CHUNK_SHIFT)];
+        }
+        return chunk;
+    }
+
+    private long block(long i) {
+        return block[(int) (i >>> CHUNK_SHIFT)][(int) (i & CHUNK_MASK)];
+    }
+
+    private static long entry(long[][] chunk, long i) {
+        return chunk[(int) (i >>> CHUNK_SHIFT)][(int) (i & CHUNK_MASK)];
+    }
+
+    private static void setEntry(long[][] chunk, long i, long value) {
+        chunk[(int) (i >>> CHUNK_SHIFT)][(int) (i & CHUNK_MASK)] = value;
+    }
+
     public long size() {
         return size;
     }
 
-    public void clear() {
+    /**
+     * @return memory size of the bit vector and its rank/select tables
+     *         (bytes)
+     */
+    public long byteSize() {
+        long bytes = sizeOf(block) + sizeOf(rankTable);
+        if (selectOne != null)
+            bytes += selectOne.length * 8L;
+        if (selectZero != null)
+            bytes += selectZero.length * 8L;
+        return bytes;
+    }
+
+    private static long sizeOf(long[][] chunk) {
+        long bytes = 0;
+        if (chunk != null) {
+            for (long[] each : chunk)
+                bytes += each.length * 8L;
+        }
+        return bytes;
+    }
 
-        for (int i = 0; i < block.length; ++i)
-            block[i] = 0L;
+    public void clear() {
+        for (long[] each : block) {
+            for (int i = 0; i < each.length; ++i)
+                each[i] = 0L;
+        }
         rankTable = null;
     }
 
     public void refreshRankTable() {
-        long tableSize = (block.length + M - 1) / M + 1;
-        if (tableSize > Integer.MAX_VALUE)
-            throw new IllegalStateException(String.format("cannot create rank table with size >= %,d : size = %,d",
-                    Integer.MAX_VALUE, tableSize));
-
-        rankTable = new long[(int) tableSize];
-        for (int i = 0; i < rankTable.length; ++i)
-            rankTable[i] = 0L;
+        final long numSuperBlocks = numBlocks / 8 + 1;
+        long[][] table = newChunks(numSuperBlocks * 2);
 
         long count = 0;
-        for (int i = 0; i < block.length; ++i) {
-            if ((i % M) == 0) {
-                rankTable[i / M] = count;
+        for (long s = 0; s < numSuperBlocks; ++s) {
+            long base = count;
+            long relative = 0;
+            for (int j = 0; j < 8; ++j) {
+                long w = s * 8 + j;
+                if (j > 0)
+                    relative |= (count - base) << (9 * (j - 1));
+                if (w < numBlocks)
+                    count += Long.bitCount(block(w));
             }
-            count += popCount(block[i]);
+            setEntry(table, s * 2, base);
+            setEntry(table, s * 2 + 1, relative);
         }
-        rankTable[rankTable.length - 1] = count;
-        numberOf1s = count;
+
+        // Sample the super blocks for select
+        long numberOf0s = size - count;
+        long[] sOne = newSampleTable(count);
+        long[] sZero = newSampleTable(numberOf0s);
+        long ones = 0;
+        for (long s = 0; s < numSuperBlocks; ++s) {
+            long next = s + 1 < numSuperBlocks ? entry(table, (s + 1) * 2) : count;
+            // the number of 0s is computed from the bit length of the blocks
+            long zeros = Math.min(s * 8 * B, size) - ones;
+            long nextZeros = Math.min((s + 1) * 8 * B, size) - next;
+            for (long k = (ones + SELECT_SAMPLE - 1) / SELECT_SAMPLE; k * SELECT_SAMPLE < next; ++k)
+                sOne[(int) k] = s;
+            for (long k = (zeros + SELECT_SAMPLE - 1) / SELECT_SAMPLE; k * SELECT_SAMPLE < nextZeros; ++k)
+                sZero[(int) k] = s;
+            ones = next;
+        }
+
+        this.selectOne = sOne;
+        this.selectZero = sZero;
+        this.numberOf1s = count;
+        this.rankTable = table;
+    }
+
+    private static long[] newSampleTable(long n) {
+        long numSamples = (n + SELECT_SAMPLE - 1) / SELECT_SAMPLE;
+        if (numSamples > Integer.MAX_VALUE)
+            throw new IllegalStateException(String.format("too large bit vector for select: %,d", n));
+        return new long[(int) numSamples];
     }
 
     public boolean get(long index) {
         long blockPos = index / B;
-        if (blockPos > block.length)
+        if (blockPos >= numBlocks)
             return false;
 
         long offset = index % B;
         long mask = 1L << offset;
-        return (block[(int) blockPos] & mask) != 0;
+        return (block(blockPos) & mask) != 0;
     }
 
     public void setBit(boolean c, long index) {
@@ -120,14 +209,14 @@ public class RSBitVector
     public void set(long index) {
         long blockPos = index / B;
         long offset = index % B;
-        block[(int) blockPos] |= 1L << offset;
+        block[(int) (blockPos >>> CHUNK_SHIFT)][(int) (blockPos & CHUNK_MASK)] |= 1L << offset;
     }
 
     public void reset(long index) {
         long blockPos = index / B;
         long offset = index % B;
         long mask = 1L << offset;
-        block[(int) blockPos] &= ~mask;
+        block[(int) (blockPos >>> CHUNK_SHIFT)][(int) (blockPos & CHUNK_MASK)] &= ~mask;
     }
 
     public long rank(boolean c, long index) {
@@ -143,26 +232,40 @@ public class RSBitVector
         if (rankTable == null)
             refreshRankTable();
 
-        int blockPos = (int) (index / B);
-        int tablePos = (blockPos / M);
+        long blockPos = index >>> 6;
+        long t = (blockPos >>> 3) << 1;
+        int j = (int) (blockPos & 7);
+        long rank = entry(rankTable, t);
+        if (j != 0)
+            rank += (entry(rankTable, t + 1) >>> (9 * (j - 1))) & 0x1FFL;
 
-        long rank = rankTable[tablePos];
-        for (int i = tablePos * M; i < blockPos; ++i) {
-            rank += popCount(block[i]);
-        }
-        long offset = index % B;
-        if (offset != 0) {
-            long val = block[blockPos];
-            long mask = (1L << offset) - 1;
-            rank += popCount(val & mask);
-        }
+        int offset = (int) (index & 0x3F);
+        if (offset != 0)
+            rank += Long.bitCount(block(blockPos) & ((1L << offset) - 1));
         return rank;
     }
 
+    /**
+     * The number of c before the super block s
+     */
+    private long countBeforeSuperBlock(boolean c, long s) {
+        long ones = entry(rankTable, s * 2);
+        return c ? ones : s * 8 * B - ones;
+    }
+
+    /**
+     * Find the position of the rank-th c (1-origin)
+     * 
+     * @param c
+     * @param rank
+     * @return the position of the rank-th c, or -1 if no such bit exists
+     */
     public long select(boolean c, long rank) {
         if (rankTable == null)
             refreshRankTable();
 
+        if (rank <= 0)
+            return -1;
         if (c) {
             if (rank > numberOf1s)
                 return -1;
@@ -172,110 +275,81 @@ public class RSBitVector
                 return -1;
         }
 
-        RankAndPos rp = selectOutBlock(c, rank);
-        long val = c ? block[(int) rp.pos] : ~block[(int) rp.pos];
-        return rp.pos * B + selectInBlock(val, rp.rank);
-    }
-
-    private long getBitNum(long oneNum, long num, boolean bit) {
-        if (bit)
-            return oneNum;
-        else
-            return num - oneNum;
-    }
-
-    private static class RankAndPos
-    {
-        public final long rank;
-        public final long pos;
-
-        public RankAndPos(long rank, long pos) {
-            this.rank = rank;
-            this.pos = pos;
-        }
-    }
-
-    private RankAndPos selectOutBlock(boolean c, long rank) {
-        // binary search over tables
-        long left = 0;
-        long right = rankTable.length;
+        // 0-origin rank
+        long r = rank - 1;
+        long[] sample = c ? selectOne : selectZero;
+        int k = (int) (r / SELECT_SAMPLE);
+        long left = sample[k];
+        long right = k + 1 < sample.length ? sample[k + 1] : numBlocks / 8;
+        // binary search for the last super block s in [left, right] such that countBeforeSuperBlock(s) <= r 
         while (left < right) {
-            long mid = (left + right) / 2;
-            long length = B * M * mid;
-            if (getBitNum(rankTable[(int) mid], length, c) < rank) {
-                left = mid + 1;
-            }
-            else {
-                right = mid;
-            }
+            long mid = (left + right + 1) >>> 1;
+            if (countBeforeSuperBlock(c, mid) <= r)
+                left = mid;
+            else
+                right = mid - 1;
         }
-
-        long table_ind = (left != 0) ? left - 1 : 0;
-        long block_pos = table_ind * M;
-        rank -= getBitNum(rankTable[(int) table_ind], block_pos * B, c);
-
-        // sequential search over blocks
-        for (; block_pos < block.length; ++block_pos) {
-            long rank_next = getBitNum(popCount(block[(int) block_pos]), B, c);
-            if (rank <= rank_next) {
+        long s = left;
+        r -= countBeforeSuperBlock(c, s);
+
+        // find the word within the super block
+        long relative = entry(rankTable, s * 2 + 1);
+        int j = 7;
+        for (; j > 0; --j) {
+            long ones = (relative >>> (9 * (j - 1))) & 0x1FFL;
+            long before = c ? ones : j * B - ones;
+            if (before <= r) {
+                r -= before;
                 break;
             }
-            rank -= rank_next;
         }
-
-        return new RankAndPos(rank, block_pos);
+        long blockPos = s * 8 + j;
+        long word = c ? block(blockPos) : ~block(blockPos);
+        return blockPos * B + selectInWord(word, (int) r);
     }
 
-    private long selectInBlock(long x, long rank) {
-        long x1 = x - ((x & 0xAAAAAAAAAAAAAAAAL) >>> 1);
-        long x2 = (x1 & 0x3333333333333333L) + ((x1 >>> 2) & 0x3333333333333333L);
-        long x3 = (x2 + (x2 >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
-
-        long pos = 0;
-        for (;; pos += 8) {
-            long rank_next = (x3 >>> pos) & 0xFFL;
-            if (rank <= rank_next)
-                break;
-            rank -= rank_next;
-        }
-
-        long v2 = (x2 >>> pos) & 0xFL;
-        if (rank > v2) {
-            rank -= v2;
-            pos += 4;
-        }
-
-        long v1 = (x1 >> pos) & 0x3L;
-        if (rank > v1) {
-            rank -= v1;
-            pos += 2;
-        }
+    /**
+     * Broadword select (Vigna, 2008). Returns the position of the r-th 1
+     * (0-origin) in the word
+     * 
+     * @param x
+     * @param r
+     * @return
+     */
+    static int selectInWord(long x, int r) {
+        // cumulative counts of 1s in each byte
+        long byteSums = x - ((x & 0xAAAAAAAAAAAAAAAAL) >>> 1);
+        byteSums = (byteSums & 0x3333333333333333L) + ((byteSums >>> 2) & 0x3333333333333333L);
+        byteSums = (byteSums + (byteSums >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
+        byteSums *= ONES_STEP_8;
+
+        // the number of bytes whose cumulative count is <= r gives the byte containing the target bit
+        long rankStep8 = r * ONES_STEP_8;
+        long numBytes = (((rankStep8 | MSBS_STEP_8) - byteSums) & MSBS_STEP_8) >>> 7;
+        int byteOffset = (int) ((numBytes * ONES_STEP_8 >>> 53) & ~0x7);
+        int byteRank = (int) (r - (((byteSums << 8) >>> byteOffset) & 0xFF));
+        return byteOffset + selectInByte[(int) ((x >>> byteOffset) & 0xFF) | byteRank << 8];
+    }
 
-        long v0 = (x >> pos) & 0x1L;
-        if (v0 < rank) {
-            rank -= v0;
-            pos += 1;
+    private static byte[] createSelectInByteTable() {
+        byte[] table = new byte[256 * 8];
+        for (int x = 0; x < 256; ++x) {
+            for (int r = 0, count = 0; r < 8; ++r) {
+                if ((x & (1 << r)) != 0)
+                    table[x | (count++ << 8)] = (byte) r;
+            }
         }
-
-        return pos;
-
+        return table;
     }
 
     /**
-     * Count the number of 1s in the input. See also the Hacker's Delight:
-     * http://hackers-delight.org.ua/038.htm
+     * Count the number of 1s in the input.
      * 
      * @param x
      * @return the number of 1-bit in the input x
      */
     public static long popCount(long x) {
-        x = (x & 0x5555555555555555L) + ((x >>> 1) & 0x5555555555555555L);
-        x = (x & 0x3333333333333333L) + ((x >>> 2) & 0x3333333333333333L);
-        x = (x + (x >>> 4)) & 0x0F0F0F0F0F0F0F0FL;
-        x = x + (x >>> 8);
-        x = x + (x >>> 16);
-        x = x + (x >>> 32);
-        return x & 0x7FL;
+        return Long.bitCount(x);
     }
 
     @Override
@@ -288,18 +362,23 @@ public class RSBitVector
 
     public DataOutputStream saveTo(DataOutputStream out) throws IOException {
         out.writeLong(size);
-        out.writeInt(block.length);
-        for (int i = 0; i < block.length; ++i)
-            out.writeLong(block[i]);
+        // The number of blocks is kept for compatibility. It is computed from the size when loading 
+        out.writeInt((int) Math.min(numBlocks, Integer.MAX_VALUE));
+        for (long[] each : block) {
+            for (int i = 0; i < each.length; ++i)
+                out.writeLong(each[i]);
+        }
         return out;
     }
 
     public static RSBitVector loadFrom(DataInputStream in) throws IOException {
         long size = in.readLong();
-        int blockSize = in.readInt();
-        long[] block = new long[blockSize];
-        for (int i = 0; i < blockSize; ++i)
-            block[i] = in.readLong();
+        in.readInt();
+        long[][] block = newChunks((size + B - 1) / B);
+        for (long[] each : block) {
+            for (int i = 0; i < each.length; ++i)
+                each[i] = in.readLong();
+        }
         RSBitVector v = new RSBitVector(size, block);
         return v;
     }
@@ -27,6 +27,8 @@ package org.utgenome.weaver.align;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.AlignmentRecord;
 import org.utgenome.weaver.parallel.Reporter;
 import org.xerial.lens.SilkLens;
@@ -60,7 +62,13 @@ public class SAMOutput implements ObjectHandler<AlignmentRecord>, Reporter
 
     @Override
     public void handle(AlignmentRecord r) throws Exception {
-        out.println(r.toSAMLine());
+        StageTimer.enter(Stage.SAM_OUTPUT);
+        try {
+            out.println(r.toSAMLine());
+        }
+        finally {
+            StageTimer.exit(Stage.SAM_OUTPUT);
+        }
     }
 
     @Override
@@ -77,7 +85,13 @@ public class SAMOutput implements ObjectHandler<AlignmentRecord>, Reporter
 
         if (result != null && result.getClass().isAssignableFrom(AlignmentRecord.class)) {
             AlignmentRecord r = (AlignmentRecord) result;
-            out.println(r.toSAMLine());
+            StageTimer.enter(Stage.SAM_OUTPUT);
+            try {
+                out.println(r.toSAMLine());
+            }
+            finally {
+                StageTimer.exit(Stage.SAM_OUTPUT);
+            }
         }
     }
 }
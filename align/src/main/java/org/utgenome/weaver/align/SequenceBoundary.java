@@ -35,6 +35,8 @@ import java.util.TreeMap;
 
 import org.utgenome.UTGBErrorCode;
 import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.xerial.lens.SilkLens;
 
 /**
@@ -102,6 +104,16 @@ public class SequenceBoundary
      * @throws UTGBException
      */
     public PosOnGenome translate(long textIndex, Strand strand) throws UTGBException {
+        StageTimer.enter(Stage.COORDINATE);
+        try {
+            return translate_internal(textIndex, strand);
+        }
+        finally {
+            StageTimer.exit(Stage.COORDINATE);
+        }
+    }
+
+    private PosOnGenome translate_internal(long textIndex, Strand strand) throws UTGBException {
 
         if (indexToChrTable == null) {
             indexToChrTable = new TreeMap<Long, String>();
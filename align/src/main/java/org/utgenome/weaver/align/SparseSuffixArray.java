@@ -130,6 +130,13 @@ public class SparseSuffixArray
         return new SparseSuffixArray(sparseSA, SA.textSize(), L);
     }
 
+    /**
+     * @return memory size of the sampled suffix array (bytes)
+     */
+    public long byteSize() {
+        return sparseSA.byteSize();
+    }
+
     /**
      * Get the index in the text
      * 
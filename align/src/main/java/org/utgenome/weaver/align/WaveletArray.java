@@ -65,6 +65,16 @@ public class WaveletArray
         return size;
     }
 
+    /**
+     * @return memory size of the bit vectors (bytes)
+     */
+    public long byteSize() {
+        long bytes = occ.byteSize();
+        for (RSBitVector each : bitVector)
+            bytes += each.byteSize();
+        return bytes;
+    }
+
     public static long log2(long x) {
         if (x == 0)
             return 0;
@@ -0,0 +1,266 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// WaveletMatrix.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Wavelet matrix of a 3-bit encoded sequence. Each level holds one bit of the
+ * codes (from the MSB) in a single {@link RSBitVector}, and the sequence is
+ * stably sorted by that bit before going down to the next level, so no node
+ * boundaries need to be computed during the traversal, unlike
+ * {@link WaveletArray}.
+ * 
+ * The matrix uses 3 bits per base plus the rank tables, while the
+ * occurrence count table of {@link FMIndexOnOccTable} is added on top of the
+ * BWT string.
+ * 
+ * @author leo
+ * 
+ */
+public class WaveletMatrix
+{
+    /**
+     * The number of levels. The codes of ACGTN fit in 3 bits
+     */
+    public static final int     NUM_LEVELS = 3;
+
+    private final RSBitVector[] level;
+    /**
+     * The number of 0s in each level
+     */
+    private final long[]        numZeros;
+    private final long          size;
+
+    /**
+     * Build the matrix by streaming the input once per level. Instead of
+     * keeping sorted copies of the input, each level writes the bit of a code
+     * at the position of the code in the sorted order, which is computed from
+     * the occurrence counts of the codes. So the memory used in addition to
+     * the input is only the bit vectors of the levels.
+     * 
+     * @param input
+     */
+    public WaveletMatrix(ACGTSequence input) {
+        this.size = input.textSize();
+        this.level = new RSBitVector[NUM_LEVELS];
+        this.numZeros = new long[NUM_LEVELS];
+
+        long[] codeCount = new long[1 << NUM_LEVELS];
+        for (long i = 0; i < size; ++i)
+            codeCount[(int) input.lookup(i)]++;
+
+        for (int l = 0; l < NUM_LEVELS; ++l) {
+            final int shift = NUM_LEVELS - l - 1;
+            // At level l, the codes are stably sorted by their upper l bits, and the last sorted (lowest) bit is
+            // the most significant in the order. Compute the start position of each group of the upper bits.
+            long[] cursor = new long[1 << l];
+            long pos = 0;
+            for (int g = 0; g < cursor.length; ++g) {
+                int upper = l == 0 ? 0 : Integer.reverse(g) >>> (32 - l);
+                cursor[upper] = pos;
+                for (int c = 0; c < codeCount.length; ++c) {
+                    if ((c >>> (shift + 1)) == upper)
+                        pos += codeCount[c];
+                }
+            }
+
+            RSBitVector B = new RSBitVector(size);
+            long zeros = 0;
+            for (long i = 0; i < size; ++i) {
+                long c = input.lookup(i);
+                long p = cursor[(int) (c >>> (shift + 1))]++;
+                if (((c >>> shift) & 1L) == 0)
+                    zeros++;
+                else
+                    B.set(p);
+            }
+            B.refreshRankTable();
+            level[l] = B;
+            numZeros[l] = zeros;
+        }
+    }
+
+    private WaveletMatrix(RSBitVector[] level, long[] numZeros, long size) {
+        this.level = level;
+        this.numZeros = numZeros;
+        this.size = size;
+    }
+
+    public long textSize() {
+        return size;
+    }
+
+    /**
+     * @return memory size of the bit vectors (bytes)
+     */
+    public long byteSize() {
+        long bytes = numZeros.length * 8L;
+        for (RSBitVector each : level)
+            bytes += each.byteSize();
+        return bytes;
+    }
+
+    /**
+     * Retrieve the code at the given position
+     * 
+     * @param pos
+     * @return
+     */
+    public long lookup(long pos) {
+        long c = 0;
+        for (int l = 0; l < NUM_LEVELS; ++l) {
+            RSBitVector B = level[l];
+            c <<= 1;
+            if (B.get(pos)) {
+                c |= 1L;
+                pos = numZeros[l] + B.rank(true, pos);
+            }
+            else
+                pos = B.rank(false, pos);
+        }
+        return c;
+    }
+
+    /**
+     * Count the number of the code c within [0, pos) of the sequence
+     * 
+     * @param c
+     * @param pos
+     * @return
+     */
+    public long rank(long c, long pos) {
+        if (pos > size)
+            pos = size;
+        long start = 0;
+        for (int l = 0; l < NUM_LEVELS; ++l) {
+            RSBitVector B = level[l];
+            if (((c >>> (NUM_LEVELS - l - 1)) & 1L) == 0) {
+                start = B.rank(false, start);
+                pos = B.rank(false, pos);
+            }
+            else {
+                start = numZeros[l] + B.rank(true, start);
+                pos = numZeros[l] + B.rank(true, pos);
+            }
+            if (start == pos)
+                return 0;
+        }
+        return pos - start;
+    }
+
+    /**
+     * Compute the ranks of the codes 0, ..., rank.length - 1 at once. Each node
+     * of the matrix is visited only once, so ACGTN needs 9 rank operations
+     * instead of the 30 needed for calling {@link #rank(long, long)} for each
+     * code.
+     * 
+     * @param pos
+     * @param rank
+     *            output array
+     */
+    public void rankAll(long pos, long[] rank) {
+        if (pos > size)
+            pos = size;
+        final int K = rank.length;
+        // [start, end) ranges of the nodes in the current level, indexed by the code prefix 
+        long[] start = new long[1 << NUM_LEVELS];
+        long[] end = new long[1 << NUM_LEVELS];
+        start[0] = 0;
+        end[0] = pos;
+        for (int l = 0; l < NUM_LEVELS; ++l) {
+            RSBitVector B = level[l];
+            final int shift = NUM_LEVELS - l - 1;
+            // Traverse from the last node, since the child nodes overwrite the entries
+            for (int prefix = (1 << l) - 1; prefix >= 0; --prefix) {
+                final int code0 = (prefix << 1) << shift;
+                if (code0 >= K)
+                    continue;
+                long s = start[prefix];
+                long e = end[prefix];
+                long s0 = s == 0 ? 0 : B.rank(false, s);
+                long e0 = B.rank(false, e);
+                start[prefix << 1] = s0;
+                end[prefix << 1] = e0;
+                start[(prefix << 1) | 1] = numZeros[l] + (s - s0);
+                end[(prefix << 1) | 1] = numZeros[l] + (e - e0);
+            }
+        }
+        for (int c = 0; c < K; ++c)
+            rank[c] = end[c] - start[c];
+    }
+
+    public void saveTo(File f) throws IOException {
+        DataOutputStream d = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            saveTo(d);
+        }
+        finally {
+            d.close();
+        }
+    }
+
+    public DataOutputStream saveTo(DataOutputStream out) throws IOException {
+        out.writeLong(size);
+        out.writeInt(NUM_LEVELS);
+        for (int l = 0; l < NUM_LEVELS; ++l) {
+            out.writeLong(numZeros[l]);
+            level[l].saveTo(out);
+        }
+        return out;
+    }
+
+    public static WaveletMatrix loadFrom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return WaveletMatrix.loadFrom(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public static WaveletMatrix loadFrom(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        int numLevels = in.readInt();
+        if (numLevels != NUM_LEVELS)
+            throw new IOException(String.format("invalid number of levels: %d", numLevels));
+        RSBitVector[] level = new RSBitVector[numLevels];
+        long[] numZeros = new long[numLevels];
+        for (int l = 0; l < numLevels; ++l) {
+            numZeros[l] = in.readLong();
+            level[l] = RSBitVector.loadFrom(in);
+        }
+        return new WaveletMatrix(level, numZeros, size);
+    }
+
+}
@@ -0,0 +1,412 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentMetrics.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.utgenome.weaver.align.AlignmentConfig.Strategy;
+import org.xerial.util.log.Logger;
+
+/**
+ * Alignment throughput and search effort of this process. The aligners record
+ * the statistics of each read, and the metrics are exposed through JMX and
+ * reported periodically to the {@link MetricsSink}s.
+ * 
+ * @author leo
+ * 
+ */
+public class AlignmentMetrics implements AlignmentMetricsMBean
+{
+    private static Logger           _logger     = Logger.getLogger(AlignmentMetrics.class);
+
+    public static final String      OBJECT_NAME = "org.utgenome.weaver.align:type=AlignmentMetrics";
+
+    private static AlignmentMetrics instance    = new AlignmentMetrics();
+
+    /**
+     * Statistics of an alignment strategy
+     * 
+     * @author leo
+     * 
+     */
+    public static class StrategyMetrics
+    {
+        public final AtomicLong numReads           = new AtomicLong(0);
+        public final AtomicLong numMapped          = new AtomicLong(0);
+        public final AtomicLong numMultiHits       = new AtomicLong(0);
+        /**
+         * number of FM-index searches per read
+         */
+        public final Histogram  numFMIndexSearches = new Histogram();
+        /**
+         * number of Smith-Waterman calls per read
+         */
+        public final Histogram  numSW              = new Histogram();
+        /**
+         * alignment time per read in micro seconds
+         */
+        public final Histogram  latency            = new Histogram();
+
+        void reset() {
+            numReads.set(0);
+            numMapped.set(0);
+            numMultiHits.set(0);
+            numFMIndexSearches.reset();
+            numSW.reset();
+            latency.reset();
+        }
+    }
+
+    private final Map<Strategy, StrategyMetrics> strategy    = new EnumMap<Strategy, StrategyMetrics>(Strategy.class);
+    private final Map<String, Gauge>             gauges      = new ConcurrentHashMap<String, Gauge>();
+    private final Map<String, Long>              indexMemory = new ConcurrentHashMap<String, Long>();
+    private final List<MetricsSink>              sinks       = new CopyOnWriteArrayList<MetricsSink>();
+    private volatile long                        startTime   = System.nanoTime();
+    private ScheduledExecutorService             reporter;
+
+    // reads and time of the last report
+    private long                                 lastReads   = 0;
+    private long                                 lastTime    = System.nanoTime();
+
+    private AlignmentMetrics() {
+        for (Strategy each : Strategy.values())
+            strategy.put(each, new StrategyMetrics());
+    }
+
+    public static AlignmentMetrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Register the metrics to the platform MBean server
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!mbs.isRegistered(name))
+                mbs.registerMBean(instance, name);
+        }
+        catch (Exception e) {
+            _logger.warn("failed to register the metrics MBean: %s", e);
+        }
+    }
+
+    public StrategyMetrics get(Strategy s) {
+        return strategy.get(s);
+    }
+
+    /**
+     * Record the result of a read
+     * 
+     * @param s
+     * @param elapsedNanos
+     * @param numMapped
+     *            number of the reported alignments
+     * @param isMultiHit
+     */
+    public void recordRead(Strategy s, long elapsedNanos, int numMapped, boolean isMultiHit) {
+        StrategyMetrics m = strategy.get(s);
+        m.numReads.incrementAndGet();
+        if (numMapped > 0)
+            m.numMapped.incrementAndGet();
+        if (isMultiHit)
+            m.numMultiHits.incrementAndGet();
+        m.latency.add(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * Record the search effort for a read
+     * 
+     * @param s
+     * @param numFMIndexSearches
+     * @param numSW
+     */
+    public void recordSearch(Strategy s, int numFMIndexSearches, int numSW) {
+        StrategyMetrics m = strategy.get(s);
+        m.numFMIndexSearches.add(numFMIndexSearches);
+        m.numSW.add(numSW);
+    }
+
+    public void addGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    public void setIndexMemorySize(String refSeq, long byteSize) {
+        indexMemory.put(refSeq, byteSize);
+    }
+
+    public void removeIndexMemorySize(String refSeq) {
+        indexMemory.remove(refSeq);
+    }
+
+    public static long heapMemoryUsed() {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        return mem.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Peak resident set size of this process (VmHWM in /proc/self/status).
+     * 
+     * @return byte size, or -1 if the OS does not provide the information
+     */
+    public static long peakResidentMemory() {
+        File status = new File("/proc/self/status");
+        if (!status.exists())
+            return -1;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(status));
+            try {
+                for (String line; (line = in.readLine()) != null;) {
+                    if (line.startsWith("VmHWM:")) {
+                        // VmHWM:   123456 kB
+                        String[] c = line.substring("VmHWM:".length()).trim().split("\\s+");
+                        return Long.parseLong(c[0]) * 1024L;
+                    }
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            _logger.warn("failed to read %s: %s", status, e.getMessage());
+        }
+        catch (NumberFormatException e) {
+            _logger.warn("unknown format of %s: %s", status, e.getMessage());
+        }
+        return -1;
+    }
+
+    private long total(int field) {
+        long sum = 0;
+        for (StrategyMetrics each : strategy.values()) {
+            switch (field) {
+            case 0:
+                sum += each.numReads.get();
+                break;
+            case 1:
+                sum += each.numMapped.get();
+                break;
+            default:
+                sum += each.numMultiHits.get();
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private double ratio(long v) {
+        long n = getNumReads();
+        return n == 0 ? 0 : (double) v / n;
+    }
+
+    @Override
+    public long getNumReads() {
+        return total(0);
+    }
+
+    @Override
+    public double getReadsPerSecond() {
+        double sec = (System.nanoTime() - startTime) / 1.0e9;
+        return sec <= 0 ? 0 : getNumReads() / sec;
+    }
+
+    @Override
+    public double getMappedRatio() {
+        return ratio(total(1));
+    }
+
+    @Override
+    public double getUnmappedRatio() {
+        return ratio(getNumReads() - total(1));
+    }
+
+    @Override
+    public double getMultiHitRatio() {
+        return ratio(total(2));
+    }
+
+    @Override
+    public long getIndexMemorySize() {
+        long sum = 0;
+        for (Long each : indexMemory.values())
+            sum += each;
+        return sum;
+    }
+
+    @Override
+    public String[] getQueueDepths() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Gauge> each : gauges.entrySet())
+            result.add(String.format("%s=%d", each.getKey(), each.getValue().value()));
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String[] getHistograms() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<Strategy, StrategyMetrics> each : strategy.entrySet()) {
+            StrategyMetrics m = each.getValue();
+            if (m.numReads.get() == 0 && m.numFMIndexSearches.count() == 0)
+                continue;
+            String s = each.getKey().name().toLowerCase();
+            result.add(String.format("%s.fm-search: %s", s, m.numFMIndexSearches));
+            result.add(String.format("%s.sw: %s", s, m.numSW));
+            result.add(String.format("%s.latency(us): %s", s, m.latency));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (StrategyMetrics each : strategy.values())
+            each.reset();
+        startTime = System.nanoTime();
+        lastReads = 0;
+        lastTime = startTime;
+    }
+
+    /**
+     * Take a snapshot of the metrics
+     * 
+     * @return metric name -> value
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        long now = System.nanoTime();
+        long reads = getNumReads();
+        double interval = (now - lastTime) / 1.0e9;
+        m.put("elapsed", String.format("%.1f", (now - startTime) / 1.0e9));
+        m.put("reads", reads);
+        m.put("reads/sec", String.format("%.1f", getReadsPerSecond()));
+        m.put("recent reads/sec", String.format("%.1f", interval <= 0 ? 0 : (reads - lastReads) / interval));
+        m.put("mapped", String.format("%.4f", getMappedRatio()));
+        m.put("unmapped", String.format("%.4f", getUnmappedRatio()));
+        m.put("multi-hit", String.format("%.4f", getMultiHitRatio()));
+        for (String each : getHistograms()) {
+            int pos = each.indexOf(": ");
+            m.put(each.substring(0, pos), each.substring(pos + 2));
+        }
+        for (Map.Entry<String, Gauge> each : gauges.entrySet())
+            m.put("queue." + each.getKey(), each.getValue().value());
+        for (Map.Entry<String, Long> each : indexMemory.entrySet())
+            m.put("index." + each.getKey(), each.getValue());
+        m.put("heap", heapMemoryUsed());
+        lastReads = reads;
+        lastTime = now;
+        return m;
+    }
+
+    public void addSink(MetricsSink sink) {
+        sinks.add(sink);
+    }
+
+    /**
+     * Report the metrics to the sinks at the given interval
+     * 
+     * @param intervalSec
+     */
+    public synchronized void startReporting(int intervalSec) {
+        if (reporter != null)
+            return;
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "metrics-reporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Report the metrics to the sinks now
+     */
+    public void report() {
+        Map<String, Object> m = snapshot();
+        for (MetricsSink each : sinks) {
+            try {
+                each.report(m);
+            }
+            catch (Exception e) {
+                _logger.warn("failed to report metrics: %s", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the periodic reports, send the last report and close the sinks
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (sinks.isEmpty())
+            return;
+        report();
+        for (MetricsSink each : sinks) {
+            try {
+                each.close();
+            }
+            catch (Exception e) {
+                _logger.warn("failed to close a metrics sink: %s", e);
+            }
+        }
+        sinks.clear();
+    }
+
+}
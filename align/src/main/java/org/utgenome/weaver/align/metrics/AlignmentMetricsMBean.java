@@ -0,0 +1,62 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentMetricsMBean.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+/**
+ * JMX interface of {@link AlignmentMetrics}
+ * 
+ * @author leo
+ * 
+ */
+public interface AlignmentMetricsMBean
+{
+    public long getNumReads();
+
+    public double getReadsPerSecond();
+
+    public double getMappedRatio();
+
+    public double getUnmappedRatio();
+
+    public double getMultiHitRatio();
+
+    /**
+     * @return memory size of the loaded indexes in bytes
+     */
+    public long getIndexMemorySize();
+
+    /**
+     * @return name=depth of the queues between the pipeline stages
+     */
+    public String[] getQueueDepths();
+
+    /**
+     * @return summaries of the histograms of the FM-index searches, Smith-Waterman
+     *         calls and per-read latencies of each alignment strategy
+     */
+    public String[] getHistograms();
+
+    public void reset();
+}
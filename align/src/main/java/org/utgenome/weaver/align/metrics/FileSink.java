@@ -0,0 +1,70 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// FileSink.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Appends the metrics to a file as JSON lines, one line per report
+ * 
+ * @author leo
+ * 
+ */
+public class FileSink implements MetricsSink
+{
+    private final PrintWriter out;
+
+    public FileSink(String file) throws IOException {
+        this.out = new PrintWriter(new FileWriter(file, true));
+    }
+
+    @Override
+    public synchronized void report(Map<String, Object> metrics) throws Exception {
+        StringBuilder line = new StringBuilder();
+        line.append("{");
+        for (Map.Entry<String, Object> each : metrics.entrySet()) {
+            if (line.length() > 1)
+                line.append(", ");
+            line.append(quote(each.getKey())).append(": ");
+            Object v = each.getValue();
+            line.append(v instanceof Number ? v.toString() : quote(String.valueOf(v)));
+        }
+        line.append("}");
+        out.println(line);
+        out.flush();
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    @Override
+    public synchronized void close() {
+        out.close();
+    }
+}
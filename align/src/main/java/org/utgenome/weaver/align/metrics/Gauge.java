@@ -1,5 +1,5 @@
 /*--------------------------------------------------------------------------
- *  Copyright 2011 utgenome.org
+ *  Copyright 2012 utgenome.org
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -16,18 +16,22 @@
 //--------------------------------------
 // genome-weaver Project
 //
-// ServerTask.java
-// Since: 2011/07/14
+// Gauge.java
+// Since: 2012/05/24
 //
 // $URL$ 
 // $Author$
 //--------------------------------------
-package org.utgenome.weaver.parallel;
+package org.utgenome.weaver.align.metrics;
 
-public interface ServerTaskMBean
+/**
+ * A value sampled when the metrics are reported, e.g., the depth of a queue
+ * between pipeline stages
+ * 
+ * @author leo
+ * 
+ */
+public interface Gauge
 {
-    public void hello();
-
-    public void hello(String name);
-
+    public long value();
 }
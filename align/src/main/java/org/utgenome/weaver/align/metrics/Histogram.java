@@ -0,0 +1,136 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// Histogram.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with power-of-two buckets. Values are
+ * added without locking, so that the aligner threads can record their
+ * statistics in a shared histogram.
+ * 
+ * @author leo
+ * 
+ */
+public class Histogram
+{
+    private static final int      NUM_BUCKETS = 64;
+
+    /**
+     * bucket i counts the values v with 2^(i-1) <= v < 2^i. Bucket 0 counts
+     * the zeros.
+     */
+    private final AtomicLongArray bucket      = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong      count       = new AtomicLong(0);
+    private final AtomicLong      sum         = new AtomicLong(0);
+    private final AtomicLong      max         = new AtomicLong(0);
+
+    private static int bucketOf(long v) {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    public void add(long v) {
+        if (v < 0)
+            v = 0;
+        bucket.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        for (long m; v > (m = max.get());) {
+            if (max.compareAndSet(m, v))
+                break;
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Upper bound of the p-th quantile
+     * 
+     * @param p
+     *            0.0 - 1.0
+     * @return
+     */
+    public long quantile(double p) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * n);
+        long acc = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            acc += bucket.get(i);
+            if (acc >= rank)
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Counts of the buckets. The i-th element counts the values in [2^(i-1),
+     * 2^i)
+     * 
+     * @return
+     */
+    public long[] buckets() {
+        int last = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            if (bucket.get(i) != 0)
+                last = i;
+        }
+        long[] b = new long[last + 1];
+        for (int i = 0; i <= last; ++i)
+            b[i] = bucket.get(i);
+        return b;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; ++i)
+            bucket.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n:%d, mean:%.1f, p50:%d, p90:%d, p99:%d, max:%d", count(), mean(), quantile(0.5),
+                quantile(0.9), quantile(0.99), max());
+    }
+}
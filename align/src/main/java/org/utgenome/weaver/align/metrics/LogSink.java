@@ -0,0 +1,54 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// LogSink.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import java.util.Map;
+
+import org.xerial.util.log.Logger;
+
+/**
+ * Writes the metrics to the log
+ * 
+ * @author leo
+ * 
+ */
+public class LogSink implements MetricsSink
+{
+    private static Logger _logger = Logger.getLogger(LogSink.class);
+
+    @Override
+    public void report(Map<String, Object> metrics) throws Exception {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Object> each : metrics.entrySet()) {
+            if (line.length() > 0)
+                line.append(", ");
+            line.append(each.getKey()).append(":").append(each.getValue());
+        }
+        _logger.info(line.toString());
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,135 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// MeteredAligner.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig.Strategy;
+import org.utgenome.weaver.align.SuffixInterval;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.strategy.BWAState;
+import org.utgenome.weaver.align.strategy.FMQuickScan;
+import org.utgenome.weaver.parallel.Reporter;
+
+/**
+ * Records the latency and mapping status of each read aligned by the
+ * underlying aligner into {@link AlignmentMetrics}
+ * 
+ * @author leo
+ * 
+ */
+public class MeteredAligner implements Aligner
+{
+    private final Aligner          aligner;
+    private final Strategy         strategy;
+    private final HitCounter       hits;
+    private final AlignmentMetrics metrics = AlignmentMetrics.getInstance();
+
+    public MeteredAligner(Aligner aligner, Strategy strategy) {
+        this(aligner, strategy, new HitCounter());
+    }
+
+    /**
+     * @param aligner
+     * @param strategy
+     * @param hits
+     *            counter that also wraps the reporter given to the constructor
+     *            of the aligner. Use this for aligners that report to their own
+     *            reporter instead of the one passed to
+     *            {@link #align(Read, Reporter)}.
+     */
+    public MeteredAligner(Aligner aligner, Strategy strategy, HitCounter hits) {
+        this.aligner = aligner;
+        this.strategy = strategy;
+        this.hits = hits;
+    }
+
+    /**
+     * Counts the alignments reported for a read. BSF and SF report
+     * {@link AlignmentRecord}s, and BD and BWA report {@link FMQuickScan}s for
+     * exact matches and {@link BWAState}s for the others.
+     * 
+     * @author leo
+     * 
+     */
+    public static class HitCounter
+    {
+        int     numMapped  = 0;
+        boolean isMultiHit = false;
+
+        void reset() {
+            numMapped = 0;
+            isMultiHit = false;
+        }
+
+        /**
+         * Create a reporter that counts the alignments passed to the given
+         * reporter
+         * 
+         * @param out
+         * @return
+         */
+        public Reporter wrap(final Reporter out) {
+            return new Reporter() {
+                @Override
+                public void emit(Object result) throws Exception {
+                    count(result);
+                    out.emit(result);
+                }
+            };
+        }
+
+        void count(Object result) {
+            if (result instanceof AlignmentRecord) {
+                AlignmentRecord r = (AlignmentRecord) result;
+                if (r.chr != null && !"*".equals(r.chr))
+                    countHit(r.numBestHits > 1);
+            }
+            else if (result instanceof FMQuickScan) {
+                SuffixInterval si = ((FMQuickScan) result).si;
+                if (si != null && !si.isEmpty())
+                    countHit(si.range() > 1);
+            }
+            else if (result instanceof BWAState) {
+                countHit(false);
+            }
+        }
+
+        private void countHit(boolean hasMultipleLocations) {
+            numMapped++;
+            if (numMapped > 1 || hasMultipleLocations)
+                isMultiHit = true;
+        }
+    }
+
+    @Override
+    public void align(Read read, Reporter out) throws Exception {
+        hits.reset();
+        long start = System.nanoTime();
+        aligner.align(read, hits.wrap(out));
+        metrics.recordRead(strategy, System.nanoTime() - start, hits.numMapped, hits.isMultiHit);
+    }
+
+}
@@ -1,5 +1,5 @@
 /*--------------------------------------------------------------------------
- *  Copyright 2011 utgenome.org
+ *  Copyright 2012 utgenome.org
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -16,27 +16,30 @@
 //--------------------------------------
 // genome-weaver Project
 //
-// ServerTaskImpl.java
-// Since: 2011/07/14
+// MetricsSink.java
+// Since: 2012/05/24
 //
 // $URL$ 
 // $Author$
 //--------------------------------------
-package org.utgenome.weaver.parallel;
+package org.utgenome.weaver.align.metrics;
 
-public class ServerTask implements ServerTaskMBean
-{
-    public ServerTask() {}
-
-    @Override
-    public void hello() {
-        System.out.println("Hello World!");
+import java.util.Map;
 
-    }
-
-    @Override
-    public void hello(String name) {
-        System.out.println(String.format("Hello %s!", name));
+/**
+ * Destination of the periodic metrics reports of {@link AlignmentMetrics}
+ * 
+ * @author leo
+ * 
+ */
+public interface MetricsSink
+{
+    /**
+     * @param metrics
+     *            metric name -> value
+     * @throws Exception
+     */
+    public void report(Map<String, Object> metrics) throws Exception;
 
-    }
+    public void close() throws Exception;
 }
@@ -0,0 +1,381 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// StageTimer.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Always-on timers of the alignment stages. Every entry to a stage is counted,
+ * and the elapsed time is measured with System.nanoTime() only for one of
+ * every {@link #SAMPLE_INTERVAL} reads, so the overhead is a thread-local
+ * lookup and a counter increment for the other reads. The time of a nested
+ * stage, e.g., Smith-Waterman verification during the NFA search, is
+ * excluded from the enclosing stage.
+ * 
+ * The counters are held per thread and aggregated when a summary is
+ * requested. When a thread terminates, its counters are folded into the
+ * totals of the finished threads and its timer is released, so a thread pool
+ * that replaces its threads does not grow the registry. The sampled reads can
+ * also be recorded as a timeline in the Chrome trace event format
+ * (chrome://tracing). The trace events are discarded once they are written.
+ * 
+ * @author leo
+ * 
+ */
+public class StageTimer
+{
+    public static enum Stage {
+        PARSE("parsing"), QUICK_SCAN("quick scan"), NFA_SEARCH("NFA search"), SW_VERIFICATION("SW verification"),
+        COORDINATE("coordinate translation"), SAM_OUTPUT("SAM formatting");
+
+        public final String description;
+
+        private Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    public static final int                      SAMPLE_INTERVAL  = 16;
+    private static final int                     MAX_DEPTH        = 16;
+    /**
+     * Upper limit of the number of trace events kept per thread
+     */
+    private static final int                     MAX_TRACE_EVENTS = 1 << 20;
+    private static final int                     NUM_STAGES       = Stage.values().length;
+
+    private static final List<StageTimer>        timers           = new CopyOnWriteArrayList<StageTimer>();
+    private static final ThreadLocal<StageTimer> local            = new LocalTimer();
+    private static volatile boolean              tracing          = false;
+    /**
+     * Incremented when the trace events are written or reset. A thread drops
+     * the events of an older generation.
+     */
+    private static volatile int                  traceGeneration  = 0;
+
+    // counters of the terminated threads (guarded by StageTimer.class)
+    private static final long[]                  retiredCalls     = new long[NUM_STAGES];
+    private static final double[]                retiredTime      = new double[NUM_STAGES];
+
+    private final WeakReference<Thread>          thread;
+    private final String                         threadName;
+    private final long                           threadId;
+    private final long[]                         numCalls         = new long[NUM_STAGES];
+    private final long[]                         sampledNanos     = new long[NUM_STAGES];
+    private long                                 numReads         = 0;
+    private long                                 numSampledReads  = 0;
+
+    // state of the sampled read
+    private boolean                              sampling         = false;
+    private final Stage[]                        stack            = new Stage[MAX_DEPTH];
+    private int                                  depth            = 0;
+    private long                                 last;
+
+    // trace events: (stage << 1 | isEnd), nanoTime
+    private int                                  generation       = 0;
+    private int                                  numEvents        = 0;
+    private int[]                                eventType;
+    private long[]                               eventTime;
+
+    private static class LocalTimer extends ThreadLocal<StageTimer>
+    {
+        @Override
+        protected StageTimer initialValue() {
+            retireTerminatedThreads(false);
+            StageTimer t = new StageTimer(Thread.currentThread());
+            timers.add(t);
+            return t;
+        }
+    }
+
+    private StageTimer(Thread thread) {
+        this.thread = new WeakReference<Thread>(thread);
+        this.threadName = thread.getName();
+        this.threadId = thread.getId();
+        this.generation = traceGeneration;
+    }
+
+    private boolean isAlive() {
+        Thread th = thread.get();
+        return th != null && th.isAlive();
+    }
+
+    /**
+     * Scale of the sampled time to all reads of the thread
+     */
+    private double scale() {
+        return numSampledReads == 0 ? 0 : (double) numReads / numSampledReads;
+    }
+
+    /**
+     * Fold the counters of the terminated threads into the retired counters
+     * and remove their timers
+     * 
+     * @param traceIsWritten
+     *            if false, the timers holding trace events that are not
+     *            written yet are kept
+     */
+    private static synchronized void retireTerminatedThreads(boolean traceIsWritten) {
+        for (StageTimer t : timers) {
+            if (t.isAlive())
+                continue;
+            if (!traceIsWritten && t.numEvents > 0 && t.generation == traceGeneration)
+                continue;
+            double scale = t.scale();
+            for (int i = 0; i < NUM_STAGES; ++i) {
+                retiredCalls[i] += t.numCalls[i];
+                retiredTime[i] += t.sampledNanos[i] * scale / 1.0e9;
+            }
+            timers.remove(t);
+        }
+    }
+
+    /**
+     * @return the number of the registered per-thread timers
+     */
+    static int numTimers() {
+        return timers.size();
+    }
+
+    /**
+     * Notify the start of a read. Decides whether the stages of this read are
+     * timed.
+     */
+    public static void beginRead() {
+        StageTimer t = local.get();
+        t.numReads++;
+        t.sampling = t.numReads % SAMPLE_INTERVAL == 0;
+        t.depth = 0;
+        if (t.sampling)
+            t.numSampledReads++;
+    }
+
+    public static void enter(Stage stage) {
+        StageTimer t = local.get();
+        t.numCalls[stage.ordinal()]++;
+        if (!t.sampling || t.depth >= MAX_DEPTH)
+            return;
+
+        long now = System.nanoTime();
+        if (t.depth > 0)
+            t.sampledNanos[t.stack[t.depth - 1].ordinal()] += now - t.last;
+        t.stack[t.depth++] = stage;
+        t.last = now;
+        if (tracing)
+            t.addEvent(stage, false, now);
+    }
+
+    public static void exit(Stage stage) {
+        StageTimer t = local.get();
+        if (!t.sampling || t.depth == 0 || t.stack[t.depth - 1] != stage)
+            return;
+
+        long now = System.nanoTime();
+        t.sampledNanos[stage.ordinal()] += now - t.last;
+        t.depth--;
+        t.last = now;
+        if (tracing)
+            t.addEvent(stage, true, now);
+    }
+
+    private void addEvent(Stage stage, boolean isEnd, long time) {
+        if (generation != traceGeneration) {
+            // the events have been written or reset
+            generation = traceGeneration;
+            numEvents = 0;
+            eventType = null;
+            eventTime = null;
+        }
+        if (eventType == null) {
+            eventType = new int[1024];
+            eventTime = new long[1024];
+        }
+        if (numEvents >= eventType.length) {
+            if (numEvents >= MAX_TRACE_EVENTS)
+                return;
+            int newSize = Math.min(MAX_TRACE_EVENTS, eventType.length * 2);
+            int[] newType = new int[newSize];
+            long[] newTime = new long[newSize];
+            System.arraycopy(eventType, 0, newType, 0, numEvents);
+            System.arraycopy(eventTime, 0, newTime, 0, numEvents);
+            eventType = newType;
+            eventTime = newTime;
+        }
+        eventType[numEvents] = (stage.ordinal() << 1) | (isEnd ? 1 : 0);
+        eventTime[numEvents] = time;
+        numEvents++;
+    }
+
+    /**
+     * Record the timeline of the sampled reads for {@link #writeTrace(String)}
+     * 
+     * @param enabled
+     */
+    public static void setTracing(boolean enabled) {
+        tracing = enabled;
+    }
+
+    /**
+     * Clear the counters of all threads. The counters of running threads may
+     * not be cleared completely.
+     */
+    public static synchronized void reset() {
+        traceGeneration++;
+        retireTerminatedThreads(true);
+        for (int i = 0; i < NUM_STAGES; ++i) {
+            retiredCalls[i] = 0;
+            retiredTime[i] = 0;
+        }
+        for (StageTimer t : timers) {
+            for (int i = 0; i < NUM_STAGES; ++i) {
+                t.numCalls[i] = 0;
+                t.sampledNanos[i] = 0;
+            }
+            t.numReads = 0;
+            t.numSampledReads = 0;
+        }
+    }
+
+    /**
+     * Per-stage counts aggregated over the threads
+     * 
+     * @author leo
+     * 
+     */
+    public static class StageSummary
+    {
+        public final Stage stage;
+        public long        numCalls;
+        /**
+         * Estimated time (sec.) spent in this stage by all threads
+         */
+        public double      estimatedTime;
+        /**
+         * Ratio to the total time of the stages
+         */
+        public double      share;
+
+        public StageSummary(Stage stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s calls:%,14d  time:%,10.2f sec. %5.1f%%", stage.description, numCalls,
+                    estimatedTime, share * 100);
+        }
+    }
+
+    public static synchronized List<StageSummary> summary() {
+        retireTerminatedThreads(false);
+        List<StageSummary> result = new ArrayList<StageSummary>();
+        for (Stage s : Stage.values())
+            result.add(new StageSummary(s));
+
+        double total = 0;
+        for (int i = 0; i < NUM_STAGES; ++i) {
+            StageSummary s = result.get(i);
+            s.numCalls += retiredCalls[i];
+            s.estimatedTime += retiredTime[i];
+            total += retiredTime[i];
+        }
+        for (StageTimer t : timers) {
+            // Scale the sampled time up to all reads of the thread
+            double scale = t.scale();
+            for (int i = 0; i < NUM_STAGES; ++i) {
+                StageSummary s = result.get(i);
+                s.numCalls += t.numCalls[i];
+                double time = t.sampledNanos[i] * scale / 1.0e9;
+                s.estimatedTime += time;
+                total += time;
+            }
+        }
+        for (StageSummary s : result)
+            s.share = total <= 0 ? 0 : s.estimatedTime / total;
+        return result;
+    }
+
+    /**
+     * Estimated time (sec.) of each stage
+     * 
+     * @return
+     */
+    public static Map<String, Object> summaryMap() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        for (StageSummary s : summary()) {
+            m.put("stage." + s.stage.name().toLowerCase(), s.estimatedTime);
+        }
+        return m;
+    }
+
+    /**
+     * Write the timeline of the sampled reads in the Chrome trace event
+     * format. The written events are discarded: each thread releases its
+     * buffer when it records the next event, and the buffers of the
+     * terminated threads are released here.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public static synchronized void writeTrace(String file) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            out.println("{\"traceEvents\":[");
+            boolean first = true;
+            Stage[] stages = Stage.values();
+            for (StageTimer t : timers) {
+                if (t.generation != traceGeneration)
+                    continue;
+                if (!first)
+                    out.println(",");
+                first = false;
+                out.print(String.format(
+                        "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                        t.threadId, t.threadName.replace("\"", "'")));
+                for (int i = 0; i < t.numEvents; ++i) {
+                    Stage s = stages[t.eventType[i] >>> 1];
+                    boolean isEnd = (t.eventType[i] & 1) != 0;
+                    out.print(String.format(",\n{\"name\":\"%s\",\"ph\":\"%s\",\"ts\":%.3f,\"pid\":1,\"tid\":%d}",
+                            s.description, isEnd ? "E" : "B", t.eventTime[i] / 1000.0, t.threadId));
+                }
+            }
+            out.println("\n]}");
+        }
+        finally {
+            out.close();
+            traceGeneration++;
+            retireTerminatedThreads(true);
+        }
+    }
+
+}
@@ -178,7 +178,30 @@ public class AlignmentRecord
         return out.toString();
     }
 
+    /**
+     * Approximate mapping quality (Phred scale) of an alignment. A unique exact
+     * hit gets 37 as in BWA, and loses 3 for each difference from the
+     * reference. A read with more than one best hit gets 0.
+     * 
+     * @param numBestHits
+     * @param numDiffs
+     * @return
+     */
+    public static int mappingQuality(int numBestHits, int numDiffs) {
+        if (numBestHits != 1)
+            return 0;
+        return Math.max(1, 37 - 3 * Math.max(0, numDiffs));
+    }
+
     public static AlignmentRecord convert(ReadHit hit, Read read, int numOtherBestHits) throws UTGBException {
+        AlignmentRecord rec = convertHit(hit, read, numOtherBestHits);
+        for (AlignmentRecord r = rec; r != null; r = r.split) {
+            r.score = mappingQuality(r.numBestHits, r.numMismatches);
+        }
+        return rec;
+    }
+
+    private static AlignmentRecord convertHit(ReadHit hit, Read read, int numOtherBestHits) throws UTGBException {
 
         final int numHits = hit.numHits + numOtherBestHits;
         ACGTSequence query = read.getRead(0);
@@ -26,10 +26,12 @@ package org.utgenome.weaver.align.sais;
 
 import java.util.Iterator;
 
+import org.utgenome.weaver.align.LBuffer;
 import org.utgenome.weaver.align.LSeq;
 
 /**
- * ArrayList for int40 values. This array can hold 3.2G entries.
+ * ArrayList for int40 values. The values are stored off-heap in an
+ * {@link LBuffer}, so the array size is not limited by the Java array size.
  * 
  * 
  * @author leo
@@ -40,52 +42,57 @@ public class Int40Array implements LSeq, Iterable<Long>
     public static final long MAX_VALUE       = 0x7FFFFFFFFFL;
     public static final long MIN_VALUE       = -0x7FFFFFFFFFL;
 
-    public static final long MAX_INDEX       = 16L * 1024L * 1024L * 1024L / 5L;
-
     private static final int LONG_BYTE_SIZE  = 8;
     private static final int INT40_BYTE_SIZE = 5;
     private final long       size;
 
-    private long[]           rawArray;
+    private final LBuffer    rawArray;
 
     public Int40Array(long size) {
         this.size = size;
 
-        long numBlocks = (size * 5 + 5 - 1) / 5;
-        // 8 * 2GB = 16GB 
-        // int40   16GB / 5 = 3.2G entries
-        // uint32  16GB / 4 = 4G entries
-        long rawArraySize = numBlocks * 5;
-        if (rawArraySize > MAX_INDEX)
-            throw new IllegalArgumentException(String.format(
-                    "Cannot create int40 array more than %,d entries: size=%,d", MAX_INDEX, size));
-        rawArray = new long[(int) rawArraySize];
+        // 4 entries are packed into 5 long values
+        long numBlocks = (size + 4 - 1) / 4;
+        rawArray = LBuffer.allocate(numBlocks * INT40_BYTE_SIZE * LONG_BYTE_SIZE);
+    }
+
+    private long raw(long pos) {
+        return rawArray.getLong(pos * LONG_BYTE_SIZE);
+    }
+
+    private void setRaw(long pos, long value) {
+        rawArray.putLong(pos * LONG_BYTE_SIZE, value);
     }
 
     public long lookup(long index) {
-        int bPos = (int) index >> 2;
+        long bPos = index >> 2;
         int bOffset = (int) index & 0x03;
-        long L = rawArray[bPos * 5 + bOffset + 1] >>> ((1 - (bOffset & 0x01)) * 32);
-        long H = ((rawArray[bPos * 5] >>> (bOffset * 8)) & 0xFF) << 32;
+        long L = raw(bPos * 5 + bOffset + 1) >>> ((1 - (bOffset & 0x01)) * 32);
+        long H = ((raw(bPos * 5) >>> (bOffset * 8)) & 0xFF) << 32;
         long v = H | L;
         return v - ((v & 0x8000000000L) << 1);
     }
 
     public void set(long index, long value) {
-        int bPos = (int) index >> 2;
+        long bPos = index >> 2;
         int bOffset = (int) index & 0x03;
         long L = value & 0xFFFFFFFFL;
         long H = value >>> 32;
-        rawArray[bPos * 5 + bOffset + 1] &= 0xFFFFFFFFL >>> ((index & 0x01) * 32);
-        rawArray[bPos * 5 + bOffset + 1] |= L << ((1 - index & 0x01) * 32);
-        rawArray[bPos * 5] &= ~(0xff << (bOffset * 8));
-        rawArray[bPos * 5] |= H << (bOffset * 8);
+        long lPos = bPos * 5 + bOffset + 1;
+        long l = raw(lPos) & (0xFFFFFFFFL >>> ((index & 0x01) * 32));
+        setRaw(lPos, l | (L << ((1 - index & 0x01) * 32)));
+        long h = raw(bPos * 5) & ~(0xff << (bOffset * 8));
+        setRaw(bPos * 5, h | (H << (bOffset * 8)));
     }
 
     public long textSize() {
         return size;
     }
 
+    public long byteSize() {
+        return rawArray.byteSize();
+    }
+
     @Override
     public long increment(long index, long val) {
         long next = lookup(index) + val;
@@ -24,10 +24,12 @@ package org.utgenome.weaver.align.sais;
 
 import java.util.Iterator;
 
+import org.utgenome.weaver.align.LBuffer;
 import org.utgenome.weaver.align.LSeq;
 
 /**
- * Array capable to store at most 4G (4 x 1024 x 1024 x 1024) entries
+ * Array capable to store at most 4G (4 x 1024 x 1024 x 1024) entries. The
+ * values are stored off-heap in an {@link LBuffer}.
  * 
  * @author leo
  * 
@@ -39,13 +41,11 @@ public class UInt32Array implements LSeq, Iterable<Long>
 
     private final long       size;
 
-    private long[]           rawArray;
+    private final LBuffer    rawArray;
 
     public UInt32Array(long size) {
         this.size = size;
-
-        int rawArraySize = (int) ((size + 1) / 2);
-        rawArray = new long[rawArraySize];
+        rawArray = LBuffer.allocate(size * 4);
     }
 
     public long textSize() {
@@ -53,18 +53,11 @@ public class UInt32Array implements LSeq, Iterable<Long>
     }
 
     public long lookup(long index) {
-        int pos = (int) ((index >>> 1) & 0xFFFFFFFFL);
-        int offset = (int) (index & 0x01);
-        long v = (rawArray[pos] >>> ((1 - offset) * 32)) & 0xFFFFFFFFL;
-        return v;
+        return rawArray.getInt(index << 2) & 0xFFFFFFFFL;
     }
 
     public void set(long index, long value) {
-
-        int pos = (int) ((index >>> 1) & 0xFFFFFFFFL);
-        int offset = (int) (index & 0x01);
-        rawArray[pos] &= 0xFFFFFFFFL << (offset * 32);
-        rawArray[pos] |= value << ((1 - offset) * 32);
+        rawArray.putInt(index << 2, (int) value);
     }
 
     @Override
@@ -0,0 +1,173 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// Evaluate.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.GenomeWeaverCommand;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.SAMOutput;
+import org.utgenome.weaver.align.SequenceBoundary;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.FileSink;
+import org.utgenome.weaver.align.metrics.LogSink;
+import org.utgenome.weaver.align.metrics.MetricsSink;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.ReadReader;
+import org.utgenome.weaver.align.record.ReadReaderFactory;
+import org.xerial.util.StopWatch;
+import org.xerial.util.log.Logger;
+import org.xerial.util.opt.Option;
+
+/**
+ * Aligns the reads generated by the simulate command, and reports the
+ * throughput, the peak memory usage and the mapping accuracy of each MAPQ bin.
+ * The report is appended to a file as a JSON line, so that the results of
+ * different releases and strategies can be compared.
+ * 
+ * @author leo
+ * 
+ */
+public class Evaluate extends GenomeWeaverCommand
+{
+    private static Logger _logger = Logger.getLogger(Evaluate.class);
+
+    public static class EvaluationConfig extends AlignmentConfig
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Option(longName = "report", description = "append the evaluation result to the given file as a JSON line")
+        public String             reportFile;
+
+        @Option(longName = "tolerance", description = "allowed distance (bp) from the true position. default=10")
+        public int                tolerance        = 10;
+    }
+
+    private EvaluationConfig config = new EvaluationConfig();
+
+    @Override
+    public String name() {
+        return "evaluate";
+    }
+
+    @Override
+    public String getOneLineDescription() {
+        return "measure the throughput and the accuracy of alignment on simulated reads";
+    }
+
+    @Override
+    public Object getOptionHolder() {
+        return config;
+    }
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (config.refSeq == null)
+            throw new UTGBException(UTGBErrorCode.MISSING_OPTION, "no reference sequence is given (-r)");
+        if (config.readFiles == null || config.readFiles.isEmpty() || config.readFiles.size() > 2)
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT,
+                    "give one read file, or two read files of paired-end reads");
+
+        Map<String, Object> report = evaluate(config);
+
+        MetricsSink sink = config.reportFile != null ? new FileSink(config.reportFile) : new LogSink();
+        try {
+            sink.report(report);
+        }
+        finally {
+            sink.close();
+        }
+        if (config.reportFile != null)
+            _logger.info("evaluation result is appended to %s", config.reportFile);
+    }
+
+    public static Map<String, Object> evaluate(EvaluationConfig config) throws Exception {
+        SAMOutput sam = null;
+        if (config.outputFile != null)
+            sam = new SAMOutput(SequenceBoundary.load(config.refSeq), Align.openOutput(config));
+
+        MappingAccuracy accuracy = new MappingAccuracy(config.tolerance, sam);
+        CommonDataSet common = CommonDataSet.prepare(config, accuracy);
+        Aligner aligner = Align.newAligner(common, config, accuracy);
+
+        // Align each mate as a single-end read
+        StageTimer.reset();
+        StopWatch timer = new StopWatch();
+        try {
+            if (sam != null)
+                sam.init();
+            for (int mate = 0; mate < config.readFiles.size(); ++mate) {
+                accuracy.setMate(mate);
+                ReadReader reader = ReadReaderFactory.createReader(config.readFiles.get(mate));
+                try {
+                    while (true) {
+                        StageTimer.beginRead();
+                        Read r;
+                        StageTimer.enter(Stage.PARSE);
+                        try {
+                            r = reader.next();
+                        }
+                        finally {
+                            StageTimer.exit(Stage.PARSE);
+                        }
+                        if (r == null)
+                            break;
+                        accuracy.countRead();
+                        aligner.align(r, accuracy);
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+        }
+        finally {
+            if (sam != null)
+                sam.finish();
+        }
+        double time = timer.getElapsedTime();
+
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("refSeq", config.refSeq);
+        report.put("readFiles", config.readFiles.toString());
+        report.put("strategy", config.strategy.name());
+        report.put("index", config.indexType.name());
+        report.put("time", time);
+        report.put("reads/sec", time <= 0 ? 0 : accuracy.getNumReads() / time);
+        report.put("peakRSS", AlignmentMetrics.peakResidentMemory());
+        report.putAll(accuracy.summary());
+        report.putAll(StageTimer.summaryMap());
+        return report;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// MappingAccuracy.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.sim.ReadSimulator.Origin;
+import org.utgenome.weaver.parallel.Reporter;
+
+/**
+ * Compares the alignment results of simulated reads with their origins, and
+ * counts the mapped and correctly mapped reads in each MAPQ bin. Only the first
+ * record of each read is evaluated.
+ * 
+ * @author leo
+ * 
+ */
+public class MappingAccuracy implements Reporter
+{
+    /**
+     * Lower bounds of the MAPQ bins
+     */
+    public static final int[] MAPQ_BINS    = { 0, 1, 10, 20, 30 };
+
+    private final int         tolerance;
+    private final Reporter    next;
+
+    private int               mate         = 0;
+    private String            lastReadName = null;
+
+    private long              numReads     = 0;
+    private long              numNoOrigin  = 0;
+    private final long[]      numMapped    = new long[MAPQ_BINS.length];
+    private final long[]      numCorrect   = new long[MAPQ_BINS.length];
+
+    /**
+     * @param tolerance
+     *            allowed distance between the aligned and the true positions
+     * @param next
+     *            reporter to which the records are passed. null if not
+     *            necessary
+     */
+    public MappingAccuracy(int tolerance, Reporter next) {
+        this.tolerance = tolerance;
+        this.next = next;
+    }
+
+    /**
+     * Set the mate of the following reads
+     * 
+     * @param mate
+     *            0 for single-end reads and the first mates, 1 for the second
+     *            mates
+     */
+    public void setMate(int mate) {
+        this.mate = mate;
+        this.lastReadName = null;
+    }
+
+    /**
+     * Count an input read. The reads that have no alignment record are
+     * counted as unmapped.
+     */
+    public void countRead() {
+        numReads++;
+    }
+
+    public static int bin(int mapq) {
+        for (int i = MAPQ_BINS.length - 1; i > 0; --i) {
+            if (mapq >= MAPQ_BINS[i])
+                return i;
+        }
+        return 0;
+    }
+
+    @Override
+    public void emit(Object result) throws Exception {
+        if (next != null)
+            next.emit(result);
+
+        if (!(result instanceof AlignmentRecord))
+            return;
+
+        AlignmentRecord r = (AlignmentRecord) result;
+        if (r.readName.equals(lastReadName))
+            return;
+        lastReadName = r.readName;
+
+        Origin origin = ReadSimulator.parseOrigin(r.readName, mate);
+        if (origin == null) {
+            numNoOrigin++;
+            return;
+        }
+        if (r.numBestHits <= 0)
+            return;
+
+        int b = bin(r.score);
+        numMapped[b]++;
+        if (isCorrect(r, origin))
+            numCorrect[b]++;
+    }
+
+    boolean isCorrect(AlignmentRecord r, Origin origin) {
+        return origin.chr.equals(r.chr) && origin.strand == r.strand && Math.abs(r.start - origin.start) <= tolerance;
+    }
+
+    public long getNumReads() {
+        return numReads;
+    }
+
+    public long getNumMapped() {
+        return sum(numMapped, 0);
+    }
+
+    public long getNumCorrect() {
+        return sum(numCorrect, 0);
+    }
+
+    private static long sum(long[] count, int fromBin) {
+        long s = 0;
+        for (int i = fromBin; i < count.length; ++i)
+            s += count[i];
+        return s;
+    }
+
+    private static String label(int bin) {
+        int lower = MAPQ_BINS[bin];
+        if (bin == MAPQ_BINS.length - 1)
+            return String.format("mapq%d-", lower);
+        int upper = MAPQ_BINS[bin + 1] - 1;
+        return lower == upper ? String.format("mapq%d", lower) : String.format("mapq%d-%d", lower, upper);
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 0 : (double) a / b;
+    }
+
+    /**
+     * Summary of the accuracy. For each MAPQ bin, the number of mapped and
+     * correctly mapped reads, and the precision and recall of the reads whose
+     * MAPQ is greater than or equal to the lower bound of the bin.
+     * 
+     * @return
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("reads", numReads);
+        m.put("mapped", getNumMapped());
+        m.put("correct", getNumCorrect());
+        m.put("precision", ratio(getNumCorrect(), getNumMapped()));
+        m.put("recall", ratio(getNumCorrect(), numReads));
+        if (numNoOrigin > 0)
+            m.put("no origin", numNoOrigin);
+        for (int i = 0; i < MAPQ_BINS.length; ++i) {
+            String label = label(i);
+            m.put(label + ".mapped", numMapped[i]);
+            m.put(label + ".correct", numCorrect[i]);
+            long mapped = sum(numMapped, i);
+            long correct = sum(numCorrect, i);
+            m.put(String.format("mapq>=%d.precision", MAPQ_BINS[i]), ratio(correct, mapped));
+            m.put(String.format("mapq>=%d.recall", MAPQ_BINS[i]), ratio(correct, numReads));
+        }
+        return m;
+    }
+
+}
@@ -0,0 +1,421 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ReadSimulator.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import java.util.List;
+import java.util.Random;
+
+import org.utgenome.weaver.align.ACGT;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.SequenceBoundary;
+import org.utgenome.weaver.align.SequenceBoundary.SequenceIndex;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.record.SingleEndRead;
+
+/**
+ * Generates reads from random positions of a reference sequence, injecting
+ * mismatches and indels at the given rates. The same seed always produces the
+ * same reads, so that benchmark and accuracy results are reproducible.
+ * 
+ * The origin of each read is encoded in its name,
+ * <code>sim(id):(chr):(pos)(strand)</code>, or
+ * <code>sim(id):(chr):(pos1)(strand1),(pos2)(strand2)</code> for paired-end
+ * reads, where the positions are the 1-origin leftmost positions of the reads
+ * in the chromosome. {@link #parseOrigin(String, int)} decodes the name.
+ * 
+ * @author leo
+ * 
+ */
+public class ReadSimulator
+{
+    private static final int       MAX_TRIALS = 100000;
+
+    private final ACGTSequence     reference;
+    private final SequenceBoundary boundary;
+    private final int              readLength;
+    private final double           mismatchRate;
+    private final double           indelRate;
+    private final Random           random;
+
+    private double                 mismatchRateAt3End;
+    private int                    count      = 0;
+
+    /**
+     * A simulated read and its origin
+     * 
+     * @author leo
+     * 
+     */
+    public static class SimulatedRead
+    {
+        public final String       name;
+        public final ACGTSequence seq;
+        public final String       qual;
+        /**
+         * 0-based start position of the read in the reference text
+         */
+        public final long         origin;
+        public final String       chr;
+        /**
+         * 1-origin start position of the read in the chromosome
+         */
+        public final int          start;
+        public final Strand       strand;
+        public final int          numMismatches;
+        public final int          numIndels;
+
+        public SimulatedRead(String name, ACGTSequence seq, String qual, long origin, String chr, int start,
+                Strand strand, int numMismatches, int numIndels) {
+            this.name = name;
+            this.seq = seq;
+            this.qual = qual;
+            this.origin = origin;
+            this.chr = chr;
+            this.start = start;
+            this.strand = strand;
+            this.numMismatches = numMismatches;
+            this.numIndels = numIndels;
+        }
+
+        public SingleEndRead toRead() {
+            return new SingleEndRead(name, seq, qual);
+        }
+
+        public String toFASTQ() {
+            return String.format("@%s\n%s\n+\n%s\n", name, seq, qual);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s:%d%s mismatches:%d indels:%d", name, chr, start, strand.symbol,
+                    numMismatches, numIndels);
+        }
+    }
+
+    /**
+     * Origin of a read decoded from the read name
+     * 
+     * @author leo
+     * 
+     */
+    public static class Origin
+    {
+        public final String chr;
+        public final int    start;
+        public final Strand strand;
+
+        public Origin(String chr, int start, Strand strand) {
+            this.chr = chr;
+            this.start = start;
+            this.strand = strand;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s:%d%s", chr, start, strand.symbol);
+        }
+    }
+
+    public ReadSimulator(ACGTSequence reference, int readLength, double mismatchRate, double indelRate, long seed) {
+        this(reference, SequenceBoundary.createFromSingleSeq("seq", reference), readLength, mismatchRate, indelRate,
+                seed);
+    }
+
+    /**
+     * @param reference
+     *            concatenated sequences
+     * @param boundary
+     *            boundaries of the sequences in the reference. No read spans
+     *            two sequences.
+     * @param readLength
+     * @param mismatchRate
+     * @param indelRate
+     * @param seed
+     */
+    public ReadSimulator(ACGTSequence reference, SequenceBoundary boundary, int readLength, double mismatchRate,
+            double indelRate, long seed) {
+        if (readLength <= 0)
+            throw new IllegalArgumentException("read length must be positive: " + readLength);
+        // leave room for deletions at the tail of the read
+        if (reference.textSize() < readLength * 2L)
+            throw new IllegalArgumentException(String.format("reference (%,d bp) is too short for %d bp reads",
+                    reference.textSize(), readLength));
+
+        this.reference = reference;
+        this.boundary = boundary;
+        this.readLength = readLength;
+        this.mismatchRate = mismatchRate;
+        this.mismatchRateAt3End = mismatchRate;
+        this.indelRate = indelRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Increase the mismatch rate linearly from the 5' end towards the 3' end of
+     * the reads, as in the error profiles of the sequencers.
+     * 
+     * @param rate
+     *            mismatch rate at the last base
+     */
+    public void setMismatchRateAt3End(double rate) {
+        this.mismatchRateAt3End = rate;
+    }
+
+    /**
+     * Create a random ACGT sequence of the given length
+     * 
+     * @param length
+     * @param seed
+     * @return
+     */
+    public static ACGTSequence randomGenome(long length, long seed) {
+        Random r = new Random(seed);
+        ACGTSequence seq = new ACGTSequence(length);
+        for (long i = 0; i < length; ++i) {
+            seq.set(i, r.nextInt(4));
+        }
+        return seq;
+    }
+
+    /**
+     * Decode the origin of a read simulated by this class
+     * 
+     * @param readName
+     * @param mate
+     *            0 for single-end reads and the first mates, 1 for the second
+     *            mates
+     * @return null if the read name has no origin information
+     */
+    public static Origin parseOrigin(String readName, int mate) {
+        int a = readName.indexOf(':');
+        int b = readName.lastIndexOf(':');
+        if (a < 0 || a == b)
+            return null;
+
+        String[] origins = readName.substring(b + 1).split(",");
+        if (mate >= origins.length)
+            return null;
+        String o = origins[mate];
+        // strip /1, /2 suffixes of the mates
+        int slash = o.indexOf('/');
+        if (slash >= 0)
+            o = o.substring(0, slash);
+        if (o.length() < 2)
+            return null;
+        try {
+            int start = Integer.parseInt(o.substring(0, o.length() - 1));
+            Strand strand = Strand.toStrand(o.charAt(o.length() - 1));
+            return new Origin(readName.substring(a + 1, b), start, strand);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Mismatch rate at the given position of a read
+     * 
+     * @param i
+     *            0-based position from the 5' end of the read
+     * @return
+     */
+    public double mismatchRate(int i) {
+        if (readLength == 1)
+            return mismatchRate;
+        return mismatchRate + (mismatchRateAt3End - mismatchRate) * i / (readLength - 1);
+    }
+
+    private ACGT randomBase() {
+        return ACGT.exceptN[random.nextInt(4)];
+    }
+
+    private ACGT mutate(ACGT base) {
+        // pick one of the other three bases
+        return ACGT.exceptN[(base.code + 1 + random.nextInt(3)) & 0x03];
+    }
+
+    private SequenceIndex findSequence(long pos) {
+        List<SequenceIndex> index = boundary.index;
+        for (int i = index.size() - 1; i >= 0; --i) {
+            SequenceIndex s = index.get(i);
+            if (s.offset <= pos)
+                return pos < s.offset + s.length ? s : null;
+        }
+        return null;
+    }
+
+    /**
+     * Sample a region of the given length, which is contained in a sequence
+     * and has no N
+     * 
+     * @param length
+     * @return 0-based start position in the reference
+     */
+    private long sampleRegion(long length) {
+        for (int trial = 0; trial < MAX_TRIALS; ++trial) {
+            long x = (long) (random.nextDouble() * (reference.textSize() - length));
+            SequenceIndex s = findSequence(x);
+            if (s == null || x + length > s.offset + s.length)
+                continue;
+            if (reference.fastCount(ACGT.N, x, x + length) > 0)
+                continue;
+            return x;
+        }
+        throw new IllegalArgumentException(String.format("no region of %,d bp without N is found", length));
+    }
+
+    private static class Fragment
+    {
+        ACGTSequence  seq;
+        StringBuilder qual          = new StringBuilder();
+        int           numMismatches = 0;
+        int           numIndels     = 0;
+    }
+
+    /**
+     * Copy a read from the reference with errors.
+     * 
+     * @param x
+     *            start position of the read in the reference
+     * @param end
+     *            end of the available region
+     * @param strand
+     * @return null if the read reaches the end of the available region
+     */
+    private Fragment copy(long x, long end, Strand strand) {
+        Fragment f = new Fragment();
+        ACGTSequence read = new ACGTSequence();
+        while (read.textSize() < readLength) {
+            if (x >= end)
+                return null;
+            int i = (int) read.textSize();
+            // position from the 5' end of the read
+            int p = strand == Strand.FORWARD ? i : readLength - i - 1;
+            double errorRate = mismatchRate(p);
+            f.qual.append(phredQuality(errorRate));
+
+            ACGT base = reference.getACGT(x);
+            // Do not place indels at the both ends of the read, since they are reported as mismatches or clips 
+            boolean inner = i > 0 && i < readLength - 1;
+            if (inner && random.nextDouble() < indelRate) {
+                f.numIndels++;
+                if (random.nextBoolean())
+                    read.append(randomBase()); // insertion
+                else {
+                    x++; // deletion
+                    f.qual.setLength(i);
+                }
+                continue;
+            }
+            if (random.nextDouble() < errorRate) {
+                base = mutate(base);
+                f.numMismatches++;
+            }
+            read.append(base);
+            x++;
+        }
+        if (strand == Strand.REVERSE) {
+            read = read.reverseComplement();
+            f.qual.reverse();
+        }
+        f.seq = read;
+        return f;
+    }
+
+    private static char phredQuality(double errorRate) {
+        int q = errorRate <= 0 ? 40 : (int) Math.round(-10 * Math.log10(errorRate));
+        return (char) (Math.max(2, Math.min(40, q)) + 33);
+    }
+
+    private SimulatedRead newRead(String name, Fragment f, long x, Strand strand) {
+        SequenceIndex s = findSequence(x);
+        int start = (int) (x - s.offset + 1);
+        return new SimulatedRead(name, f.seq, f.qual.toString(), x, s.name, start, strand, f.numMismatches,
+                f.numIndels);
+    }
+
+    private long sequenceEnd(long x) {
+        SequenceIndex s = findSequence(x);
+        return s.offset + s.length;
+    }
+
+    /**
+     * Generate the next read. Regions containing N are skipped.
+     * 
+     * @return
+     */
+    public SimulatedRead next() {
+        for (;;) {
+            // leave room for deletions
+            long x = sampleRegion(readLength * 2L);
+            Strand strand = random.nextBoolean() ? Strand.FORWARD : Strand.REVERSE;
+            Fragment f = copy(x, sequenceEnd(x), strand);
+            if (f == null)
+                continue;
+
+            SequenceIndex s = findSequence(x);
+            String name = String.format("sim%d:%s:%d%s", count++, s.name, x - s.offset + 1, strand.symbol);
+            return newRead(name, f, x, strand);
+        }
+    }
+
+    /**
+     * Generate the next read pair. The insert sizes follow the normal
+     * distribution. The mates face each other.
+     * 
+     * @param insertSize
+     *            mean insert size
+     * @param insertSizeSD
+     *            standard deviation of the insert size
+     * @return the first and the second mates
+     */
+    public SimulatedRead[] nextPair(int insertSize, int insertSizeSD) {
+        for (;;) {
+            long fragmentLength = Math.max(readLength, Math.round(insertSize + random.nextGaussian() * insertSizeSD));
+            long x = sampleRegion(fragmentLength + readLength);
+            long end = sequenceEnd(x);
+            long y = x + fragmentLength - readLength;
+
+            // the first mate comes from either the forward or the reverse strand 
+            boolean forward = random.nextBoolean();
+            Fragment left = copy(x, end, Strand.FORWARD);
+            Fragment right = copy(y, end, Strand.REVERSE);
+            if (left == null || right == null)
+                continue;
+
+            SequenceIndex s = findSequence(x);
+            long lPos = x - s.offset + 1;
+            long rPos = y - s.offset + 1;
+            String name = forward ? String.format("sim%d:%s:%d+,%d-", count, s.name, lPos, rPos) : String.format(
+                    "sim%d:%s:%d-,%d+", count, s.name, rPos, lPos);
+            count++;
+
+            SimulatedRead l = newRead(name, left, x, Strand.FORWARD);
+            SimulatedRead r = newRead(name, right, y, Strand.REVERSE);
+            return forward ? new SimulatedRead[] { l, r } : new SimulatedRead[] { r, l };
+        }
+    }
+
+}
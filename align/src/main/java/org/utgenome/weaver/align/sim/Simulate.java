@@ -0,0 +1,148 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// Simulate.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.GenomeWeaverCommand;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.BWTFiles;
+import org.utgenome.weaver.align.SequenceBoundary;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.sim.ReadSimulator.SimulatedRead;
+import org.xerial.util.log.Logger;
+import org.xerial.util.opt.Option;
+
+/**
+ * Generates FASTQ reads from an indexed reference. The origins of the reads are
+ * recorded in the read names, which are checked by the evaluate command.
+ * 
+ * @author leo
+ * 
+ */
+public class Simulate extends GenomeWeaverCommand
+{
+    private static Logger _logger        = Logger.getLogger(Simulate.class);
+
+    @Override
+    public String name() {
+        return "simulate";
+    }
+
+    @Override
+    public String getOneLineDescription() {
+        return "generate reads with known origins from an indexed reference";
+    }
+
+    @Option(symbol = "r", description = "reference sequence (FASTA) indexed by the bwt command")
+    private String        refSeq;
+
+    @Option(symbol = "n", description = "number of reads (or read pairs). default=100000")
+    private int           numReads       = 100000;
+
+    @Option(symbol = "l", description = "read length. default=100")
+    private int           readLength     = 100;
+
+    @Option(longName = "mismatch", description = "mismatch rate at the 5' end of the reads. default=0.01")
+    private double        mismatchRate   = 0.01;
+
+    @Option(longName = "mismatch-3p", description = "mismatch rate at the 3' end of the reads. The rate increases linearly along the reads. default=same with --mismatch")
+    private double        mismatchRate3p = -1;
+
+    @Option(longName = "indel", description = "indel rate. default=0.001")
+    private double        indelRate      = 0.001;
+
+    @Option(longName = "paired", description = "generate paired-end reads")
+    private boolean       paired         = false;
+
+    @Option(longName = "insert", description = "mean insert size of the paired-end reads. default=300")
+    private int           insertSize     = 300;
+
+    @Option(longName = "insert-sd", description = "standard deviation of the insert size. default=30")
+    private int           insertSizeSD   = 30;
+
+    @Option(longName = "seed", description = "random seed. default=0")
+    private long          seed           = 0;
+
+    @Option(symbol = "o", longName = "output", description = "output file prefix. (prefix).fastq, or (prefix)_1.fastq and (prefix)_2.fastq for paired-end reads. default=sim")
+    private String        outputPrefix   = "sim";
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (refSeq == null)
+            throw new UTGBException(UTGBErrorCode.MISSING_OPTION, "no reference sequence is given (-r)");
+
+        SequenceBoundary boundary = SequenceBoundary.load(refSeq);
+        BWTFiles forwardDB = new BWTFiles(refSeq, Strand.FORWARD);
+        _logger.info("loading reference sequence %s", forwardDB.pac());
+        ACGTSequence reference = ACGTSequence.loadFrom(forwardDB.pac());
+
+        ReadSimulator sim = new ReadSimulator(reference, boundary, readLength, mismatchRate, indelRate, seed);
+        if (mismatchRate3p >= 0)
+            sim.setMismatchRateAt3End(mismatchRate3p);
+
+        if (paired) {
+            String f1 = outputPrefix + "_1.fastq";
+            String f2 = outputPrefix + "_2.fastq";
+            Writer out1 = open(f1);
+            Writer out2 = open(f2);
+            try {
+                for (int i = 0; i < numReads; ++i) {
+                    SimulatedRead[] pair = sim.nextPair(insertSize, insertSizeSD);
+                    out1.write(pair[0].toFASTQ());
+                    out2.write(pair[1].toFASTQ());
+                }
+            }
+            finally {
+                out1.close();
+                out2.close();
+            }
+            _logger.info("%,d read pairs are written to %s and %s", numReads, f1, f2);
+        }
+        else {
+            String f = outputPrefix + ".fastq";
+            Writer out = open(f);
+            try {
+                for (int i = 0; i < numReads; ++i) {
+                    out.write(sim.next().toFASTQ());
+                }
+            }
+            finally {
+                out.close();
+            }
+            _logger.info("%,d reads are written to %s", numReads, f);
+        }
+    }
+
+    private static Writer open(String file) throws IOException {
+        return new BufferedWriter(new FileWriter(file), 4 * 1024 * 1024);
+    }
+
+}
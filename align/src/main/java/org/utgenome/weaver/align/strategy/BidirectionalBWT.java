@@ -34,6 +34,9 @@ import org.utgenome.weaver.align.AlignmentScoreConfig;
 import org.utgenome.weaver.align.FMIndexOnGenome;
 import org.utgenome.weaver.align.SiSet;
 import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.Read;
 import org.utgenome.weaver.parallel.Reporter;
 import org.xerial.lens.SilkLens;
@@ -305,6 +308,7 @@ public class BidirectionalBWT implements Aligner
             }
 
         }
+        AlignmentMetrics.getInstance().recordSearch(config.strategy, numFMIndexSearches, 0);
         if (_logger.isDebugEnabled())
             _logger.debug("FM Search:%d, push count: %,d", numFMIndexSearches, queue.pushCount);
 
@@ -313,7 +317,13 @@ public class BidirectionalBWT implements Aligner
     @Override
     public void align(Read read, Reporter out) throws Exception {
         this.reporter = out;
-        align(read);
+        StageTimer.enter(Stage.NFA_SEARCH);
+        try {
+            align(read);
+        }
+        finally {
+            StageTimer.exit(Stage.NFA_SEARCH);
+        }
     }
 
 }
@@ -32,6 +32,7 @@ import java.util.PriorityQueue;
 import org.utgenome.UTGBException;
 import org.utgenome.weaver.align.ACGT;
 import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.ACGTSequenceView;
 import org.utgenome.weaver.align.Aligner;
 import org.utgenome.weaver.align.AlignmentConfig;
 import org.utgenome.weaver.align.BitParallelSmithWaterman;
@@ -43,6 +44,9 @@ import org.utgenome.weaver.align.SiSet;
 import org.utgenome.weaver.align.SmithWatermanAligner.Alignment;
 import org.utgenome.weaver.align.Strand;
 import org.utgenome.weaver.align.SuffixInterval;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.AlignmentRecord;
 import org.utgenome.weaver.align.record.Read;
 import org.utgenome.weaver.align.record.ReadHit;
@@ -174,7 +178,7 @@ public class BidirectionalSuffixFilter implements Aligner
     {
         private final Read            read;                                        // original read
         private final int             m;                                           // read length
-        private ACGTSequence[]        q              = new ACGTSequence[2];        // forward/reverse query sequence
+        private ACGTSequenceView[]    q              = new ACGTSequenceView[2];    // forward/reverse query sequence
         private QueryMask[]           queryMask      = new QueryMask[2];           // bit mask of ACGT occurrence positions
         private StateQueue            queue          = new StateQueue();           // priority queue holding search states
 
@@ -189,7 +193,7 @@ public class BidirectionalSuffixFilter implements Aligner
         public AlignmentProcess(Read read, Reporter out) {
             this.read = read;
             this.m = (int) read.getRead(0).textSize();
-            this.q[0] = read.getRead(0);
+            this.q[0] = new ACGTSequenceView(read.getRead(0));
             this.q[1] = q[0].complement();
             this.out = out;
 
@@ -211,7 +215,15 @@ public class BidirectionalSuffixFilter implements Aligner
 
             StopWatch s = new StopWatch();
             try {
-                align_internal();
+                // the quick scan and SW verification inside are excluded from this stage
+                StageTimer.enter(Stage.NFA_SEARCH);
+                try {
+                    align_internal();
+                }
+                finally {
+                    StageTimer.exit(Stage.NFA_SEARCH);
+                }
+                AlignmentMetrics.getInstance().recordSearch(config.strategy, numFMIndexSearches, numSW);
                 boolean hasHit = minMismatches <= k && !resultHolder.hitList.isEmpty();
                 ReadHit besthit = null;
                 String cigar = "";
@@ -279,7 +291,7 @@ public class BidirectionalSuffixFilter implements Aligner
 
             // Check whether the read contains too many Ns
             {
-                long countN = q[0].fastCount(ACGT.N, 0, m);
+                long countN = read.getRead(0).fastCount(ACGT.N, 0, m);
                 if (countN > k) {
                     return; // skip this alignment
                 }
@@ -529,7 +541,7 @@ public class BidirectionalSuffixFilter implements Aligner
             long refStart = Math.max(0, x - k);
             long refEnd = Math.min(x + fragmentLength + k, fmIndex.textSize());
             ACGTSequence ref = reference.subString(refStart, refEnd);
-            ACGTSequence query = q[cursor.getStrandIndex()].subString(cursor.start, cursor.end);
+            ACGTSequence query = q[cursor.getStrandIndex()].toACGTSequence(cursor.start, cursor.end);
             if (cursor.getStrand() == Strand.REVERSE)
                 query = query.reverse();
 
@@ -25,8 +25,8 @@
 package org.utgenome.weaver.align.strategy;
 
 import org.utgenome.weaver.align.ACGT;
-import org.utgenome.weaver.align.ACGTSequence;
 import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.LSeq;
 import org.utgenome.weaver.align.SiSet;
 import org.utgenome.weaver.align.Strand;
 import org.utgenome.weaver.align.SuffixInterval;
@@ -100,9 +100,9 @@ public class Cursor
         return offset;
     }
 
-    public ACGT nextACGT(ACGTSequence[] q) {
+    public ACGT nextACGT(LSeq[] q) {
         int strand = flag & 1;
-        return q[strand].getACGT(getNextACGTIndex());
+        return ACGT.decode((byte) q[strand].lookup(getNextACGTIndex()));
     }
 
     public int getNextACGTIndex() {
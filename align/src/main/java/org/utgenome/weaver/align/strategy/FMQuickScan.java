@@ -25,12 +25,14 @@
 package org.utgenome.weaver.align.strategy;
 
 import org.utgenome.weaver.align.ACGT;
-import org.utgenome.weaver.align.ACGTSequence;
 import org.utgenome.weaver.align.BitVector;
 import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.LSeq;
 import org.utgenome.weaver.align.Range;
 import org.utgenome.weaver.align.Strand;
 import org.utgenome.weaver.align.SuffixInterval;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.xerial.lens.SilkLens;
 
 /**
@@ -63,7 +65,17 @@ public class FMQuickScan
         return SilkLens.toSilk(this);
     }
 
-    public static FMQuickScan scanMismatchLocations(FMIndexOnGenome fmIndex, ACGTSequence query, Strand strand) {
+    public static FMQuickScan scanMismatchLocations(FMIndexOnGenome fmIndex, LSeq query, Strand strand) {
+        StageTimer.enter(Stage.QUICK_SCAN);
+        try {
+            return scanMismatchLocations_internal(fmIndex, query, strand);
+        }
+        finally {
+            StageTimer.exit(Stage.QUICK_SCAN);
+        }
+    }
+
+    private static FMQuickScan scanMismatchLocations_internal(FMIndexOnGenome fmIndex, LSeq query, Strand strand) {
         int qLen = (int) query.textSize();
         int numMismatches = 0;
         BitVector breakPoint = new BitVector(qLen);
@@ -73,7 +85,7 @@ public class FMQuickScan
         SuffixInterval longestMatchSi = null;
         int i = 0;
         for (; i < qLen; ++i) {
-            ACGT ch = query.getACGT(i);
+            ACGT ch = ACGT.decode((byte) query.lookup(i));
             si = fmIndex.forwardSearch(strand, ch, si);
             if (si.isEmpty()) {
                 breakPoint.set(i, true);
@@ -33,6 +33,8 @@ import org.utgenome.weaver.align.BitVector;
 import org.utgenome.weaver.align.FMIndexOnGenome;
 import org.utgenome.weaver.align.Strand;
 import org.utgenome.weaver.align.SuffixInterval;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.xerial.util.StringUtil;
 
 public class PrefixScan
@@ -64,6 +66,17 @@ public class PrefixScan
     }
 
     public static PrefixScan scanRead(FMIndexOnGenome fmIndex, ACGTSequence query, Strand strand, StaircaseFilter filter) {
+        StageTimer.enter(Stage.QUICK_SCAN);
+        try {
+            return scanRead_internal(fmIndex, query, strand, filter);
+        }
+        finally {
+            StageTimer.exit(Stage.QUICK_SCAN);
+        }
+    }
+
+    private static PrefixScan scanRead_internal(FMIndexOnGenome fmIndex, ACGTSequence query, Strand strand,
+            StaircaseFilter filter) {
 
         final int s = filter.getNumChunks();
         BitVector chunkWithMismatch = new BitVector(s);
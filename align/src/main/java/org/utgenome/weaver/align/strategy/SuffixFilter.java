@@ -42,6 +42,9 @@ import org.utgenome.weaver.align.SequenceBoundary.PosOnGenome;
 import org.utgenome.weaver.align.SmithWatermanAligner.Alignment;
 import org.utgenome.weaver.align.Strand;
 import org.utgenome.weaver.align.SuffixInterval;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.StageTimer;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
 import org.utgenome.weaver.align.record.AlignmentRecord;
 import org.utgenome.weaver.align.record.Read;
 import org.utgenome.weaver.align.record.ReadHit;
@@ -166,7 +169,15 @@ public class SuffixFilter implements Aligner
 
             StopWatch s = new StopWatch();
             try {
-                align_internal();
+                // the quick scan and SW verification inside are excluded from this stage
+                StageTimer.enter(Stage.NFA_SEARCH);
+                try {
+                    align_internal();
+                }
+                finally {
+                    StageTimer.exit(Stage.NFA_SEARCH);
+                }
+                AlignmentMetrics.getInstance().recordSearch(config.strategy, numFMIndexSearches, numSW);
                 boolean hasHit = minMismatches <= k && !resultHolder.hitList.isEmpty();
                 ReadHit besthit = null;
                 String cigar = "";
@@ -24,13 +24,13 @@
 //--------------------------------------
 package org.utgenome.weaver.db;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.TreeMap;
 
 import org.utgenome.gwt.utgb.client.bio.Interval;
@@ -45,7 +45,7 @@ import org.xerial.snappy.Snappy;
  * @author leo
  * 
  */
-public class BlockArray
+public class BlockArray implements SummaryPyramid.RawData
 {
 
     public static class Block implements Comparable<Block>
@@ -79,6 +79,21 @@ public class BlockArray
             this.data[offset] = value;
         }
 
+        /**
+         * Set the value to the range [from, to). The range outside of this
+         * block is ignored.
+         * 
+         * @param from
+         * @param to
+         * @param value
+         */
+        public void fill(int from, int to, float value) {
+            int begin = Math.max(from, start) - start;
+            int end = Math.min(to, getEnd()) - start;
+            if (begin < end)
+                Arrays.fill(data, begin, end, value);
+        }
+
         public float get(int index) {
             if ((index - start) < data.length)
                 return data[index - start];
@@ -91,10 +106,59 @@ public class BlockArray
         }
     }
 
+    /**
+     * Sorted start positions of the blocks, built from the block chain on the
+     * first query after modification
+     * 
+     * @author leo
+     * 
+     */
+    private static class BlockIndex
+    {
+        public final int[]   start;
+        public final Block[] block;
+
+        public BlockIndex(Collection<Block> blocks) {
+            start = new int[blocks.size()];
+            block = blocks.toArray(new Block[blocks.size()]);
+            for (int i = 0; i < block.length; ++i)
+                start[i] = block[i].start;
+        }
+
+        /**
+         * @param index
+         * @return the last block starting at or before the index, or -1
+         */
+        public int floor(int index) {
+            int i = Arrays.binarySearch(start, index);
+            return i >= 0 ? i : -(i + 1) - 1;
+        }
+    }
+
     private TreeMap<Integer, Block> blockChain = new TreeMap<Integer, Block>();
+    private volatile BlockIndex     index;
+    private volatile SummaryPyramid summary;
 
     public BlockArray() {}
 
+    /**
+     * Build the sorted block index used by the queries. This is called on the
+     * first query after adding blocks, so calling this explicitly is necessary
+     * only when the array is shared by several threads.
+     */
+    public void seal() {
+        index = new BlockIndex(blockChain.values());
+    }
+
+    private BlockIndex sealedIndex() {
+        BlockIndex idx = index;
+        if (idx == null) {
+            idx = new BlockIndex(blockChain.values());
+            index = idx;
+        }
+        return idx;
+    }
+
     /**
      * Return the element at the specified index.
      * 
@@ -104,33 +168,191 @@ public class BlockArray
      *         index.
      */
     public float get(int index) {
-        Entry<Integer, Block> floorEntry = blockChain.floorEntry(index);
-        if (floorEntry == null)
+        BlockIndex idx = sealedIndex();
+        int i = idx.floor(index);
+        if (i < 0)
             return 0;
 
-        return floorEntry.getValue().get(index);
+        return idx.block[i].get(index);
     }
 
     public void add(Block block) {
         blockChain.put(block.start, block);
+        index = null;
+        summary = null;
+    }
+
+    /**
+     * Add the values in [start, end) to the summary
+     */
+    public void accumulate(int start, int end, RangeSummary summary) {
+        BlockIndex idx = sealedIndex();
+        for (int i = Math.max(0, idx.floor(start)); i < idx.block.length && idx.start[i] < end; ++i) {
+            Block b = idx.block[i];
+            int to = Math.min(end, b.getEnd());
+            for (int pos = Math.max(start, b.start); pos < to; ++pos)
+                summary.add(b.data[pos - b.start]);
+        }
+    }
+
+    /**
+     * Summarize the values in [start, end) divided into the given number of
+     * windows. The summary levels are built on the first call after adding
+     * blocks.
+     * 
+     * @param start
+     * @param end
+     * @param numWindows
+     * @return
+     */
+    public RangeSummary[] summarize(int start, int end, int numWindows) {
+        SummaryPyramid s = summary;
+        if (s == null) {
+            s = SummaryPyramid.build(this, SummaryPyramid.DEFAULT_SHIFT);
+            summary = s;
+        }
+        try {
+            return s.summarize(start, end, numWindows, this);
+        }
+        catch (IOException e) {
+            // in-memory blocks never throw IOException 
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sequential reader of the elements in a range. Blocks are looked up only
+     * when the cursor crosses their boundaries.
+     * 
+     * @author leo
+     * 
+     */
+    public static class Cursor
+    {
+        private final BlockIndex idx;
+        private final int        end;
+        private int              pos;
+        private int              blockIndex;
+
+        private Cursor(BlockIndex idx, int start, int end) {
+            this.idx = idx;
+            this.pos = start;
+            this.end = end;
+            this.blockIndex = idx.floor(start);
+        }
+
+        public boolean hasNext() {
+            return pos < end;
+        }
+
+        /**
+         * @return the position of the element returned by the next call of
+         *         {@link #next()}
+         */
+        public int position() {
+            return pos;
+        }
+
+        /**
+         * @return the element at the current position, then move to the next
+         *         position. 0 will be returned if no entry is found.
+         */
+        public float next() {
+            int p = pos++;
+            int[] start = idx.start;
+            while (blockIndex + 1 < start.length && start[blockIndex + 1] <= p)
+                blockIndex++;
+            if (blockIndex < 0)
+                return 0;
+            Block b = idx.block[blockIndex];
+            int offset = p - b.start;
+            return offset < b.data.length ? b.data[offset] : 0;
+        }
+    }
+
+    /**
+     * Create a cursor for reading the elements in [start, end)
+     * 
+     * @param start
+     * @param end
+     * @return
+     */
+    public Cursor cursor(int start, int end) {
+        return new Cursor(sealedIndex(), start, end);
+    }
+
+    /**
+     * Copy the elements in [start, end) to the array. The positions not covered
+     * by any block are filled with 0.
+     * 
+     * @param start
+     * @param end
+     * @param dest
+     * @param destOffset
+     */
+    public void copy(int start, int end, float[] dest, int destOffset) {
+        BlockIndex idx = sealedIndex();
+        Arrays.fill(dest, destOffset, destOffset + (end - start), 0);
+        for (int i = Math.max(0, idx.floor(start)); i < idx.block.length && idx.start[i] < end; ++i) {
+            Block b = idx.block[i];
+            int from = Math.max(start, b.start);
+            int to = Math.min(end, b.getEnd());
+            if (from < to)
+                System.arraycopy(b.data, from - b.start, dest, destOffset + (from - start), to - from);
+        }
     }
 
     public int getMinPosition() {
-        Entry<Integer, Block> firstEntry = blockChain.firstEntry();
-        if (firstEntry == null)
+        BlockIndex idx = sealedIndex();
+        if (idx.block.length == 0)
             return 0;
         else {
 
-            return firstEntry.getValue().start;
+            return idx.start[0];
         }
     }
 
     public int getMaxLength() {
-        Entry<Integer, Block> lastEntry = blockChain.lastEntry();
-        if (lastEntry == null)
+        BlockIndex idx = sealedIndex();
+        if (idx.block.length == 0)
             return 0;
 
-        return lastEntry.getValue().getEnd();
+        return idx.block[idx.block.length - 1].getEnd();
+    }
+
+    /**
+     * @return blocks sorted by their start positions
+     */
+    public Collection<Block> getBlocks() {
+        return blockChain.values();
+    }
+
+    /**
+     * Compress the block data
+     * 
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static byte[] compress(float[] data) throws IOException {
+        // big-endian, the same byte order with DataOutputStream.writeFloat
+        ByteBuffer buf = ByteBuffer.allocate(data.length * 4);
+        buf.asFloatBuffer().put(data);
+        return Snappy.compress(buf.array());
+    }
+
+    /**
+     * Uncompress the block data compressed by {@link #compress(float[])}
+     * 
+     * @param compressed
+     * @return
+     * @throws IOException
+     */
+    public static float[] uncompress(byte[] compressed) throws IOException {
+        byte[] uncompressedFloat = Snappy.uncompress(compressed);
+        float[] data = new float[uncompressedFloat.length / 4];
+        ByteBuffer.wrap(uncompressedFloat).asFloatBuffer().get(data);
+        return data;
     }
 
     public void saveTo(DataOutputStream out) throws IOException {
@@ -138,12 +360,7 @@ public class BlockArray
         out.writeInt(blockChain.size());
         for (int start : blockChain.keySet()) {
             Block block = blockChain.get(start);
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            DataOutputStream dout = new DataOutputStream(buf);
-            for (float f : block.data)
-                dout.writeFloat(f);
-            dout.close();
-            byte[] compressed = Snappy.compress(buf.toByteArray());
+            byte[] compressed = compress(block.data);
 
             // Write an entry (start, compressed length, compresesd data...)
             out.writeInt(block.start);
@@ -162,16 +379,10 @@ public class BlockArray
                 int start = in.readInt();
                 int compressedDataLength = in.readInt();
                 byte[] compressedFloatData = new byte[compressedDataLength];
-                in.read(compressedFloatData);
-
-                byte[] uncompressedFloat = Snappy.uncompress(compressedFloatData);
-                DataInputStream floatIn = new DataInputStream(new ByteArrayInputStream(uncompressedFloat));
-                float[] data = new float[uncompressedFloat.length / 4];
-                for (int i = 0; i < data.length; ++i)
-                    data[i] = floatIn.readFloat();
+                in.readFully(compressedFloatData);
 
                 Block block = new Block(start);
-                block.data = data;
+                block.data = uncompress(compressedFloatData);
                 array.add(block);
             }
             return array;
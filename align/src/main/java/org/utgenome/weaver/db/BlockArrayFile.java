@@ -0,0 +1,399 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// BlockArrayFile.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.utgenome.weaver.align.LBuffer;
+import org.utgenome.weaver.db.BlockArray.Block;
+
+/**
+ * Random-access reader of the {@link BlockArrayTable} file. The file header
+ * holds the block index (start, length, file offset and compressed size of
+ * each block) of every chromosome, and the compressed blocks follow it. The
+ * file is memory-mapped, and a block is uncompressed when it is first
+ * accessed. Uncompressed blocks are kept in an LRU cache of bounded size, so
+ * a point query to a genome-wide track reads only the block containing the
+ * position. The {@link SummaryPyramid} of each chromosome is stored after the
+ * blocks, and used for the range aggregation queries.
+ * 
+ * <pre>
+ * (header) MAGIC_WITH_SUMMARY, number of chromosomes, 
+ *   (for each chromosome) name length, name (UTF-8), number of blocks,
+ *     (for each block) start, length, offset, compressed length  
+ *     summary offset, summary length
+ * (body) compressed blocks, summaries
+ * </pre>
+ * 
+ * @author leo
+ * 
+ */
+public class BlockArrayFile
+{
+    /**
+     * "BAT1". The older format without the block index starts with the number
+     * of chromosomes, which never reaches this value.
+     */
+    public static final int                   MAGIC              = 0x42415431;
+    /**
+     * "BAT2". The header also holds the offsets of the summaries
+     */
+    public static final int                   MAGIC_WITH_SUMMARY = 0x42415432;
+    public static final long                  DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    private final TreeMap<String, BlockIndex> index              = new TreeMap<String, BlockIndex>();
+    private final LBuffer                     buffer;
+    private final BlockCache                  cache;
+
+    /**
+     * Block index of a chromosome
+     * 
+     * @author leo
+     * 
+     */
+    private static class BlockIndex
+    {
+        public final int               firstBlockId;
+        public final int[]             start;
+        public final int[]             length;
+        public final long[]            offset;
+        public final int[]             compressedLength;
+        public long                    summaryOffset = -1;
+        public int                     summaryLength;
+        public volatile SummaryPyramid summary;
+
+        public BlockIndex(int firstBlockId, int numBlocks) {
+            this.firstBlockId = firstBlockId;
+            this.start = new int[numBlocks];
+            this.length = new int[numBlocks];
+            this.offset = new long[numBlocks];
+            this.compressedLength = new int[numBlocks];
+        }
+
+        /**
+         * @param pos
+         * @return the last block starting at or before the position, or -1
+         */
+        public int floor(int pos) {
+            int i = Arrays.binarySearch(start, pos);
+            return i >= 0 ? i : -(i + 1) - 1;
+        }
+
+        /**
+         * @param pos
+         * @return the block containing the position, or -1 if not found
+         */
+        public int find(int pos) {
+            int i = floor(pos);
+            if (i < 0 || pos - start[i] >= length[i])
+                return -1;
+            return i;
+        }
+    }
+
+    /**
+     * LRU cache of the uncompressed blocks, bounded by the total byte size
+     * 
+     * @author leo
+     * 
+     */
+    private static class BlockCache
+    {
+        private final long                            capacity;
+        private long                                  size     = 0;
+        private final LinkedHashMap<Integer, float[]> block    = new LinkedHashMap<Integer, float[]>(16, 0.75f, true);
+
+        public BlockCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public synchronized float[] get(int blockId) {
+            return block.get(blockId);
+        }
+
+        public synchronized void put(int blockId, float[] data) {
+            if (block.put(blockId, data) == null)
+                size += data.length * 4L;
+            // evict the least recently used blocks, except the one just added
+            for (Iterator<Map.Entry<Integer, float[]>> it = block.entrySet().iterator(); size > capacity
+                    && block.size() > 1;) {
+                float[] evicted = it.next().getValue();
+                it.remove();
+                size -= evicted.length * 4L;
+            }
+        }
+
+        public synchronized long size() {
+            return size;
+        }
+    }
+
+    private BlockArrayFile(LBuffer buffer, long cacheSize) {
+        this.buffer = buffer;
+        this.cache = new BlockCache(cacheSize);
+    }
+
+    /**
+     * Open the file with the default cache size
+     * 
+     * @param f
+     * @return
+     * @throws IOException
+     */
+    public static BlockArrayFile open(File f) throws IOException {
+        return open(f, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Open the file
+     * 
+     * @param f
+     * @param cacheSize
+     *            upper limit of the memory size (bytes) used for caching the
+     *            uncompressed blocks
+     * @return
+     * @throws IOException
+     */
+    public static BlockArrayFile open(File f, long cacheSize) throws IOException {
+        BlockArrayFile file = new BlockArrayFile(LBuffer.map(f, FileChannel.MapMode.READ_ONLY, f.length()), cacheSize);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_WITH_SUMMARY)
+                throw new IOException(String.format("%s is not a block array file with the block index", f));
+
+            int numBlocks = 0;
+            int numChr = in.readInt();
+            for (int i = 0; i < numChr; ++i) {
+                byte[] chrNameBytes = new byte[in.readInt()];
+                in.readFully(chrNameBytes);
+                BlockIndex b = new BlockIndex(numBlocks, in.readInt());
+                for (int k = 0; k < b.start.length; ++k) {
+                    b.start[k] = in.readInt();
+                    b.length[k] = in.readInt();
+                    b.offset[k] = in.readLong();
+                    b.compressedLength[k] = in.readInt();
+                }
+                if (magic == MAGIC_WITH_SUMMARY) {
+                    b.summaryOffset = in.readLong();
+                    b.summaryLength = in.readInt();
+                }
+                numBlocks += b.start.length;
+                file.index.put(new String(chrNameBytes, "UTF-8"), b);
+            }
+        }
+        finally {
+            in.close();
+        }
+        return file;
+    }
+
+    /**
+     * Write the table in the format with the block index
+     * 
+     * @param table
+     * @param f
+     * @throws IOException
+     */
+    public static void saveTo(BlockArrayTable table, File f) throws IOException {
+        // compress the blocks in parallel
+        BlockCompressor compressor = new BlockCompressor(Runtime.getRuntime().availableProcessors());
+        try {
+            for (String chr : table.keySet()) {
+                for (Block each : table.getBlockArray(chr).getBlocks())
+                    compressor.submit(each);
+            }
+            saveTo(table, f, compressor);
+        }
+        finally {
+            compressor.shutdown();
+        }
+    }
+
+    /**
+     * Write the table in the format with the block index. The compressed
+     * blocks are retrieved from the compressor.
+     * 
+     * @param table
+     * @param f
+     * @param compressor
+     * @throws IOException
+     */
+    public static void saveTo(BlockArrayTable table, File f, BlockCompressor compressor) throws IOException {
+        BlockArrayFileWriter writer = new BlockArrayFileWriter(f, 1);
+        try {
+            for (String chr : table.keySet()) {
+                for (Block each : table.getBlockArray(chr).getBlocks())
+                    writer.add(chr, each, compressor.get(each));
+            }
+            writer.close();
+        }
+        finally {
+            writer.abort();
+        }
+    }
+
+    public Set<String> keySet() {
+        return index.keySet();
+    }
+
+    /**
+     * Return the value at the specified position
+     * 
+     * @param chr
+     * @param pos
+     * @return 0 if no block covers the position
+     * @throws IOException
+     */
+    public float get(String chr, int pos) throws IOException {
+        BlockIndex b = index.get(chr);
+        if (b == null)
+            return 0;
+        int i = b.find(pos);
+        if (i < 0)
+            return 0;
+        return getBlockData(b, i)[pos - b.start[i]];
+    }
+
+    public int getMaxLength(String chr) {
+        BlockIndex b = index.get(chr);
+        if (b == null || b.start.length == 0)
+            return 0;
+        int last = b.start.length - 1;
+        return b.start[last] + b.length[last];
+    }
+
+    private float[] getBlockData(BlockIndex b, int i) throws IOException {
+        int blockId = b.firstBlockId + i;
+        float[] data = cache.get(blockId);
+        if (data == null) {
+            data = readBlock(b, i);
+            cache.put(blockId, data);
+        }
+        return data;
+    }
+
+    private float[] readBlock(BlockIndex b, int i) throws IOException {
+        byte[] compressed = new byte[b.compressedLength[i]];
+        buffer.getBytes(b.offset[i], compressed, 0, compressed.length);
+        return BlockArray.uncompress(compressed);
+    }
+
+    /**
+     * Summarize the values in [start, end) of the chromosome divided into the
+     * given number of windows. The summary of the chromosome is read on the
+     * first query. For the files without summaries, it is built from the
+     * blocks.
+     * 
+     * @param chr
+     * @param start
+     * @param end
+     * @param numWindows
+     * @return
+     * @throws IOException
+     */
+    public RangeSummary[] summarize(String chr, int start, int end, int numWindows) throws IOException {
+        final BlockIndex b = index.get(chr);
+        if (b == null) {
+            RangeSummary[] result = new RangeSummary[numWindows];
+            for (int i = 0; i < numWindows; ++i)
+                result[i] = new RangeSummary();
+            return result;
+        }
+
+        return getSummary(b).summarize(start, end, numWindows, new SummaryPyramid.RawData() {
+            @Override
+            public void accumulate(int start, int end, RangeSummary summary) throws IOException {
+                for (int i = Math.max(0, b.floor(start)); i < b.start.length && b.start[i] < end; ++i) {
+                    int from = Math.max(start, b.start[i]);
+                    int to = Math.min(end, b.start[i] + b.length[i]);
+                    if (from >= to)
+                        continue;
+                    float[] data = getBlockData(b, i);
+                    for (int pos = from; pos < to; ++pos)
+                        summary.add(data[pos - b.start[i]]);
+                }
+            }
+        });
+    }
+
+    private SummaryPyramid getSummary(BlockIndex b) throws IOException {
+        SummaryPyramid s = b.summary;
+        if (s == null) {
+            if (b.summaryOffset >= 0) {
+                byte[] bytes = new byte[b.summaryLength];
+                buffer.getBytes(b.summaryOffset, bytes, 0, bytes.length);
+                s = SummaryPyramid.loadFrom(ByteBuffer.wrap(bytes));
+            }
+            else {
+                int last = b.start.length - 1;
+                SummaryPyramid.Builder builder = new SummaryPyramid.Builder(last < 0 ? 0 : b.start[last]
+                        + b.length[last], SummaryPyramid.DEFAULT_SHIFT);
+                for (int i = 0; i < b.start.length; ++i)
+                    builder.add(new Block(b.start[i], readBlock(b, i)));
+                s = builder.build();
+            }
+            b.summary = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return memory size (bytes) of the cached blocks
+     */
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Read all blocks into memory without using the cache
+     * 
+     * @return
+     * @throws IOException
+     */
+    public BlockArrayTable toBlockArrayTable() throws IOException {
+        BlockArrayTable table = new BlockArrayTable();
+        for (Map.Entry<String, BlockIndex> each : index.entrySet()) {
+            BlockIndex b = each.getValue();
+            BlockArray blockArray = table.getBlockArray(each.getKey());
+            for (int i = 0; i < b.start.length; ++i)
+                blockArray.add(new Block(b.start[i], readBlock(b, i)));
+        }
+        return table;
+    }
+
+}
@@ -0,0 +1,314 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// BlockArrayFileWriter.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.utgenome.weaver.db.BlockArray.Block;
+
+/**
+ * Writes blocks to a {@link BlockArrayFile} incrementally, without holding the
+ * whole table in memory. Blocks are decoded and compressed in a thread pool,
+ * and written to a temporary file in the order of submission, while only the
+ * block index and the summary of each chromosome are kept in memory. The
+ * header and the temporary file are assembled into the output file by
+ * {@link #close()}, which fails if two blocks of a chromosome have the same
+ * start position.
+ * 
+ * @author leo
+ * 
+ */
+public class BlockArrayFileWriter
+{
+    private static class BlockEntry
+    {
+        public final int  start;
+        public final int  length;
+        public final long offset;
+        public final int  compressedLength;
+
+        public BlockEntry(int start, int length, long offset, int compressedLength) {
+            this.start = start;
+            this.length = length;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+        }
+    }
+
+    /**
+     * A block and its compressed data
+     */
+    private static class Encoded
+    {
+        public final String chr;
+        public final Block  block;
+        public final byte[] compressed;
+
+        public Encoded(String chr, Block block, byte[] compressed) {
+            this.chr = chr;
+            this.block = block;
+            this.compressed = compressed;
+        }
+    }
+
+    private final File                                    file;
+    private final File                                    bodyFile;
+    private final DataOutputStream                        body;
+    private long                                          bodySize   = 0;
+    private final TreeMap<String, List<BlockEntry>>       index      = new TreeMap<String, List<BlockEntry>>();
+    private final TreeMap<String, SummaryPyramid.Builder> summary    = new TreeMap<String, SummaryPyramid.Builder>();
+    private final ExecutorService                         threadPool;
+    private final ArrayDeque<Future<Encoded>>             pending    = new ArrayDeque<Future<Encoded>>();
+    private final int                                     maxPending;
+    private boolean                                       isFinished = false;
+
+    /**
+     * @param file
+     *            output file
+     * @param numThreads
+     *            number of threads for decoding and compressing blocks
+     * @throws IOException
+     */
+    public BlockArrayFileWriter(File file, int numThreads) throws IOException {
+        this.file = file;
+        // Put the temporary file in the same directory, since it can be as large as the output 
+        this.bodyFile = File.createTempFile("blocks", ".tmp", file.getAbsoluteFile().getParentFile());
+        this.body = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bodyFile)));
+        this.threadPool = BlockCompressor.newThreadPool(numThreads, "block-writer");
+        this.maxPending = 4 * Math.max(1, numThreads);
+    }
+
+    /**
+     * Add a block, which is compressed in background
+     * 
+     * @param chr
+     * @param block
+     * @throws IOException
+     */
+    public void add(final String chr, final Block block) throws IOException {
+        enqueue(threadPool.submit(new Callable<Encoded>() {
+            @Override
+            public Encoded call() throws Exception {
+                return new Encoded(chr, block, BlockArray.compress(block.data));
+            }
+        }));
+    }
+
+    /**
+     * Add a block whose data is decoded in background
+     * 
+     * @param chr
+     * @param start
+     * @param decoder
+     *            produces the block data
+     * @throws IOException
+     */
+    public void add(final String chr, final int start, final Callable<float[]> decoder) throws IOException {
+        enqueue(threadPool.submit(new Callable<Encoded>() {
+            @Override
+            public Encoded call() throws Exception {
+                Block block = new Block(start, decoder.call());
+                return new Encoded(chr, block, BlockArray.compress(block.data));
+            }
+        }));
+    }
+
+    /**
+     * Add a block already compressed
+     * 
+     * @param chr
+     * @param block
+     * @param compressed
+     * @throws IOException
+     */
+    public void add(final String chr, final Block block, final byte[] compressed) throws IOException {
+        FutureTask<Encoded> f = new FutureTask<Encoded>(new Callable<Encoded>() {
+            @Override
+            public Encoded call() throws Exception {
+                return new Encoded(chr, block, compressed);
+            }
+        });
+        f.run();
+        enqueue(f);
+    }
+
+    private void enqueue(Future<Encoded> f) throws IOException {
+        if (isFinished)
+            throw new IllegalStateException("writer is already closed");
+        pending.add(f);
+        // Bound the number of blocks in memory 
+        while (pending.size() > maxPending)
+            write(pending.poll());
+    }
+
+    private void write(Future<Encoded> f) throws IOException {
+        Encoded e;
+        try {
+            e = f.get();
+        }
+        catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+
+        List<BlockEntry> entries = index.get(e.chr);
+        SummaryPyramid.Builder s = summary.get(e.chr);
+        if (entries == null) {
+            entries = new ArrayList<BlockEntry>();
+            index.put(e.chr, entries);
+            s = new SummaryPyramid.Builder(SummaryPyramid.DEFAULT_SHIFT);
+            summary.put(e.chr, s);
+        }
+        entries.add(new BlockEntry(e.block.start, e.block.data.length, bodySize, e.compressed.length));
+        s.add(e.block);
+        body.write(e.compressed);
+        bodySize += e.compressed.length;
+    }
+
+    /**
+     * Write the remaining blocks, then assemble the output file
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (isFinished)
+            return;
+        try {
+            while (!pending.isEmpty())
+                write(pending.poll());
+            body.close();
+            writeFile();
+        }
+        finally {
+            abort();
+        }
+    }
+
+    /**
+     * Stop writing, and remove the temporary file
+     */
+    public void abort() {
+        isFinished = true;
+        threadPool.shutdownNow();
+        try {
+            body.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+        bodyFile.delete();
+    }
+
+    private void writeFile() throws IOException {
+        long headerSize = 8;
+        List<byte[]> summaries = new ArrayList<byte[]>();
+        for (Map.Entry<String, List<BlockEntry>> each : index.entrySet()) {
+            // the block index must be sorted by the start positions
+            Collections.sort(each.getValue(), new Comparator<BlockEntry>() {
+                @Override
+                public int compare(BlockEntry o1, BlockEntry o2) {
+                    return o1.start < o2.start ? -1 : (o1.start == o2.start ? 0 : 1);
+                }
+            });
+            // a position must be covered by a single block, and the summary already includes both of them
+            List<BlockEntry> blocks = each.getValue();
+            for (int i = 1; i < blocks.size(); ++i) {
+                if (blocks.get(i - 1).start == blocks.get(i).start)
+                    throw new IOException(String.format("duplicate block at %s:%d", each.getKey(),
+                            blocks.get(i).start));
+            }
+            headerSize += 4 + each.getKey().getBytes("UTF-8").length + 4 + 20L * each.getValue().size() + 12;
+
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream sout = new DataOutputStream(buf);
+            summary.get(each.getKey()).build().saveTo(sout);
+            sout.close();
+            summaries.add(buf.toByteArray());
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(BlockArrayFile.MAGIC_WITH_SUMMARY);
+            out.writeInt(index.size());
+            long summaryOffset = headerSize + bodySize;
+            int chrIndex = 0;
+            for (Map.Entry<String, List<BlockEntry>> each : index.entrySet()) {
+                byte[] key = each.getKey().getBytes("UTF-8");
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(each.getValue().size());
+                for (BlockEntry b : each.getValue()) {
+                    out.writeInt(b.start);
+                    out.writeInt(b.length);
+                    out.writeLong(headerSize + b.offset);
+                    out.writeInt(b.compressedLength);
+                }
+                byte[] s = summaries.get(chrIndex++);
+                out.writeLong(summaryOffset);
+                out.writeInt(s.length);
+                summaryOffset += s.length;
+            }
+
+            InputStream in = new BufferedInputStream(new FileInputStream(bodyFile));
+            try {
+                byte[] buf = new byte[64 * 1024];
+                for (int readBytes; (readBytes = in.read(buf)) != -1;)
+                    out.write(buf, 0, readBytes);
+            }
+            finally {
+                in.close();
+            }
+            for (byte[] s : summaries)
+                out.write(s);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+}
@@ -25,13 +25,10 @@
 package org.utgenome.weaver.db;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.sql.ResultSet;
@@ -39,6 +36,7 @@ import java.sql.SQLException;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
 import org.utgenome.weaver.db.BlockArray.Block;
@@ -69,6 +67,20 @@ public class BlockArrayTable
         return getBlockArray(chr).get(index);
     }
 
+    /**
+     * Summarize the values in [start, end) of the chromosome divided into the
+     * given number of windows
+     * 
+     * @param chr
+     * @param start
+     * @param end
+     * @param numWindows
+     * @return
+     */
+    public RangeSummary[] summarize(String chr, int start, int end, int numWindows) {
+        return getBlockArray(chr).summarize(start, end, numWindows);
+    }
+
     public Set<String> keySet() {
         return table.keySet();
     }
@@ -77,37 +89,47 @@ public class BlockArrayTable
         table.put(chr, block);
     }
 
+    /**
+     * Save the table in the format with the block index, which can be read
+     * randomly with {@link BlockArrayFile}
+     * 
+     * @param f
+     * @throws IOException
+     */
     public void saveTo(File f) throws IOException {
-        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
-
-        out.writeInt(table.size());
-        for (String chr : table.keySet()) {
-            BlockArray b = table.get(chr);
-            byte[] key = chr.getBytes("UTF-8");
-
-            out.writeInt(key.length);
-            out.write(key);
-            b.saveTo(out);
-        }
-
-        out.close();
+        BlockArrayFile.saveTo(this, f);
     }
 
+    /**
+     * Load all blocks in the file into memory. To query a large file, use
+     * {@link BlockArrayFile#open(File)} instead.
+     * 
+     * @param f
+     * @return
+     * @throws IOException
+     */
     public static BlockArrayTable loadFrom(File f) throws IOException {
         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
-        BlockArrayTable table = new BlockArrayTable();
-
-        int numEntries = in.readInt();
-        for (int i = 0; i < numEntries; ++i) {
-            int chrNameByteSize = in.readInt();
-            byte[] chrNameBytes = new byte[chrNameByteSize];
-            in.read(chrNameBytes);
-            String chr = new String(chrNameBytes, "UTF-8");
-            BlockArray blockArray = BlockArray.loadFrom(in);
-            table.put(chr, blockArray);
+        try {
+            int numEntries = in.readInt();
+            if (numEntries == BlockArrayFile.MAGIC || numEntries == BlockArrayFile.MAGIC_WITH_SUMMARY)
+                return BlockArrayFile.open(f, 0).toBlockArrayTable();
+
+            // older format without the block index
+            BlockArrayTable table = new BlockArrayTable();
+            for (int i = 0; i < numEntries; ++i) {
+                int chrNameByteSize = in.readInt();
+                byte[] chrNameBytes = new byte[chrNameByteSize];
+                in.readFully(chrNameBytes);
+                String chr = new String(chrNameBytes, "UTF-8");
+                BlockArray blockArray = BlockArray.loadFrom(in);
+                table.put(chr, blockArray);
+            }
+            return table;
+        }
+        finally {
+            in.close();
         }
-        in.close();
-        return table;
     }
 
     private static class ChromIndex
@@ -116,47 +138,115 @@ public class BlockArrayTable
         public String chr;
     }
 
+    /**
+     * Decode the data_values column of the track database
+     * 
+     * @param blob
+     *            gzipped and serialized float[]
+     * @return
+     * @throws IOException
+     */
+    static float[] decodeBlob(byte[] blob) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(blob)));
+        try {
+            return (float[]) in.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            in.close();
+        }
+    }
+
     public static BlockArrayTable loadFromSQLite(File f) throws IOException, DBException {
         SQLiteAccess db = new SQLiteAccess(f.getAbsolutePath());
-        List<ChromIndex> chrSet = db.query("select track_id, value as chr from track where name=\"chrom\"",
-                ChromIndex.class);
-
-        BlockArrayTable t = new BlockArrayTable();
-        for (ChromIndex eachChr : chrSet) {
-            _logger.info("Loading " + eachChr.chr);
-            final BlockArray blockArray = t.getBlockArray(eachChr.chr);
-            db.query(String.format("select start, end, data_values from data where track_id = %d order by start",
-                    eachChr.trackId), new ResultSetHandler<Void>() {
-                @Override
-                public Void handle(ResultSet rs) throws SQLException {
-                    int start = rs.getInt("start");
-                    int end = rs.getInt("end");
-                    ObjectInputStream in = null;
-                    try {
-                        in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(rs
-                                .getBytes("data_values"))));
-                        float[] data = (float[]) in.readObject();
-                        blockArray.add(new Block(start, data));
+        try {
+            List<ChromIndex> chrSet = db.query("select track_id, value as chr from track where name=\"chrom\"",
+                    ChromIndex.class);
+
+            BlockArrayTable t = new BlockArrayTable();
+            for (ChromIndex eachChr : chrSet) {
+                _logger.info("Loading " + eachChr.chr);
+                final String chr = eachChr.chr;
+                final BlockArray blockArray = t.getBlockArray(chr);
+                db.query(String.format("select start, end, data_values from data where track_id = %d order by start",
+                        eachChr.trackId), new ResultSetHandler<Void>() {
+                    @Override
+                    public Void handle(ResultSet rs) throws SQLException {
+                        int start = rs.getInt("start");
+                        try {
+                            blockArray.add(new Block(start, decodeBlob(rs.getBytes("data_values"))));
+                        }
+                        catch (IOException e) {
+                            throw new SQLException(String.format("failed to decode the block at %s:%d", chr, start), e);
+                        }
+                        return null;
                     }
-                    catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    finally {
-                        if (in != null)
+                });
+            }
+
+            return t;
+        }
+        finally {
+            db.dispose();
+        }
+    }
+
+    /**
+     * Convert the track database into the {@link BlockArrayFile} format.
+     * Blocks are streamed from the database to the output file, and their
+     * blobs are decoded and re-compressed in the worker threads, so the whole
+     * table is never held in memory.
+     * 
+     * @param f
+     *            SQLite database
+     * @param out
+     *            output file
+     * @param numThreads
+     * @throws IOException
+     * @throws DBException
+     */
+    public static void convertSQLite(File f, File out, int numThreads) throws IOException, DBException {
+        SQLiteAccess db = new SQLiteAccess(f.getAbsolutePath());
+        try {
+            List<ChromIndex> chrSet = db.query("select track_id, value as chr from track where name=\"chrom\"",
+                    ChromIndex.class);
+
+            final BlockArrayFileWriter writer = new BlockArrayFileWriter(out, numThreads);
+            try {
+                for (ChromIndex eachChr : chrSet) {
+                    _logger.info("Converting " + eachChr.chr);
+                    final String chr = eachChr.chr;
+                    db.query(String.format("select start, data_values from data where track_id = %d order by start",
+                            eachChr.trackId), new ResultSetHandler<Void>() {
+                        @Override
+                        public Void handle(ResultSet rs) throws SQLException {
+                            final byte[] blob = rs.getBytes("data_values");
                             try {
-                                in.close();
+                                writer.add(chr, rs.getInt("start"), new Callable<float[]>() {
+                                    @Override
+                                    public float[] call() throws Exception {
+                                        return decodeBlob(blob);
+                                    }
+                                });
                             }
                             catch (IOException e) {
-                                e.printStackTrace();
+                                throw new SQLException(e);
                             }
-                    }
-                    return null;
+                            return null;
+                        }
+                    });
                 }
-            });
+                writer.close();
+            }
+            finally {
+                writer.abort();
+            }
+        }
+        finally {
+            db.dispose();
         }
-
-        return t;
-
     }
 
 }
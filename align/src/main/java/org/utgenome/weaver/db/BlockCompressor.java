@@ -0,0 +1,132 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// BlockCompressor.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.utgenome.weaver.db.BlockArray.Block;
+
+/**
+ * Compresses blocks in a thread pool. Blocks submitted while their producer
+ * (e.g., {@link BinSplitter}) is still running are compressed in the
+ * background, and {@link BlockArrayFile} collects the results when saving the
+ * table. A block must not be modified after it is submitted.
+ * 
+ * @author leo
+ * 
+ */
+public class BlockCompressor
+{
+    private final ExecutorService            threadPool;
+    private final Map<Block, Future<byte[]>> compressed = new IdentityHashMap<Block, Future<byte[]>>();
+
+    /**
+     * @param numThreads
+     *            number of compression threads
+     */
+    public BlockCompressor(int numThreads) {
+        this.threadPool = newThreadPool(numThreads, "block-compressor");
+    }
+
+    /**
+     * Create a pool of daemon threads, which do not block the JVM shutdown
+     * when the producer of the blocks fails
+     * 
+     * @param numThreads
+     * @param name
+     * @return
+     */
+    static ExecutorService newThreadPool(int numThreads, final String name) {
+        return Executors.newFixedThreadPool(Math.max(1, numThreads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start compressing the block
+     * 
+     * @param block
+     */
+    public void submit(final Block block) {
+        Future<byte[]> f = threadPool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return BlockArray.compress(block.data);
+            }
+        });
+        synchronized (compressed) {
+            compressed.put(block, f);
+        }
+    }
+
+    /**
+     * Retrieve the compressed data of the block. If the block is not
+     * submitted, it is compressed in the caller thread.
+     * 
+     * @param block
+     * @return
+     * @throws IOException
+     */
+    public byte[] get(Block block) throws IOException {
+        Future<byte[]> f;
+        synchronized (compressed) {
+            f = compressed.remove(block);
+        }
+        if (f == null)
+            return BlockArray.compress(block.data);
+
+        try {
+            return f.get();
+        }
+        catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Stop the compression threads
+     */
+    public void shutdown() {
+        threadPool.shutdownNow();
+    }
+
+}
@@ -0,0 +1,355 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// FlatIntervalIndex.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable interval index packed into int arrays. The intervals are sorted by
+ * their start positions, and the sorted array is regarded as an implicit
+ * binary search tree (in-order layout), whose node at index i has the level
+ * of the number of trailing 1-bits of i. Each node holds the maximum end
+ * position in its subtree, so an overlap query visits O(log n + hits) nodes
+ * without chasing pointers.
+ * 
+ * Both ends of an interval are inclusive. Each interval has an integer id
+ * (e.g., the index of the annotation object) reported by the queries.
+ * 
+ * @author leo
+ * 
+ */
+public class FlatIntervalIndex
+{
+    private final int[] start;
+    private final int[] end;
+    private final int[] maxEnd;
+    private final int[] id;
+    private final int   maxLevel;
+
+    /**
+     * Reusable buffer of the query results
+     * 
+     * @author leo
+     * 
+     */
+    public static class Hits
+    {
+        private int[] id    = new int[16];
+        private int   size;
+        /**
+         * traversal stack of the queries
+         */
+        private int[] stack = new int[0];
+
+        public void clear() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int get(int i) {
+            return id[i];
+        }
+
+        void add(int v) {
+            if (size >= id.length)
+                id = Arrays.copyOf(id, id.length * 2);
+            id[size++] = v;
+        }
+    }
+
+    /**
+     * Collects intervals, then builds the index
+     * 
+     * @author leo
+     * 
+     */
+    public static class Builder
+    {
+        private int[] start = new int[16];
+        private int[] end   = new int[16];
+        private int[] id    = new int[16];
+        private int   size  = 0;
+
+        public void add(int start, int end, int id) {
+            if (size >= this.start.length) {
+                int newSize = this.start.length * 2;
+                this.start = Arrays.copyOf(this.start, newSize);
+                this.end = Arrays.copyOf(this.end, newSize);
+                this.id = Arrays.copyOf(this.id, newSize);
+            }
+            this.start[size] = start;
+            this.end[size] = end;
+            this.id[size] = id;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public FlatIntervalIndex build() {
+            // sort (start, insertion order) pairs packed into longs
+            long[] order = new long[size];
+            for (int i = 0; i < size; ++i)
+                order[i] = ((long) start[i] << 32) | i;
+            Arrays.sort(order);
+
+            int[] s = new int[size];
+            int[] e = new int[size];
+            int[] d = new int[size];
+            for (int i = 0; i < size; ++i) {
+                int k = (int) order[i];
+                s[i] = start[k];
+                e[i] = end[k];
+                d[i] = id[k];
+            }
+            return new FlatIntervalIndex(s, e, d);
+        }
+    }
+
+    private FlatIntervalIndex(int[] start, int[] end, int[] id) {
+        this.start = start;
+        this.end = end;
+        this.id = id;
+        this.maxEnd = new int[start.length];
+        this.maxLevel = augment();
+    }
+
+    /**
+     * Compute the maximum end position in each subtree
+     * 
+     * @return the level of the root node
+     */
+    private int augment() {
+        int n = start.length;
+        if (n == 0)
+            return -1;
+
+        // leaves
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = maxEnd[i] = end[i];
+        }
+        int k = 1;
+        for (; 1L << k <= n; ++k) {
+            int x = 1 << (k - 1);
+            int step = x << 2;
+            for (int i = (x << 1) - 1; i < n; i += step) {
+                int left = maxEnd[i - x];
+                // the right child may be missing when n is not a power of 2 
+                int right = i + x < n ? maxEnd[i + x] : last;
+                maxEnd[i] = Math.max(end[i], Math.max(left, right));
+            }
+            // the node covering the last element at this level
+            lastIndex = ((lastIndex >>> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnd[lastIndex] > last)
+                last = maxEnd[lastIndex];
+        }
+        return k - 1;
+    }
+
+    public int size() {
+        return start.length;
+    }
+
+    /**
+     * Collect the ids of the intervals overlapping with [qStart, qEnd]
+     * 
+     * @param qStart
+     * @param qEnd
+     * @param hits
+     *            results are appended to this buffer
+     * @return the number of the found intervals
+     */
+    public int overlap(int qStart, int qEnd, Hits hits) {
+        int n = start.length;
+        if (n == 0)
+            return 0;
+
+        int before = hits.size();
+        // stack of (node, level, visited-left flag)
+        if (hits.stack.length < 6 * (maxLevel + 2))
+            hits.stack = new int[6 * (maxLevel + 2)];
+        int[] stack = hits.stack;
+        int top = 0;
+        stack[top++] = (1 << maxLevel) - 1;
+        stack[top++] = maxLevel;
+        stack[top++] = 0;
+        while (top > 0) {
+            int w = stack[--top];
+            int k = stack[--top];
+            int x = stack[--top];
+            if (k <= 3) {
+                // small subtree: linear scan
+                int i0 = x >>> k << k;
+                int i1 = Math.min(n, i0 + (1 << (k + 1)) - 1);
+                for (int i = i0; i < i1 && start[i] <= qEnd; ++i) {
+                    if (qStart <= end[i])
+                        hits.add(id[i]);
+                }
+            }
+            else if (w == 0) {
+                // visit the left child first
+                stack[top++] = x;
+                stack[top++] = k;
+                stack[top++] = 1;
+                int y = x - (1 << (k - 1));
+                if (y >= n || maxEnd[y] >= qStart) {
+                    stack[top++] = y;
+                    stack[top++] = k - 1;
+                    stack[top++] = 0;
+                }
+            }
+            else if (x < n && start[x] <= qEnd) {
+                if (qStart <= end[x])
+                    hits.add(id[x]);
+                stack[top++] = x + (1 << (k - 1));
+                stack[top++] = k - 1;
+                stack[top++] = 0;
+            }
+        }
+        return hits.size() - before;
+    }
+
+    /**
+     * Run overlap queries in a batch. The results of query i are stored in
+     * hits[offset[i], offset[i + 1]). Sorting the queries by their start
+     * positions improves the cache locality.
+     * 
+     * @param qStart
+     * @param qEnd
+     * @param hits
+     * @param offset
+     *            array of length qStart.length + 1
+     */
+    public void overlap(int[] qStart, int[] qEnd, Hits hits, int[] offset) {
+        hits.clear();
+        for (int i = 0; i < qStart.length; ++i) {
+            offset[i] = hits.size();
+            overlap(qStart[i], qEnd[i], hits);
+        }
+        offset[qStart.length] = hits.size();
+    }
+
+    /**
+     * Find the interval whose start position is the nearest to pos, excluding
+     * the ones starting at pos. The one with the smaller start is chosen when
+     * the distances are the same.
+     * 
+     * @param pos
+     * @param searchRange
+     *            maximum distance
+     * @return the id of the interval, or -1 if not found
+     */
+    public int nearest(int pos, int searchRange) {
+        int n = start.length;
+        // the first interval starting after pos
+        int right = upperBound(pos);
+        // the last interval starting before pos
+        int left = lowerBound(pos) - 1;
+
+        long dl = left >= 0 ? (long) pos - start[left] : Long.MAX_VALUE;
+        long dr = right < n ? (long) start[right] - pos : Long.MAX_VALUE;
+        long d = Math.min(dl, dr);
+        if (d > searchRange)
+            return -1;
+        return dl <= dr ? id[left] : id[right];
+    }
+
+    /**
+     * Find the nearest intervals of the positions in a batch
+     * 
+     * @param pos
+     * @param searchRange
+     * @param result
+     *            ids of the nearest intervals, or -1
+     */
+    public void nearest(int[] pos, int searchRange, int[] result) {
+        for (int i = 0; i < pos.length; ++i)
+            result[i] = nearest(pos[i], searchRange);
+    }
+
+    /**
+     * @return the first index whose start is not less than pos
+     */
+    private int lowerBound(int pos) {
+        int lo = 0, hi = start.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start[mid] < pos)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the first index whose start is greater than pos
+     */
+    private int upperBound(int pos) {
+        int lo = 0, hi = start.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start[mid] <= pos)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public void saveTo(DataOutputStream out) throws IOException {
+        out.writeInt(start.length);
+        for (int i = 0; i < start.length; ++i) {
+            out.writeInt(start[i]);
+            out.writeInt(end[i]);
+            out.writeInt(id[i]);
+        }
+    }
+
+    public static FlatIntervalIndex loadFrom(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        int[] start = new int[n];
+        int[] end = new int[n];
+        int[] id = new int[n];
+        for (int i = 0; i < n; ++i) {
+            start[i] = in.readInt();
+            end[i] = in.readInt();
+            id[i] = in.readInt();
+        }
+        // the intervals are saved in the sorted order
+        return new FlatIntervalIndex(start, end, id);
+    }
+
+}
@@ -53,7 +53,10 @@ public class ImportBED extends GenomeWeaverCommand
     private String bedFile;
 
     @Option(symbol = "b", description = "bin size. default = 10000")
-    private int    binSize = 10000;
+    private int    binSize    = 10000;
+
+    @Option(longName = "threads", description = "number of compression threads. default = number of CPUs")
+    private int    numThreads = Runtime.getRuntime().availableProcessors();
 
     @Override
     public void execute(String[] args) throws Exception {
@@ -62,6 +65,8 @@ public class ImportBED extends GenomeWeaverCommand
         }
 
         final BlockArrayTable chromatinAnnotation = new BlockArrayTable();
+        // Compress the blocks in background while reading the BED file
+        final BlockCompressor compressor = new BlockCompressor(numThreads);
 
         // Prepare binning code: BEDAnnotation object stream -> BinInGenome<BEDAnnotaion>
         final BinSplitter<BEDAnnotation> splitter = new BinSplitter<BEDAnnotation>(binSize,
@@ -74,11 +79,11 @@ public class ImportBED extends GenomeWeaverCommand
                         // Create block data for scores
                         Block ba = new Block(input.range);
                         for (BEDAnnotation each : input.data()) {
-                            for (int x = each.getStart(); x < each.getEnd(); ++x)
-                                ba.set(x - 1, each.score); // Use 0-origin
+                            ba.fill(each.getStart() - 1, each.getEnd() - 1, each.score); // Use 0-origin
                         }
                         // Put the block to the table
                         chromatinAnnotation.getBlockArray(input.chr).add(ba);
+                        compressor.submit(ba);
                     }
                 });
 
@@ -118,18 +123,24 @@ public class ImportBED extends GenomeWeaverCommand
         // Save the block array table to a file
         File out = new File(bedFile + ".bin");
         _logger.info("Save to %s", out);
-        chromatinAnnotation.saveTo(out);
+        try {
+            BlockArrayFile.saveTo(chromatinAnnotation, out, compressor);
+        }
+        finally {
+            compressor.shutdown();
+        }
 
         // You can load the binary data as follows: 
         // BlockArrayTable loadedData = BlockArrayTable.loadFrom(new File(".bed.bin"));
+        // or query it without loading the whole data: 
+        // BlockArrayFile.open(new File(".bed.bin")).get(chr, pos);
 
         // Query chromatin state data
         for (String chr : chromatinAnnotation.keySet()) {
             _logger.info(chr);
             BlockArray ba = chromatinAnnotation.getBlockArray(chr);
-            int max = ba.getMaxLength();
-            for (int x = 0; x < max; ++x) {
-                _logger.info(ba.get(x));
+            for (BlockArray.Cursor cursor = ba.cursor(0, ba.getMaxLength()); cursor.hasNext();) {
+                _logger.info(cursor.next());
             }
         }
 
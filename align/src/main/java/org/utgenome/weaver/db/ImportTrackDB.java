@@ -0,0 +1,69 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ImportTrackDB.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.File;
+
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.GenomeWeaverCommand;
+import org.xerial.util.log.Logger;
+import org.xerial.util.opt.Argument;
+import org.xerial.util.opt.Option;
+
+/**
+ * Convert a track database (SQLite) into the {@link BlockArrayFile} format
+ * 
+ * @author leo
+ * 
+ */
+public class ImportTrackDB extends GenomeWeaverCommand
+{
+    private static Logger _logger = Logger.getLogger(ImportTrackDB.class);
+
+    @Override
+    public String getOneLineDescription() {
+        return "Convert a track database (SQLite) into the block array format";
+    }
+
+    @Argument(index = 0)
+    private String dbFile;
+
+    @Option(symbol = "o", description = "output file. default = (input).bin")
+    private String outputFile;
+
+    @Option(longName = "threads", description = "number of decoding threads. default = number of CPUs")
+    private int    numThreads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public void execute(String[] args) throws Exception {
+        if (dbFile == null) {
+            throw new UTGBException("no input file is given");
+        }
+
+        File out = new File(outputFile != null ? outputFile : dbFile + ".bin");
+        _logger.info("Save to %s", out);
+        BlockArrayTable.convertSQLite(new File(dbFile), out, numThreads);
+    }
+}
@@ -0,0 +1,221 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// OverlapJoin.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.gwt.utgb.client.bio.ChrInterval;
+
+/**
+ * Sweep-line join of two interval streams sorted by (chromosome, start). The
+ * intervals overlapping with each other are reported in a single pass, while
+ * holding only the intervals crossing the current sweep line. Intervals
+ * sharing an end point are regarded as overlapping.
+ * 
+ * Both streams must be sorted with the same chromosome order, which is the
+ * lexicographic order by default (e.g., the output of sort -k1,1 -k2,2n).
+ * 
+ * @author leo
+ * 
+ */
+public class OverlapJoin<A extends ChrInterval, B extends ChrInterval>
+{
+    /**
+     * Receives the overlapping pairs
+     * 
+     * @author leo
+     * 
+     */
+    public static interface Handler<A, B>
+    {
+        public void overlap(A a, B b) throws Exception;
+    }
+
+    private final Comparator<String> chrOrder;
+    private final boolean            strandSpecific;
+
+    /**
+     * @param strandSpecific
+     *            report only the pairs on the same strand
+     */
+    public OverlapJoin(boolean strandSpecific) {
+        this(new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return o1.compareTo(o2);
+            }
+        }, strandSpecific);
+    }
+
+    /**
+     * @param chrOrder
+     *            order of the chromosomes in the input streams
+     * @param strandSpecific
+     *            report only the pairs on the same strand
+     */
+    public OverlapJoin(Comparator<String> chrOrder, boolean strandSpecific) {
+        this.chrOrder = chrOrder;
+        this.strandSpecific = strandSpecific;
+    }
+
+    /**
+     * Intervals crossing the sweep line, partitioned by strand
+     * 
+     * @author leo
+     * 
+     */
+    private static class ActiveSet<T extends ChrInterval>
+    {
+        private final boolean          strandSpecific;
+        private final PriorityQueue<T> plus  = newQueue();
+        private final PriorityQueue<T> minus = newQueue();
+
+        public ActiveSet(boolean strandSpecific) {
+            this.strandSpecific = strandSpecific;
+        }
+
+        private static <T extends ChrInterval> PriorityQueue<T> newQueue() {
+            // the interval with the smallest end comes first
+            return new PriorityQueue<T>(16, new Comparator<T>() {
+                @Override
+                public int compare(T o1, T o2) {
+                    return o1.getEnd() < o2.getEnd() ? -1 : (o1.getEnd() == o2.getEnd() ? 0 : 1);
+                }
+            });
+        }
+
+        private PriorityQueue<T> queue(ChrInterval x) {
+            return !strandSpecific || x.isSense() ? plus : minus;
+        }
+
+        public void add(T x) {
+            queue(x).add(x);
+        }
+
+        /**
+         * @param x
+         * @return the active intervals that can overlap with x
+         */
+        public Iterable<T> candidates(ChrInterval x) {
+            return queue(x);
+        }
+
+        /**
+         * Remove the intervals ending before the position
+         * 
+         * @param pos
+         */
+        public void sweep(int pos) {
+            while (!plus.isEmpty() && plus.peek().getEnd() < pos)
+                plus.poll();
+            while (!minus.isEmpty() && minus.peek().getEnd() < pos)
+                minus.poll();
+        }
+
+        public boolean isEmpty() {
+            return plus.isEmpty() && minus.isEmpty();
+        }
+
+        public void clear() {
+            plus.clear();
+            minus.clear();
+        }
+    }
+
+    private int compare(ChrInterval x, ChrInterval y) {
+        int diff = chrOrder.compare(x.chr, y.chr);
+        if (diff != 0)
+            return diff;
+        return x.getStart() < y.getStart() ? -1 : (x.getStart() == y.getStart() ? 0 : 1);
+    }
+
+    private <T extends ChrInterval> T next(Iterator<T> it, T prev) throws UTGBException {
+        if (!it.hasNext())
+            return null;
+        T x = it.next();
+        if (prev != null && compare(prev, x) > 0)
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format(
+                    "input is not sorted: %s:%d comes after %s:%d", x.chr, x.getStart(), prev.chr, prev.getStart()));
+        return x;
+    }
+
+    /**
+     * Report all pairs of overlapping intervals in the two streams
+     * 
+     * @param left
+     * @param right
+     * @param handler
+     * @return the number of reported pairs
+     * @throws Exception
+     */
+    public long join(Iterator<A> left, Iterator<B> right, Handler<A, B> handler) throws Exception {
+        ActiveSet<A> activeA = new ActiveSet<A>(strandSpecific);
+        ActiveSet<B> activeB = new ActiveSet<B>(strandSpecific);
+        long numPairs = 0;
+        String chr = null;
+
+        A a = next(left, null);
+        B b = next(right, null);
+        while (a != null || b != null) {
+            // No more pair can be found when a stream is exhausted and the other side has nothing to match 
+            if ((a == null && activeA.isEmpty()) || (b == null && activeB.isEmpty()))
+                break;
+
+            boolean takeLeft = b == null || (a != null && compare(a, b) <= 0);
+            ChrInterval x = takeLeft ? a : b;
+            if (chr == null || !chr.equals(x.chr)) {
+                activeA.clear();
+                activeB.clear();
+                chr = x.chr;
+            }
+            int pos = x.getStart();
+            activeA.sweep(pos);
+            activeB.sweep(pos);
+
+            if (takeLeft) {
+                for (B each : activeB.candidates(a)) {
+                    handler.overlap(a, each);
+                    numPairs++;
+                }
+                activeA.add(a);
+                a = next(left, a);
+            }
+            else {
+                for (A each : activeA.candidates(b)) {
+                    handler.overlap(each, b);
+                    numPairs++;
+                }
+                activeB.add(b);
+                b = next(right, b);
+            }
+        }
+        return numPairs;
+    }
+
+}
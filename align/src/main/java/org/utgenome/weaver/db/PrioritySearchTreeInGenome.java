@@ -34,13 +34,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.utgenome.UTGBException;
 import org.utgenome.format.bed.BED2SilkReader;
 import org.utgenome.gwt.utgb.client.bio.BEDGene;
 import org.utgenome.gwt.utgb.client.bio.GenomeRange;
 import org.utgenome.gwt.utgb.client.bio.Interval;
-import org.utgenome.gwt.utgb.client.canvas.IntervalTree;
 import org.xerial.lens.SilkLens;
 import org.xerial.util.ArrayDeque;
 import org.xerial.util.ObjectHandler;
@@ -48,6 +48,10 @@ import org.xerial.util.log.Logger;
 
 /**
  * Priority search tree for genome sequences, consisting of several chromosomes.
+ * The entries are partitioned by strand, so that the strand-specific queries
+ * do not need to filter the results. The entries of each chromosome and strand
+ * are indexed with a {@link FlatIntervalIndex}. To join two sorted annotation streams,
+ * use {@link OverlapJoin}, which does not hold the whole data in memory.
  * 
  * @author leo
  * 
@@ -55,12 +59,53 @@ import org.xerial.util.log.Logger;
 public class PrioritySearchTreeInGenome<T extends GenomeRange> implements Iterable<T>
 {
 
-    private static Logger                    _logger = Logger.getLogger(PrioritySearchTreeInGenome.class);
+    private static Logger _logger = Logger.getLogger(PrioritySearchTreeInGenome.class);
+
+    /**
+     * Entries on a strand of a chromosome and their interval index, which is
+     * rebuilt on the first query after adding entries
+     * 
+     * @author leo
+     * 
+     */
+    private static class StrandIndex<T extends GenomeRange>
+    {
+        public final ArrayList<T>          entries = new ArrayList<T>();
+        private volatile FlatIntervalIndex index;
+
+        public void add(T entry) {
+            entries.add(entry);
+            index = null;
+        }
+
+        public FlatIntervalIndex index() {
+            FlatIntervalIndex idx = index;
+            if (idx == null) {
+                FlatIntervalIndex.Builder b = new FlatIntervalIndex.Builder();
+                for (int i = 0; i < entries.size(); ++i)
+                    b.add(entries.get(i).getStart(), entries.get(i).getEnd(), i);
+                idx = b.build();
+                index = idx;
+            }
+            return idx;
+        }
 
-    private HashMap<String, IntervalTree<T>> table   = new HashMap<String, IntervalTree<T>>();
+        public List<T> overlap(int start, int end) {
+            FlatIntervalIndex.Hits hits = new FlatIntervalIndex.Hits();
+            index().overlap(start, end, hits);
+            List<T> result = new ArrayList<T>(hits.size());
+            for (int i = 0; i < hits.size(); ++i)
+                result.add(entries.get(hits.get(i)));
+            return result;
+        }
+    }
+
+    private HashMap<String, StrandIndex<T>> plus   = new HashMap<String, StrandIndex<T>>();
+    private HashMap<String, StrandIndex<T>> minus  = new HashMap<String, StrandIndex<T>>();
+    private TreeSet<String>                 chrSet = new TreeSet<String>();
 
     public Set<String> getChrSet() {
-        return table.keySet();
+        return chrSet;
     }
 
     private int numEntries = 0;
@@ -69,76 +114,80 @@ public class PrioritySearchTreeInGenome<T extends GenomeRange> implements Iterab
         return numEntries;
     }
 
-    public IntervalTree<T> get(String chr) {
-        if (!table.containsKey(chr))
-            table.put(chr, new IntervalTree<T>());
+    private StrandIndex<T> get(String chr, Strand strand) {
+        HashMap<String, StrandIndex<T>> table = strand == Strand.PLUS ? plus : minus;
+        StrandIndex<T> t = table.get(chr);
+        if (t == null) {
+            t = new StrandIndex<T>();
+            table.put(chr, t);
+            chrSet.add(chr);
+        }
+        return t;
+    }
+
+    /**
+     * Interval index of the entries on the strand of the chromosome, which can
+     * be used for the batched queries. The ids reported by the index are the
+     * indexes in {@link #getEntries(String, Strand)}.
+     * 
+     * @param chr
+     * @param strand
+     * @return
+     */
+    public FlatIntervalIndex getIndex(String chr, Strand strand) {
+        return get(chr, strand).index();
+    }
 
-        return table.get(chr);
+    /**
+     * @param chr
+     * @param strand
+     * @return the entries on the strand of the chromosome in the insertion
+     *         order
+     */
+    public List<T> getEntries(String chr, Strand strand) {
+        return get(chr, strand).entries;
     }
 
     public void put(String chr, T gene) {
-        IntervalTree<T> intervalTree = get(chr);
-        intervalTree.add(gene);
+        get(chr, gene.isSense() ? Strand.PLUS : Strand.MINUS).add(gene);
         numEntries++;
     }
 
     public List<T> overlapQuery(String chr, int pos, Strand strand) {
-        IntervalTree<T> t = get(chr);
-        List<T> result = new ArrayList<T>();
-        for (T each : t.overlapQuery(pos)) {
-            if (strand == Strand.PLUS) {
-                if (each.isSense())
-                    result.add(each);
-            }
-            else {
-                if (!each.isSense())
-                    result.add(each);
-            }
-
-        }
-        return result;
+        return get(chr, strand).overlap(pos, pos);
     }
 
     public List<T> overlapQuery(String chr, Interval queryRange, Strand strand) {
-        IntervalTree<T> t = get(chr);
-        List<T> result = new ArrayList<T>();
-        for (T each : t.overlapQuery(queryRange)) {
-            if (strand == Strand.PLUS) {
-                if (each.isSense())
-                    result.add(each);
-            }
-            else {
-                if (!each.isSense())
-                    result.add(each);
-            }
-
-        }
-        return result;
+        return get(chr, strand).overlap(queryRange.getStart(), queryRange.getEnd());
     }
 
+    /**
+     * Find the entry whose start position is the nearest to that of the base
+     * entry, among the ones overlapping with the search range around the base.
+     * The entries starting at the same position with the base are excluded.
+     * 
+     * @param chr
+     * @param base
+     * @param strand
+     * @param searchRange
+     * @return
+     */
     public T nearestNeighbour(String chr, T base, Strand strand, int searchRange) {
+        StrandIndex<T> t = get(chr, strand);
         int pos = base.getStart();
-        Interval queryRange = new Interval(pos - searchRange, pos + searchRange);
-        T nearestEntry = null;
-        for (T each : overlapQuery(chr, queryRange, strand)) {
-            if (each == base)
-                continue;
-
-            if (each.getStart() == pos)
-                continue;
+        int nearest = t.index().nearest(pos, searchRange);
+        if (nearest >= 0)
+            return t.entries.get(nearest);
 
-            if (nearestEntry == null) {
-                nearestEntry = each;
+        // No entry starts within the range. Look for the ones crossing the boundaries of the range 
+        T nearestEntry = null;
+        for (T each : t.overlap(pos - searchRange, pos + searchRange)) {
+            if (each == base || each.getStart() == pos)
                 continue;
-            }
-
-            int maxDist = Math.abs(nearestEntry.getStart() - pos);
-            int currentDist = Math.abs(each.getStart() - pos);
-            if (currentDist < maxDist) {
+            if (nearestEntry == null
+                    || Math.abs((long) each.getStart() - pos) < Math.abs((long) nearestEntry.getStart() - pos))
                 nearestEntry = each;
-            }
         }
-
         return nearestEntry;
     }
 
@@ -179,6 +228,8 @@ public class PrioritySearchTreeInGenome<T extends GenomeRange> implements Iterab
         return new Iterator<T>() {
 
             Iterator<String> chrCursor  = getChrSet().iterator();
+            String           chr        = null;
+            Strand           strand     = Strand.MINUS;
             Iterator<T>      genesInChr = null;
 
             ArrayDeque<T>    queue      = new ArrayDeque<T>();
@@ -190,13 +241,17 @@ public class PrioritySearchTreeInGenome<T extends GenomeRange> implements Iterab
                 }
 
                 if (genesInChr == null) {
-                    if (!chrCursor.hasNext())
-                        return false;
-
-                    String chr = chrCursor.next();
-
-                    IntervalTree<T> intervalTree = get(chr);
-                    genesInChr = intervalTree.iterator();
+                    // visit the plus and minus strands of each chromosome
+                    if (strand == Strand.MINUS) {
+                        if (!chrCursor.hasNext())
+                            return false;
+                        chr = chrCursor.next();
+                        strand = Strand.PLUS;
+                    }
+                    else
+                        strand = Strand.MINUS;
+
+                    genesInChr = getEntries(chr, strand).iterator();
                 }
 
                 if (genesInChr.hasNext()) {
@@ -0,0 +1,72 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// RangeSummary.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+/**
+ * Minimum, maximum, sum and number of the values in a range. Positions not
+ * covered by any block are not counted.
+ * 
+ * @author leo
+ * 
+ */
+public class RangeSummary
+{
+    public float  min   = Float.POSITIVE_INFINITY;
+    public float  max   = Float.NEGATIVE_INFINITY;
+    public double sum   = 0;
+    public long   count = 0;
+
+    public void add(float value) {
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+        sum += value;
+        count++;
+    }
+
+    public void add(float min, float max, double sum, long count) {
+        if (count == 0)
+            return;
+        if (min < this.min)
+            this.min = min;
+        if (max > this.max)
+            this.max = max;
+        this.sum += sum;
+        this.count += count;
+    }
+
+    /**
+     * @return mean of the values, or NaN if the range has no value
+     */
+    public double mean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("min:%f, max:%f, sum:%f, count:%d", min, max, sum, count);
+    }
+}
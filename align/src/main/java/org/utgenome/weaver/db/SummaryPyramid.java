@@ -0,0 +1,306 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// SummaryPyramid.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.utgenome.weaver.db.BlockArray.Block;
+
+/**
+ * Multi-resolution summary (min, max, sum and count) of the values in a
+ * chromosome. The bins of level k have the width 2^(shift + k), and a bin of
+ * level k + 1 merges two bins of level k. A range query is answered by
+ * combining O(log n) bins, and by reading the raw values only at the both ends
+ * of the range not aligned to the bins of level 0.
+ * 
+ * @author leo
+ * 
+ */
+public class SummaryPyramid
+{
+    /**
+     * 4096 bases per bin in the finest level
+     */
+    public static final int DEFAULT_SHIFT = 12;
+
+    /**
+     * Reads the raw values of a range
+     * 
+     * @author leo
+     * 
+     */
+    public static interface RawData
+    {
+        /**
+         * Add the values in [start, end) to the summary
+         */
+        public void accumulate(int start, int end, RangeSummary summary) throws IOException;
+    }
+
+    private final int        shift;
+    private final float[][]  min;
+    private final float[][]  max;
+    private final double[][] sum;
+    private final int[][]    count;
+
+    private SummaryPyramid(int shift, float[][] min, float[][] max, double[][] sum, int[][] count) {
+        this.shift = shift;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.count = count;
+    }
+
+    /**
+     * Builds the summary from the blocks added in any order
+     * 
+     * @author leo
+     * 
+     */
+    public static class Builder
+    {
+        private final int     shift;
+        private final boolean growable;
+        private float[]       min;
+        private float[]       max;
+        private double[]      sum;
+        private int[]         count;
+        private int           numBins;
+
+        /**
+         * @param length
+         *            the end position of the values. The values beyond this
+         *            position are ignored.
+         * @param shift
+         *            log2 of the bin width of the finest level
+         */
+        public Builder(int length, int shift) {
+            this.shift = shift;
+            this.growable = false;
+            this.numBins = Math.max(1, (int) ((length + (1L << shift) - 1) >>> shift));
+            allocate(numBins);
+        }
+
+        /**
+         * Create a builder, whose length grows as blocks are added
+         * 
+         * @param shift
+         *            log2 of the bin width of the finest level
+         */
+        public Builder(int shift) {
+            this.shift = shift;
+            this.growable = true;
+            this.numBins = 1;
+            allocate(16);
+        }
+
+        private void allocate(int n) {
+            int prev = count == null ? 0 : count.length;
+            min = min == null ? new float[n] : Arrays.copyOf(min, n);
+            max = max == null ? new float[n] : Arrays.copyOf(max, n);
+            sum = sum == null ? new double[n] : Arrays.copyOf(sum, n);
+            count = count == null ? new int[n] : Arrays.copyOf(count, n);
+            if (prev < n) {
+                Arrays.fill(min, prev, n, Float.POSITIVE_INFINITY);
+                Arrays.fill(max, prev, n, Float.NEGATIVE_INFINITY);
+            }
+        }
+
+        public void add(Block block) {
+            float[] data = block.data;
+            if (growable && data.length > 0 && block.getEnd() > 0) {
+                int lastBin = (block.getEnd() - 1) >>> shift;
+                if (lastBin >= count.length)
+                    allocate(Math.max(lastBin + 1, count.length * 2));
+                numBins = Math.max(numBins, lastBin + 1);
+            }
+            for (int i = Math.max(0, -block.start); i < data.length; ++i) {
+                int bin = (block.start + i) >>> shift;
+                if (bin >= numBins)
+                    break;
+                float v = data[i];
+                if (v < min[bin])
+                    min[bin] = v;
+                if (v > max[bin])
+                    max[bin] = v;
+                sum[bin] += v;
+                count[bin]++;
+            }
+        }
+
+        public SummaryPyramid build() {
+            if (count.length != numBins)
+                allocate(numBins);
+            int numLevels = 1;
+            for (int n = min.length; n > 1; n = (n + 1) / 2)
+                numLevels++;
+
+            float[][] minL = new float[numLevels][];
+            float[][] maxL = new float[numLevels][];
+            double[][] sumL = new double[numLevels][];
+            int[][] countL = new int[numLevels][];
+            minL[0] = min;
+            maxL[0] = max;
+            sumL[0] = sum;
+            countL[0] = count;
+            for (int k = 1; k < numLevels; ++k) {
+                int prev = minL[k - 1].length;
+                int n = (prev + 1) / 2;
+                minL[k] = new float[n];
+                maxL[k] = new float[n];
+                sumL[k] = new double[n];
+                countL[k] = new int[n];
+                for (int i = 0; i < n; ++i) {
+                    int l = 2 * i, r = Math.min(2 * i + 1, prev - 1);
+                    minL[k][i] = Math.min(minL[k - 1][l], minL[k - 1][r]);
+                    maxL[k][i] = Math.max(maxL[k - 1][l], maxL[k - 1][r]);
+                    sumL[k][i] = sumL[k - 1][l] + (r != l ? sumL[k - 1][r] : 0);
+                    countL[k][i] = countL[k - 1][l] + (r != l ? countL[k - 1][r] : 0);
+                }
+            }
+            return new SummaryPyramid(shift, minL, maxL, sumL, countL);
+        }
+    }
+
+    public static SummaryPyramid build(BlockArray blockArray, int shift) {
+        Builder b = new Builder(blockArray.getMaxLength(), shift);
+        for (Block each : blockArray.getBlocks())
+            b.add(each);
+        return b.build();
+    }
+
+    public int getNumLevels() {
+        return min.length;
+    }
+
+    /**
+     * Summarize the values in [start, end)
+     * 
+     * @param start
+     * @param end
+     * @param raw
+     *            used for reading the values at the both ends of the range
+     * @return
+     * @throws IOException
+     */
+    public RangeSummary summarize(int start, int end, RawData raw) throws IOException {
+        RangeSummary s = new RangeSummary();
+        start = Math.max(0, start);
+        if (start >= end)
+            return s;
+
+        long binWidth = 1L << shift;
+        int lo = (int) ((start + binWidth - 1) >>> shift);
+        int hi = end >>> shift;
+        if (lo >= hi) {
+            raw.accumulate(start, end, s);
+            return s;
+        }
+        raw.accumulate(start, lo << shift, s);
+        raw.accumulate(hi << shift, end, s);
+
+        // the bins beyond the data have no value
+        hi = Math.min(hi, count[0].length);
+        for (int k = 0; lo < hi; ++k) {
+            if ((lo & 1) != 0)
+                add(s, k, lo++);
+            if ((hi & 1) != 0)
+                add(s, k, --hi);
+            lo >>>= 1;
+            hi >>>= 1;
+        }
+        return s;
+    }
+
+    private void add(RangeSummary s, int level, int bin) {
+        s.add(min[level][bin], max[level][bin], sum[level][bin], count[level][bin]);
+    }
+
+    /**
+     * Summarize the values in [start, end) divided into the given number of
+     * windows
+     * 
+     * @param start
+     * @param end
+     * @param numWindows
+     * @param raw
+     * @return
+     * @throws IOException
+     */
+    public RangeSummary[] summarize(int start, int end, int numWindows, RawData raw) throws IOException {
+        if (numWindows <= 0)
+            throw new IllegalArgumentException("number of windows must be positive: " + numWindows);
+
+        RangeSummary[] result = new RangeSummary[numWindows];
+        long width = (long) end - start;
+        for (int i = 0; i < numWindows; ++i) {
+            int s = (int) (start + width * i / numWindows);
+            int e = (int) (start + width * (i + 1) / numWindows);
+            result[i] = summarize(s, e, raw);
+        }
+        return result;
+    }
+
+    public void saveTo(DataOutputStream out) throws IOException {
+        out.writeInt(shift);
+        out.writeInt(min.length);
+        for (int k = 0; k < min.length; ++k) {
+            out.writeInt(min[k].length);
+            for (int i = 0; i < min[k].length; ++i) {
+                out.writeFloat(min[k][i]);
+                out.writeFloat(max[k][i]);
+                out.writeDouble(sum[k][i]);
+                out.writeInt(count[k][i]);
+            }
+        }
+    }
+
+    public static SummaryPyramid loadFrom(ByteBuffer in) {
+        int shift = in.getInt();
+        int numLevels = in.getInt();
+        float[][] min = new float[numLevels][];
+        float[][] max = new float[numLevels][];
+        double[][] sum = new double[numLevels][];
+        int[][] count = new int[numLevels][];
+        for (int k = 0; k < numLevels; ++k) {
+            int n = in.getInt();
+            min[k] = new float[n];
+            max[k] = new float[n];
+            sum[k] = new double[n];
+            count[k] = new int[n];
+            for (int i = 0; i < n; ++i) {
+                min[k][i] = in.getFloat();
+                max[k][i] = in.getFloat();
+                sum[k][i] = in.getDouble();
+                count[k][i] = in.getInt();
+            }
+        }
+        return new SummaryPyramid(shift, min, max, sum, count);
+    }
+
+}
@@ -0,0 +1,518 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// DenseKMeans.java
+// Since: 2012/05/26
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.mining;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xerial.util.log.Logger;
+
+/**
+ * K-means clustering of dense points, which are stored in a double array in
+ * the row-major order: the i-th point of M dimensions is points[i*M .. (i+1)*M).
+ * 
+ * <p>
+ * Unlike {@link KMeans}, no object is created per point. The assignment step
+ * skips the distance computations that cannot change the closest centroid,
+ * using the upper and lower bounds of Hamerly's algorithm, and runs on a
+ * thread pool over fixed-size chunks of the points. Each chunk accumulates
+ * the sums of its points into its own buffers, which are merged in the chunk
+ * order, so the result does not depend on the number of threads.
+ * </p>
+ * 
+ * @author leo
+ * 
+ */
+public class DenseKMeans
+{
+    private static Logger    _logger    = Logger.getLogger(DenseKMeans.class);
+
+    /**
+     * The number of points processed by a task
+     */
+    static final int         CHUNK_SIZE = 16 * 1024;
+
+    public static class Config
+    {
+        public int maxIteration = 300;
+        public int numThreads   = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Holds K-means clustering result
+     * 
+     * @author leo
+     * 
+     */
+    public static class ClusterInfo
+    {
+        /**
+         * The number of clusters
+         */
+        public final int      K;
+        /**
+         * The dimension of the points
+         */
+        public final int      dim;
+        /**
+         * Centroids in the row-major order
+         */
+        public final double[] centroid;
+        /**
+         * Array of cluster IDs of the point p_0, ..., p_{N-1};
+         */
+        public final int[]    clusterAssignment;
+        /**
+         * The number of points in each cluster
+         */
+        public final int[]    size;
+        /**
+         * The sum of squared distances of the points to their centroid in each
+         * cluster
+         */
+        public final double[] squaredError;
+        /**
+         * Average of squared distance of each point to its belonging centroids
+         */
+        public double         averageOfDistance;
+        public int            numIterations;
+
+        public ClusterInfo(int K, int dim, double[] centroid, int[] clusterAssignment) {
+            this.K = K;
+            this.dim = dim;
+            this.centroid = centroid;
+            this.clusterAssignment = clusterAssignment;
+            this.size = new int[K];
+            this.squaredError = new double[K];
+        }
+
+        protected ClusterInfo(ClusterInfo other) {
+            this.K = other.K;
+            this.dim = other.dim;
+            this.centroid = other.centroid;
+            this.clusterAssignment = other.clusterAssignment;
+            this.size = other.size;
+            this.squaredError = other.squaredError;
+            this.averageOfDistance = other.averageOfDistance;
+            this.numIterations = other.numIterations;
+        }
+
+        public double[] getCentroid(int k) {
+            return Arrays.copyOfRange(centroid, k * dim, (k + 1) * dim);
+        }
+
+        public double getSquaredError() {
+            double sum = 0;
+            for (double e : squaredError)
+                sum += e;
+            return sum;
+        }
+    }
+
+    private final Config          config;
+    private final ExecutorService threadPool;
+
+    public DenseKMeans() {
+        this(new Config());
+    }
+
+    public DenseKMeans(Config config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config
+     * @param threadPool
+     *            thread pool shared with the caller. If null, a thread pool of
+     *            config.numThreads threads is created for each execution
+     */
+    DenseKMeans(Config config, ExecutorService threadPool) {
+        this.config = config;
+        this.threadPool = threadPool;
+    }
+
+    static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int dim) {
+        double sum = 0;
+        for (int d = 0; d < dim; ++d) {
+            double diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static void validate(double[] points, int dim) {
+        if (dim <= 0)
+            throw new IllegalArgumentException("dim must be positive: " + dim);
+        if (points.length % dim != 0)
+            throw new IllegalArgumentException(String.format("the array length %d is not a multiple of dim %d",
+                    points.length, dim));
+    }
+
+    /**
+     * @param K
+     *            number of clusters
+     * @param points
+     *            input points in the row-major order
+     * @param dim
+     *            dimension of the points
+     * @return
+     * @throws Exception
+     */
+    public ClusterInfo execute(int K, double[] points, int dim) throws Exception {
+        validate(points, dim);
+        return execute(points, dim, initCentroids(K, points, dim));
+    }
+
+    /**
+     * Randomly choose K-centroids from the input data set
+     * 
+     * @param K
+     * @param points
+     * @param dim
+     * @return
+     */
+    protected double[] initCentroids(int K, double[] points, int dim) {
+        final int N = points.length / dim;
+        if (K <= 0 || K > N)
+            throw new IllegalArgumentException(String.format("K=%d, but # of points is %d", K, N));
+
+        double[] centroid = new double[K * dim];
+        Random random = new Random(0);
+        for (int k = 0; k < K; ++k) {
+            int r = random.nextInt(N);
+            // give up avoiding duplicates when the points have few distinct values
+            for (int trial = 0; trial < 100 && hasDuplicate(centroid, k, points, r, dim); ++trial)
+                r = random.nextInt(N);
+            System.arraycopy(points, r * dim, centroid, k * dim, dim);
+        }
+        return centroid;
+    }
+
+    private static boolean hasDuplicate(double[] centroid, int K, double[] points, int i, int dim) {
+        for (int k = 0; k < K; ++k) {
+            if (squaredDistance(centroid, k * dim, points, i * dim, dim) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param points
+     *            input points in the row-major order
+     * @param dim
+     *            dimension of the points
+     * @param centroids
+     *            initial centroids in the row-major order
+     * @return
+     * @throws Exception
+     */
+    public ClusterInfo execute(double[] points, int dim, double[] centroids) throws Exception {
+        validate(points, dim);
+        validate(centroids, dim);
+        if (centroids.length == 0)
+            throw new IllegalArgumentException("no centroid is given");
+
+        ExecutorService pool = threadPool;
+        if (pool == null && config.numThreads > 1 && points.length / dim > CHUNK_SIZE)
+            pool = Executors.newFixedThreadPool(config.numThreads);
+        try {
+            return new Run(points, dim, centroids, pool).execute();
+        }
+        finally {
+            if (pool != null && pool != threadPool)
+                pool.shutdown();
+        }
+    }
+
+    /**
+     * State of a clustering
+     * 
+     * @author leo
+     * 
+     */
+    private class Run
+    {
+        final double[]        points;
+        final int             dim;
+        final int             N;
+        final int             K;
+        final double[]        centroid;
+        final int[]           assignment;
+        /**
+         * upper bound of the distance to the assigned centroid
+         */
+        final double[]        upper;
+        /**
+         * lower bound of the distance to the other centroids
+         */
+        final double[]        lower;
+        /**
+         * half of the distance from each centroid to its closest centroid
+         */
+        final double[]        halfMinDist;
+        /**
+         * distance of the centroid movement in the last update
+         */
+        final double[]        moved;
+        int                   farthest    = -1;
+        double                maxMoved    = 0;
+        double                secondMoved = 0;
+        boolean               initialized = false;
+        final Chunk[]         chunk;
+        final ExecutorService pool;
+
+        Run(double[] points, int dim, double[] centroids, ExecutorService pool) {
+            this.points = points;
+            this.dim = dim;
+            this.N = points.length / dim;
+            this.K = centroids.length / dim;
+            this.centroid = centroids.clone();
+            this.assignment = new int[N];
+            this.upper = new double[N];
+            this.lower = new double[N];
+            this.halfMinDist = new double[K];
+            this.moved = new double[K];
+            this.pool = pool;
+            this.chunk = new Chunk[(N + CHUNK_SIZE - 1) / CHUNK_SIZE];
+            for (int c = 0; c < chunk.length; ++c)
+                chunk[c] = new Chunk(this, c * CHUNK_SIZE, Math.min(N, (c + 1) * CHUNK_SIZE));
+        }
+
+        ClusterInfo execute() throws Exception {
+            int iteration = 0;
+            for (; iteration < config.maxIteration; ++iteration) {
+                if (initialized)
+                    updateHalfMinDist();
+
+                int changed = run(false);
+                initialized = true;
+                if (_logger.isDebugEnabled())
+                    _logger.debug("iteration %d: %d points changed the clusters", iteration + 1, changed);
+                if (changed == 0)
+                    break;
+                updateCentroids();
+            }
+
+            // Compute the exact errors
+            run(true);
+            ClusterInfo result = new ClusterInfo(K, dim, centroid, assignment);
+            double sumOfSquaredError = 0;
+            for (Chunk c : chunk) {
+                for (int k = 0; k < K; ++k) {
+                    result.size[k] += c.count[k];
+                    result.squaredError[k] += c.error[k];
+                }
+            }
+            for (int k = 0; k < K; ++k)
+                sumOfSquaredError += result.squaredError[k];
+            result.averageOfDistance = N == 0 ? 0 : sumOfSquaredError / N;
+            result.numIterations = iteration;
+            return result;
+        }
+
+        private int run(final boolean computeError) throws Exception {
+            int changed = 0;
+            if (pool == null || chunk.length <= 1) {
+                for (Chunk c : chunk)
+                    changed += computeError ? c.computeError() : c.assign();
+                return changed;
+            }
+
+            List<Future<Integer>> tasks = new ArrayList<Future<Integer>>(chunk.length);
+            for (final Chunk c : chunk) {
+                tasks.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return computeError ? c.computeError() : c.assign();
+                    }
+                }));
+            }
+            for (Future<Integer> each : tasks)
+                changed += each.get();
+            return changed;
+        }
+
+        private void updateHalfMinDist() {
+            Arrays.fill(halfMinDist, Double.POSITIVE_INFINITY);
+            for (int k = 0; k < K; ++k) {
+                for (int j = k + 1; j < K; ++j) {
+                    double d = Math.sqrt(squaredDistance(centroid, k * dim, centroid, j * dim, dim)) / 2;
+                    if (d < halfMinDist[k])
+                        halfMinDist[k] = d;
+                    if (d < halfMinDist[j])
+                        halfMinDist[j] = d;
+                }
+            }
+        }
+
+        private void updateCentroids() {
+            // merge the sums in the chunk order to make the result deterministic
+            double[] sum = new double[K * dim];
+            int[] count = new int[K];
+            for (Chunk c : chunk) {
+                for (int i = 0; i < sum.length; ++i)
+                    sum[i] += c.sum[i];
+                for (int k = 0; k < K; ++k)
+                    count[k] += c.count[k];
+            }
+
+            farthest = -1;
+            maxMoved = 0;
+            secondMoved = 0;
+            for (int k = 0; k < K; ++k) {
+                if (count[k] == 0) {
+                    // keep the centroid of the empty cluster
+                    moved[k] = 0;
+                    continue;
+                }
+                for (int d = 0; d < dim; ++d)
+                    sum[k * dim + d] /= count[k];
+                moved[k] = Math.sqrt(squaredDistance(centroid, k * dim, sum, k * dim, dim));
+                System.arraycopy(sum, k * dim, centroid, k * dim, dim);
+                if (moved[k] > maxMoved) {
+                    secondMoved = maxMoved;
+                    maxMoved = moved[k];
+                    farthest = k;
+                }
+                else if (moved[k] > secondMoved)
+                    secondMoved = moved[k];
+            }
+        }
+
+        /**
+         * Find the closest centroid of the point i, and set its bounds
+         * 
+         * @param i
+         * @return the closest centroid
+         */
+        int findClosest(int i) {
+            int offset = i * dim;
+            double best = Double.POSITIVE_INFINITY;
+            double second = Double.POSITIVE_INFINITY;
+            int closest = 0;
+            for (int k = 0; k < K; ++k) {
+                double d = squaredDistance(points, offset, centroid, k * dim, dim);
+                if (d < best) {
+                    second = best;
+                    best = d;
+                    closest = k;
+                }
+                else if (d < second)
+                    second = d;
+            }
+            upper[i] = Math.sqrt(best);
+            lower[i] = Math.sqrt(second);
+            return closest;
+        }
+    }
+
+    /**
+     * A range of the points, and the buffers for accumulating their
+     * statistics
+     * 
+     * @author leo
+     * 
+     */
+    private static class Chunk
+    {
+        final Run      run;
+        final int      begin;
+        final int      end;
+        final double[] sum;
+        final int[]    count;
+        double[]       error;
+
+        Chunk(Run run, int begin, int end) {
+            this.run = run;
+            this.begin = begin;
+            this.end = end;
+            this.sum = new double[run.K * run.dim];
+            this.count = new int[run.K];
+        }
+
+        /**
+         * Assign the points to the closest centroids
+         * 
+         * @return the number of points whose cluster has changed
+         */
+        int assign() {
+            final Run r = run;
+            final int dim = r.dim;
+            Arrays.fill(sum, 0);
+            Arrays.fill(count, 0);
+            int changed = 0;
+            for (int i = begin; i < end; ++i) {
+                int a;
+                if (!r.initialized) {
+                    a = r.findClosest(i);
+                    changed++;
+                }
+                else {
+                    a = r.assignment[i];
+                    // the bounds loosen as much as the centroids have moved 
+                    r.upper[i] += r.moved[a];
+                    r.lower[i] -= a == r.farthest ? r.secondMoved : r.maxMoved;
+                    double m = Math.max(r.halfMinDist[a], r.lower[i]);
+                    if (r.upper[i] > m) {
+                        r.upper[i] = Math.sqrt(squaredDistance(r.points, i * dim, r.centroid, a * dim, dim));
+                        if (r.upper[i] > m) {
+                            int closest = r.findClosest(i);
+                            if (closest != a) {
+                                a = closest;
+                                changed++;
+                            }
+                        }
+                    }
+                }
+                r.assignment[i] = a;
+                count[a]++;
+                for (int d = 0, offset = i * dim, c = a * dim; d < dim; ++d)
+                    sum[c + d] += r.points[offset + d];
+            }
+            return changed;
+        }
+
+        int computeError() {
+            final Run r = run;
+            if (error == null)
+                error = new double[r.K];
+            Arrays.fill(error, 0);
+            Arrays.fill(count, 0);
+            for (int i = begin; i < end; ++i) {
+                int a = r.assignment[i];
+                count[a]++;
+                error[a] += squaredDistance(r.points, i * r.dim, r.centroid, a * r.dim, r.dim);
+            }
+            return 0;
+        }
+    }
+
+}
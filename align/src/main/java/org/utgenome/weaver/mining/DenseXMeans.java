@@ -0,0 +1,268 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// DenseXMeans.java
+// Since: 2012/05/26
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.mining;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.utgenome.weaver.mining.DenseKMeans.Config;
+
+/**
+ * X-Means clustering of dense points stored in the row-major order. See
+ * {@link XMeans} for the algorithm. The BIC is computed from the cluster sizes
+ * and the squared errors reported by {@link DenseKMeans}, without scanning the
+ * points again. The candidate splits are evaluated concurrently on the thread
+ * pool, which is also used by the K-means of all the points.
+ * 
+ * @author leo
+ * 
+ */
+public class DenseXMeans
+{
+    public static class ClusterInfo extends DenseKMeans.ClusterInfo
+    {
+        public double BIC = 0;
+
+        public ClusterInfo(DenseKMeans.ClusterInfo other) {
+            super(other);
+        }
+    }
+
+    private final Config          config;
+    private final ExecutorService threadPool;
+
+    public DenseXMeans() {
+        this(new Config());
+    }
+
+    public DenseXMeans(Config config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config
+     * @param threadPool
+     *            thread pool shared with the caller, which shuts it down. If
+     *            null, a thread pool of config.numThreads threads is created for
+     *            each execution
+     */
+    public DenseXMeans(Config config, ExecutorService threadPool) {
+        this.config = config;
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * @param points
+     *            input points in the row-major order
+     * @param dim
+     *            dimension of the points
+     * @param maxK
+     *            maximum number of the cluster
+     * @return
+     * @throws Exception
+     */
+    public ClusterInfo execute(double[] points, int dim, int maxK) throws Exception {
+        ExecutorService threadPool = this.threadPool;
+        if (threadPool == null)
+            threadPool = Executors.newFixedThreadPool(Math.max(1, config.numThreads));
+        try {
+            DenseKMeans kmeans = new DenseKMeans(config, threadPool);
+            // Start with a single centroid
+            ClusterInfo cluster = EStep(kmeans, points, dim, centerOfMass(points, dim));
+            for (; cluster.K < maxK;) {
+                double[] nextCentroids = findCentroids(threadPool, points, cluster);
+                ClusterInfo nextCluster = EStep(kmeans, points, dim, nextCentroids);
+
+                if (cluster.BIC >= nextCluster.BIC)
+                    break;
+
+                cluster = nextCluster;
+            }
+            return cluster;
+        }
+        finally {
+            if (threadPool != this.threadPool)
+                threadPool.shutdown();
+        }
+    }
+
+    private ClusterInfo EStep(DenseKMeans kmeans, double[] points, int dim, double[] centroids) throws Exception {
+        ClusterInfo cluster = new ClusterInfo(kmeans.execute(points, dim, centroids));
+        cluster.BIC = XMeans.computeBIC(cluster.size, cluster.getSquaredError(), dim);
+        return cluster;
+    }
+
+    private static double[] centerOfMass(double[] points, int dim) {
+        double[] center = new double[dim];
+        final int N = points.length / dim;
+        for (int i = 0; i < N; ++i) {
+            for (int d = 0; d < dim; ++d)
+                center[d] += points[i * dim + d];
+        }
+        for (int d = 0; d < dim; ++d)
+            center[d] /= N;
+        return center;
+    }
+
+    private double[] findCentroids(ExecutorService threadPool, double[] points, final ClusterInfo cluster)
+            throws Exception {
+        final int dim = cluster.dim;
+        final int N = points.length / dim;
+
+        // Extract the input points that belong to each cluster in a single scan
+        final double[][] pointsInTheCluster = new double[cluster.K][];
+        if (cluster.K != 1) {
+            int[] offset = new int[cluster.K];
+            for (int k = 0; k < cluster.K; ++k)
+                pointsInTheCluster[k] = new double[cluster.size[k] * dim];
+            for (int i = 0; i < N; ++i) {
+                int k = cluster.clusterAssignment[i];
+                System.arraycopy(points, i * dim, pointsInTheCluster[k], offset[k], dim);
+                offset[k] += dim;
+            }
+        }
+        else
+            pointsInTheCluster[0] = points;
+
+        // Split Phase: Try to improve the cluster structure by splitting each cluster into two 
+        List<Future<DenseKMeans.ClusterInfo>> candidates = new ArrayList<Future<DenseKMeans.ClusterInfo>>(cluster.K);
+        for (int k = 0; k < cluster.K; ++k) {
+            if (cluster.size[k] <= 1) {
+                candidates.add(null);
+                continue;
+            }
+            final int clusterID = k;
+            candidates.add(threadPool.submit(new Callable<DenseKMeans.ClusterInfo>() {
+                @Override
+                public DenseKMeans.ClusterInfo call() throws Exception {
+                    // run each split in a single thread, since the splits are already parallel
+                    DenseKMeans.Config c = new DenseKMeans.Config();
+                    c.maxIteration = config.maxIteration;
+                    c.numThreads = 1;
+                    return split(new DenseKMeans(c), cluster.getCentroid(clusterID), pointsInTheCluster[clusterID],
+                            dim);
+                }
+            }));
+        }
+
+        // Collect the centroids in the order of the clusters
+        double[] nextCentroids = new double[2 * cluster.K * dim];
+        int numCentroids = 0;
+        for (int k = 0; k < cluster.K; ++k) {
+            if (cluster.size[k] == 0) {
+                // When no cluster is found
+                continue;
+            }
+
+            DenseKMeans.ClusterInfo newCluster = candidates.get(k) == null ? null : candidates.get(k).get();
+            if (newCluster != null) {
+                double currentBIC = XMeans.computeBIC(new int[] { cluster.size[k] }, cluster.squaredError[k], dim);
+                double newBIC = XMeans.computeBIC(newCluster.size, newCluster.getSquaredError(), dim);
+                if (newBIC > currentBIC) {
+                    // The new cluster has better BIC 
+                    for (int c = 0; c < newCluster.K; ++c)
+                        numCentroids = addCentroid(nextCentroids, numCentroids, newCluster.centroid, c, dim);
+                    continue;
+                }
+            }
+            // Using the current centroid as is.
+            numCentroids = addCentroid(nextCentroids, numCentroids, cluster.centroid, k, dim);
+        }
+
+        double[] result = new double[numCentroids * dim];
+        System.arraycopy(nextCentroids, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Append the centroid unless the same one is already added
+     */
+    private static int addCentroid(double[] centroids, int numCentroids, double[] src, int k, int dim) {
+        for (int i = 0; i < numCentroids; ++i) {
+            if (DenseKMeans.squaredDistance(centroids, i * dim, src, k * dim, dim) == 0)
+                return numCentroids;
+        }
+        System.arraycopy(src, k * dim, centroids, numCentroids * dim, dim);
+        return numCentroids + 1;
+    }
+
+    private DenseKMeans.ClusterInfo split(DenseKMeans kmeans, double[] centroid, double[] points, int dim)
+            throws Exception {
+        final int N = points.length / dim;
+
+        // Compute the range of the cluster
+        double diameter = 0;
+        for (int d = 0; d < dim; ++d) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < N; ++i) {
+                double v = points[i * dim + d];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            diameter += (max - min) * (max - min);
+        }
+        diameter = Math.sqrt(diameter);
+        if (Double.isInfinite(diameter))
+            diameter = Double.MAX_VALUE / 2.0;
+
+        if (diameter == 0.0) {
+            return null;
+        }
+
+        // Determine the new centroids by choosing points distant from the centroid at the random direction  
+        Random rand = new Random(0); // uses a fixed seed for stabilizing the clustering results
+        double[] direction = new double[dim];
+        if (dim == 2) {
+            double angle = rand.nextDouble() * Math.PI;
+            direction[0] = Math.cos(angle);
+            direction[1] = Math.sin(angle);
+        }
+        else {
+            double norm = 0;
+            for (int d = 0; d < dim; ++d) {
+                direction[d] = rand.nextGaussian();
+                norm += direction[d] * direction[d];
+            }
+            norm = Math.sqrt(norm);
+            for (int d = 0; d < dim; ++d)
+                direction[d] /= norm;
+        }
+        double[] newCentroid = new double[2 * dim];
+        for (int d = 0; d < dim; ++d) {
+            newCentroid[d] = centroid[d] + direction[d] * diameter / 2.0;
+            newCentroid[dim + d] = centroid[d] - direction[d] * diameter / 2.0;
+        }
+
+        // Compute the K-means for the splits
+        return kmeans.execute(points, dim, newCentroid);
+    }
+
+}
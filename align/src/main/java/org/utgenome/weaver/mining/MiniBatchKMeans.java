@@ -0,0 +1,491 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// MiniBatchKMeans.java
+// Since: 2012/05/27
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.mining;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.xerial.util.log.Logger;
+
+/**
+ * Mini-batch K-means clustering (Sculley, 2010) for the points that do not fit
+ * in memory. The points are read from a {@link PointReader} in batches of a
+ * bounded size. Each batch is assigned to the closest centroids, then each
+ * centroid moves toward its points with the learning rate 1/(number of points
+ * assigned so far). With the batch size 1, this is the online K-means of
+ * MacQueen.
+ * 
+ * <p>
+ * Only the centroids and the sufficient statistics of the clusters (the number
+ * of points, the sum and the sum of squared norms of the points) are held in
+ * memory. They can be saved to a checkpoint file periodically, and the
+ * clustering can be resumed from the file.
+ * </p>
+ * 
+ * @author leo
+ * 
+ */
+public class MiniBatchKMeans
+{
+    private static Logger    _logger = Logger.getLogger(MiniBatchKMeans.class);
+
+    private static final int MAGIC   = 0x4d424b31; // "MBK1"
+
+    /**
+     * Source of points
+     * 
+     * @author leo
+     * 
+     */
+    public static interface PointReader
+    {
+        /**
+         * Read points into the buffer in the row-major order
+         * 
+         * @param buffer
+         * @return the number of points read, or 0 at the end of the input
+         * @throws IOException
+         */
+        public int read(double[] buffer) throws IOException;
+    }
+
+    public static class Config
+    {
+        /**
+         * The number of points in a batch. Only the first batch, which seeds
+         * the centroids, is extended to K points if smaller
+         */
+        public int  batchSize          = 1024;
+        /**
+         * File to save the clustering state. No checkpoint is made if null
+         */
+        public File checkpointFile     = null;
+        /**
+         * The number of batches between checkpoints
+         */
+        public int  checkpointInterval = 100;
+
+        void validate() {
+            if (batchSize <= 0)
+                throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+            if (checkpointInterval <= 0)
+                throw new IllegalArgumentException("checkpointInterval must be positive: " + checkpointInterval);
+        }
+    }
+
+    private final Config   config;
+    private final int      K;
+    private final int      dim;
+    private double[]       centroid;
+    /**
+     * The number of points assigned to each cluster
+     */
+    private final long[]   count;
+    /**
+     * Sum of the points in each cluster
+     */
+    private final double[] sum;
+    /**
+     * Sum of the squared norms of the points in each cluster
+     */
+    private final double[] sumOfSquares;
+    private long           numPoints  = 0;
+    private long           numBatches = 0;
+
+    public MiniBatchKMeans(int K, int dim) {
+        this(K, dim, new Config());
+    }
+
+    public MiniBatchKMeans(int K, int dim, Config config) {
+        if (K <= 0 || dim <= 0)
+            throw new IllegalArgumentException(String.format("K=%d, dim=%d", K, dim));
+        config.validate();
+        this.config = config;
+        this.K = K;
+        this.dim = dim;
+        this.count = new long[K];
+        this.sum = new double[K * dim];
+        this.sumOfSquares = new double[K];
+    }
+
+    public int getK() {
+        return K;
+    }
+
+    public int getDimension() {
+        return dim;
+    }
+
+    /**
+     * @return the number of points processed so far
+     */
+    public long getNumPoints() {
+        return numPoints;
+    }
+
+    /**
+     * @return centroids in the row-major order, or null if no point is
+     *         processed yet
+     */
+    public double[] getCentroids() {
+        return centroid == null ? null : centroid.clone();
+    }
+
+    public long getCount(int k) {
+        return count[k];
+    }
+
+    /**
+     * Compute the sum of squared distances of the points in the cluster k to
+     * their mean. Since the points are assigned to the centroids at the time,
+     * this is an estimate.
+     * 
+     * @param k
+     * @return
+     */
+    public double getSquaredError(int k) {
+        if (count[k] == 0)
+            return 0;
+        double norm = 0;
+        for (int d = 0; d < dim; ++d)
+            norm += sum[k * dim + d] * sum[k * dim + d];
+        return Math.max(0, sumOfSquares[k] - norm / count[k]);
+    }
+
+    /**
+     * Cluster all of the points in the input
+     * 
+     * @param in
+     * @return the number of points processed
+     * @throws Exception
+     */
+    public long fit(PointReader in) throws Exception {
+        return fit(in, 0);
+    }
+
+    /**
+     * Cluster the points in the input after skipping the given number of
+     * points. To resume the clustering from a checkpoint, skip
+     * {@link #getNumPoints()} points of the same input.
+     * 
+     * @param in
+     * @param skip
+     * @return the number of points processed
+     * @throws Exception
+     */
+    public long fit(PointReader in, long skip) throws Exception {
+        config.validate();
+        // The first batch seeds the centroids, so it needs at least K points
+        final int seedSize = Math.max(config.batchSize, K);
+        double[] batch = new double[seedSize * dim];
+        int[] assignment = new int[seedSize];
+
+        // skip the points processed before
+        for (long remaining = skip; remaining > 0;) {
+            int len = (int) Math.min(remaining, batch.length / dim);
+            int n = readFully(in, batch, len);
+            if (n == 0)
+                return 0;
+            remaining -= n;
+        }
+
+        long processed = 0;
+        for (int n; (n = readFully(in, batch, centroid == null ? seedSize : config.batchSize)) > 0;) {
+            update(batch, n, assignment);
+            processed += n;
+            if (config.checkpointFile != null && numBatches % config.checkpointInterval == 0) {
+                _logger.debug("checkpoint at %d points", numPoints);
+                saveTo(config.checkpointFile);
+            }
+        }
+        if (config.checkpointFile != null)
+            saveTo(config.checkpointFile);
+        return processed;
+    }
+
+    /**
+     * Read the given number of points unless the input ends. A reader may
+     * return fewer points than the buffer can hold, so this repeats reading
+     * until the buffer is filled.
+     */
+    private int readFully(PointReader in, double[] buffer, int numPointsToRead) throws IOException {
+        int n = 0;
+        while (n < numPointsToRead) {
+            double[] part = n == 0 && numPointsToRead * dim == buffer.length ? buffer
+                    : new double[(numPointsToRead - n) * dim];
+            int readPoints = in.read(part);
+            if (readPoints <= 0)
+                break;
+            if (part != buffer)
+                System.arraycopy(part, 0, buffer, n * dim, readPoints * dim);
+            n += readPoints;
+        }
+        return n;
+    }
+
+    /**
+     * Update the clusters with a batch of points
+     * 
+     * @param batch
+     *            points in the row-major order
+     * @param n
+     *            the number of points in the batch
+     * @throws Exception
+     */
+    public void update(double[] batch, int n) throws Exception {
+        update(batch, n, new int[n]);
+    }
+
+    private void update(double[] batch, int n, int[] assignment) throws Exception {
+        if (n <= 0)
+            return;
+
+        if (centroid == null) {
+            // Initialize the centroids by clustering the first batch
+            if (n < K)
+                throw new IllegalArgumentException(String.format(
+                        "the first batch has %d points, which is less than K=%d", n, K));
+            double[] points = Arrays.copyOf(batch, n * dim);
+            DenseKMeans.Config c = new DenseKMeans.Config();
+            c.numThreads = 1;
+            DenseKMeans kmeans = new DenseKMeans(c);
+            DenseKMeans.ClusterInfo init = kmeans.execute(K, points, dim);
+            centroid = init.centroid;
+            for (int i = 0; i < n; ++i)
+                accumulate(batch, i, init.clusterAssignment[i]);
+            numPoints += n;
+            numBatches++;
+            return;
+        }
+
+        // Assign the points to the centroids before moving them. With a batch of
+        // a single point, this assigns and moves a centroid point by point
+        for (int i = 0; i < n; ++i)
+            assignment[i] = closest(batch, i);
+
+        for (int i = 0; i < n; ++i) {
+            int k = assignment[i];
+            accumulate(batch, i, k);
+            double rate = 1.0 / count[k];
+            for (int d = 0; d < dim; ++d)
+                centroid[k * dim + d] += rate * (batch[i * dim + d] - centroid[k * dim + d]);
+        }
+        numPoints += n;
+        numBatches++;
+    }
+
+    private void accumulate(double[] points, int i, int k) {
+        count[k]++;
+        double norm = 0;
+        for (int d = 0; d < dim; ++d) {
+            double v = points[i * dim + d];
+            sum[k * dim + d] += v;
+            norm += v * v;
+        }
+        sumOfSquares[k] += norm;
+    }
+
+    private int closest(double[] points, int i) {
+        int closest = 0;
+        double best = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < K; ++k) {
+            double d = DenseKMeans.squaredDistance(points, i * dim, centroid, k * dim, dim);
+            if (d < best) {
+                best = d;
+                closest = k;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Assign the points to the closest centroids
+     * 
+     * @param points
+     *            points in the row-major order
+     * @return cluster IDs of the points
+     */
+    public int[] assign(double[] points) {
+        if (centroid == null)
+            throw new IllegalStateException("no point is clustered yet");
+        int[] result = new int[points.length / dim];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = closest(points, i);
+        return result;
+    }
+
+    /**
+     * Save the clustering state to the file. The state is written to a
+     * temporary file (f.tmp) first, which then replaces the file, so the
+     * previous checkpoint remains when the process is killed while writing. If
+     * the file system cannot rename onto an existing file, the old file is
+     * deleted before renaming, and {@link #loadFrom(File, Config)} reads the
+     * temporary file when the process is killed in between.
+     * 
+     * @param f
+     * @throws IOException
+     */
+    public void saveTo(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(K);
+            out.writeInt(dim);
+            out.writeLong(numPoints);
+            out.writeLong(numBatches);
+            out.writeBoolean(centroid != null);
+            if (centroid != null) {
+                for (double v : centroid)
+                    out.writeDouble(v);
+            }
+            for (int k = 0; k < K; ++k) {
+                out.writeLong(count[k]);
+                out.writeDouble(sumOfSquares[k]);
+            }
+            for (double v : sum)
+                out.writeDouble(v);
+        }
+        finally {
+            out.close();
+        }
+        if (tmp.renameTo(f))
+            return;
+        if (f.exists() && !f.delete())
+            throw new IOException("failed to replace " + f);
+        if (!tmp.renameTo(f))
+            throw new IOException(String.format("failed to rename %s to %s", tmp, f));
+    }
+
+    /**
+     * Load the clustering state saved by {@link #saveTo(File)}. If the file is
+     * missing but its temporary file is complete, the temporary file is read
+     * instead.
+     * 
+     * @param f
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static MiniBatchKMeans loadFrom(File f, Config config) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        if (!f.exists() && tmp.exists()) {
+            _logger.warn("%s is not found. Load %s instead", f, tmp);
+            f = tmp;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a checkpoint file: " + f);
+            int K = in.readInt();
+            int dim = in.readInt();
+            // the file holds at least the sums of the points (K * dim doubles)
+            if (K <= 0 || dim <= 0 || (long) K * dim * 8 > f.length())
+                throw new IOException(String.format("corrupted checkpoint file %s: K=%d, dim=%d", f, K, dim));
+            MiniBatchKMeans m = new MiniBatchKMeans(K, dim, config);
+            m.numPoints = in.readLong();
+            m.numBatches = in.readLong();
+            if (in.readBoolean()) {
+                m.centroid = new double[K * dim];
+                for (int i = 0; i < m.centroid.length; ++i)
+                    m.centroid[i] = in.readDouble();
+            }
+            for (int k = 0; k < K; ++k) {
+                m.count[k] = in.readLong();
+                m.sumOfSquares[k] = in.readDouble();
+            }
+            for (int i = 0; i < m.sum.length; ++i)
+                m.sum[i] = in.readDouble();
+            return m;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read points from an iterator
+     * 
+     * @param it
+     * @param dim
+     * @return
+     */
+    public static PointReader fromIterator(final Iterator<double[]> it, final int dim) {
+        return new PointReader() {
+            @Override
+            public int read(double[] buffer) {
+                int n = 0;
+                for (; (n + 1) * dim <= buffer.length && it.hasNext(); ++n)
+                    System.arraycopy(it.next(), 0, buffer, n * dim, dim);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Read points from a text, in which each line has the coordinates of a
+     * point separated by white spaces
+     * 
+     * @param input
+     * @param dim
+     * @return
+     */
+    public static PointReader fromText(Reader input, final int dim) {
+        final BufferedReader in = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(
+                input);
+        return new PointReader() {
+            private int lineCount = 0;
+
+            @Override
+            public int read(double[] buffer) throws IOException {
+                int n = 0;
+                for (String line; (n + 1) * dim <= buffer.length && (line = in.readLine()) != null;) {
+                    lineCount++;
+                    line = line.trim();
+                    if (line.length() == 0)
+                        continue;
+                    String[] c = line.split("\\s+");
+                    if (c.length < dim)
+                        throw new IOException(String.format("line %d: %d columns are expected", lineCount, dim));
+                    for (int d = 0; d < dim; ++d)
+                        buffer[n * dim + d] = Double.parseDouble(c[d]);
+                    n++;
+                }
+                return n;
+            }
+        };
+    }
+
+}
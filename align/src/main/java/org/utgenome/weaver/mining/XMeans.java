@@ -25,8 +25,13 @@
 package org.utgenome.weaver.mining;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.utgenome.weaver.mining.KMeans.PointMetric;
 import org.xerial.util.IndexedSet;
@@ -36,16 +41,42 @@ import org.xerial.util.IndexedSet;
  * 
  * TODO: normalization of each point
  * 
+ * <p>
+ * The candidate splits of the clusters are independent of each other, and
+ * evaluated concurrently when a thread pool is given. The results are
+ * collected in the order of the clusters, so the clustering does not depend on
+ * the number of threads.
+ * </p>
+ * 
  * @author leo
  * 
  */
 public class XMeans<T>
 {
 
-    private final PointMetric<T> metric;
+    private final PointMetric<T>  metric;
+    private final ExecutorService threadPool;
 
+    /**
+     * Evaluate the candidate splits in the caller thread
+     * 
+     * @param metric
+     */
     public XMeans(PointMetric<T> metric) {
+        this(metric, null);
+    }
+
+    /**
+     * @param metric
+     *            metric, which must be thread-safe when a thread pool is given
+     * @param threadPool
+     *            thread pool for evaluating the candidate splits, which is
+     *            shared among the executions and shut down by the caller. If
+     *            null, the splits are evaluated in the caller thread
+     */
+    public XMeans(PointMetric<T> metric, ExecutorService threadPool) {
         this.metric = metric;
+        this.threadPool = threadPool;
     }
 
     public static class ClusterInfo<T>
@@ -62,6 +93,15 @@ public class XMeans<T>
          * Array of the cluster IDs assigned for the points p_0, ... , p_{N-1}
          */
         public int[]         clusterAssignment;
+        /**
+         * The number of points in each cluster
+         */
+        public int[]         size;
+        /**
+         * The sum of squared distances of the points to their centroid in each
+         * cluster
+         */
+        public double[]      squaredError;
 
         public double        BIC      = 0;
 
@@ -89,39 +129,62 @@ public class XMeans<T>
 
     }
 
+    /**
+     * Compute the number of points and the squared error of each cluster in a
+     * single scan of the points
+     */
+    protected void computeStatistics(ClusterInfo<T> cluster, List<T> points) {
+        cluster.size = new int[cluster.K];
+        cluster.squaredError = new double[cluster.K];
+        for (int i = 0; i < points.size(); ++i) {
+            int centroidID = cluster.clusterAssignment[i];
+            T centroid = cluster.centroid.getByID(centroidID);
+            cluster.size[centroidID]++;
+            cluster.squaredError[centroidID] += Math.pow(metric.distance(points.get(i), centroid), 2);
+        }
+    }
+
     /**
      * Compute Bayesian Information Criteria (BIC) of the clusters
      * 
      * @return BIC value
      */
     protected double computeBIC(ClusterInfo<T> cluster, List<T> points) {
+        computeStatistics(cluster, points);
+        double sumOfSquaredError = 0.0;
+        for (double e : cluster.squaredError)
+            sumOfSquaredError += e;
+        return computeBIC(cluster.size, sumOfSquaredError, metric.dimSize());
+    }
 
-        final double R = points.size();
-        final double K = cluster.K;
+    /**
+     * Compute Bayesian Information Criteria (BIC) of the clusters from their
+     * sufficient statistics
+     * 
+     * @param size
+     *            the number of points in each cluster
+     * @param sumOfSquaredError
+     *            the sum of squared distances of the points to their centroids
+     * @param M
+     *            dimension of the points
+     * @return BIC value
+     */
+    static double computeBIC(int[] size, double sumOfSquaredError, int M) {
+        final double K = size.length;
+        double R = 0;
+        for (int s : size)
+            R += s;
 
-        if (R <= cluster.K) {
+        if (R <= K) {
             return Double.MIN_VALUE;
         }
 
         // Compute the sigma of the points under the identical spherical Gaussian assumption
-        double sumOfSquaredError = 0.0;
-        for (int i = 0; i < points.size(); ++i) {
-            int centroidID = cluster.clusterAssignment[i];
-            T centroid = cluster.centroid.getByID(centroidID);
-            sumOfSquaredError += Math.pow(metric.distance(points.get(i), centroid), 2);
-        }
         double sigmaSquare = sumOfSquaredError / (R - K);
 
         double BIC = 0.0;
-        final int M = metric.dimSize();
         for (int k = 0; k < K; ++k) {
-            // count the number of elements in the cluster k
-            double R_n = 0;
-            for (int i = 0; i < points.size(); ++i) {
-                if (cluster.clusterAssignment[i] == k) {
-                    R_n++;
-                }
-            }
+            double R_n = size[k];
 
             // Compute the likelihood of the cluster k
             double p1 = -((R_n / 2.0) * Math.log(2.0 * Math.PI));
@@ -180,63 +243,89 @@ public class XMeans<T>
 
     protected List<T> findCentroids(int K, List<T> points, ClusterInfo<T> cluster) throws Exception {
 
-        // Split Phase
-        List<T> nextCentroids = new ArrayList<T>();
+        if (cluster.size == null)
+            computeStatistics(cluster, points);
+
+        // Extract the input points that belong to each cluster in a single scan
+        List<List<T>> pointsInTheCluster = new ArrayList<List<T>>(K);
+        if (K != 1) {
+            for (int k = 0; k < K; ++k)
+                pointsInTheCluster.add(new ArrayList<T>(cluster.size[k]));
+            for (int i = 0; i < points.size(); ++i)
+                pointsInTheCluster.get(cluster.clusterAssignment[i]).add(points.get(i));
+        }
+        else
+            pointsInTheCluster.add(points);
+
+        // Split Phase: evaluate the candidate splits concurrently
+        List<Future<List<T>>> candidates = new ArrayList<Future<List<T>>>(K);
         for (int k = 0; k < K; ++k) {
-            // Extract the input points that belong to the cluster k 
-            List<T> pointsInTheCluster = null;
-            if (K != 1) {
-                pointsInTheCluster = new ArrayList<T>();
-                for (int i = 0; i < points.size(); ++i) {
-                    if (cluster.clusterAssignment[i] == k)
-                        pointsInTheCluster.add(points.get(i));
+            final T centroid = cluster.centroid.getByID(k);
+            final List<T> pointsOfK = pointsInTheCluster.get(k);
+            // The current BIC of the cluster k as a single cluster
+            final double currentBIC = K != 1 ? computeBIC(new int[] { cluster.size[k] }, cluster.squaredError[k],
+                    metric.dimSize()) : cluster.BIC;
+
+            Callable<List<T>> task = new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return splitIfBetter(centroid, pointsOfK, currentBIC);
                 }
+            };
+            if (threadPool != null)
+                candidates.add(threadPool.submit(task));
+            else {
+                FutureTask<List<T>> f = new FutureTask<List<T>>(task);
+                f.run();
+                candidates.add(f);
             }
-            else
-                pointsInTheCluster = points;
-
-            // Compute the current BIC
-            T centroid = cluster.centroid.getByID(k);
+        }
 
-            if (pointsInTheCluster.size() == 1) {
-                // When it is a single point cluster
-                nextCentroids.add(centroid);
-                continue;
-            }
-            else if (pointsInTheCluster.size() == 0) {
-                // When no cluster is found
-                continue;
-            }
+        // Collect the centroids in the order of the clusters
+        List<T> nextCentroids = new ArrayList<T>();
+        for (Future<List<T>> each : candidates)
+            nextCentroids.addAll(each.get());
 
-            ClusterInfo<T> currentCluster = new ClusterInfo<T>(pointsInTheCluster.size(), centroid);
-            double currentBIC;
-            if (K != 1)
-                currentBIC = computeBIC(currentCluster, pointsInTheCluster);
-            else
-                currentBIC = cluster.BIC;
-
-            // Try to improve the cluster structure by splitting the cluster into two 
-            ClusterInfo<T> newCluster = split(centroid, pointsInTheCluster);
-            if (newCluster == null) {
-                nextCentroids.add(centroid);
-                continue;
-            }
+        // remove duplicates
+        return removeDuplicates(nextCentroids);
+    }
 
-            // Compute the BIC of the split cluster
-            double newBIC = computeBIC(newCluster, pointsInTheCluster);
+    /**
+     * Split the cluster into two if it improves the BIC
+     * 
+     * @param centroid
+     * @param pointsInTheCluster
+     * @param currentBIC
+     * @return the centroids of the split clusters, or the current centroid
+     * @throws Exception
+     */
+    private List<T> splitIfBetter(T centroid, List<T> pointsInTheCluster, double currentBIC) throws Exception {
+        if (pointsInTheCluster.size() == 1) {
+            // When it is a single point cluster
+            return Collections.singletonList(centroid);
+        }
+        else if (pointsInTheCluster.size() == 0) {
+            // When no cluster is found
+            return Collections.emptyList();
+        }
 
-            if (newBIC > currentBIC) {
-                // The new cluster has better BIC 
-                nextCentroids.addAll(newCluster.centroid);
-            }
-            else {
-                // Using the current centroid as is.
-                nextCentroids.add(centroid);
-            }
+        // Try to improve the cluster structure by splitting the cluster into two 
+        ClusterInfo<T> newCluster = split(centroid, pointsInTheCluster);
+        if (newCluster == null) {
+            return Collections.singletonList(centroid);
         }
 
-        // remove duplicates
-        return removeDuplicates(nextCentroids);
+        // Compute the BIC of the split cluster
+        double newBIC = computeBIC(newCluster, pointsInTheCluster);
+
+        if (newBIC > currentBIC) {
+            // The new cluster has better BIC 
+            return new ArrayList<T>(newCluster.centroid);
+        }
+        else {
+            // Using the current centroid as is.
+            return Collections.singletonList(centroid);
+        }
     }
 
     private List<T> removeDuplicates(List<T> list) {
@@ -24,141 +24,297 @@
 //--------------------------------------
 package org.utgenome.weaver.parallel;
 
-import org.jboss.netty.bootstrap.ServerBootstrap;
-import org.jboss.netty.channel.*;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.xerial.util.log.Logger;
-
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.DefaultObjectSizeEstimator;
+import org.jboss.netty.util.ObjectSizeEstimator;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.xerial.util.log.Logger;
 
 public class Actor
 {
     public static class RemoteServer
     {
+        private static Logger              _logger            = Logger.getLogger(Actor.RemoteServer.class);
 
-        private static Logger               _logger    = Logger.getLogger(Actor.RemoteServer.class);
+        /**
+         * Reading requests from a connection is suspended while the requests
+         * waiting for execution exceed this size
+         */
+        public static final long           MAX_CHANNEL_MEMORY = 16 * 1024 * 1024;
+        public static final long           MAX_TOTAL_MEMORY   = 256 * 1024 * 1024;
 
-        public final String                 hostname;
-        public final int                    port;
-        private boolean                     isStarted  = false;
-        private HashMap<String, Class< ? >> actorTable = new HashMap<String, Class< ? >>();
+        public final String                hostname;
+        public final int                   port;
+        private boolean                    isStarted          = false;
+        private Map<String, ActorInstance> actorTable         = new ConcurrentHashMap<String, ActorInstance>();
+        private ServerBootstrap            bootstrap;
+        private Channel                    channel;
+        private ExecutorService            executor;
 
         public RemoteServer(String hostname, int port) {
             this.hostname = hostname;
             this.port = port;
         }
 
+        /**
+         * Start accepting requests. The requests from a connection are
+         * executed in the order of their arrival, and the requests from
+         * different connections are executed in parallel.
+         */
         public void start() {
-            ExecutorService serverThread = Executors.newSingleThreadExecutor();
-            Future<Boolean> ret = serverThread.submit(new Callable<Boolean>() {
-                @Override
-                public Boolean call() throws Exception {
-                    ChannelFuture server = launchServer();
-                    isStarted = true;
-                    server.awaitUninterruptibly();
-                    return true;
-                }
-            });
-        }
+            _logger.info(String.format("Start up a server %s:%s", hostname, port));
 
-        private ChannelFuture launchServer() {
-            _logger.info(String.format("Start up a server %s:%s",  hostname, port));
-
-            ServerBootstrap bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
-                    Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+            executor = new OrderedMemoryAwareThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+                    MAX_CHANNEL_MEMORY, MAX_TOTAL_MEMORY, 30, TimeUnit.SECONDS, new RequestSizeEstimator(),
+                    Executors.defaultThreadFactory());
+            final ExecutionHandler execution = new ExecutionHandler(executor);
 
+            bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                    Executors.newCachedThreadPool()));
             bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
                 @Override
                 public ChannelPipeline getPipeline() throws Exception {
-                    return Channels.pipeline(new RemoteServerHandler());
+                    return NettyConnection.newServerPipeline(execution, new RemoteServerHandler());
                 }
             });
-            bootstrap.setOption("child.tcpNoDelay", true);
-            bootstrap.setOption("child.keepAlive", true);
+            NettyConnection.configure(bootstrap);
             bootstrap.setOption("child.connectTimeoutMillis", TimeUnit.SECONDS.toMillis(1));
-            bootstrap.setOption("reuseAddress", true);
-            bootstrap.setOption("tcpNoDelay", true);
-            Channel channel = bootstrap.bind(new InetSocketAddress(hostname, port));
-            return channel.getCloseFuture();
+            channel = bootstrap.bind(new InetSocketAddress(hostname, port));
+            isStarted = true;
+        }
+
+        public boolean isStarted() {
+            return isStarted;
+        }
 
+        public void shutdown() {
+            if (channel != null)
+                channel.close().awaitUninterruptibly();
+            if (executor != null)
+                executor.shutdownNow();
+            if (bootstrap != null)
+                bootstrap.releaseExternalResources();
+            isStarted = false;
         }
 
         public RemoteActor register(Class< ? > actor, Object... constructorArgs) {
             return register(actor.getSimpleName(), actor, constructorArgs);
         }
 
+        /**
+         * Create an actor in this server, and return a reference to it
+         * 
+         * @param name
+         * @param actor
+         * @param constructorArgs
+         * @return
+         */
         public RemoteActor register(String name, Class< ? > actor, Object... constructorArgs) {
-            actorTable.put(name, actor);
+            actorTable.put(name, new ActorInstance(actor, constructorArgs));
             _logger.info(String.format("register an actor name:%s, class:%s", name, actor.getName()));
-            return new RemoteActor(name, actor, constructorArgs);
+            return new RemoteActor(new InetSocketAddress(hostname, port), name);
+        }
+
+        /**
+         * Dispatches the requests to the registered actors
+         * 
+         * @author leo
+         * 
+         */
+        private class RemoteServerHandler extends NettyConnection.RequestHandler
+        {
+            @Override
+            protected Object invoke(RPCMessage request) throws Exception {
+                ActorInstance actor = actorTable.get(request.target);
+                if (actor == null)
+                    throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("unknown actor: %s",
+                            request.target));
+                return actor.invoke(request.method, request.args);
+            }
         }
     }
 
+    /**
+     * Reference to an actor in a {@link RemoteServer}. The method calls are
+     * sent to the server through a single connection.
+     * 
+     * @author leo
+     * 
+     */
     public static class RemoteActor
     {
-        private static Logger   _logger = Logger.getLogger(Actor.RemoteActor.class);
-
         public final String     name;
-        public final Class< ? > actorClass;
-        private Object          instance;
+        private final RPCClient client;
+
+        public RemoteActor(SocketAddress server, String name) {
+            this(server, name, RPCClient.DEFAULT_MAX_IN_FLIGHT);
+        }
 
-        public RemoteActor(String name, Class< ? > actorClass, Object... constructorArgs) {
+        /**
+         * @param server
+         * @param name
+         * @param maxInFlight
+         *            maximum number of calls waiting for their results
+         */
+        public RemoteActor(SocketAddress server, String name, int maxInFlight) {
             this.name = name;
-            this.actorClass = actorClass;
+            this.client = new RPCClient(server, maxInFlight);
+        }
 
-            init(constructorArgs);
+        private synchronized RPCClient client() throws UTGBException {
+            if (!client.isConnected())
+                client.connect();
+            return client;
         }
 
-        protected void init(Object... constructorArgs) {            try {
-                try {
-                    Constructor< ? > constructor = actorClass.getConstructor(getParameterTypes(constructorArgs));
-                    instance = constructor.newInstance(constructorArgs);
-                }
-                catch (NoSuchMethodException e) {
-                    _logger.error(e);
-                    instance = actorClass.newInstance();
-                }
-            }
-            catch (Exception e) {
-                _logger.error(e);
-            }
+        /**
+         * Call a method of the actor, and wait for its result
+         * 
+         * @param methodName
+         * @param args
+         * @return
+         * @throws Exception
+         */
+        public Object call(String methodName, Object... args) throws Exception {
+            return client().call(name, methodName, args);
+        }
+
+        /**
+         * Call a method of the actor without waiting for its result. Blocks
+         * while too many calls are in flight.
+         * 
+         * @param methodName
+         * @param args
+         * @return
+         * @throws Exception
+         */
+        public Future<Object> send(String methodName, Object... args) throws Exception {
+            return client().send(name, methodName, args);
         }
 
-        public void call(String methodName, Object... args) {
+        public void close() {
+            client.close();
+        }
+    }
+
+    /**
+     * Actor object with its methods indexed by name
+     * 
+     * @author leo
+     * 
+     */
+    private static class ActorInstance
+    {
+        private final Object                    instance;
+        private final Map<String, List<Method>> methodTable = new HashMap<String, List<Method>>();
 
-            // TODO use client connection to send the function arguments to the remote server
+        ActorInstance(Class< ? > actorClass, Object... constructorArgs) {
+            Constructor< ? > constructor = null;
+            for (Constructor< ? > each : actorClass.getConstructors()) {
+                if (isApplicable(each.getParameterTypes(), constructorArgs)) {
+                    constructor = each;
+                    break;
+                }
+            }
+            if (constructor == null)
+                throw new IllegalArgumentException(String.format("no constructor of %s is applicable",
+                        actorClass.getName()));
             try {
-                Method m = actorClass.getMethod(methodName, getParameterTypes(args));
-                m.invoke(instance, args);
+                instance = constructor.newInstance(constructorArgs);
             }
             catch (Exception e) {
-                _logger.error(e);
+                throw new IllegalArgumentException(String.format("failed to create %s: %s", actorClass.getName(),
+                        e));
+            }
+
+            for (Method m : actorClass.getMethods()) {
+                if (m.getDeclaringClass() == Object.class)
+                    continue;
+                if (!methodTable.containsKey(m.getName()))
+                    methodTable.put(m.getName(), new ArrayList<Method>());
+                methodTable.get(m.getName()).add(m);
             }
         }
 
-        Class< ? >[] getParameterTypes(Object... args) {
-            Class< ? >[] argTypes = new Class< ? >[args.length];
-            for (int i = 0; i < argTypes.length; ++i) {
-                argTypes[i] = args[i].getClass();
+        Object invoke(String methodName, Object[] args) throws Exception {
+            List<Method> candidates = methodTable.get(methodName);
+            if (candidates != null) {
+                for (Method m : candidates) {
+                    if (isApplicable(m.getParameterTypes(), args))
+                        return m.invoke(instance, args);
+                }
             }
-            return argTypes;
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("no method %s(%d args) in %s",
+                    methodName, args.length, instance.getClass().getName()));
         }
     }
 
-    private static class RemoteServerHandler extends SimpleChannelUpstreamHandler
+    private static final Map<Class< ? >, Class< ? >> boxedType = new HashMap<Class< ? >, Class< ? >>();
+    static {
+        boxedType.put(boolean.class, Boolean.class);
+        boxedType.put(byte.class, Byte.class);
+        boxedType.put(char.class, Character.class);
+        boxedType.put(short.class, Short.class);
+        boxedType.put(int.class, Integer.class);
+        boxedType.put(long.class, Long.class);
+        boxedType.put(float.class, Float.class);
+        boxedType.put(double.class, Double.class);
+    }
+
+    static boolean isApplicable(Class< ? >[] paramTypes, Object[] args) {
+        if (paramTypes.length != args.length)
+            return false;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i] == null) {
+                if (paramTypes[i].isPrimitive())
+                    return false;
+            }
+            else {
+                Class< ? > type = paramTypes[i].isPrimitive() ? boxedType.get(paramTypes[i]) : paramTypes[i];
+                if (!type.isInstance(args[i]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the memory size of the queued requests by their frame sizes
+     * 
+     * @author leo
+     * 
+     */
+    private static class RequestSizeEstimator implements ObjectSizeEstimator
     {
+        private final ObjectSizeEstimator defaultEstimator = new DefaultObjectSizeEstimator();
 
         @Override
-        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            Channel ch = e.getChannel();
-            // echo
-            ch.write(e.getMessage());
+        public int estimateSize(Object o) {
+            if (o instanceof RPCMessage)
+                return ((RPCMessage) o).frameSize;
+            return defaultEstimator.estimateSize(o);
         }
-
     }
 
     public static RemoteServer remote(String hostname, int port) {
@@ -0,0 +1,381 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentCoordinator.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.Gauge;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.ReadReader;
+import org.xerial.util.StopWatch;
+import org.xerial.util.log.Logger;
+
+/**
+ * Distributes read batches to {@link AlignmentServer}s and collects their
+ * alignment results.
+ * 
+ * Each server can have at most {@link #maxInFlight} batches in flight, so the
+ * reads are pulled from the input only as fast as the servers align them. When
+ * a connection to a server is lost, the batches in flight on that server are
+ * sent to the other servers.
+ * 
+ * @author leo
+ * 
+ */
+public class AlignmentCoordinator
+{
+    private static Logger                  _logger               = Logger.getLogger(AlignmentCoordinator.class);
+
+    public static final int                DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final AlignmentConfig          config;
+    private final Reporter                 out;
+    private final int                      maxInFlight;
+    private final List<Worker>             workers               = new ArrayList<Worker>();
+
+    // guarded by this
+    private final Map<Integer, List<Read>> pending               = new HashMap<Integer, List<Read>>();
+    private final LinkedList<Integer>      retryQueue            = new LinkedList<Integer>();
+    private Exception                      error                 = null;
+    private int                            numAlignments         = 0;
+
+    private ClientBootstrap                bootstrap;
+
+    public AlignmentCoordinator(AlignmentConfig config, Reporter out) throws UTGBException {
+        this(config, out, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public AlignmentCoordinator(AlignmentConfig config, Reporter out, int maxInFlight) throws UTGBException {
+        this.config = config;
+        this.out = out;
+        this.maxInFlight = maxInFlight;
+        for (String each : config.workers.split(",")) {
+            workers.add(new Worker(parseAddress(each.trim())));
+        }
+    }
+
+    static InetSocketAddress parseAddress(String hostAndPort) throws UTGBException {
+        int pos = hostAndPort.lastIndexOf(':');
+        if (pos <= 0)
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format(
+                    "alignment server address must be host:port: %s", hostAndPort));
+        try {
+            return new InetSocketAddress(hostAndPort.substring(0, pos), Integer.parseInt(hostAndPort
+                    .substring(pos + 1)));
+        }
+        catch (NumberFormatException e) {
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("invalid port number: %s",
+                    hostAndPort));
+        }
+    }
+
+    /**
+     * Connection to an alignment server
+     * 
+     * @author leo
+     * 
+     */
+    private class Worker extends SimpleChannelUpstreamHandler
+    {
+        final InetSocketAddress address;
+        final Set<Integer>      inFlight = new HashSet<Integer>();
+        Channel                 channel;
+        boolean                 isAlive  = false;
+
+        Worker(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            AlignmentMessage msg = (AlignmentMessage) e.getMessage();
+            switch (msg.type) {
+            case RESULT_BATCH:
+                reportResult(this, msg.batchId, msg.records);
+                break;
+            case ERROR:
+                reportError(new UTGBException(String.format("error at %s: %s", address, msg.errorMessage)));
+                break;
+            default:
+                _logger.warn("unexpected message from %s: %s", address, msg);
+                break;
+            }
+        }
+
+        @Override
+        public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            // wake up the dispatcher waiting for a writable channel
+            synchronized (AlignmentCoordinator.this) {
+                AlignmentCoordinator.this.notifyAll();
+            }
+            ctx.sendUpstream(e);
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            lost(this);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            _logger.warn("connection error %s: %s", address, e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    /**
+     * Align all reads in the reader, and report the alignment results
+     * 
+     * @param reader
+     * @throws Exception
+     */
+    public void run(ReadReader reader) throws Exception {
+        connect();
+        AlignmentMetrics metrics = AlignmentMetrics.getInstance();
+        metrics.addGauge("coordinator.pending", new Gauge() {
+            @Override
+            public long value() {
+                synchronized (AlignmentCoordinator.this) {
+                    return pending.size();
+                }
+            }
+        });
+        metrics.addGauge("coordinator.retry", new Gauge() {
+            @Override
+            public long value() {
+                synchronized (AlignmentCoordinator.this) {
+                    return retryQueue.size();
+                }
+            }
+        });
+        StopWatch timer = new StopWatch();
+        try {
+            int batchId = 0;
+            for (List<Read> batch; (batch = nextBatch(reader)) != null; batchId++) {
+                synchronized (this) {
+                    pending.put(batchId, batch);
+                }
+                dispatch(batchId);
+                dispatchRetries();
+            }
+            // wait until all batches are aligned
+            synchronized (this) {
+                while (!pending.isEmpty()) {
+                    dispatchRetries();
+                    if (!pending.isEmpty())
+                        waitForUpdate();
+                }
+                checkError();
+            }
+            _logger.info("%,d batches are aligned in %.2f sec.", batchId, timer.getElapsedTime());
+        }
+        finally {
+            reader.close();
+            metrics.removeGauge("coordinator.pending");
+            metrics.removeGauge("coordinator.retry");
+            disconnect();
+        }
+    }
+
+    private List<Read> nextBatch(ReadReader reader) throws Exception {
+        List<Read> batch = new ArrayList<Read>(config.batchSize);
+        for (Read r; batch.size() < config.batchSize && (r = reader.next()) != null;) {
+            batch.add(r);
+        }
+        return batch.isEmpty() ? null : batch;
+    }
+
+    private void connect() throws UTGBException {
+        bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        NettyConnection.configure(bootstrap);
+        byte[] secret;
+        try {
+            secret = Handshake.readSecret(config.secretFile);
+        }
+        catch (IOException e) {
+            throw new UTGBException(UTGBErrorCode.IO_ERROR, e);
+        }
+
+        for (Worker w : workers) {
+            bootstrap.setPipeline(AlignmentMessage.newClientPipeline(w, secret));
+            ChannelFuture f = bootstrap.connect(w.address).awaitUninterruptibly();
+            if (!f.isSuccess()) {
+                _logger.warn("failed to connect %s: %s", w.address, f.getCause());
+                continue;
+            }
+            synchronized (this) {
+                w.channel = f.getChannel();
+                w.isAlive = true;
+            }
+            w.channel.write(AlignmentMessage.config(config));
+            _logger.info("connected to %s", w.address);
+        }
+
+        synchronized (this) {
+            if (numAliveWorkers() == 0)
+                throw new UTGBException("no alignment server is available");
+        }
+    }
+
+    private void disconnect() {
+        for (Worker w : workers) {
+            if (w.channel != null)
+                w.channel.close().awaitUninterruptibly();
+        }
+        if (bootstrap != null)
+            bootstrap.releaseExternalResources();
+    }
+
+    private int numAliveWorkers() {
+        int count = 0;
+        for (Worker w : workers) {
+            if (w.isAlive)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Select the live worker that has the fewest batches in flight. A worker
+     * whose outbound buffer is full is skipped until its channel becomes
+     * writable.
+     * 
+     * @return null if all workers are busy
+     */
+    private Worker selectWorker() {
+        Worker selected = null;
+        for (Worker w : workers) {
+            if (!w.isAlive || w.inFlight.size() >= maxInFlight || !w.channel.isWritable())
+                continue;
+            if (selected == null || w.inFlight.size() < selected.inFlight.size())
+                selected = w;
+        }
+        return selected;
+    }
+
+    private void checkError() throws Exception {
+        if (error != null)
+            throw error;
+        if (numAliveWorkers() == 0)
+            throw new UTGBException("all alignment servers are lost");
+    }
+
+    private void waitForUpdate() throws Exception {
+        checkError();
+        wait();
+        checkError();
+    }
+
+    /**
+     * Send a batch to a worker. Blocks until a worker becomes available
+     * 
+     * @param batchId
+     * @throws Exception
+     */
+    private synchronized void dispatch(int batchId) throws Exception {
+        Worker w;
+        while ((w = selectWorker()) == null) {
+            waitForUpdate();
+        }
+        List<Read> batch = pending.get(batchId);
+        if (batch == null)
+            return;
+        w.inFlight.add(batchId);
+        w.channel.write(AlignmentMessage.readBatch(batchId, batch));
+    }
+
+    private synchronized void dispatchRetries() throws Exception {
+        while (!retryQueue.isEmpty()) {
+            int batchId = retryQueue.removeFirst();
+            _logger.info("resend batch %d", batchId);
+            dispatch(batchId);
+        }
+    }
+
+    private synchronized void reportResult(Worker w, int batchId, List<AlignmentRecord> records) {
+        w.inFlight.remove(batchId);
+        // ignore duplicate results of resent batches
+        if (pending.remove(batchId) != null) {
+            try {
+                for (AlignmentRecord each : records) {
+                    out.emit(each);
+                }
+                numAlignments += records.size();
+            }
+            catch (Exception e) {
+                reportError(e);
+            }
+        }
+        notifyAll();
+    }
+
+    private synchronized void reportError(Exception e) {
+        if (error == null)
+            error = e;
+        notifyAll();
+    }
+
+    private synchronized void lost(Worker w) {
+        if (!w.isAlive)
+            return;
+        w.isAlive = false;
+        if (!w.inFlight.isEmpty()) {
+            _logger.warn("lost connection to %s. %d batches will be sent to the other servers", w.address,
+                    w.inFlight.size());
+            retryQueue.addAll(w.inFlight);
+            w.inFlight.clear();
+        }
+        notifyAll();
+    }
+
+    public synchronized int getNumAlignments() {
+        return numAlignments;
+    }
+
+}
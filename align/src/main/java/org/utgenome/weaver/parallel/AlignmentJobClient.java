@@ -0,0 +1,161 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentJobClient.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.xerial.util.StopWatch;
+import org.xerial.util.log.Logger;
+
+/**
+ * Submits an alignment job to an {@link AlignmentServer} running as a daemon,
+ * and waits for its completion. The daemon reads the input files and writes
+ * the output file by itself, so the file paths must be accessible from the
+ * daemon.
+ * 
+ * @author leo
+ * 
+ */
+public class AlignmentJobClient extends SimpleChannelUpstreamHandler
+{
+    private static Logger           _logger = Logger.getLogger(AlignmentJobClient.class);
+
+    private final InetSocketAddress address;
+
+    // guarded by this
+    private boolean                 isDone  = false;
+    private Exception               error   = null;
+
+    private AlignmentJobClient(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Submit the job to the daemon specified by the --daemon option, and wait
+     * until it finishes. The file paths in the config are converted into the
+     * absolute paths.
+     * 
+     * @param config
+     * @throws Exception
+     */
+    public static void submit(AlignmentConfig config) throws Exception {
+        if (config.outputFile == null && !config.silent)
+            throw new UTGBException(UTGBErrorCode.MISSING_OPTION, "-o (output file) is required for --daemon");
+
+        if (config.refSeq != null)
+            config.refSeq = new File(config.refSeq).getAbsolutePath();
+        if (config.outputFile != null)
+            config.outputFile = new File(config.outputFile).getAbsolutePath();
+        if (config.readFiles != null) {
+            List<String> readFiles = new ArrayList<String>(config.readFiles.size());
+            for (String each : config.readFiles)
+                readFiles.add(new File(each).getAbsolutePath());
+            config.readFiles = readFiles;
+        }
+
+        new AlignmentJobClient(AlignmentCoordinator.parseAddress(config.daemon)).run(config);
+    }
+
+    private void run(AlignmentConfig config) throws Exception {
+        ClientBootstrap bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        NettyConnection.configure(bootstrap);
+        bootstrap.setPipeline(AlignmentMessage.newClientPipeline(this, Handshake.readSecret(config.secretFile)));
+        try {
+            ChannelFuture f = bootstrap.connect(address).awaitUninterruptibly();
+            if (!f.isSuccess())
+                throw new UTGBException(String.format("failed to connect %s: %s", address, f.getCause()));
+
+            StopWatch timer = new StopWatch();
+            f.getChannel().write(AlignmentMessage.job(0, config));
+            synchronized (this) {
+                while (!isDone && error == null)
+                    wait();
+            }
+            f.getChannel().close().awaitUninterruptibly();
+            if (error != null)
+                throw error;
+            _logger.info("job is finished in %.2f sec. output: %s", timer.getElapsedTime(), config.outputFile);
+        }
+        finally {
+            bootstrap.releaseExternalResources();
+        }
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        AlignmentMessage msg = (AlignmentMessage) e.getMessage();
+        switch (msg.type) {
+        case JOB_DONE:
+            synchronized (this) {
+                isDone = true;
+                notifyAll();
+            }
+            break;
+        case ERROR:
+            reportError(new UTGBException(String.format("error at %s: %s", address, msg.errorMessage)));
+            break;
+        default:
+            _logger.warn("unexpected message from %s: %s", address, msg);
+            break;
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            if (!isDone)
+                reportError(new UTGBException(String.format("lost connection to %s", address)));
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        _logger.warn("connection error %s: %s", address, e.getCause());
+        e.getChannel().close();
+    }
+
+    private synchronized void reportError(Exception e) {
+        if (error == null)
+            error = e;
+        notifyAll();
+    }
+
+}
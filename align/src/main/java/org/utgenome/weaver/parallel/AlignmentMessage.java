@@ -0,0 +1,533 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentMessage.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.ACGT;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.PairedEndRead;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.SingleEndRead;
+
+/**
+ * Messages exchanged between an alignment coordinator and alignment servers.
+ * Each message is sent as a length-prefixed frame:
+ * 
+ * <pre>
+ * | frame length (int) | type (byte) | batch id (int) | body |
+ * </pre>
+ * 
+ * For {@link Type#JOB} and {@link Type#JOB_DONE}, the batch id holds the job
+ * id.
+ * 
+ * Read sequences are packed two bases per byte. Strings are written as an int
+ * length followed by UTF-8 bytes. The lengths read from a frame are validated
+ * before allocating memory for them.
+ * 
+ * @author leo
+ * 
+ */
+public class AlignmentMessage
+{
+    public static enum Type {
+        /**
+         * alignment configuration. Sent once when a connection is established
+         */
+        CONFIG,
+        /**
+         * a batch of reads to align
+         */
+        READ_BATCH,
+        /**
+         * alignment results of a read batch
+         */
+        RESULT_BATCH,
+        /**
+         * error report of a batch or a job
+         */
+        ERROR,
+        /**
+         * alignment job, which reads the input files and writes the results
+         * to the output file given in the config
+         */
+        JOB,
+        /**
+         * completion of a job
+         */
+        JOB_DONE,
+        /**
+         * random nonce sent by a server when a connection is established
+         */
+        CHALLENGE,
+        /**
+         * answer to the challenge, computed from the shared secret
+         */
+        AUTH
+    }
+
+    public final Type                  type;
+    public final int                   batchId;
+    public final AlignmentConfig       config;
+    public final List<Read>            reads;
+    public final List<AlignmentRecord> records;
+    public final String                errorMessage;
+    public final byte[]                token;
+
+    /**
+     * frame size of the received message
+     */
+    int                                frameSize = 0;
+
+    private AlignmentMessage(Type type, int batchId, AlignmentConfig config, List<Read> reads,
+            List<AlignmentRecord> records, String errorMessage) {
+        this(type, batchId, config, reads, records, errorMessage, null);
+    }
+
+    private AlignmentMessage(Type type, int batchId, AlignmentConfig config, List<Read> reads,
+            List<AlignmentRecord> records, String errorMessage, byte[] token) {
+        this.type = type;
+        this.batchId = batchId;
+        this.config = config;
+        this.reads = reads;
+        this.records = records;
+        this.errorMessage = errorMessage;
+        this.token = token;
+    }
+
+    public static AlignmentMessage config(AlignmentConfig config) {
+        return new AlignmentMessage(Type.CONFIG, -1, config, null, null, null);
+    }
+
+    public static AlignmentMessage readBatch(int batchId, List<Read> reads) {
+        return new AlignmentMessage(Type.READ_BATCH, batchId, null, reads, null, null);
+    }
+
+    public static AlignmentMessage resultBatch(int batchId, List<AlignmentRecord> records) {
+        return new AlignmentMessage(Type.RESULT_BATCH, batchId, null, null, records, null);
+    }
+
+    public static AlignmentMessage job(int jobId, AlignmentConfig config) {
+        return new AlignmentMessage(Type.JOB, jobId, config, null, null, null);
+    }
+
+    public static AlignmentMessage jobDone(int jobId) {
+        return new AlignmentMessage(Type.JOB_DONE, jobId, null, null, null, null);
+    }
+
+    public static AlignmentMessage error(int batchId, String message) {
+        return new AlignmentMessage(Type.ERROR, batchId, null, null, null, message);
+    }
+
+    public static AlignmentMessage challenge(byte[] nonce) {
+        return new AlignmentMessage(Type.CHALLENGE, -1, null, null, null, null, nonce);
+    }
+
+    public static AlignmentMessage auth(byte[] answer) {
+        return new AlignmentMessage(Type.AUTH, -1, null, null, null, null, answer);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s batch:%d", type, batchId);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeInt(batchId);
+        switch (type) {
+        case CONFIG:
+        case JOB:
+            writeConfig(out, config);
+            break;
+        case READ_BATCH:
+            out.writeInt(reads.size());
+            for (Read each : reads) {
+                writeRead(out, each);
+            }
+            break;
+        case RESULT_BATCH:
+            out.writeInt(records.size());
+            for (AlignmentRecord each : records) {
+                writeRecord(out, each);
+            }
+            break;
+        case ERROR:
+            FrameCodec.writeString(out, errorMessage);
+            break;
+        case JOB_DONE:
+            break;
+        case CHALLENGE:
+        case AUTH:
+            FrameCodec.writeBytes(out, token);
+            break;
+        }
+    }
+
+    public static AlignmentMessage readFrom(DataInput in) throws IOException, UTGBException {
+        int t = in.readByte();
+        if (t < 0 || t >= Type.values().length)
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("unknown message type: %d", t));
+        Type type = Type.values()[t];
+        int batchId = in.readInt();
+        switch (type) {
+        case CONFIG:
+            return config(readConfig(in));
+        case JOB:
+            return job(batchId, readConfig(in));
+        case JOB_DONE:
+            return jobDone(batchId);
+        case CHALLENGE:
+        case AUTH: {
+            byte[] token = FrameCodec.readBytes(in);
+            return type == Type.CHALLENGE ? challenge(token) : auth(token);
+        }
+        case READ_BATCH: {
+            int n = FrameCodec.checkLength(in.readInt());
+            List<Read> reads = new ArrayList<Read>(n);
+            for (int i = 0; i < n; ++i) {
+                reads.add(readRead(in));
+            }
+            return readBatch(batchId, reads);
+        }
+        case RESULT_BATCH: {
+            int n = FrameCodec.checkLength(in.readInt());
+            List<AlignmentRecord> records = new ArrayList<AlignmentRecord>(n);
+            for (int i = 0; i < n; ++i) {
+                records.add(readRecord(in));
+            }
+            return resultBatch(batchId, records);
+        }
+        default:
+            return error(batchId, FrameCodec.readString(in));
+        }
+    }
+
+    /**
+     * Write the configuration field by field. Java serialization is not used,
+     * since the messages come from the network.
+     * 
+     * @param out
+     * @param config
+     * @throws IOException
+     */
+    static void writeConfig(DataOutput out, AlignmentConfig config) throws IOException {
+        // scoring
+        out.writeFloat(config.k);
+        out.writeInt(config.numGapOpenAllowed);
+        out.writeInt(config.numGapExtensionAllowed);
+        out.writeInt(config.numSplitAlowed);
+        out.writeInt(config.matchScore);
+        out.writeInt(config.mismatchPenalty);
+        out.writeInt(config.gapOpenPenalty);
+        out.writeInt(config.gapExtensionPenalty);
+        out.writeInt(config.splitOpenPenalty);
+        out.writeInt(config.indelEndSkip);
+        out.writeInt(config.bandWidth);
+        out.writeBoolean(config.bssMode);
+        out.writeInt(config.bssMismatchPenalty);
+
+        FrameCodec.writeString(out, config.refSeq);
+        FrameCodec.writeString(out, config.query);
+        out.writeInt(config.readFiles == null ? -1 : config.readFiles.size());
+        if (config.readFiles != null) {
+            for (String each : config.readFiles)
+                FrameCodec.writeString(out, each);
+        }
+        out.writeBoolean(config.silent);
+        FrameCodec.writeString(out, config.outputFile);
+        writeEnum(out, config.strategy);
+        writeEnum(out, config.indexType);
+        writeEnum(out, config.reportType);
+        out.writeInt(config.topL);
+        FrameCodec.writeString(out, config.workers);
+        out.writeInt(config.batchSize);
+        out.writeInt(config.metricsInterval);
+        FrameCodec.writeString(out, config.metricsFile);
+        FrameCodec.writeString(out, config.daemon);
+        FrameCodec.writeString(out, config.traceFile);
+    }
+
+    static AlignmentConfig readConfig(DataInput in) throws IOException {
+        AlignmentConfig config = new AlignmentConfig();
+        config.k = in.readFloat();
+        config.numGapOpenAllowed = in.readInt();
+        config.numGapExtensionAllowed = in.readInt();
+        config.numSplitAlowed = in.readInt();
+        config.matchScore = in.readInt();
+        config.mismatchPenalty = in.readInt();
+        config.gapOpenPenalty = in.readInt();
+        config.gapExtensionPenalty = in.readInt();
+        config.splitOpenPenalty = in.readInt();
+        config.indelEndSkip = in.readInt();
+        config.bandWidth = in.readInt();
+        config.bssMode = in.readBoolean();
+        config.bssMismatchPenalty = in.readInt();
+
+        config.refSeq = FrameCodec.readString(in);
+        config.query = FrameCodec.readString(in);
+        int numReadFiles = in.readInt();
+        if (numReadFiles >= 0) {
+            config.readFiles = new ArrayList<String>(FrameCodec.checkLength(numReadFiles));
+            for (int i = 0; i < numReadFiles; ++i)
+                config.readFiles.add(FrameCodec.readString(in));
+        }
+        else
+            config.readFiles = null;
+        config.silent = in.readBoolean();
+        config.outputFile = FrameCodec.readString(in);
+        config.strategy = readEnum(in, AlignmentConfig.Strategy.values());
+        config.indexType = readEnum(in, FMIndexOnGenome.IndexType.values());
+        config.reportType = readEnum(in, AlignmentConfig.ReportType.values());
+        config.topL = in.readInt();
+        config.workers = FrameCodec.readString(in);
+        config.batchSize = in.readInt();
+        config.metricsInterval = in.readInt();
+        config.metricsFile = FrameCodec.readString(in);
+        config.daemon = FrameCodec.readString(in);
+        config.traceFile = FrameCodec.readString(in);
+        return config;
+    }
+
+    private static void writeEnum(DataOutput out, Enum< ? > e) throws IOException {
+        out.writeByte(e == null ? -1 : e.ordinal());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInput in, E[] values) throws IOException {
+        int ordinal = in.readByte();
+        if (ordinal < 0)
+            return null;
+        if (ordinal >= values.length)
+            throw new IOException(String.format("invalid %s: %d", values.getClass().getComponentType()
+                    .getSimpleName(), ordinal));
+        return values[ordinal];
+    }
+
+    /**
+     * Write a sequence by packing two 3-bit codes into a byte
+     * 
+     * @param out
+     * @param seq
+     * @throws IOException
+     */
+    static void writeSequence(DataOutput out, ACGTSequence seq) throws IOException {
+        final int len = (int) seq.textSize();
+        out.writeInt(len);
+        byte[] b = new byte[(len + 1) / 2];
+        for (int i = 0; i < len; ++i) {
+            b[i >> 1] |= seq.lookup(i) << ((1 - (i & 0x01)) * 4);
+        }
+        out.write(b);
+    }
+
+    static ACGTSequence readSequence(DataInput in) throws IOException {
+        final int len = FrameCodec.checkLength(in.readInt());
+        byte[] b = new byte[(len + 1) / 2];
+        in.readFully(b);
+        byte[] ascii = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            ascii[i] = (byte) ACGT.decode((b[i >> 1] >>> ((1 - (i & 0x01)) * 4)) & 0x0F).toChar();
+        }
+        return new ACGTSequence(ascii, 0, len);
+    }
+
+    static void writeRead(DataOutput out, Read read) throws IOException {
+        if (read.isColorSpace())
+            throw new UnsupportedOperationException("color-space read");
+
+        int numFragments = read instanceof PairedEndRead ? 2 : 1;
+        out.writeByte(numFragments);
+        FrameCodec.writeString(out, read.name());
+        for (int i = 0; i < numFragments; ++i) {
+            writeSequence(out, read.getRead(i));
+            FrameCodec.writeString(out, read.getQual(i));
+        }
+    }
+
+    static Read readRead(DataInput in) throws IOException {
+        int numFragments = in.readByte();
+        if (numFragments != 1 && numFragments != 2)
+            throw new IOException(String.format("invalid number of fragments: %d", numFragments));
+        String name = FrameCodec.readString(in);
+        SingleEndRead first = new SingleEndRead(name, readSequence(in), FrameCodec.readString(in));
+        if (numFragments == 1)
+            return first;
+        SingleEndRead second = new SingleEndRead(name, readSequence(in), FrameCodec.readString(in));
+        return new PairedEndRead(first, second);
+    }
+
+    static void writeRecord(DataOutput out, AlignmentRecord r) throws IOException {
+        for (; r != null; r = r.split) {
+            FrameCodec.writeString(out, r.readName);
+            FrameCodec.writeString(out, r.chr);
+            writeEnum(out, r.strand);
+            out.writeInt(r.start);
+            out.writeInt(r.end);
+            out.writeInt(r.numMismatches);
+            FrameCodec.writeString(out, r.cigar == null ? null : r.cigar.toString());
+            FrameCodec.writeString(out, r.querySeq);
+            FrameCodec.writeString(out, r.qual);
+            out.writeInt(r.score);
+            out.writeInt(r.numBestHits);
+            FrameCodec.writeString(out, r.alignmentState);
+            out.writeBoolean(r.split != null);
+        }
+    }
+
+    /**
+     * Read a record and the chain of its split records, which is decoded in a
+     * loop as {@link #writeRecord(DataOutput, AlignmentRecord)} writes it, so
+     * that a long chain does not exhaust the stack of the I/O thread
+     */
+    static AlignmentRecord readRecord(DataInput in) throws IOException {
+        AlignmentRecord first = null;
+        AlignmentRecord prev = null;
+        for (boolean hasNext = true; hasNext;) {
+            AlignmentRecord r = new AlignmentRecord();
+            r.readName = FrameCodec.readString(in);
+            r.chr = FrameCodec.readString(in);
+            r.strand = readEnum(in, Strand.values());
+            r.start = in.readInt();
+            r.end = in.readInt();
+            r.numMismatches = in.readInt();
+            String cigar = FrameCodec.readString(in);
+            if (cigar != null) {
+                try {
+                    r.setCIGAR(cigar);
+                }
+                catch (UTGBException e) {
+                    throw new IOException(String.format("invalid CIGAR string: %s", cigar));
+                }
+            }
+            r.querySeq = FrameCodec.readString(in);
+            r.qual = FrameCodec.readString(in);
+            r.score = in.readInt();
+            r.numBestHits = in.readInt();
+            r.alignmentState = FrameCodec.readString(in);
+            hasNext = in.readBoolean();
+
+            if (prev == null)
+                first = r;
+            else
+                prev.split = r;
+            prev = r;
+        }
+        return first;
+    }
+
+    /**
+     * Encodes {@link AlignmentMessage}s into {@link ChannelBuffer}s
+     * 
+     * @author leo
+     * 
+     */
+    public static class Encoder extends OneToOneEncoder
+    {
+        @Override
+        protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            if (!(msg instanceof AlignmentMessage))
+                return msg;
+            ChannelBufferOutputStream out = new ChannelBufferOutputStream(ChannelBuffers.dynamicBuffer(8 * 1024,
+                    channel.getConfig().getBufferFactory()));
+            ((AlignmentMessage) msg).writeTo(out);
+            return out.buffer();
+        }
+    }
+
+    /**
+     * Decodes a frame into an {@link AlignmentMessage}
+     * 
+     * @author leo
+     * 
+     */
+    public static class Decoder extends OneToOneDecoder
+    {
+        @Override
+        protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            if (!(msg instanceof ChannelBuffer))
+                return msg;
+            ChannelBuffer buf = (ChannelBuffer) msg;
+            int frameSize = buf.readableBytes();
+            AlignmentMessage m = readFrom(new ChannelBufferInputStream(buf));
+            m.frameSize = frameSize;
+            return m;
+        }
+    }
+
+    /**
+     * Create a pipeline of a server that exchanges {@link AlignmentMessage}s
+     * with the given handler. The messages from a client are passed to the
+     * handler after the client answers the challenge with the shared secret.
+     * Reading from the channel is suspended while its outbound buffer is above
+     * the high water mark.
+     * 
+     * @param handler
+     * @param secret
+     *            shared secret. null for accepting any client
+     * @return
+     */
+    public static ChannelPipeline newServerPipeline(ChannelHandler handler, byte[] secret) {
+        return FrameCodec.newPipeline(new Decoder(), new Encoder(), true, new Handshake.ServerHandler(secret),
+                handler);
+    }
+
+    /**
+     * Create a pipeline of a client that exchanges {@link AlignmentMessage}s
+     * with the given handler. The messages written before answering the
+     * challenge of the server are held until the handshake completes. The
+     * client does not suspend reading, and the senders wait until the channel
+     * becomes writable instead.
+     * 
+     * @param handler
+     * @param secret
+     *            shared secret. null if the server requires none
+     * @return
+     */
+    public static ChannelPipeline newClientPipeline(ChannelHandler handler, byte[] secret) {
+        return FrameCodec.newPipeline(new Decoder(), new Encoder(), false, new Handshake.ClientHandler(secret),
+                handler);
+    }
+
+}
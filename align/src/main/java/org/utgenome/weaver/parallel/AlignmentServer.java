@@ -0,0 +1,518 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentServer.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.jboss.netty.handler.execution.MemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.DefaultObjectSizeEstimator;
+import org.jboss.netty.util.ObjectSizeEstimator;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.SAMOutput;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.utgenome.weaver.align.metrics.Gauge;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.ReadReader;
+import org.xerial.util.StopWatch;
+import org.xerial.util.log.Logger;
+
+/**
+ * Alignment server, which keeps the FM-index and reference sequence in memory
+ * and aligns the read batches sent from {@link AlignmentCoordinator}s.
+ * 
+ * The server can hold several references. A reference requested by a client
+ * is loaded on the first use, and stays resident while the server is running,
+ * so that the subsequent jobs can start aligning without loading the index.
+ * When an index memory budget is given, the least recently used references
+ * are evicted to make room for the newly loaded one (see
+ * {@link ReferenceCatalog}).
+ * Jobs submitted by {@link AlignmentJobClient} read the input files and write
+ * the SAM output by themselves. They run concurrently in a thread pool separate
+ * from the one for the read batches, so that long-running jobs do not stall
+ * the alignment of the batches.
+ * 
+ * <p>
+ * The read batches waiting for the alignment threads are bounded by their
+ * frame sizes. When the batches from a connection exceed
+ * {@link #MAX_CHANNEL_MEMORY}, reading from the connection is suspended until
+ * some of them are aligned, and the I/O thread waits while the batches of all
+ * connections exceed {@link #MAX_TOTAL_MEMORY}.
+ * </p>
+ * 
+ * <p>
+ * Since the clients can name files to read and write, a server accepts the
+ * paths only under the configured input and output directories (the working
+ * directory by default). A server bound to a non-loopback address requires
+ * the clients to authenticate with a shared secret (see {@link Handshake}).
+ * </p>
+ * 
+ * @author leo
+ * 
+ */
+public class AlignmentServer
+{
+    private static Logger                       _logger            = Logger.getLogger(AlignmentServer.class);
+
+    /**
+     * Maximum size of the read batches waiting for the alignment threads in a
+     * connection
+     */
+    public static final long                    MAX_CHANNEL_MEMORY = 64 * 1024 * 1024;
+    /**
+     * Maximum size of the read batches waiting for the alignment threads
+     */
+    public static final long                    MAX_TOTAL_MEMORY   = 256 * 1024 * 1024;
+
+    public final String                         hostname;
+    public final int                            port;
+    private final ReferenceCatalog              references         = new ReferenceCatalog(0);
+    private final MemoryAwareThreadPoolExecutor threadPool;
+    private final ThreadPoolExecutor            jobThreadPool;
+    private final ChannelGroup                  channels           = new DefaultChannelGroup("alignment-server");
+    private final AtomicInteger                 jobCount           = new AtomicInteger(0);
+    private ServerBootstrap                     bootstrap;
+    private byte[]                              secret;
+    private List<File>                          inputDirs          = Collections.singletonList(new File("."));
+    private File                                outputDir          = new File(".");
+
+    /**
+     * @param hostname
+     * @param port
+     * @param numThreads
+     *            number of alignment threads for the read batches, which is
+     *            also the number of jobs running concurrently
+     */
+    public AlignmentServer(String hostname, int port, int numThreads) {
+        this.hostname = hostname;
+        this.port = port;
+        this.threadPool = new MemoryAwareThreadPoolExecutor(numThreads, MAX_CHANNEL_MEMORY, MAX_TOTAL_MEMORY, 30,
+                TimeUnit.SECONDS, new BatchSizeEstimator(), Executors.defaultThreadFactory());
+        this.jobThreadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(numThreads);
+    }
+
+    /**
+     * @param hostname
+     * @param port
+     * @param refSeq
+     *            reference sequence name of the index
+     * @param common
+     *            loaded index and reference sequence. The index is served for
+     *            the jobs using the default index type (occ)
+     * @param numThreads
+     *            number of alignment threads
+     */
+    public AlignmentServer(String hostname, int port, String refSeq, CommonDataSet common, int numThreads) {
+        this(hostname, port, numThreads);
+        addReference(refSeq, FMIndexOnGenome.IndexType.OCC, common);
+    }
+
+    /**
+     * Register a loaded reference
+     * 
+     * @param refSeq
+     * @param indexType
+     *            index type of the loaded reference
+     * @param common
+     */
+    public void addReference(String refSeq, FMIndexOnGenome.IndexType indexType, CommonDataSet common) {
+        references.add(refSeq, indexType, common);
+    }
+
+    /**
+     * Give a name to the reference sequence, which can be used by the clients
+     * instead of its path
+     * 
+     * @param name
+     * @param refSeq
+     */
+    public void registerReference(String name, String refSeq) {
+        references.register(name, refSeq);
+    }
+
+    /**
+     * Set the upper limit of the total index memory. The least recently used
+     * references are evicted when the limit is exceeded
+     * 
+     * @param bytes
+     *            0 for no limit
+     */
+    public void setIndexMemoryBudget(long bytes) {
+        references.setMemoryBudget(bytes);
+    }
+
+    /**
+     * Set the memory placement of the references loaded after this call
+     * 
+     * @param placement
+     */
+    public void setIndexPlacement(FMIndexOnGenome.IndexPlacement placement) {
+        references.setIndexPlacement(placement);
+    }
+
+    /**
+     * Set the shared secret that the clients must prove to know
+     * 
+     * @param secret
+     *            null for accepting any client, which is allowed only on the
+     *            loopback address
+     */
+    public void setSecret(byte[] secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * Set the directories from which the jobs can read the reference and the
+     * read files
+     * 
+     * @param dirs
+     */
+    public void setInputDirectories(List<File> dirs) {
+        this.inputDirs = new ArrayList<File>(dirs);
+    }
+
+    /**
+     * Set the directory to which the jobs can write the output files
+     * 
+     * @param dir
+     */
+    public void setOutputDirectory(File dir) {
+        this.outputDir = dir;
+    }
+
+    private static boolean isUnder(String path, File dir) throws IOException {
+        String p = new File(path).getCanonicalPath();
+        String d = dir.getCanonicalPath();
+        return p.equals(d) || p.startsWith(d.endsWith(File.separator) ? d : d + File.separator);
+    }
+
+    private void checkInput(String path) throws IOException, UTGBException {
+        for (File each : inputDirs) {
+            if (isUnder(path, each))
+                return;
+        }
+        throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format(
+                "%s is not in the input directories of the server", path));
+    }
+
+    private void checkOutput(String path) throws IOException, UTGBException {
+        if (!isUnder(path, outputDir))
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format(
+                    "%s is not in the output directory of the server", path));
+    }
+
+    /**
+     * Load the reference sequence and its index, then keep them resident
+     * 
+     * @param refSeq
+     *            path or registered name of the reference sequence
+     * @param indexType
+     * @return
+     * @throws Exception
+     */
+    public CommonDataSet loadReference(String refSeq, FMIndexOnGenome.IndexType indexType) throws Exception {
+        return references.get(references.resolve(refSeq), indexType);
+    }
+
+    /**
+     * Find the resident reference used by the given config. A reference that
+     * is not yet loaded is loaded here.
+     * 
+     * @param config
+     * @return
+     * @throws Exception
+     */
+    CommonDataSet getReference(AlignmentConfig config) throws Exception {
+        String refSeq = references.resolve(config.refSeq);
+        // The references preloaded or registered by the server can be used from anywhere 
+        if (!references.contains(refSeq))
+            checkInput(refSeq);
+        return references.get(refSeq, config.indexType);
+    }
+
+    /**
+     * Start accepting connections
+     * 
+     * @return server channel
+     */
+    public Channel start() throws UTGBException {
+        InetSocketAddress address = new InetSocketAddress(hostname, port);
+        if (secret == null && (address.isUnresolved() || !address.getAddress().isLoopbackAddress()))
+            throw new UTGBException(UTGBErrorCode.MISSING_OPTION, String.format(
+                    "a shared secret is required to listen on %s, which is not a loopback address", hostname));
+        _logger.info("Start up an alignment server %s:%d", hostname, port);
+
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return AlignmentMessage.newServerPipeline(new AlignmentServerHandler(), secret);
+            }
+        });
+        NettyConnection.configure(bootstrap);
+        Channel channel = bootstrap.bind(address);
+        channels.add(channel);
+
+        // number of read batches and jobs waiting for the alignment threads
+        AlignmentMetrics.getInstance().addGauge(queueName(), new Gauge() {
+            @Override
+            public long value() {
+                return threadPool.getQueue().size() + jobThreadPool.getQueue().size();
+            }
+        });
+        return channel;
+    }
+
+    private String queueName() {
+        return String.format("server:%d", port);
+    }
+
+    /**
+     * Close all connections and stop the alignment threads
+     */
+    public void shutdown() {
+        AlignmentMetrics.getInstance().removeGauge(queueName());
+        channels.close().awaitUninterruptibly();
+        threadPool.shutdownNow();
+        jobThreadPool.shutdownNow();
+        if (bootstrap != null)
+            bootstrap.releaseExternalResources();
+        _logger.info("alignment server %s:%d is closed", hostname, port);
+    }
+
+    /**
+     * Handles the messages from a coordinator or a job client. The read batches
+     * and jobs are processed in their thread pools, and their results are sent
+     * back in the same connection.
+     * 
+     * @author leo
+     * 
+     */
+    private class AlignmentServerHandler extends SimpleChannelUpstreamHandler
+    {
+        private AlignmentConfig config;
+
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            channels.add(e.getChannel());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            final Channel channel = e.getChannel();
+            final AlignmentMessage msg = (AlignmentMessage) e.getMessage();
+            switch (msg.type) {
+            case CONFIG:
+                config = msg.config;
+                break;
+            case READ_BATCH:
+                if (config == null) {
+                    channel.write(AlignmentMessage.error(msg.batchId, "no alignment config is given"));
+                    return;
+                }
+                threadPool.execute(new BatchTask(ctx, e, config));
+                break;
+            case JOB:
+                jobThreadPool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runJob(msg.config);
+                            channel.write(AlignmentMessage.jobDone(msg.batchId));
+                        }
+                        catch (Exception ex) {
+                            _logger.error("job failed: %s", ex);
+                            channel.write(AlignmentMessage.error(msg.batchId, ex.toString()));
+                        }
+                    }
+                });
+                break;
+            default:
+                _logger.warn("unexpected message: %s", msg);
+                break;
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            _logger.error("connection error %s: %s", e.getChannel().getRemoteAddress(), e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    /**
+     * Aligns a read batch. This is a {@link ChannelEventRunnable} so that the
+     * thread pool accounts the batch to its connection.
+     * 
+     * @author leo
+     * 
+     */
+    private class BatchTask extends ChannelEventRunnable
+    {
+        private final AlignmentConfig config;
+
+        public BatchTask(ChannelHandlerContext ctx, MessageEvent e, AlignmentConfig config) {
+            super(ctx, e);
+            this.config = config;
+        }
+
+        @Override
+        public void run() {
+            Channel channel = getEvent().getChannel();
+            AlignmentMessage msg = (AlignmentMessage) ((MessageEvent) getEvent()).getMessage();
+            try {
+                channel.write(AlignmentMessage.resultBatch(msg.batchId, align(config, msg.reads)));
+            }
+            catch (Exception ex) {
+                _logger.error("failed to align batch %d: %s", msg.batchId, ex);
+                channel.write(AlignmentMessage.error(msg.batchId, ex.toString()));
+            }
+        }
+    }
+
+    /**
+     * Estimates the memory of a read batch by its frame size
+     * 
+     * @author leo
+     * 
+     */
+    private static class BatchSizeEstimator implements ObjectSizeEstimator
+    {
+        private final ObjectSizeEstimator defaultEstimator = new DefaultObjectSizeEstimator();
+
+        @Override
+        public int estimateSize(Object o) {
+            if (o instanceof BatchTask) {
+                MessageEvent e = (MessageEvent) ((BatchTask) o).getEvent();
+                return ((AlignmentMessage) e.getMessage()).frameSize;
+            }
+            return defaultEstimator.estimateSize(o);
+        }
+    }
+
+    /**
+     * Align a read batch
+     * 
+     * @param config
+     * @param reads
+     * @return
+     * @throws Exception
+     */
+    List<AlignmentRecord> align(AlignmentConfig config, List<Read> reads) throws Exception {
+        final List<AlignmentRecord> result = new ArrayList<AlignmentRecord>(reads.size());
+        Reporter collector = new Reporter() {
+            @Override
+            public void emit(Object r) throws Exception {
+                if (r instanceof AlignmentRecord)
+                    result.add((AlignmentRecord) r);
+            }
+        };
+        Aligner aligner = Align.newAligner(getReference(config), config, collector);
+        for (Read each : reads) {
+            aligner.align(each, collector);
+        }
+        return result;
+    }
+
+    /**
+     * Align the reads in the input files of the config, and write the results
+     * to its output file
+     * 
+     * @param config
+     * @throws Exception
+     */
+    void runJob(AlignmentConfig config) throws Exception {
+        if (config.outputFile == null && !config.silent)
+            throw new UTGBException(UTGBErrorCode.MISSING_OPTION, "no output file is given");
+
+        if (config.readFiles != null) {
+            for (String each : config.readFiles)
+                checkInput(each);
+        }
+        if (config.outputFile != null && !config.silent)
+            checkOutput(config.outputFile);
+
+        int jobId = jobCount.incrementAndGet();
+        StopWatch timer = new StopWatch();
+        CommonDataSet ref = getReference(config);
+        _logger.info("job %d: start aligning %s", jobId, config.query != null ? config.query : config.readFiles);
+
+        ReadReader reader = Align.openReader(config);
+        SAMOutput out = new SAMOutput(ref.getSequenceBoundary(), Align.openOutput(config));
+        try {
+            out.init();
+            Align.query(ref.withConfig(config, out), reader);
+        }
+        finally {
+            reader.close();
+            out.finish();
+        }
+        _logger.info("job %d: done in %.2f sec. output: %s", jobId, timer.getElapsedTime(), config.outputFile);
+    }
+
+    /**
+     * Block until the server channel is closed
+     * 
+     * @param channel
+     * @param timeoutSec
+     *            time out in seconds. -1 for unlimited
+     */
+    public void await(Channel channel, int timeoutSec) {
+        if (timeoutSec < 0)
+            channel.getCloseFuture().awaitUninterruptibly();
+        else
+            channel.getCloseFuture().awaitUninterruptibly(TimeUnit.SECONDS.toMillis(timeoutSec));
+    }
+
+}
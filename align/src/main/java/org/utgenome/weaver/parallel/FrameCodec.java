@@ -0,0 +1,172 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// FrameCodec.java
+// Since: 2012/05/28
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+
+/**
+ * Framing shared by {@link RPCMessage} and {@link AlignmentMessage}. Each
+ * message is sent as a frame prefixed with its length (int), and the
+ * variable-length values in a frame are written as an int length followed by
+ * the bytes. The lengths read from the network are validated before
+ * allocating memory for them.
+ * 
+ * @author leo
+ * 
+ */
+public class FrameCodec
+{
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Create a pipeline that splits the input into frames, and converts them
+     * with the given decoder and encoder
+     * 
+     * @param decoder
+     * @param encoder
+     * @param throttleReads
+     *            suspend reading while the outbound buffer is full. Set this
+     *            only for the server side, since a client that stops reading
+     *            the responses and a server that stops reading the requests
+     *            can wait for each other forever.
+     * @param handlers
+     * @return
+     */
+    static ChannelPipeline newPipeline(ChannelHandler decoder, ChannelHandler encoder, boolean throttleReads,
+            ChannelHandler... handlers) {
+        ChannelPipeline p = Channels.pipeline(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4),
+                new LengthFieldPrepender(4), decoder, encoder);
+        if (throttleReads)
+            p.addLast("backpressure", new BackPressureHandler());
+        for (int i = 0; i < handlers.length; ++i)
+            p.addLast("handler" + i, handlers[i]);
+        return p;
+    }
+
+    /**
+     * Validate a length or a count read from the input before allocating
+     * memory for it
+     * 
+     * @param len
+     * @return len
+     * @throws IOException
+     */
+    static int checkLength(int len) throws IOException {
+        if (len < 0 || len > MAX_FRAME_LENGTH)
+            throw new IOException(String.format("invalid length: %d", len));
+        return len;
+    }
+
+    /**
+     * Write a string as an int length followed by UTF-8 bytes. The length is
+     * -1 for null.
+     * 
+     * @param out
+     * @param s
+     * @throws IOException
+     */
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeBytes(out, s.getBytes("UTF-8"));
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len == -1)
+            return null;
+        byte[] b = new byte[checkLength(len)];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    static void writeBytes(DataOutput out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        byte[] b = new byte[checkLength(in.readInt())];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * Stops reading requests from a channel while its outbound buffer is above
+     * the high water mark, so that a peer that does not read the responses
+     * cannot fill up the memory of the server. A memory-aware executor may
+     * also suspend reading from the channel, so this handler resumes only the
+     * reading it has suspended by itself.
+     * 
+     * @author leo
+     * 
+     */
+    static class BackPressureHandler extends SimpleChannelUpstreamHandler
+    {
+        private final AtomicBoolean isSuspended = new AtomicBoolean(false);
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            ctx.sendUpstream(e);
+            Channel ch = e.getChannel();
+            if (!ch.isWritable() && isSuspended.compareAndSet(false, true)) {
+                ch.setReadable(false);
+                // the channel may have become writable before suspending the read
+                if (ch.isWritable())
+                    resume(ch);
+            }
+        }
+
+        @Override
+        public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            Channel ch = e.getChannel();
+            if (ch.isWritable())
+                resume(ch);
+            ctx.sendUpstream(e);
+        }
+
+        private void resume(Channel ch) {
+            if (isSuspended.compareAndSet(true, false))
+                ch.setReadable(true);
+        }
+    }
+
+}
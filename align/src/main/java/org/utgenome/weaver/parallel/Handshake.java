@@ -0,0 +1,198 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// Handshake.java
+// Since: 2012/05/28
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.xerial.util.log.Logger;
+
+/**
+ * Challenge-response authentication of the connections to an
+ * {@link AlignmentServer}. When a connection is established, the server sends
+ * a random nonce, and the client answers with HMAC-SHA256(secret, nonce). The
+ * server does not accept the other messages until a valid answer arrives, so
+ * the secret itself is never sent over the network.
+ * 
+ * @author leo
+ * 
+ */
+public class Handshake
+{
+    private static Logger       _logger      = Logger.getLogger(Handshake.class);
+
+    private static final int    NONCE_LENGTH = 16;
+    private static SecureRandom random       = new SecureRandom();
+
+    /**
+     * Read the shared secret from the file. The trailing white spaces are
+     * removed.
+     * 
+     * @param path
+     *            file path. null for no secret
+     * @return
+     * @throws IOException
+     */
+    public static byte[] readSecret(String path) throws IOException {
+        if (path == null)
+            return null;
+        File f = new File(path);
+        byte[] b = new byte[(int) f.length()];
+        FileInputStream in = new FileInputStream(f);
+        try {
+            int pos = 0;
+            for (int readBytes; pos < b.length && (readBytes = in.read(b, pos, b.length - pos)) != -1;)
+                pos += readBytes;
+        }
+        finally {
+            in.close();
+        }
+        String secret = new String(b, "UTF-8").trim();
+        if (secret.length() == 0)
+            throw new IOException("secret file is empty: " + path);
+        return secret.getBytes("UTF-8");
+    }
+
+    static byte[] answer(byte[] secret, byte[] nonce) {
+        if (secret == null)
+            return new byte[0];
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(nonce);
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sends a challenge when a client connects, and passes the messages to
+     * the next handler only after the client is authenticated
+     * 
+     * @author leo
+     * 
+     */
+    public static class ServerHandler extends SimpleChannelUpstreamHandler
+    {
+        private final byte[] secret;
+        private byte[]       nonce;
+        private boolean      isAuthenticated = false;
+
+        public ServerHandler(byte[] secret) {
+            this.secret = secret;
+        }
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            e.getChannel().write(AlignmentMessage.challenge(nonce));
+            ctx.sendUpstream(e);
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            AlignmentMessage msg = (AlignmentMessage) e.getMessage();
+            if (isAuthenticated) {
+                ctx.sendUpstream(e);
+                return;
+            }
+
+            if (msg.type == AlignmentMessage.Type.AUTH && nonce != null
+                    && (secret == null || MessageDigest.isEqual(answer(secret, nonce), msg.token))) {
+                isAuthenticated = true;
+                return;
+            }
+            _logger.warn("rejected an unauthenticated connection from %s", e.getChannel().getRemoteAddress());
+            e.getChannel().write(AlignmentMessage.error(msg.batchId, "authentication failed"))
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Answers the challenge from the server. The messages written before the
+     * challenge arrives are sent after the answer.
+     * 
+     * @author leo
+     * 
+     */
+    public static class ClientHandler extends SimpleChannelHandler
+    {
+        private final byte[]             secret;
+        // guarded by this
+        private boolean                  isAuthenticated = false;
+        private final List<MessageEvent> pending         = new ArrayList<MessageEvent>();
+
+        public ClientHandler(byte[] secret) {
+            this.secret = secret;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            AlignmentMessage msg = (AlignmentMessage) e.getMessage();
+            if (msg.type != AlignmentMessage.Type.CHALLENGE) {
+                ctx.sendUpstream(e);
+                return;
+            }
+
+            synchronized (this) {
+                Channels.write(ctx, Channels.future(e.getChannel()), AlignmentMessage.auth(answer(secret, msg.token)));
+                isAuthenticated = true;
+                for (MessageEvent each : pending)
+                    ctx.sendDownstream(each);
+                pending.clear();
+            }
+        }
+
+        @Override
+        public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            synchronized (this) {
+                if (!isAuthenticated) {
+                    pending.add(e);
+                    return;
+                }
+            }
+            ctx.sendDownstream(e);
+        }
+    }
+
+}
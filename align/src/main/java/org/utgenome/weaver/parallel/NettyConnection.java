@@ -24,57 +24,138 @@
 //--------------------------------------
 package org.utgenome.weaver.parallel;
 
-import org.jboss.netty.bootstrap.ClientBootstrap;
-import org.jboss.netty.bootstrap.ServerBootstrap;
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.channel.*;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.string.StringDecoder;
-import org.jboss.netty.handler.codec.string.StringEncoder;
-import org.xerial.util.log.Logger;
-
+import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import org.jboss.netty.bootstrap.Bootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.xerial.util.log.Logger;
+
 /**
- * An interface to transfer messages through Netty
+ * An interface to transfer {@link RPCMessage}s through Netty
  * 
  * @author leo
  * 
  */
 public class NettyConnection
 {
-    private static Logger _logger = Logger.getLogger(NettyConnection.class);
-
-    private static class ActiveRemoteClientPipelineFactory implements ChannelPipelineFactory
-    {
-
-        @Override
-        public ChannelPipeline getPipeline() throws Exception {
-
-            return Channels.pipeline(new ActiveRemoteClientHandler());
+    private static Logger   _logger                 = Logger.getLogger(NettyConnection.class);
+
+    /**
+     * A channel becomes unwritable when its outbound buffer exceeds this size
+     */
+    public static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+    /**
+     * An unwritable channel becomes writable when its outbound buffer falls
+     * below this size
+     */
+    public static final int DEFAULT_LOW_WATER_MARK  = 256 * 1024;
+
+    /**
+     * Set the socket options and the write buffer water marks. The buffers are
+     * sliced from pre-allocated direct memory, which is written to the socket
+     * without copying.
+     * 
+     * @param bootstrap
+     */
+    public static void configure(Bootstrap bootstrap) {
+        String prefix = "";
+        if (bootstrap instanceof ServerBootstrap) {
+            prefix = "child.";
+            bootstrap.setOption("reuseAddress", true);
         }
+        bootstrap.setOption(prefix + "tcpNoDelay", true);
+        bootstrap.setOption(prefix + "keepAlive", true);
+        bootstrap.setOption(prefix + "writeBufferHighWaterMark", DEFAULT_HIGH_WATER_MARK);
+        bootstrap.setOption(prefix + "writeBufferLowWaterMark", DEFAULT_LOW_WATER_MARK);
+        bootstrap.setOption(prefix + "bufferFactory", DirectChannelBufferFactory.getInstance());
+    }
 
+    /**
+     * Create a server pipeline that exchanges {@link RPCMessage}s with the
+     * given handlers. Reading the requests is suspended while the outbound
+     * buffer is above the high water mark.
+     * 
+     * @param handlers
+     * @return
+     */
+    public static ChannelPipeline newServerPipeline(ChannelHandler... handlers) {
+        return FrameCodec.newPipeline(new RPCMessage.Decoder(), new RPCMessage.Encoder(), true, handlers);
     }
 
-    private static class ActiveRemoteClientHandler extends SimpleChannelUpstreamHandler
-    {
-        @Override
-        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-            _logger.info("client: connected");
-            e.getChannel().write("hello");
-        }
+    /**
+     * Create a client pipeline that exchanges {@link RPCMessage}s with the
+     * given handlers. The client keeps reading the responses, and waits until
+     * the channel becomes writable before sending a request.
+     * 
+     * @param handlers
+     * @return
+     */
+    public static ChannelPipeline newClientPipeline(ChannelHandler... handlers) {
+        return FrameCodec.newPipeline(new RPCMessage.Decoder(), new RPCMessage.Encoder(), false, handlers);
+    }
 
+    /**
+     * Answers the requests. A ping request is answered here, and the others
+     * are passed to {@link #invoke(RPCMessage)}.
+     * 
+     * @author leo
+     * 
+     */
+    public static abstract class RequestHandler extends SimpleChannelUpstreamHandler
+    {
         @Override
         public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            ChannelBuffer buf = (ChannelBuffer) e.getMessage();
-            _logger.info("Client: recieved " + e.getMessage());
+            RPCMessage req = (RPCMessage) e.getMessage();
+            if (req.type != RPCMessage.Type.REQUEST) {
+                _logger.warn("unexpected message: %s", req);
+                return;
+            }
+
+            Channel ch = e.getChannel();
+            try {
+                Object result;
+                if (req.target == null && RPCMessage.PING.equals(req.method))
+                    result = req.args.length > 0 ? req.args[0] : null;
+                else
+                    result = invoke(req);
+                ch.write(RPCMessage.response(req.id, result));
+            }
+            catch (Exception ex) {
+                Throwable cause = ex instanceof InvocationTargetException ? ex.getCause() : ex;
+                _logger.warn("%s failed: %s", req, cause);
+                ch.write(RPCMessage.error(req.id, cause.toString()));
+            }
+        }
 
-            e.getChannel().write("done.");
+        /**
+         * Process the request
+         * 
+         * @param request
+         * @return the response value
+         * @throws Exception
+         */
+        protected abstract Object invoke(RPCMessage request) throws Exception;
 
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            _logger.error("connection error %s: %s", e.getChannel().getRemoteAddress(), e.getCause());
+            e.getChannel().close();
         }
     }
 
@@ -82,26 +163,31 @@ public class NettyConnection
         return connect(new InetSocketAddress(hostname, port));
     }
 
+    /**
+     * Check the connection to the server by sending a ping request
+     * 
+     * @param remoteAddress
+     * @return
+     */
     public static boolean connect(SocketAddress remoteAddress) {
-
-        ClientBootstrap bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
-                Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
-        bootstrap.setPipelineFactory(new ActiveRemoteClientPipelineFactory());
-        bootstrap.setOption("tcpNoDelay", true);
-        bootstrap.setOption("keepAlive", true);
-
-        ChannelFuture connection = bootstrap.connect(remoteAddress);
-        Channel openChannel = connection.awaitUninterruptibly().getChannel();
-
-        if (!connection.isSuccess()) {
-            _logger.error(String.format("connection failed (remote address:%s): %s", remoteAddress, connection.getCause()));
+        RPCClient client = new RPCClient(remoteAddress);
+        try {
+            client.connect();
+            _logger.info("client: connected");
+            Object reply = client.call(null, RPCMessage.PING, "hello");
+            _logger.info("client: received %s", reply);
+            return true;
+        }
+        catch (Exception e) {
+            _logger.error(String.format("connection failed (remote address:%s): %s", remoteAddress, e));
             return false;
         }
-
-        return true;
+        finally {
+            client.close();
+        }
     }
 
-    private static class RemoteServer extends SimpleChannelUpstreamHandler
+    private static class RemoteServer extends RequestHandler
     {
         @Override
         public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
@@ -109,24 +195,10 @@ public class NettyConnection
         }
 
         @Override
-        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-            _logger.info(String.format("Server: recieved %s", e.getMessage()));
-
+        protected Object invoke(RPCMessage request) throws Exception {
+            _logger.info(String.format("Server: received %s", request));
+            return null;
         }
-
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
-            _logger.info(String.format("Server: error %s", e.getCause()));
-        }
-    }
-
-    private static class RemoteServerPipelineFactory implements ChannelPipelineFactory
-    {
-        @Override
-        public ChannelPipeline getPipeline() throws Exception {
-            return Channels.pipeline(new StringDecoder(), new StringEncoder(), new RemoteServer());
-        }
-
     }
 
     public static ChannelFuture launchServer(String hostname, int port) {
@@ -137,12 +209,14 @@ public class NettyConnection
         ServerBootstrap bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
                 Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
 
-        bootstrap.setPipelineFactory(new RemoteServerPipelineFactory());
-        bootstrap.setOption("child.tcpNoDelay", true);
-        bootstrap.setOption("child.keepAlive", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return newServerPipeline(new RemoteServer());
+            }
+        });
+        configure(bootstrap);
         bootstrap.setOption("child.connectTimeoutMillis", TimeUnit.SECONDS.toMillis(1));
-        bootstrap.setOption("reuseAddress", true);
-        bootstrap.setOption("tcpNoDelay", true);
         Channel channel = bootstrap.bind(serverAddress);
         return channel.getCloseFuture();
     }
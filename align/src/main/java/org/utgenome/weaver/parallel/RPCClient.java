@@ -0,0 +1,268 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// RPCClient.java
+// Since: 2012/05/23
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.utgenome.UTGBException;
+import org.xerial.util.log.Logger;
+
+/**
+ * Client of the RPC protocol. Requests are pipelined on a single connection,
+ * and their responses are matched by the correlation ids.
+ * 
+ * At most {@link #maxInFlight} requests can wait for their responses, and
+ * {@link #send(String, String, Object...)} blocks while the outbound buffer of
+ * the connection is above the high water mark. So the callers cannot produce
+ * requests faster than the server consumes them.
+ * 
+ * @author leo
+ * 
+ */
+public class RPCClient extends SimpleChannelUpstreamHandler
+{
+    private static Logger                      _logger               = Logger.getLogger(RPCClient.class);
+
+    public static final int                    DEFAULT_MAX_IN_FLIGHT = 64;
+
+    public final SocketAddress                 address;
+    public final int                           maxInFlight;
+    private final Semaphore                    inFlight;
+    private final AtomicInteger                idCount               = new AtomicInteger(0);
+    private final Map<Integer, ResponseFuture> pending               = new ConcurrentHashMap<Integer, ResponseFuture>();
+    private final Object                       writable              = new Object();
+    private ClientBootstrap                    bootstrap;
+    private Channel                            channel;
+
+    public RPCClient(SocketAddress address) {
+        this(address, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public RPCClient(SocketAddress address, int maxInFlight) {
+        this.address = address;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    public void connect() throws UTGBException {
+        bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(Executors.newCachedThreadPool(),
+                Executors.newCachedThreadPool()));
+        NettyConnection.configure(bootstrap);
+        bootstrap.setPipeline(NettyConnection.newClientPipeline(this));
+        ChannelFuture f = bootstrap.connect(address).awaitUninterruptibly();
+        if (!f.isSuccess()) {
+            bootstrap.releaseExternalResources();
+            throw new UTGBException(String.format("failed to connect %s: %s", address, f.getCause()));
+        }
+        channel = f.getChannel();
+    }
+
+    public boolean isConnected() {
+        return channel != null && channel.isConnected();
+    }
+
+    public void close() {
+        if (channel != null)
+            channel.close().awaitUninterruptibly();
+        if (bootstrap != null)
+            bootstrap.releaseExternalResources();
+    }
+
+    /**
+     * Send a request. Blocks while {@link #maxInFlight} requests are waiting
+     * for their responses or the outbound buffer is full.
+     * 
+     * @param target
+     *            target name of the request, e.g., actor name
+     * @param method
+     * @param args
+     * @return future of the response
+     * @throws InterruptedException
+     */
+    public Future<Object> send(String target, String method, Object... args) throws InterruptedException {
+        inFlight.acquire();
+        int id = idCount.incrementAndGet();
+        ResponseFuture f = new ResponseFuture();
+        pending.put(id, f);
+        synchronized (writable) {
+            while (channel.isOpen() && !channel.isWritable())
+                writable.wait();
+        }
+        if (!channel.isOpen())
+            complete(id, null, new UTGBException(String.format("connection to %s is closed", address)));
+        else
+            channel.write(RPCMessage.request(id, target, method, args));
+        return f;
+    }
+
+    /**
+     * Send a request and wait for its response
+     * 
+     * @param target
+     * @param method
+     * @param args
+     * @return
+     * @throws Exception
+     */
+    public Object call(String target, String method, Object... args) throws Exception {
+        try {
+            return send(target, method, args).get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new UTGBException(cause);
+        }
+    }
+
+    public int numInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    private void complete(int id, Object result, Exception error) {
+        ResponseFuture f = pending.remove(id);
+        if (f == null) {
+            _logger.warn("unknown response id: %d", id);
+            return;
+        }
+        f.set(result, error);
+        inFlight.release();
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        RPCMessage msg = (RPCMessage) e.getMessage();
+        switch (msg.type) {
+        case RESPONSE:
+            complete(msg.id, msg.result, null);
+            break;
+        case ERROR:
+            complete(msg.id, null, new UTGBException(String.format("error at %s: %s", address, msg.errorMessage)));
+            break;
+        default:
+            _logger.warn("unexpected message from %s: %s", address, msg);
+            break;
+        }
+    }
+
+    @Override
+    public void channelInterestChanged(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (writable) {
+            writable.notifyAll();
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (writable) {
+            writable.notifyAll();
+        }
+        List<Integer> ids = new ArrayList<Integer>(pending.keySet());
+        for (Integer id : ids) {
+            complete(id, null, new UTGBException(String.format("lost connection to %s", address)));
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        _logger.warn("connection error %s: %s", address, e.getCause());
+        e.getChannel().close();
+    }
+
+    /**
+     * Response of a request
+     * 
+     * @author leo
+     * 
+     */
+    private static class ResponseFuture implements Future<Object>
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Object               result;
+        private Exception            error;
+
+        void set(Object result, Exception error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Object get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return getResult();
+        }
+
+        private Object getResult() throws ExecutionException {
+            if (error != null)
+                throw new ExecutionException(error);
+            return result;
+        }
+    }
+
+}
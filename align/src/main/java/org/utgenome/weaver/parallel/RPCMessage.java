@@ -0,0 +1,261 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// RPCMessage.java
+// Since: 2012/05/23
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+
+/**
+ * Request and response messages of the RPC protocol used in {@link Actor} and
+ * {@link NettyConnection}. Each message is sent as a length-prefixed frame:
+ * 
+ * <pre>
+ * | frame length (int) | type (byte) | correlation id (int) | body |
+ * </pre>
+ * 
+ * A request body holds the target name, method name and arguments, and a
+ * response has the same correlation id with the request. The arguments and
+ * results are limited to null, primitive values, strings and byte arrays, which
+ * are written in binary (see {@link FrameCodec}). Other objects cannot be sent,
+ * so a received frame never instantiates classes chosen by the peer.
+ * 
+ * @author leo
+ * 
+ */
+public class RPCMessage
+{
+    /**
+     * method name for checking the connection. The server returns the first
+     * argument.
+     */
+    public static final String PING             = "ping";
+
+    public static enum Type {
+        REQUEST, RESPONSE, ERROR
+    }
+
+    // value tags
+    private static final int   NULL             = 0;
+    private static final int   BOOLEAN          = 1;
+    private static final int   INT              = 2;
+    private static final int   LONG             = 3;
+    private static final int   DOUBLE           = 4;
+    private static final int   STRING           = 5;
+    private static final int   BYTES            = 6;
+
+    public final Type          type;
+    public final int           id;
+    public final String        target;
+    public final String        method;
+    public final Object[]      args;
+    public final Object        result;
+    public final String        errorMessage;
+
+    /**
+     * frame size of the received message
+     */
+    int                        frameSize        = 0;
+
+    private RPCMessage(Type type, int id, String target, String method, Object[] args, Object result,
+            String errorMessage) {
+        this.type = type;
+        this.id = id;
+        this.target = target;
+        this.method = method;
+        this.args = args;
+        this.result = result;
+        this.errorMessage = errorMessage;
+    }
+
+    public static RPCMessage request(int id, String target, String method, Object... args) {
+        return new RPCMessage(Type.REQUEST, id, target, method, args, null, null);
+    }
+
+    public static RPCMessage response(int id, Object result) {
+        return new RPCMessage(Type.RESPONSE, id, null, null, null, result, null);
+    }
+
+    public static RPCMessage error(int id, String message) {
+        return new RPCMessage(Type.ERROR, id, null, null, null, null, message);
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.REQUEST)
+            return String.format("%s id:%d %s.%s", type, id, target, method);
+        return String.format("%s id:%d", type, id);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeInt(id);
+        switch (type) {
+        case REQUEST:
+            FrameCodec.writeString(out, target);
+            FrameCodec.writeString(out, method);
+            out.writeInt(args.length);
+            for (Object each : args) {
+                writeValue(out, each);
+            }
+            break;
+        case RESPONSE:
+            writeValue(out, result);
+            break;
+        case ERROR:
+            FrameCodec.writeString(out, errorMessage);
+            break;
+        }
+    }
+
+    public static RPCMessage readFrom(DataInput in) throws IOException, UTGBException {
+        int t = in.readByte();
+        if (t < 0 || t >= Type.values().length)
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("unknown message type: %d", t));
+        Type type = Type.values()[t];
+        int id = in.readInt();
+        switch (type) {
+        case REQUEST: {
+            String target = FrameCodec.readString(in);
+            String method = FrameCodec.readString(in);
+            Object[] args = new Object[FrameCodec.checkLength(in.readInt())];
+            for (int i = 0; i < args.length; ++i) {
+                args[i] = readValue(in);
+            }
+            return request(id, target, method, args);
+        }
+        case RESPONSE:
+            return response(id, readValue(in));
+        default:
+            return error(id, FrameCodec.readString(in));
+        }
+    }
+
+    static void writeValue(DataOutput out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        }
+        else if (v instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) v);
+        }
+        else if (v instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) v);
+        }
+        else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        }
+        else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        }
+        else if (v instanceof String) {
+            out.writeByte(STRING);
+            FrameCodec.writeString(out, (String) v);
+        }
+        else if (v instanceof byte[]) {
+            out.writeByte(BYTES);
+            FrameCodec.writeBytes(out, (byte[]) v);
+        }
+        else
+            throw new IllegalArgumentException(String.format("%s cannot be sent", v.getClass().getName()));
+    }
+
+    static Object readValue(DataInput in) throws IOException, UTGBException {
+        int tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case BOOLEAN:
+            return in.readBoolean();
+        case INT:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case STRING:
+            return FrameCodec.readString(in);
+        case BYTES:
+            return FrameCodec.readBytes(in);
+        default:
+            throw new UTGBException(UTGBErrorCode.INVALID_INPUT, String.format("unknown value type: %d", tag));
+        }
+    }
+
+    /**
+     * Encodes {@link RPCMessage}s into {@link ChannelBuffer}s allocated from
+     * the buffer factory of the channel
+     * 
+     * @author leo
+     * 
+     */
+    public static class Encoder extends OneToOneEncoder
+    {
+        @Override
+        protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            if (!(msg instanceof RPCMessage))
+                return msg;
+            ChannelBufferOutputStream out = new ChannelBufferOutputStream(ChannelBuffers.dynamicBuffer(256, channel
+                    .getConfig().getBufferFactory()));
+            ((RPCMessage) msg).writeTo(out);
+            return out.buffer();
+        }
+    }
+
+    /**
+     * Decodes a frame into an {@link RPCMessage}
+     * 
+     * @author leo
+     * 
+     */
+    public static class Decoder extends OneToOneDecoder
+    {
+        @Override
+        protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            if (!(msg instanceof ChannelBuffer))
+                return msg;
+            ChannelBuffer buf = (ChannelBuffer) msg;
+            int frameSize = buf.readableBytes();
+            RPCMessage m = readFrom(new ChannelBufferInputStream(buf));
+            m.frameSize = frameSize;
+            return m;
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ReferenceCatalog.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.utgenome.UTGBErrorCode;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
+import org.xerial.util.StopWatch;
+import org.xerial.util.log.Logger;
+
+/**
+ * Catalog of the references (FM-indexes and reference sequences) held by an
+ * alignment server. A reference is loaded on its first use, and the least
+ * recently used references are evicted when the total index memory exceeds
+ * the budget. Different references are loaded concurrently, while the
+ * requests for a reference being loaded wait for its completion.
+ * 
+ * References can be registered with short names (e.g., hg19=/data/hg19.fa),
+ * so that the clients can route their jobs by name. The same reference loaded
+ * with different index types is held as separate entries. The memory size of
+ * an entry is computed from its loaded data structures (see
+ * {@link CommonDataSet#getIndexMemory()}).
+ * 
+ * An evicted reference is released when the jobs using it finish, so the
+ * budget is a soft limit.
+ * 
+ * @author leo
+ * 
+ */
+public class ReferenceCatalog
+{
+    private static Logger                      _logger      = Logger.getLogger(ReferenceCatalog.class);
+
+    /**
+     * name -> reference sequence path
+     */
+    private final Map<String, String>          names        = new HashMap<String, String>();
+    /**
+     * Resident references in the access order. The first entry is the least
+     * recently used one
+     */
+    private final LinkedHashMap<Key, Entry>    entries      = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long                               memoryBudget = 0;
+    private FMIndexOnGenome.IndexPlacement     placement    = FMIndexOnGenome.IndexPlacement.OFFHEAP;
+
+    private static class Key
+    {
+        public final String                    refSeq;
+        public final FMIndexOnGenome.IndexType indexType;
+
+        public Key(String refSeq, FMIndexOnGenome.IndexType indexType) {
+            this.refSeq = refSeq;
+            this.indexType = indexType;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return refSeq.equals(other.refSeq) && indexType == other.indexType;
+        }
+
+        @Override
+        public int hashCode() {
+            return refSeq.hashCode() * 31 + indexType.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s)", refSeq, indexType.name().toLowerCase());
+        }
+    }
+
+    private static class Entry
+    {
+        public final FutureTask<CommonDataSet> task;
+        public long                            memory = 0;
+
+        public Entry(FutureTask<CommonDataSet> task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * @param memoryBudget
+     *            upper limit of the total index memory (bytes). 0 for no limit
+     */
+    public ReferenceCatalog(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        evictOverBudget(null);
+    }
+
+    /**
+     * Set the memory placement of the references loaded after this call
+     * 
+     * @param placement
+     */
+    public synchronized void setIndexPlacement(FMIndexOnGenome.IndexPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Give a name to the reference sequence
+     * 
+     * @param name
+     * @param refSeq
+     */
+    public synchronized void register(String name, String refSeq) {
+        names.put(name, refSeq);
+    }
+
+    /**
+     * Add a loaded reference
+     * 
+     * @param refSeq
+     * @param indexType
+     *            index type of the loaded reference
+     * @param common
+     */
+    public void add(String refSeq, FMIndexOnGenome.IndexType indexType, final CommonDataSet common) {
+        FutureTask<CommonDataSet> f = new FutureTask<CommonDataSet>(new Callable<CommonDataSet>() {
+            @Override
+            public CommonDataSet call() throws Exception {
+                return common;
+            }
+        });
+        f.run();
+        Key key = new Key(refSeq, indexType);
+        Entry e = new Entry(f);
+        e.memory = common.getIndexMemory();
+        synchronized (this) {
+            entries.put(key, e);
+            AlignmentMetrics.getInstance().setIndexMemorySize(key.toString(), e.memory);
+            evictOverBudget(key);
+        }
+    }
+
+    /**
+     * Retrieve the reference, loading it if it is not resident
+     * 
+     * @param refSeq
+     *            reference sequence path
+     * @param indexType
+     * @return
+     * @throws Exception
+     */
+    public CommonDataSet get(String refSeq, FMIndexOnGenome.IndexType indexType) throws Exception {
+        final AlignmentConfig config = new AlignmentConfig();
+        config.refSeq = refSeq;
+        config.indexType = indexType;
+        Key key = new Key(refSeq, indexType);
+        Entry e = null;
+        // Only the first request loads the index. The others wait for its completion
+        boolean isFirst = false;
+        synchronized (this) {
+            config.indexPlacement = placement;
+            e = entries.get(key);
+            if (e == null) {
+                e = new Entry(new FutureTask<CommonDataSet>(new Callable<CommonDataSet>() {
+                    @Override
+                    public CommonDataSet call() throws Exception {
+                        StopWatch timer = new StopWatch();
+                        CommonDataSet common = CommonDataSet.prepare(config, null);
+                        _logger.info("reference %s is loaded in %.2f sec.", config.refSeq, timer.getElapsedTime());
+                        return common;
+                    }
+                }));
+                entries.put(key, e);
+                isFirst = true;
+            }
+        }
+        if (isFirst)
+            e.task.run();
+
+        try {
+            CommonDataSet common = e.task.get();
+            if (isFirst) {
+                synchronized (this) {
+                    e.memory = common.getIndexMemory();
+                    // account the index by its type, since the same reference can be loaded with another type
+                    AlignmentMetrics metrics = AlignmentMetrics.getInstance();
+                    metrics.removeIndexMemorySize(refSeq);
+                    metrics.setIndexMemorySize(key.toString(), e.memory);
+                    evictOverBudget(key);
+                }
+            }
+            return common;
+        }
+        catch (ExecutionException ex) {
+            // allow retrying the load
+            synchronized (this) {
+                if (entries.get(key) == e)
+                    entries.remove(key);
+            }
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new UTGBException(cause);
+        }
+    }
+
+    /**
+     * Evict the least recently used references until the total memory fits
+     * in the budget. The references being loaded and the one to keep are not
+     * evicted.
+     * 
+     * @param keep
+     */
+    private void evictOverBudget(Key keep) {
+        if (memoryBudget <= 0)
+            return;
+
+        long total = getResidentMemory();
+        List<Key> evicted = new ArrayList<Key>();
+        for (Map.Entry<Key, Entry> each : entries.entrySet()) {
+            if (total <= memoryBudget)
+                break;
+            Key key = each.getKey();
+            if (key.equals(keep) || !each.getValue().task.isDone())
+                continue;
+            total -= each.getValue().memory;
+            evicted.add(key);
+        }
+        for (Key key : evicted) {
+            entries.remove(key);
+            AlignmentMetrics.getInstance().removeIndexMemorySize(key.toString());
+            _logger.info("reference %s is evicted. index memory: %,d bytes (budget %,d bytes)", key, total,
+                    memoryBudget);
+        }
+    }
+
+    /**
+     * Remove the reference of all index types from this catalog
+     * 
+     * @param refSeq
+     * @return true if the reference was resident
+     */
+    public synchronized boolean evict(String refSeq) {
+        boolean removed = false;
+        for (Key key : new ArrayList<Key>(entries.keySet())) {
+            if (key.refSeq.equals(refSeq)) {
+                entries.remove(key);
+                AlignmentMetrics.getInstance().removeIndexMemorySize(key.toString());
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Resolve the reference sequence path from the given name or path. If no
+     * reference is specified, the only reference held in this catalog is
+     * used. A path unknown to this catalog is mapped to the known reference
+     * with the same file name only if exactly one known reference has that
+     * name.
+     * 
+     * @param refSeq
+     *            name or path of the reference. null for the default
+     * @return
+     * @throws UTGBException
+     */
+    public synchronized String resolve(String refSeq) throws UTGBException {
+        List<String> known = getResidentReferences();
+        for (String each : names.values()) {
+            if (!known.contains(each))
+                known.add(each);
+        }
+
+        if (refSeq == null) {
+            if (known.size() != 1)
+                throw new UTGBException(UTGBErrorCode.MISSING_OPTION, String.format(
+                        "no reference is specified while this server holds %d references", known.size()));
+            return known.get(0);
+        }
+        if (names.containsKey(refSeq))
+            return names.get(refSeq);
+        if (known.contains(refSeq))
+            return refSeq;
+
+        // The clients on the other hosts may use different paths to the same reference 
+        String name = new File(refSeq).getName();
+        List<String> candidates = new ArrayList<String>();
+        for (String each : known) {
+            if (new File(each).getName().equals(name))
+                candidates.add(each);
+        }
+        if (candidates.size() == 1) {
+            _logger.warn("%s is not found in this server. Use %s, which has the same file name", refSeq, candidates
+                    .get(0));
+            return candidates.get(0);
+        }
+        if (candidates.size() > 1)
+            _logger.warn("%s is not found in this server, and several references have the same file name: %s",
+                    refSeq, candidates);
+        return refSeq;
+    }
+
+    /**
+     * @param refSeq
+     * @return true if the reference is registered with a name or resident
+     */
+    public synchronized boolean contains(String refSeq) {
+        return getResidentReferences().contains(refSeq) || names.containsValue(refSeq);
+    }
+
+    /**
+     * @return total memory size of the resident references (bytes)
+     */
+    public synchronized long getResidentMemory() {
+        long total = 0;
+        for (Entry each : entries.values())
+            total += each.memory;
+        return total;
+    }
+
+    /**
+     * @return the paths of the resident references from the least recently
+     *         used one. A reference loaded with several index types appears
+     *         once.
+     */
+    public synchronized List<String> getResidentReferences() {
+        List<String> result = new ArrayList<String>();
+        for (Key each : entries.keySet()) {
+            if (!result.contains(each.refSeq))
+                result.add(each.refSeq);
+        }
+        return result;
+    }
+
+}
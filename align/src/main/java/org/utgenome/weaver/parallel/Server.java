@@ -24,14 +24,18 @@
 //--------------------------------------
 package org.utgenome.weaver.parallel;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.channel.Channel;
 import org.utgenome.weaver.GenomeWeaverCommand;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.metrics.AlignmentMetrics;
 import org.xerial.util.log.Logger;
 import org.xerial.util.opt.Option;
 
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
-import java.lang.management.ManagementFactory;
-
 public class Server extends GenomeWeaverCommand
 {
     private static Logger _logger = Logger.getLogger(Server.class);
@@ -47,23 +51,86 @@ public class Server extends GenomeWeaverCommand
     }
 
     @Option(symbol = "s", description = "hostname [localhost]")
-    private String  hostname = "localhost";
+    private String                         hostname        = "localhost";
 
     @Option(symbol = "p", description = "listen port. default = 8991")
-    private int     port     = 8991;
+    private int                            port            = 8991;
 
     @Option(symbol = "t", description = "time interval (sec.) for launching the server [-1: unlimited]")
-    private int     time     = -1;
+    private int                            time            = -1;
+
+    @Option(longName = "daemon", description = "Run as an alignment daemon, which accepts jobs from align --daemon. References are loaded on demand and kept in memory")
+    private boolean                        isDaemon        = false;
+
+    @Option(symbol = "r", description = "comma-separated list of reference sequences to preload. Their indexes are kept in memory and used for aligning reads sent from align --workers or --daemon. Each entry can be given a name as name=path (e.g., hg19=/data/hg19.fa)")
+    private String                         refSeq;
+
+    @Option(longName = "index-memory", description = "upper limit of the total index memory (MB). The least recently used references are evicted when exceeded. default=0 (no limit)")
+    private int                            indexMemory     = 0;
+
+    @Option(longName = "index", description = "FM-index type. occ (3-bit BWT:default), compact (2-bit BWT with N-bitmap), wavelet (wavelet matrix)")
+    private FMIndexOnGenome.IndexType      indexType       = FMIndexOnGenome.IndexType.OCC;
+
+    @Option(longName = "index-placement", description = "memory placement of the BWT and reference sequences. offheap (off-heap memory of this process:default), mmap (memory-mapped uncompressed files shared with the other processes on the host). Use GENOME_WEAVER_NUMA=interleave to interleave either over the NUMA nodes")
+    private FMIndexOnGenome.IndexPlacement indexPlacement  = FMIndexOnGenome.IndexPlacement.OFFHEAP;
 
-    @Option(longName = "daemon", description = "Run as a daemon")
-    private boolean isDaemon = false;
+    @Option(longName = "threads", description = "number of alignment threads. default = number of CPUs")
+    private int                            numThreads      = Runtime.getRuntime().availableProcessors();
+
+    @Option(longName = "metrics", description = "report the alignment metrics at the given interval (sec.). default=0 (no report)")
+    private int                            metricsInterval = 0;
+
+    @Option(longName = "metrics-file", description = "append the alignment metrics to the given file as JSON lines")
+    private String                         metricsFile;
+
+    @Option(longName = "secret-file", description = "file containing a shared secret, which the clients must prove to know. Required when the hostname is not a loopback address")
+    private String                         secretFile;
+
+    @Option(longName = "input-dir", description = "comma-separated list of directories from which the jobs can read the reference and read files. default = current directory")
+    private String                         inputDirs;
+
+    @Option(longName = "output-dir", description = "directory to which the jobs can write the output files. default = current directory")
+    private String                         outputDir;
 
     @Override
     public void execute(String[] args) throws Exception {
-        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-        ObjectName mxbeanName = new ObjectName("org.utgenome.weaver.parallel:type=ServerTask");
-        ServerTask mBean = new ServerTask();
-        mbs.registerMBean(mBean, mxbeanName);
+        Align.startMetricsReport(metricsInterval, metricsFile);
+
+        if (refSeq != null || isDaemon) {
+            // Load the indexes once, and keep them resident while the server is running 
+            AlignmentServer server = new AlignmentServer(hostname, port, numThreads);
+            server.setIndexMemoryBudget(indexMemory * 1024L * 1024L);
+            server.setIndexPlacement(indexPlacement);
+            server.setSecret(Handshake.readSecret(secretFile));
+            if (inputDirs != null) {
+                List<File> dirs = new ArrayList<File>();
+                for (String each : inputDirs.split(","))
+                    dirs.add(new File(each.trim()));
+                server.setInputDirectories(dirs);
+            }
+            if (outputDir != null)
+                server.setOutputDirectory(new File(outputDir));
+            if (refSeq != null) {
+                for (String each : refSeq.split(",")) {
+                    String path = each.trim();
+                    int eq = path.indexOf('=');
+                    if (eq > 0) {
+                        server.registerReference(path.substring(0, eq), path.substring(eq + 1));
+                        path = path.substring(eq + 1);
+                    }
+                    server.loadReference(path, indexType);
+                }
+            }
+            Channel channel = server.start();
+            try {
+                server.await(channel, time);
+            }
+            finally {
+                server.shutdown();
+                AlignmentMetrics.getInstance().stopReporting();
+            }
+            return;
+        }
 
         //_logger.info("Start up a server %s:%s", hostname, port);
         Actor.remote(hostname, port);
@@ -32,9 +32,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ACGTSequenceTest
 {
@@ -91,6 +94,60 @@ public class ACGTSequenceTest
 
     }
 
+    private static String randomSequence(Random r, int len) {
+        StringBuilder b = new StringBuilder(len);
+        for (int i = 0; i < len; ++i) {
+            b.append(r.nextDouble() < 0.1 ? 'N' : ACGT.decode(r.nextInt(4)).toChar());
+        }
+        return b.toString();
+    }
+
+    @Test
+    public void blockOperations() throws Exception {
+        Random r = new Random(0);
+        for (int len = 0; len < 300; ++len) {
+            String str = randomSequence(r, len);
+            ACGTSequence s = new ACGTSequence(str);
+            assertEquals(str, s.toString());
+            assertEquals(s, new ACGTSequence(str.getBytes(), 0, len));
+
+            StringBuilder rev = new StringBuilder(str).reverse();
+            assertEquals(rev.toString(), s.reverse().toString());
+
+            StringBuilder rc = new StringBuilder();
+            for (int i = len - 1; i >= 0; --i) {
+                rc.append(ACGT.encode(str.charAt(i)).complement().toChar());
+            }
+            assertEquals(rc.toString(), s.reverseComplement().toString());
+            assertEquals(str, s.reverseComplement().reverseComplement().toString());
+
+            String noN = str.replace('N', 'A');
+            assertEquals(noN, s.replaceN_withA().toString());
+            assertEquals(new ACGTSequence(noN), s.replaceN_withA());
+            assertEquals(rc.toString().replace('N', 'A'), s.reverseComplement().replaceN_withA().toString());
+        }
+    }
+
+    @Test
+    public void views() throws Exception {
+        Random r = new Random(0);
+        for (int len = 0; len < 150; ++len) {
+            ACGTSequence s = new ACGTSequence(randomSequence(r, len));
+            ACGTSequenceView v = new ACGTSequenceView(s);
+            assertEquals(s.toString(), v.toString());
+            assertEquals(s.reverse().toString(), v.reverse().toString());
+            assertEquals(s.complement().toString(), v.complement().toString());
+            assertEquals(s.reverseComplement().toString(), v.reverseComplement().toString());
+            assertEquals(s.complement().replaceN_withA().toString(), v.complement().replaceN_withA().toString());
+            assertEquals(s.replaceN_withA().complement().toString(), v.replaceN_withA().complement().toString());
+            assertEquals(s.reverseComplement().toString(), v.reverseComplement().toACGTSequence(0, len)
+                    .toString());
+            if (len > 10)
+                assertEquals(s.complement().subString(3, 10).toString(), v.complement().toACGTSequence(3, 10)
+                        .toString());
+        }
+    }
+
     @Test
     public void rc() throws Exception {
         ACGTSequence s = new ACGTSequence("CTGCTGTACCCTACATCCGCCTTGGCCGTACAGCAG");
@@ -350,4 +407,50 @@ public class ACGTSequenceTest
         assertEquals(64, c[0]);
     }
 
+    @Test
+    public void mapRawFile() throws Exception {
+        // larger than a heap buffer, so that the blocks are stored off-heap
+        Random r = new Random(0);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 200000; ++i) {
+            b.append("ACGTN".charAt(r.nextInt(5)));
+        }
+        ACGTSequence s = new ACGTSequence(b);
+
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File f = File.createTempFile("acgt", ".raw", tmpDir);
+        f.deleteOnExit();
+        s.saveRawTo(f);
+
+        ACGTSequence m = ACGTSequence.map(f);
+        assertEquals(s.textSize(), m.textSize());
+        assertEquals(s, m);
+        assertEquals(s.reverseComplement(), m.reverseComplement());
+        for (ACGT base : ACGT.values()) {
+            assertEquals(s.fastCount(base, 100, 150000), m.fastCount(base, 100, 150000));
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        m.saveTo(out);
+        out.close();
+        ACGTSequence s2 = ACGTSequence.loadFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+        assertEquals(s, s2);
+    }
+
+    @Test
+    public void sizeLimit() throws Exception {
+        // no longer bound by the Java array size (about 45.8G bases)
+        assertTrue(ACGTSequence.MAX_SIZE > 1L << 60);
+        try {
+            new ACGTSequence(ACGTSequence.MAX_SIZE + 64);
+            fail("exceeds the size limit");
+        }
+        catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
 }
@@ -0,0 +1,117 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// CompactACGTSequenceTest.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.xerial.util.log.Logger;
+
+public class CompactACGTSequenceTest
+{
+    private static Logger _logger = Logger.getLogger(CompactACGTSequenceTest.class);
+
+    private final String  orig    = "AGCCCCGCATTNNATAGATTTAGCGCGGATTTTAATANNNATATATNNATATNATANNNNAACCCGCGCTTAGAGAGANNGGGGCCCCTTTTCCATAGAGAAATTAGCGGATNNATGC";
+
+    private static ACGTSequence randomSequence(Random r, int len, double nRatio) {
+        ACGTSequence s = new ACGTSequence();
+        for (int i = 0; i < len; ++i) {
+            if (r.nextDouble() < nRatio)
+                s.append(ACGT.N);
+            else
+                s.append(ACGT.decode(r.nextInt(4)));
+        }
+        return s;
+    }
+
+    @Test
+    public void encode() throws Exception {
+        ACGTSequence s = new ACGTSequence(orig);
+        CompactACGTSequence c = CompactACGTSequence.encode(s);
+        assertEquals(s.textSize(), c.textSize());
+        assertEquals(orig, c.toString());
+        for (int i = 0; i < orig.length(); ++i) {
+            assertEquals(String.format("index %d", i), s.lookup(i), c.lookup(i));
+        }
+    }
+
+    @Test
+    public void noN() throws Exception {
+        ACGTSequence s = new ACGTSequence("ACGTTGCAAACCGGTTACGT");
+        CompactACGTSequence c = CompactACGTSequence.encode(s);
+        assertEquals(s.toString(), c.toString());
+        assertEquals(0, c.fastCount(ACGT.N, 0, s.textSize()));
+        assertEquals(5, c.fastCount(ACGT.A, 0, s.textSize()));
+    }
+
+    @Test
+    public void fastCount() throws Exception {
+        Random r = new Random(0);
+        ACGTSequence s = randomSequence(r, 200, 0.1);
+        CompactACGTSequence c = CompactACGTSequence.encode(s);
+        _logger.debug(c);
+
+        for (ACGT ch : ACGT.values()) {
+            for (int x = 0; x <= s.textSize(); x++) {
+                for (int y = x; y <= s.textSize(); y++)
+                    assertEquals(String.format("code:%s, s=%d, e=%d", ch, x, y), s.count(ch, x, y),
+                            c.fastCount(ch, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void fastCountACGTN() throws Exception {
+        Random r = new Random(0);
+        ACGTSequence s = randomSequence(r, 200, 0.1);
+        CompactACGTSequence c = CompactACGTSequence.encode(s);
+
+        for (int x = 0; x <= s.textSize(); x++) {
+            for (int y = x; y <= s.textSize(); y++) {
+                long[] count = c.fastCountACGTN(x, y);
+                for (ACGT ch : ACGT.values()) {
+                    assertEquals(String.format("code:%s, s=%d, e=%d", ch, x, y), s.count(ch, x, y), count[ch.code]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameRankAsOccTable() throws Exception {
+        Random r = new Random(1);
+        ACGTSequence s = randomSequence(r, 1000, 0.01);
+        FMIndex fm3 = new FMIndexOnOccTable(s, 128);
+        FMIndex fm2 = new FMIndexOnOccTable(CompactACGTSequence.encode(s), 128);
+
+        for (long i = 0; i <= s.textSize(); ++i) {
+            assertArrayEquals(fm3.rankACGTN(i), fm2.rankACGTN(i));
+        }
+        for (long i = 0; i < s.textSize(); ++i) {
+            assertEquals(fm3.suffixLink(i), fm2.suffixLink(i));
+        }
+    }
+}
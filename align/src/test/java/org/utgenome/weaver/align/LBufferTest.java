@@ -0,0 +1,92 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// LBufferTest.java
+// Since: 2012/05/21
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+import org.xerial.util.log.Logger;
+
+public class LBufferTest
+{
+    private static Logger _logger = Logger.getLogger(LBufferTest.class);
+
+    @Test
+    public void allocate() throws Exception {
+        LBuffer b = LBuffer.allocate(8 * 100);
+        assertEquals(800, b.byteSize());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(0L, b.getLong(i * 8));
+        }
+        for (int i = 0; i < 100; ++i) {
+            b.putLong(i * 8, -i);
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(-i, b.getLong(i * 8));
+        }
+        b.putInt(4, 0xCAFEBABE);
+        assertEquals(0xCAFEBABE, b.getInt(4));
+    }
+
+    @Test
+    public void fill() throws Exception {
+        LLongArray a = new LLongArray(1000);
+        a.fill(-1L);
+        for (long i = 0; i < a.size(); ++i) {
+            assertEquals(-1L, a.get(i));
+        }
+        a.setAND(3, 0xFFL);
+        assertEquals(0xFFL, a.get(3));
+        a.setOR(4, 0xFFL);
+        assertEquals(-1L, a.get(4));
+    }
+
+    @Test
+    public void map() throws Exception {
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File f = File.createTempFile("lbuffer", ".bin", tmpDir);
+        f.deleteOnExit();
+
+        final int N = 10000;
+        LBuffer b = LBuffer.map(f, FileChannel.MapMode.READ_WRITE, N * 8L);
+        LLongArray a = new LLongArray(N, b);
+        for (int i = 0; i < N; ++i) {
+            a.set(i, i * 31L);
+        }
+        b.flush();
+        assertEquals(N * 8L, f.length());
+
+        LLongArray r = new LLongArray(N, LBuffer.map(f, FileChannel.MapMode.READ_ONLY, f.length()));
+        for (int i = 0; i < N; ++i) {
+            assertEquals(i * 31L, r.get(i));
+        }
+    }
+
+}
@@ -33,6 +33,7 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.util.Random;
 import java.util.TreeSet;
 
 import org.junit.Test;
@@ -97,6 +98,72 @@ public class RSBitVectorTest
 
     }
 
+    @Test
+    public void randomRankSelect() throws Exception {
+        Random r = new Random(0);
+        // sparse, dense and half-filled vectors whose sizes are not multiples of the block size
+        double[] density = { 0.001, 0.5, 0.999 };
+        for (double d : density) {
+            int n = 20000 + r.nextInt(1000);
+            RSBitVector v = new RSBitVector(n);
+            boolean[] bit = new boolean[n];
+            for (int i = 0; i < n; ++i) {
+                bit[i] = r.nextDouble() < d;
+                v.setBit(bit[i], i);
+            }
+            v.refreshRankTable();
+
+            long ones = 0;
+            long zeros = 0;
+            for (int i = 0; i < n; ++i) {
+                assertEquals(ones, v.rank(true, i));
+                assertEquals(zeros, v.rank(false, i));
+                if (bit[i]) {
+                    ones++;
+                    assertEquals(i, v.select(true, ones));
+                }
+                else {
+                    zeros++;
+                    assertEquals(i, v.select(false, zeros));
+                }
+            }
+            assertEquals(ones, v.rank(true, n));
+            assertEquals(-1, v.select(true, ones + 1));
+            assertEquals(-1, v.select(false, zeros + 1));
+        }
+    }
+
+    @Test
+    public void selectInWord() throws Exception {
+        Random r = new Random(1);
+        for (int t = 0; t < 1000; ++t) {
+            long x = r.nextLong();
+            int rank = 0;
+            for (int i = 0; i < 64; ++i) {
+                if ((x & (1L << i)) != 0)
+                    assertEquals(i, RSBitVector.selectInWord(x, rank++));
+            }
+        }
+    }
+
+    @Test
+    public void multipleChunks() throws Exception {
+        // more than 2^20 blocks
+        long n = (1L << 26) + 1000;
+        RSBitVector v = new RSBitVector(n);
+        for (long i = 0; i < n; i += 1000)
+            v.set(i);
+        v.refreshRankTable();
+        assertEquals(n / 1000 + 1, v.rank(true, n));
+        for (long k = 1; k <= n / 1000 + 1; k += 997) {
+            assertEquals((k - 1) * 1000, v.select(true, k));
+            assertEquals(k, v.rank(true, (k - 1) * 1000 + 1));
+        }
+        long last = ((n - 1) / 1000) * 1000;
+        assertTrue(v.get(last));
+        assertFalse(v.get(last + 1));
+    }
+
     @Test
     public void save() throws Exception {
         RSBitVector v = new RSBitVector(100);
@@ -0,0 +1,126 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// WaveletMatrixTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+import org.utgenome.weaver.align.FMIndexOnGenome.IndexType;
+import org.xerial.util.FileUtil;
+
+public class WaveletMatrixTest
+{
+    private static ACGTSequence randomSequence(int n, long seed) {
+        Random r = new Random(seed);
+        ACGTSequence s = new ACGTSequence();
+        for (int i = 0; i < n; ++i)
+            s.append(r.nextInt(50) == 0 ? ACGT.N : ACGT.decode(r.nextInt(4)));
+        return s;
+    }
+
+    @Test
+    public void rank() throws Exception {
+        ACGTSequence seq = randomSequence(1000, 0);
+        WaveletMatrix W = new WaveletMatrix(seq);
+        assertEquals(seq.textSize(), W.textSize());
+
+        long[] count = new long[ACGT.values().length];
+        long[] rank = new long[ACGT.values().length];
+        for (long i = 0; i <= seq.textSize(); ++i) {
+            W.rankAll(i, rank);
+            for (ACGT ch : ACGT.values()) {
+                assertEquals("rank of " + ch + " at " + i, count[ch.code], W.rank(ch.code, i));
+                assertEquals("rankAll of " + ch + " at " + i, count[ch.code], rank[ch.code]);
+            }
+            if (i < seq.textSize()) {
+                assertEquals(seq.lookup(i), W.lookup(i));
+                count[(int) seq.lookup(i)]++;
+            }
+        }
+    }
+
+    @Test
+    public void save() throws Exception {
+        ACGTSequence seq = randomSequence(500, 1);
+        WaveletMatrix W = new WaveletMatrix(seq);
+        File tmp = FileUtil.createTempFile(new File("target"), "wavelet", ".wv");
+        tmp.deleteOnExit();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        W.saveTo(out);
+        out.close();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tmp)));
+        WaveletMatrix W2 = WaveletMatrix.loadFrom(in);
+        in.close();
+
+        assertEquals(W.textSize(), W2.textSize());
+        for (long i = 0; i < seq.textSize(); ++i) {
+            assertEquals(seq.lookup(i), W2.lookup(i));
+            assertEquals(W.rank(ACGT.G.code, i), W2.rank(ACGT.G.code, i));
+        }
+    }
+
+    @Test
+    public void fmIndex() throws Exception {
+        ACGTSequence seq = randomSequence(2000, 2);
+        FMIndexOnGenome occ = FMIndexOnGenome.buildFromSequence("seq", seq, IndexType.OCC);
+        FMIndexOnGenome wavelet = FMIndexOnGenome.buildFromSequence("seq", seq, IndexType.WAVELET);
+
+        FMIndex a = occ.forwardIndex;
+        FMIndex b = wavelet.forwardIndex;
+        assertEquals(a.textSize(), b.textSize());
+        for (ACGT ch : ACGT.values())
+            assertEquals(a.getCharacterCount().getCount(ch), b.getCharacterCount().getCount(ch));
+        for (long i = 0; i <= a.textSize(); i += 7) {
+            assertArrayEquals(a.rankACGTN(i), b.rankACGTN(i));
+            assertEquals(a.suffixLink(i), b.suffixLink(i));
+            assertEquals(a.count(ACGT.T, 0, i), b.count(ACGT.T, 0, i));
+        }
+
+        // search a substring of the reference
+        ACGTSequence q = seq.subString(300, 330);
+        SuffixInterval si = occ.wholeSARange();
+        SuffixInterval si2 = wavelet.wholeSARange();
+        for (long i = 0; i < q.textSize(); ++i) {
+            si = occ.forwardSearch(Strand.FORWARD, q.getACGT(i), si);
+            si2 = wavelet.forwardSearch(Strand.FORWARD, q.getACGT(i), si2);
+            assertEquals(si.lowerBound, si2.lowerBound);
+            assertEquals(si.upperBound, si2.upperBound);
+        }
+        assertFalse(si2.isEmpty());
+        assertEquals(occ.toCoordinate(si.lowerBound, Strand.FORWARD), wavelet.toCoordinate(si2.lowerBound,
+                Strand.FORWARD));
+    }
+}
@@ -0,0 +1,174 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentMetricsTest.java
+// Since: 2012/05/24
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.utgenome.weaver.align.ACGT;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.AlignmentConfig.Strategy;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.record.SingleEndRead;
+import org.utgenome.weaver.parallel.Reporter;
+import org.xerial.util.log.Logger;
+
+public class AlignmentMetricsTest
+{
+    private static Logger    _logger = Logger.getLogger(AlignmentMetricsTest.class);
+
+    private AlignmentMetrics metrics = AlignmentMetrics.getInstance();
+
+    @Before
+    public void setUp() {
+        metrics.reset();
+    }
+
+    @Test
+    public void histogram() throws Exception {
+        Histogram h = new Histogram();
+        for (int i = 0; i <= 100; ++i)
+            h.add(i);
+        assertEquals(101, h.count());
+        assertEquals(50.0, h.mean(), 1e-8);
+        assertEquals(100, h.max());
+        assertEquals(0, h.quantile(0.0));
+        assertTrue(h.quantile(0.5) >= 50);
+        assertTrue(h.quantile(0.5) < 64);
+        assertEquals(100, h.quantile(1.0));
+        long[] b = h.buckets();
+        assertEquals(1, b[0]);
+        assertEquals(1, b[1]);
+        assertEquals(2, b[2]);
+        _logger.debug(h);
+    }
+
+    private static ACGTSequence randomSequence(int length) {
+        Random r = new Random(0);
+        ACGTSequence seq = new ACGTSequence();
+        for (int i = 0; i < length; ++i)
+            seq.append(ACGT.decode(r.nextInt(4)));
+        return seq;
+    }
+
+    @Test
+    public void meteredAligner() throws Exception {
+        ACGTSequence ref = randomSequence(1000);
+        FMIndexOnGenome fmIndex = FMIndexOnGenome.buildFromSequence("seq", ref);
+        AlignmentConfig config = new AlignmentConfig();
+        Reporter nullReporter = new Reporter() {
+            @Override
+            public void emit(Object result) throws Exception {}
+        };
+        Aligner aligner = Align.newAligner(new CommonDataSet(fmIndex, ref, config, nullReporter), config,
+                nullReporter);
+
+        aligner.align(new SingleEndRead("mapped", ref.subString(100, 140), null), nullReporter);
+        aligner.align(new SingleEndRead("unmapped", new ACGTSequence("NNNNNNNNNNNNNNNNNNNNNNNNNNNNNN"), null),
+                nullReporter);
+
+        assertEquals(2, metrics.getNumReads());
+        assertEquals(0.5, metrics.getMappedRatio(), 1e-8);
+        assertEquals(0.5, metrics.getUnmappedRatio(), 1e-8);
+        AlignmentMetrics.StrategyMetrics bsf = metrics.get(Strategy.BSF);
+        assertEquals(2, bsf.latency.count());
+        assertEquals(2, bsf.numFMIndexSearches.count());
+    }
+
+    @Test
+    public void meteredBidirectionalBWT() throws Exception {
+        ACGTSequence ref = randomSequence(1000);
+        FMIndexOnGenome fmIndex = FMIndexOnGenome.buildFromSequence("seq", ref);
+        AlignmentConfig config = new AlignmentConfig();
+        config.strategy = Strategy.BD;
+        Reporter nullReporter = new Reporter() {
+            @Override
+            public void emit(Object result) throws Exception {}
+        };
+        // BD reports the alignments to the reporter given to newAligner
+        Aligner aligner = Align.newAligner(new CommonDataSet(fmIndex, ref, config, nullReporter), config,
+                nullReporter);
+
+        aligner.align(new SingleEndRead("mapped", ref.subString(100, 140), null), nullReporter);
+        aligner.align(new SingleEndRead("unmapped", new ACGTSequence("NNNNNNNNNNNNNNNNNNNNNNNNNNNNNN"), null),
+                nullReporter);
+
+        assertEquals(2, metrics.getNumReads());
+        assertEquals(0.5, metrics.getMappedRatio(), 1e-8);
+        assertEquals(2, metrics.get(Strategy.BD).latency.count());
+    }
+
+    @Test
+    public void indexMemory() throws Exception {
+        ACGTSequence ref = randomSequence(10000);
+        CommonDataSet common = new CommonDataSet(FMIndexOnGenome.buildFromSequence("seq", ref), ref,
+                new AlignmentConfig(), null);
+        long size = common.getIndexMemory();
+        _logger.debug("index memory: %,d bytes", size);
+        // the BWT strings of both strands are at least as large as the reference 
+        assertTrue(size > ref.byteSize() * 3);
+        assertEquals(size, common.getIndexMemory());
+        assertEquals(size, new CommonDataSet(FMIndexOnGenome.buildFromSequence("seq", ref), ref,
+                new AlignmentConfig(), null).getIndexMemory());
+    }
+
+    @Test
+    public void fileSink() throws Exception {
+        File f = File.createTempFile("metrics", ".json");
+        f.deleteOnExit();
+        metrics.addGauge("queue", new Gauge() {
+            @Override
+            public long value() {
+                return 3;
+            }
+        });
+        metrics.recordRead(Strategy.BSF, 1000, 1, true);
+        metrics.addSink(new FileSink(f.getPath()));
+        metrics.stopReporting();
+        metrics.removeGauge("queue");
+
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        String line = in.readLine();
+        in.close();
+        _logger.debug(line);
+        assertTrue(line.startsWith("{"));
+        assertTrue(line.contains("\"reads\": 1"));
+        assertTrue(line.contains("\"queue.queue\": 3"));
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals("1.0000", snapshot.get("multi-hit"));
+    }
+}
@@ -0,0 +1,168 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// StageTimerTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.utgenome.weaver.align.metrics.StageTimer.Stage;
+import org.utgenome.weaver.align.metrics.StageTimer.StageSummary;
+import org.xerial.util.log.Logger;
+
+public class StageTimerTest
+{
+    private static Logger _logger = Logger.getLogger(StageTimerTest.class);
+
+    @Before
+    public void setUp() {
+        StageTimer.reset();
+    }
+
+    @After
+    public void tearDown() {
+        StageTimer.setTracing(false);
+        StageTimer.reset();
+    }
+
+    private static void alignDummyRead() {
+        StageTimer.beginRead();
+        StageTimer.enter(Stage.NFA_SEARCH);
+        try {
+            StageTimer.enter(Stage.SW_VERIFICATION);
+            StageTimer.exit(Stage.SW_VERIFICATION);
+            StageTimer.enter(Stage.SW_VERIFICATION);
+            StageTimer.exit(Stage.SW_VERIFICATION);
+        }
+        finally {
+            StageTimer.exit(Stage.NFA_SEARCH);
+        }
+    }
+
+    @Test
+    public void count() throws Exception {
+        int n = StageTimer.SAMPLE_INTERVAL * 4;
+        for (int i = 0; i < n; ++i)
+            alignDummyRead();
+
+        List<StageSummary> summary = StageTimer.summary();
+        double share = 0;
+        for (StageSummary s : summary) {
+            _logger.debug(s);
+            assertTrue(s.estimatedTime >= 0);
+            share += s.share;
+        }
+        assertEquals(n, summary.get(Stage.NFA_SEARCH.ordinal()).numCalls);
+        assertEquals(n * 2, summary.get(Stage.SW_VERIFICATION.ordinal()).numCalls);
+        assertEquals(0, summary.get(Stage.PARSE.ordinal()).numCalls);
+        assertTrue(share == 0 || Math.abs(share - 1.0) < 1e-8);
+
+        Map<String, Object> m = StageTimer.summaryMap();
+        assertTrue(m.containsKey("stage.nfa_search"));
+    }
+
+    @Test
+    public void unbalancedExit() throws Exception {
+        for (int i = 0; i < StageTimer.SAMPLE_INTERVAL; ++i) {
+            StageTimer.beginRead();
+            StageTimer.exit(Stage.SAM_OUTPUT);
+            StageTimer.enter(Stage.PARSE);
+            StageTimer.exit(Stage.SAM_OUTPUT);
+        }
+        assertEquals(StageTimer.SAMPLE_INTERVAL, StageTimer.summary().get(Stage.PARSE.ordinal()).numCalls);
+        assertEquals(0, StageTimer.summary().get(Stage.SAM_OUTPUT.ordinal()).numCalls);
+    }
+
+    @Test
+    public void trace() throws Exception {
+        StageTimer.setTracing(true);
+        for (int i = 0; i < StageTimer.SAMPLE_INTERVAL * 2; ++i)
+            alignDummyRead();
+
+        // 2 sampled reads, each of which has 3 stages 
+        int[] numEvents = writeTrace();
+        assertEquals(6, numEvents[0]);
+        assertEquals(6, numEvents[1]);
+
+        // the written events are discarded
+        numEvents = writeTrace();
+        assertEquals(0, numEvents[0]);
+        assertEquals(0, numEvents[1]);
+    }
+
+    /**
+     * @return the numbers of begin and end events in the trace
+     */
+    private static int[] writeTrace() throws Exception {
+        File f = File.createTempFile("stage", ".json");
+        f.deleteOnExit();
+        StageTimer.writeTrace(f.getPath());
+
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        int[] numEvents = new int[2];
+        try {
+            assertEquals("{\"traceEvents\":[", in.readLine());
+            for (String line; (line = in.readLine()) != null;) {
+                if (line.contains("\"ph\":\"B\""))
+                    numEvents[0]++;
+                if (line.contains("\"ph\":\"E\""))
+                    numEvents[1]++;
+            }
+        }
+        finally {
+            in.close();
+        }
+        return numEvents;
+    }
+
+    @Test
+    public void releaseTerminatedThreads() throws Exception {
+        final int n = StageTimer.SAMPLE_INTERVAL * 2;
+        StageTimer.beginRead();
+        int numTimers = StageTimer.numTimers();
+        for (int i = 0; i < 4; ++i) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < n; ++i)
+                        alignDummyRead();
+                }
+            });
+            t.start();
+            t.join();
+        }
+
+        // the counters of the terminated threads remain in the summary 
+        assertEquals(n * 4, StageTimer.summary().get(Stage.NFA_SEARCH.ordinal()).numCalls);
+        assertEquals(numTimers, StageTimer.numTimers());
+    }
+}
@@ -0,0 +1,104 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// MappingAccuracyTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.Align;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.Aligner;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.xerial.util.log.Logger;
+
+public class MappingAccuracyTest
+{
+    private static Logger _logger = Logger.getLogger(MappingAccuracyTest.class);
+
+    private static AlignmentRecord record(String name, String chr, int start, Strand strand, int mapq) {
+        AlignmentRecord r = new AlignmentRecord();
+        r.readName = name;
+        r.chr = chr;
+        r.start = start;
+        r.strand = strand;
+        r.numBestHits = 1;
+        r.score = mapq;
+        return r;
+    }
+
+    @Test
+    public void bin() throws Exception {
+        assertEquals(0, MappingAccuracy.bin(0));
+        assertEquals(1, MappingAccuracy.bin(1));
+        assertEquals(1, MappingAccuracy.bin(9));
+        assertEquals(2, MappingAccuracy.bin(10));
+        assertEquals(4, MappingAccuracy.bin(37));
+    }
+
+    @Test
+    public void count() throws Exception {
+        MappingAccuracy a = new MappingAccuracy(5, null);
+        for (int i = 0; i < 4; ++i)
+            a.countRead();
+        a.emit(record("sim0:chr1:100+", "chr1", 102, Strand.FORWARD, 37));
+        // the secondary record of the same read is not counted
+        a.emit(record("sim0:chr1:100+", "chr1", 5000, Strand.FORWARD, 37));
+        a.emit(record("sim1:chr1:300-", "chr1", 300, Strand.FORWARD, 37));
+        a.emit(record("sim2:chr2:300+", "chr2", 300, Strand.FORWARD, 0));
+
+        assertEquals(4, a.getNumReads());
+        assertEquals(3, a.getNumMapped());
+        assertEquals(2, a.getNumCorrect());
+        Map<String, Object> m = a.summary();
+        _logger.debug(m);
+        assertEquals(1L, m.get("mapq30-.correct"));
+        assertEquals(2L, m.get("mapq30-.mapped"));
+        assertEquals(1L, m.get("mapq0.correct"));
+        assertEquals(0.5, (Double) m.get("recall"), 1e-8);
+    }
+
+    @Test
+    public void simulatedReads() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(20000, 1);
+        FMIndexOnGenome fmIndex = FMIndexOnGenome.buildFromSequence("seq", ref);
+        AlignmentConfig config = new AlignmentConfig();
+
+        MappingAccuracy a = new MappingAccuracy(10, null);
+        Aligner aligner = Align.newAligner(new CommonDataSet(fmIndex, ref, config, a), config, a);
+        ReadSimulator sim = new ReadSimulator(ref, 50, 0.01, 0, 3);
+        for (int i = 0; i < 100; ++i) {
+            a.countRead();
+            aligner.align(sim.next().toRead(), a);
+        }
+        _logger.debug(a.summary());
+        assertTrue(a.getNumCorrect() > 90);
+    }
+}
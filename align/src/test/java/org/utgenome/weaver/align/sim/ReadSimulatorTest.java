@@ -0,0 +1,157 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ReadSimulatorTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.align.sim;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.SequenceBoundary;
+import org.utgenome.weaver.align.SequenceBoundary.SequenceIndex;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.sim.ReadSimulator.Origin;
+import org.utgenome.weaver.align.sim.ReadSimulator.SimulatedRead;
+import org.xerial.util.log.Logger;
+
+public class ReadSimulatorTest
+{
+    private static Logger _logger = Logger.getLogger(ReadSimulatorTest.class);
+
+    @Test
+    public void randomGenome() throws Exception {
+        ACGTSequence g1 = ReadSimulator.randomGenome(10000, 1);
+        ACGTSequence g2 = ReadSimulator.randomGenome(10000, 1);
+        assertEquals(10000, g1.textSize());
+        assertEquals(g1, g2);
+        assertFalse(g1.equals(ReadSimulator.randomGenome(10000, 2)));
+    }
+
+    @Test
+    public void exactReads() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(10000, 1);
+        ReadSimulator sim = new ReadSimulator(ref, 50, 0, 0, 3);
+        for (int i = 0; i < 100; ++i) {
+            SimulatedRead r = sim.next();
+            assertEquals(50, r.seq.textSize());
+            ACGTSequence s = r.strand == Strand.FORWARD ? r.seq : r.seq.reverseComplement();
+            assertEquals(ref.subString(r.origin, r.origin + 50), s);
+        }
+    }
+
+    @Test
+    public void reproducible() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(10000, 1);
+        ReadSimulator s1 = new ReadSimulator(ref, 100, 0.02, 0.01, 3);
+        ReadSimulator s2 = new ReadSimulator(ref, 100, 0.02, 0.01, 3);
+        int numMismatches = 0;
+        for (int i = 0; i < 100; ++i) {
+            SimulatedRead r1 = s1.next();
+            SimulatedRead r2 = s2.next();
+            assertEquals(r1.name, r2.name);
+            assertEquals(r1.seq, r2.seq);
+            assertEquals(100, r1.seq.textSize());
+            numMismatches += r1.numMismatches;
+        }
+        _logger.debug("# of mismatches: %d", numMismatches);
+        assertTrue(numMismatches > 0);
+    }
+
+    @Test
+    public void origin() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(10000, 1);
+        ReadSimulator sim = new ReadSimulator(ref, 50, 0.01, 0.001, 3);
+        for (int i = 0; i < 10; ++i) {
+            SimulatedRead r = sim.next();
+            Origin o = ReadSimulator.parseOrigin(r.name, 0);
+            assertEquals("seq", o.chr);
+            assertEquals(r.origin + 1, o.start);
+            assertEquals(r.strand, o.strand);
+        }
+
+        Origin o = ReadSimulator.parseOrigin("sim3:chr1:1000+,1251-/2", 1);
+        assertEquals("chr1", o.chr);
+        assertEquals(1251, o.start);
+        assertEquals(Strand.REVERSE, o.strand);
+        assertNull(ReadSimulator.parseOrigin("read1", 0));
+    }
+
+    @Test
+    public void multipleSequences() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(3000, 1);
+        SequenceBoundary b = new SequenceBoundary();
+        b.totalSize = ref.textSize();
+        b.index = new ArrayList<SequenceIndex>();
+        b.index.add(new SequenceIndex("chr1", "chr1", 1000, 0));
+        b.index.add(new SequenceIndex("chr2", "chr2", 2000, 1000));
+
+        ReadSimulator sim = new ReadSimulator(ref, b, 100, 0, 0, 3);
+        for (int i = 0; i < 100; ++i) {
+            SimulatedRead r = sim.next();
+            long offset = r.chr.equals("chr1") ? 0 : 1000;
+            assertEquals(offset + r.start - 1, r.origin);
+            // no read spans the two sequences
+            assertTrue(r.origin >= 1000 || r.origin + 100 <= 1000);
+        }
+    }
+
+    @Test
+    public void pairs() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(10000, 1);
+        ReadSimulator sim = new ReadSimulator(ref, 50, 0, 0, 3);
+        for (int i = 0; i < 100; ++i) {
+            SimulatedRead[] p = sim.nextPair(300, 30);
+            assertEquals(p[0].name, p[1].name);
+            assertTrue(p[0].strand != p[1].strand);
+            for (int mate = 0; mate < 2; ++mate) {
+                SimulatedRead r = p[mate];
+                Origin o = ReadSimulator.parseOrigin(r.name, mate);
+                assertEquals(r.start, o.start);
+                assertEquals(r.strand, o.strand);
+                ACGTSequence s = r.strand == Strand.FORWARD ? r.seq : r.seq.reverseComplement();
+                assertEquals(ref.subString(r.origin, r.origin + 50), s);
+            }
+            SimulatedRead left = p[0].strand == Strand.FORWARD ? p[0] : p[1];
+            SimulatedRead right = p[0].strand == Strand.FORWARD ? p[1] : p[0];
+            long insert = right.origin + 50 - left.origin;
+            assertTrue(insert > 100 && insert < 500);
+        }
+    }
+
+    @Test
+    public void errorProfile() throws Exception {
+        ACGTSequence ref = ReadSimulator.randomGenome(10000, 1);
+        ReadSimulator sim = new ReadSimulator(ref, 100, 0.001, 0, 3);
+        sim.setMismatchRateAt3End(0.1);
+        assertEquals(0.001, sim.mismatchRate(0), 1e-8);
+        assertEquals(0.1, sim.mismatchRate(99), 1e-8);
+
+        SimulatedRead r = sim.next();
+        assertEquals(100, r.qual.length());
+        // quality values decrease towards the 3' end
+        assertTrue(r.qual.charAt(0) > r.qual.charAt(99));
+    }
+}
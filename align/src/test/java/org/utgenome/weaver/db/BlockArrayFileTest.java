@@ -0,0 +1,249 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// BlockArrayFileTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.utgenome.weaver.db.BlockArray.Block;
+
+public class BlockArrayFileTest
+{
+    private static BlockArrayTable sampleTable() {
+        Random r = new Random(0);
+        BlockArrayTable t = new BlockArrayTable();
+        for (String chr : new String[] { "chr1", "chr2" }) {
+            BlockArray ba = t.getBlockArray(chr);
+            for (int start = 0; start < 100000; start += 20000) {
+                float[] data = new float[10000];
+                for (int i = 0; i < data.length; ++i)
+                    data[i] = r.nextFloat();
+                ba.add(new Block(start, data));
+            }
+        }
+        return t;
+    }
+
+    private static File tempFile() throws Exception {
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File f = File.createTempFile("blockarray", ".bin", tmpDir);
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Test
+    public void randomAccess() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File f = tempFile();
+        t.saveTo(f);
+
+        // cache only 2 blocks
+        BlockArrayFile bin = BlockArrayFile.open(f, 2 * 10000 * 4);
+        assertEquals(t.keySet(), bin.keySet());
+        Random r = new Random(1);
+        for (int k = 0; k < 1000; ++k) {
+            String chr = r.nextBoolean() ? "chr1" : "chr2";
+            int pos = r.nextInt(100000);
+            assertEquals(t.get(chr, pos), bin.get(chr, pos), 0);
+            assertTrue(bin.getCacheSize() <= 2 * 10000 * 4);
+        }
+        // outside of the blocks
+        assertEquals(0, bin.get("chr1", 15000), 0);
+        assertEquals(0, bin.get("chr1", -1), 0);
+        assertEquals(0, bin.get("chrX", 10), 0);
+        assertEquals(90000, bin.getMaxLength("chr1"));
+
+        BlockArrayTable loaded = BlockArrayTable.loadFrom(f);
+        for (int pos = 0; pos < 100000; pos += 7)
+            assertEquals(t.get("chr2", pos), loaded.get("chr2", pos), 0);
+    }
+
+    @Test
+    public void compressInBackground() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File f = tempFile();
+        BlockCompressor compressor = new BlockCompressor(4);
+        try {
+            // submit only a part of the blocks. The rest are compressed when saving
+            for (Block each : t.getBlockArray("chr1").getBlocks())
+                compressor.submit(each);
+            BlockArrayFile.saveTo(t, f, compressor);
+        }
+        finally {
+            compressor.shutdown();
+        }
+
+        BlockArrayFile bin = BlockArrayFile.open(f);
+        for (String chr : t.keySet()) {
+            for (int pos = 0; pos < 100000; pos += 7)
+                assertEquals(t.get(chr, pos), bin.get(chr, pos), 0);
+        }
+    }
+
+    @Test
+    public void loadOlderFormat() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File f = tempFile();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
+        out.writeInt(t.keySet().size());
+        for (String chr : t.keySet()) {
+            byte[] key = chr.getBytes("UTF-8");
+            out.writeInt(key.length);
+            out.write(key);
+            t.getBlockArray(chr).saveTo(out);
+        }
+        out.close();
+
+        BlockArrayTable loaded = BlockArrayTable.loadFrom(f);
+        for (int pos = 0; pos < 100000; pos += 7)
+            assertEquals(t.get("chr1", pos), loaded.get("chr1", pos), 0);
+    }
+
+    @Test
+    public void streamBlocks() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File f = tempFile();
+        BlockArrayFileWriter writer = new BlockArrayFileWriter(f, 3);
+        // interleave the chromosomes, and add the blocks in the reverse order
+        for (int k = 4; k >= 0; --k) {
+            for (final String chr : t.keySet()) {
+                final Block b = (Block) t.getBlockArray(chr).getBlocks().toArray()[k];
+                if (k % 2 == 0)
+                    writer.add(chr, b);
+                else
+                    writer.add(chr, b.start, new Callable<float[]>() {
+                        @Override
+                        public float[] call() throws Exception {
+                            return b.data.clone();
+                        }
+                    });
+            }
+        }
+        writer.close();
+
+        BlockArrayFile bin = BlockArrayFile.open(f);
+        assertEquals(t.keySet(), bin.keySet());
+        for (String chr : t.keySet()) {
+            for (int pos = 0; pos < 100000; pos += 7)
+                assertEquals(t.get(chr, pos), bin.get(chr, pos), 0);
+            RangeSummary[] expected = t.summarize(chr, 0, 100000, 10);
+            RangeSummary[] s = bin.summarize(chr, 0, 100000, 10);
+            for (int i = 0; i < expected.length; ++i) {
+                assertEquals(expected[i].count, s[i].count);
+                assertEquals(expected[i].max, s[i].max, 0);
+                assertEquals(expected[i].sum, s[i].sum, 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void rejectDuplicateBlocks() throws Exception {
+        File f = tempFile();
+        BlockArrayFileWriter writer = new BlockArrayFileWriter(f, 2);
+        writer.add("chr1", new Block(100, new float[] { 1, 2, 3 }));
+        writer.add("chr1", new Block(0, new float[] { 1 }));
+        writer.add("chr1", new Block(100, new float[] { 4, 5 }));
+        try {
+            writer.close();
+            fail("blocks with the same start position must be rejected");
+        }
+        catch (IOException e) {
+            // OK
+        }
+    }
+
+    private static byte[] encodeBlob(float[] data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(buf));
+        out.writeObject(data);
+        out.close();
+        return buf.toByteArray();
+    }
+
+    @Test
+    public void convertSQLite() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File db = tempFile();
+        Class.forName("org.sqlite.JDBC");
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath());
+        try {
+            Statement stmt = conn.createStatement();
+            stmt.executeUpdate("create table track (track_id integer, name text, value text)");
+            stmt.executeUpdate("create table data (track_id integer, start integer, end integer, data_values blob)");
+            stmt.close();
+
+            PreparedStatement track = conn.prepareStatement("insert into track values(?, 'chrom', ?)");
+            PreparedStatement data = conn.prepareStatement("insert into data values(?, ?, ?, ?)");
+            int trackId = 0;
+            for (String chr : t.keySet()) {
+                track.setInt(1, ++trackId);
+                track.setString(2, chr);
+                track.executeUpdate();
+                for (Block b : t.getBlockArray(chr).getBlocks()) {
+                    data.setInt(1, trackId);
+                    data.setInt(2, b.start);
+                    data.setInt(3, b.start + b.data.length);
+                    data.setBytes(4, encodeBlob(b.data));
+                    data.executeUpdate();
+                }
+            }
+            track.close();
+            data.close();
+        }
+        finally {
+            conn.close();
+        }
+
+        File f = tempFile();
+        BlockArrayTable.convertSQLite(db, f, 2);
+        BlockArrayFile bin = BlockArrayFile.open(f);
+        BlockArrayTable loaded = BlockArrayTable.loadFromSQLite(db);
+        assertEquals(t.keySet(), bin.keySet());
+        assertEquals(t.keySet(), loaded.keySet());
+        for (String chr : t.keySet()) {
+            for (int pos = 0; pos < 100000; pos += 7) {
+                assertEquals(t.get(chr, pos), bin.get(chr, pos), 0);
+                assertEquals(t.get(chr, pos), loaded.get(chr, pos), 0);
+            }
+        }
+    }
+
+}
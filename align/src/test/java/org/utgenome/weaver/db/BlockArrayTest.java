@@ -0,0 +1,129 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// BlockArrayTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.utgenome.weaver.db.BlockArray.Block;
+import org.xerial.snappy.Snappy;
+
+public class BlockArrayTest
+{
+    @Test
+    public void fill() throws Exception {
+        Block b = new Block(100, new float[10]);
+        b.fill(95, 103, 1.0f);
+        b.fill(105, 107, 2.0f);
+        b.fill(108, 200, 3.0f);
+        b.fill(0, 50, 4.0f);
+        assertTrue(Arrays.equals(new float[] { 1, 1, 1, 0, 0, 2, 2, 0, 3, 3 }, b.data));
+    }
+
+    private static BlockArray sampleArray() {
+        Random r = new Random(0);
+        BlockArray ba = new BlockArray();
+        // blocks with gaps in between
+        for (int start = 10; start < 5000; start += 100 + r.nextInt(50)) {
+            float[] data = new float[1 + r.nextInt(100)];
+            for (int i = 0; i < data.length; ++i)
+                data[i] = r.nextFloat();
+            ba.add(new Block(start, data));
+        }
+        return ba;
+    }
+
+    /**
+     * Reference implementation of the lookup
+     */
+    private static float find(BlockArray ba, int pos) {
+        for (Block each : ba.getBlocks()) {
+            if (each.start <= pos && pos < each.getEnd())
+                return each.data[pos - each.start];
+        }
+        return 0;
+    }
+
+    @Test
+    public void get() throws Exception {
+        BlockArray ba = sampleArray();
+        for (int pos = -10; pos < ba.getMaxLength() + 10; ++pos)
+            assertEquals(find(ba, pos), ba.get(pos), 0);
+        assertEquals(10, ba.getMinPosition());
+
+        // the index is rebuilt after adding a block
+        ba.add(new Block(-100, new float[] { 3.0f }));
+        assertEquals(3.0f, ba.get(-100), 0);
+        assertEquals(-100, ba.getMinPosition());
+        assertEquals(0, new BlockArray().get(10), 0);
+    }
+
+    @Test
+    public void cursor() throws Exception {
+        BlockArray ba = sampleArray();
+        int end = ba.getMaxLength() + 10;
+        BlockArray.Cursor cursor = ba.cursor(-5, end);
+        for (int pos = -5; pos < end; ++pos) {
+            assertTrue(cursor.hasNext());
+            assertEquals(pos, cursor.position());
+            assertEquals(find(ba, pos), cursor.next(), 0);
+        }
+        assertFalse(cursor.hasNext());
+
+        float[] buf = new float[500];
+        for (int start = -50; start < end; start += 123) {
+            Arrays.fill(buf, -1);
+            ba.copy(start, start + 400, buf, 50);
+            for (int i = 0; i < 400; ++i)
+                assertEquals(find(ba, start + i), buf[50 + i], 0);
+            assertEquals(-1, buf[49], 0);
+            assertEquals(-1, buf[450], 0);
+        }
+    }
+
+    @Test
+    public void compress() throws Exception {
+        Random r = new Random(0);
+        float[] data = new float[1000];
+        for (int i = 0; i < data.length; ++i)
+            data[i] = r.nextFloat() * 100 - 50;
+
+        // compatible with the data written with DataOutputStream.writeFloat
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(buf);
+        for (float f : data)
+            dout.writeFloat(f);
+        dout.close();
+        assertTrue(Arrays.equals(Snappy.compress(buf.toByteArray()), BlockArray.compress(data)));
+
+        assertTrue(Arrays.equals(data, BlockArray.uncompress(BlockArray.compress(data))));
+    }
+
+}
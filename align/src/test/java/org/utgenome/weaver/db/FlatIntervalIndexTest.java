@@ -0,0 +1,171 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// FlatIntervalIndexTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.utgenome.gwt.utgb.client.bio.Interval;
+
+public class FlatIntervalIndexTest
+{
+    private static int[] sortedIds(FlatIntervalIndex.Hits hits, int from, int to) {
+        int[] ids = new int[to - from];
+        for (int i = from; i < to; ++i)
+            ids[i - from] = hits.get(i);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static int[] scan(int[] start, int[] end, int qStart, int qEnd) {
+        int n = 0;
+        int[] ids = new int[start.length];
+        for (int i = 0; i < start.length; ++i) {
+            if (start[i] <= qEnd && qStart <= end[i])
+                ids[n++] = i;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    @Test
+    public void overlap() throws Exception {
+        Random r = new Random(0);
+        for (int n : new int[] { 0, 1, 2, 7, 16, 33, 1000, 5001 }) {
+            int[] start = new int[n];
+            int[] end = new int[n];
+            FlatIntervalIndex.Builder b = new FlatIntervalIndex.Builder();
+            for (int i = 0; i < n; ++i) {
+                start[i] = r.nextInt(100000);
+                // a few long intervals
+                end[i] = start[i] + (r.nextInt(20) == 0 ? r.nextInt(20000) : r.nextInt(200));
+                b.add(start[i], end[i], i);
+            }
+            FlatIntervalIndex index = b.build();
+            assertEquals(n, index.size());
+
+            FlatIntervalIndex.Hits hits = new FlatIntervalIndex.Hits();
+            int[] qStart = new int[200];
+            int[] qEnd = new int[200];
+            for (int k = 0; k < qStart.length; ++k) {
+                qStart[k] = r.nextInt(110000) - 5000;
+                qEnd[k] = qStart[k] + r.nextInt(k % 2 == 0 ? 10 : 3000);
+                hits.clear();
+                int found = index.overlap(qStart[k], qEnd[k], hits);
+                assertEquals(hits.size(), found);
+                assertTrue(Arrays.equals(scan(start, end, qStart[k], qEnd[k]), sortedIds(hits, 0, hits.size())));
+            }
+
+            int[] offset = new int[qStart.length + 1];
+            index.overlap(qStart, qEnd, hits, offset);
+            for (int k = 0; k < qStart.length; ++k) {
+                int[] expected = scan(start, end, qStart[k], qEnd[k]);
+                assertTrue(Arrays.equals(expected, sortedIds(hits, offset[k], offset[k + 1])));
+            }
+
+            // persistence
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            index.saveTo(out);
+            out.close();
+            FlatIntervalIndex loaded = FlatIntervalIndex.loadFrom(new DataInputStream(new ByteArrayInputStream(buf
+                    .toByteArray())));
+            for (int k = 0; k < qStart.length; ++k) {
+                hits.clear();
+                loaded.overlap(qStart[k], qEnd[k], hits);
+                assertTrue(Arrays.equals(scan(start, end, qStart[k], qEnd[k]), sortedIds(hits, 0, hits.size())));
+            }
+        }
+    }
+
+    @Test
+    public void nearest() throws Exception {
+        FlatIntervalIndex.Builder b = new FlatIntervalIndex.Builder();
+        int[] start = { 100, 200, 200, 350, 1000 };
+        for (int i = 0; i < start.length; ++i)
+            b.add(start[i], start[i] + 10, i);
+        FlatIntervalIndex index = b.build();
+
+        assertEquals(0, index.nearest(140, 100));
+        // the ones starting at 200 are excluded
+        assertEquals(0, index.nearest(200, 200));
+        assertEquals(3, index.nearest(300, 100));
+        // tie: the smaller start is chosen
+        assertEquals(0, index.nearest(150, 100));
+        assertEquals(-1, index.nearest(600, 100));
+        assertEquals(4, index.nearest(5000, 10000));
+
+        int[] result = new int[3];
+        index.nearest(new int[] { 140, 600, 5000 }, 1000, result);
+        assertTrue(Arrays.equals(new int[] { 0, 3, -1 }, result));
+    }
+
+    private static BEDAnnotation gene(String chr, int start, int end, String strand) {
+        BEDAnnotation a = new BEDAnnotation();
+        a.chr = chr;
+        a.setStart(start);
+        a.setEnd(end);
+        a.strand = strand;
+        return a;
+    }
+
+    @Test
+    public void prioritySearchTree() throws Exception {
+        PrioritySearchTreeInGenome<BEDAnnotation> t = new PrioritySearchTreeInGenome<BEDAnnotation>();
+        BEDAnnotation g1 = gene("chr1", 100, 500, "+");
+        BEDAnnotation g2 = gene("chr1", 300, 400, "-");
+        BEDAnnotation g3 = gene("chr1", 450, 2000, "+");
+        BEDAnnotation g4 = gene("chr2", 100, 200, "+");
+        for (BEDAnnotation each : new BEDAnnotation[] { g1, g2, g3, g4 })
+            t.put(each.chr, each);
+        assertEquals(4, t.numEntries());
+
+        List<BEDAnnotation> r = t.overlapQuery("chr1", 460, Strand.PLUS);
+        assertEquals(2, r.size());
+        assertTrue(r.contains(g1) && r.contains(g3));
+        assertEquals(Arrays.asList(g2), t.overlapQuery("chr1", new Interval(350, 360), Strand.MINUS));
+        assertEquals(0, t.overlapQuery("chr3", 10, Strand.PLUS).size());
+
+        assertSame(g3, t.nearestNeighbour("chr1", g1, Strand.PLUS, 400));
+        // g3 starts out of the search range [1000, 1400], but crosses it
+        assertSame(g3, t.nearestNeighbour("chr1", gene("chr1", 1200, 1300, "+"), Strand.PLUS, 200));
+        assertNull(t.nearestNeighbour("chr1", g1, Strand.PLUS, 100));
+
+        int count = 0;
+        for (BEDAnnotation each : t) {
+            assertNotNull(each);
+            count++;
+        }
+        assertEquals(4, count);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// OverlapJoinTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.utgenome.UTGBException;
+
+public class OverlapJoinTest
+{
+    private static BEDAnnotation interval(String chr, int start, int end, String strand) {
+        BEDAnnotation a = new BEDAnnotation();
+        a.chr = chr;
+        a.setStart(start);
+        a.setEnd(end);
+        a.strand = strand;
+        return a;
+    }
+
+    private static List<BEDAnnotation> randomIntervals(Random r, int n, int maxLength) {
+        List<BEDAnnotation> result = new ArrayList<BEDAnnotation>();
+        String[] chrs = { "chr1", "chr10", "chr2" };
+        for (int i = 0; i < n; ++i) {
+            int start = r.nextInt(10000);
+            result.add(interval(chrs[r.nextInt(chrs.length)], start, start + r.nextInt(maxLength), r.nextBoolean() ? "+"
+                    : "-"));
+        }
+        Collections.sort(result, new Comparator<BEDAnnotation>() {
+            @Override
+            public int compare(BEDAnnotation o1, BEDAnnotation o2) {
+                int diff = o1.chr.compareTo(o2.chr);
+                return diff != 0 ? diff : o1.getStart() - o2.getStart();
+            }
+        });
+        return result;
+    }
+
+    private static Set<String> join(List<BEDAnnotation> left, List<BEDAnnotation> right, boolean strandSpecific)
+            throws Exception {
+        final Set<String> pairs = new HashSet<String>();
+        OverlapJoin<BEDAnnotation, BEDAnnotation> join = new OverlapJoin<BEDAnnotation, BEDAnnotation>(strandSpecific);
+        long n = join.join(left.iterator(), right.iterator(), new OverlapJoin.Handler<BEDAnnotation, BEDAnnotation>() {
+            @Override
+            public void overlap(BEDAnnotation a, BEDAnnotation b) throws Exception {
+                assertTrue(pairs.add(System.identityHashCode(a) + ":" + System.identityHashCode(b)));
+            }
+        });
+        assertEquals(pairs.size(), n);
+        return pairs;
+    }
+
+    @Test
+    public void join() throws Exception {
+        Random r = new Random(0);
+        List<BEDAnnotation> left = randomIntervals(r, 500, 300);
+        List<BEDAnnotation> right = randomIntervals(r, 800, 50);
+
+        for (boolean strandSpecific : new boolean[] { false, true }) {
+            Set<String> expected = new HashSet<String>();
+            for (BEDAnnotation a : left) {
+                for (BEDAnnotation b : right) {
+                    if (a.chr.equals(b.chr) && a.getStart() <= b.getEnd() && b.getStart() <= a.getEnd()
+                            && (!strandSpecific || a.isSense() == b.isSense()))
+                        expected.add(System.identityHashCode(a) + ":" + System.identityHashCode(b));
+                }
+            }
+            assertEquals(expected, join(left, right, strandSpecific));
+        }
+
+        assertEquals(0, join(left, new ArrayList<BEDAnnotation>(), false).size());
+    }
+
+    @Test
+    public void unsortedInput() throws Exception {
+        List<BEDAnnotation> left = new ArrayList<BEDAnnotation>();
+        left.add(interval("chr1", 100, 200, "+"));
+        left.add(interval("chr1", 50, 200, "+"));
+        List<BEDAnnotation> right = new ArrayList<BEDAnnotation>();
+        right.add(interval("chr1", 10, 20, "+"));
+        try {
+            join(left, right, false);
+            fail("unsorted input must be rejected");
+        }
+        catch (UTGBException e) {
+            // OK
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// SummaryPyramidTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+import org.utgenome.weaver.db.BlockArray.Block;
+
+public class SummaryPyramidTest
+{
+    private static BlockArrayTable sampleTable() {
+        Random r = new Random(0);
+        BlockArrayTable t = new BlockArrayTable();
+        BlockArray ba = t.getBlockArray("chr1");
+        for (int start = 0; start < 200000; start += 10000 + r.nextInt(3000)) {
+            float[] data = new float[10000];
+            for (int i = 0; i < data.length; ++i)
+                data[i] = r.nextFloat() * 10 - 5;
+            ba.add(new Block(start, data));
+        }
+        return t;
+    }
+
+    private static RangeSummary scan(BlockArray ba, int start, int end) {
+        RangeSummary s = new RangeSummary();
+        for (Block each : ba.getBlocks()) {
+            for (int pos = Math.max(start, each.start); pos < Math.min(end, each.getEnd()); ++pos)
+                s.add(each.data[pos - each.start]);
+        }
+        return s;
+    }
+
+    private static void assertSummary(RangeSummary expected, RangeSummary s) {
+        assertEquals(expected.count, s.count);
+        assertEquals(expected.min, s.min, 0);
+        assertEquals(expected.max, s.max, 0);
+        assertEquals(expected.sum, s.sum, 1e-6 * Math.max(1, expected.count));
+    }
+
+    @Test
+    public void summarize() throws Exception {
+        BlockArrayTable t = sampleTable();
+        BlockArray ba = t.getBlockArray("chr1");
+        int length = ba.getMaxLength();
+        Random r = new Random(1);
+        for (int k = 0; k < 100; ++k) {
+            int start = r.nextInt(length + 5000) - 100;
+            int end = start + r.nextInt(length / 2);
+            RangeSummary[] s = t.summarize("chr1", start, end, 1);
+            assertSummary(scan(ba, start, end), s[0]);
+        }
+
+        RangeSummary[] w = t.summarize("chr1", 0, 300000, 7);
+        assertEquals(7, w.length);
+        long total = 0;
+        for (int i = 0; i < w.length; ++i) {
+            int s = (int) (300000L * i / 7), e = (int) (300000L * (i + 1) / 7);
+            assertSummary(scan(ba, s, e), w[i]);
+            total += w[i].count;
+        }
+        assertEquals(scan(ba, 0, 300000).count, total);
+        assertTrue(Double.isNaN(t.summarize("chr1", 250000, 260000, 1)[0].mean()));
+    }
+
+    @Test
+    public void storedSummary() throws Exception {
+        BlockArrayTable t = sampleTable();
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File f = File.createTempFile("summary", ".bin", tmpDir);
+        f.deleteOnExit();
+        t.saveTo(f);
+
+        BlockArrayFile bin = BlockArrayFile.open(f, 0);
+        BlockArray ba = t.getBlockArray("chr1");
+        Random r = new Random(2);
+        for (int k = 0; k < 50; ++k) {
+            int start = r.nextInt(ba.getMaxLength());
+            int end = start + r.nextInt(100000);
+            RangeSummary[] s = bin.summarize("chr1", start, end, 3);
+            RangeSummary[] expected = t.summarize("chr1", start, end, 3);
+            for (int i = 0; i < s.length; ++i)
+                assertSummary(expected[i], s[i]);
+        }
+        assertEquals(0, bin.summarize("chrX", 0, 100, 2)[1].count);
+    }
+
+}
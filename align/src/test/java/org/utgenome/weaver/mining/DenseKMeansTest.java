@@ -0,0 +1,199 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// DenseKMeansTest.java
+// Since: 2012/05/26
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.mining;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.xerial.util.FileResource;
+import org.xerial.util.log.Logger;
+
+public class DenseKMeansTest
+{
+    private static Logger _logger = Logger.getLogger(DenseKMeansTest.class);
+
+    /**
+     * Generate points around the given centers
+     */
+    static double[] blobs(double[][] center, int numPointsPerCenter, long seed) {
+        int dim = center[0].length;
+        Random r = new Random(seed);
+        double[] points = new double[center.length * numPointsPerCenter * dim];
+        for (int i = 0; i < numPointsPerCenter * center.length; ++i) {
+            double[] c = center[i % center.length];
+            for (int d = 0; d < dim; ++d)
+                points[i * dim + d] = c[d] + r.nextGaussian();
+        }
+        return points;
+    }
+
+    static double[] faithful() throws Exception {
+        double[] points = new double[1024];
+        int n = 0;
+        BufferedReader faithful = FileResource.open(DenseKMeansTest.class, "faithful.txt");
+        try {
+            for (String line; (line = faithful.readLine()) != null;) {
+                String[] c = line.split("\\s+");
+                if (n + 2 > points.length)
+                    points = Arrays.copyOf(points, points.length * 2);
+                points[n++] = Double.parseDouble(c[0]);
+                points[n++] = Double.parseDouble(c[1]);
+            }
+        }
+        finally {
+            faithful.close();
+        }
+        return Arrays.copyOf(points, n);
+    }
+
+    /**
+     * Lloyd's algorithm without any pruning
+     */
+    private static double[] lloyd(double[] points, int dim, double[] centroids, int[] assignment) {
+        final int N = points.length / dim;
+        final int K = centroids.length / dim;
+        double[] c = centroids.clone();
+        for (boolean changed = true; changed;) {
+            changed = false;
+            for (int i = 0; i < N; ++i) {
+                int closest = 0;
+                double best = Double.POSITIVE_INFINITY;
+                for (int k = 0; k < K; ++k) {
+                    double d = DenseKMeans.squaredDistance(points, i * dim, c, k * dim, dim);
+                    if (d < best) {
+                        best = d;
+                        closest = k;
+                    }
+                }
+                if (assignment[i] != closest)
+                    changed = true;
+                assignment[i] = closest;
+            }
+            double[] sum = new double[c.length];
+            int[] count = new int[K];
+            for (int i = 0; i < N; ++i) {
+                count[assignment[i]]++;
+                for (int d = 0; d < dim; ++d)
+                    sum[assignment[i] * dim + d] += points[i * dim + d];
+            }
+            for (int k = 0; k < K; ++k) {
+                for (int d = 0; count[k] > 0 && d < dim; ++d)
+                    c[k * dim + d] = sum[k * dim + d] / count[k];
+            }
+        }
+        return c;
+    }
+
+    @Test
+    public void sameAsLloyd() throws Exception {
+        double[][] center = { { 0, 0, 0 }, { 5, 5, 0 }, { 0, 5, 5 }, { 5, 0, 5 }, { 2, 2, 2 } };
+        double[] points = blobs(center, 8000, 0);
+        DenseKMeans kmeans = new DenseKMeans();
+        double[] init = kmeans.initCentroids(8, points, 3);
+
+        int[] expected = new int[points.length / 3];
+        Arrays.fill(expected, -1);
+        double[] expectedCentroid = lloyd(points, 3, init, expected);
+
+        DenseKMeans.ClusterInfo result = kmeans.execute(points, 3, init);
+        assertArrayEquals(expected, result.clusterAssignment);
+        assertArrayEquals(expectedCentroid, result.centroid, 1e-9);
+
+        double sse = 0;
+        for (int i = 0; i < expected.length; ++i)
+            sse += DenseKMeans.squaredDistance(points, i * 3, expectedCentroid, expected[i] * 3, 3);
+        assertEquals(sse / expected.length, result.averageOfDistance, 1e-9);
+        int total = 0;
+        for (int s : result.size)
+            total += s;
+        assertEquals(expected.length, total);
+    }
+
+    @Test
+    public void independentOfThreads() throws Exception {
+        double[] points = blobs(new double[][] { { 0, 0 }, { 3, 3 }, { 6, 0 } }, 20000, 1);
+        DenseKMeans.Config single = new DenseKMeans.Config();
+        single.numThreads = 1;
+        DenseKMeans.Config multi = new DenseKMeans.Config();
+        multi.numThreads = 4;
+
+        DenseKMeans.ClusterInfo r1 = new DenseKMeans(single).execute(10, points, 2);
+        DenseKMeans.ClusterInfo r2 = new DenseKMeans(multi).execute(10, points, 2);
+        assertArrayEquals(r1.clusterAssignment, r2.clusterAssignment);
+        assertTrue(Arrays.equals(r1.centroid, r2.centroid));
+        assertEquals(r1.averageOfDistance, r2.averageOfDistance, 0);
+
+        // X-means evaluates the candidate splits concurrently
+        double[][] center = { { 0, 0 }, { 0, 10 }, { 100, 100 }, { 100, 110 }, { 200, 0 }, { 210, 0 } };
+        points = blobs(center, 3000, 3);
+        DenseXMeans.ClusterInfo x1 = new DenseXMeans(single).execute(points, 2, 100);
+        ExecutorService threadPool = Executors.newFixedThreadPool(multi.numThreads);
+        try {
+            DenseXMeans xmeans = new DenseXMeans(multi, threadPool);
+            for (int i = 0; i < 2; ++i) {
+                // the thread pool is reused
+                DenseXMeans.ClusterInfo x2 = xmeans.execute(points, 2, 100);
+                assertEquals(center.length, x2.K);
+                assertArrayEquals(x1.clusterAssignment, x2.clusterAssignment);
+                assertTrue(Arrays.equals(x1.centroid, x2.centroid));
+                assertEquals(x1.BIC, x2.BIC, 0);
+            }
+        }
+        finally {
+            threadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void xmeans() throws Exception {
+        double[][] center = { { 0, 0 }, { 0, 10 }, { 100, 100 }, { 100, 110 } };
+        double[] points = blobs(center, 500, 2);
+        DenseXMeans.ClusterInfo result = new DenseXMeans().execute(points, 2, 100);
+        _logger.debug("number of clusters: %d", result.K);
+        assertEquals(4, result.K);
+        for (double[] c : center) {
+            boolean found = false;
+            for (int k = 0; k < result.K; ++k)
+                found |= DenseKMeans.squaredDistance(c, 0, result.centroid, k * 2, 2) < 1;
+            assertTrue(found);
+        }
+    }
+
+    @Test
+    public void faithfulData() throws Exception {
+        double[] points = faithful();
+        DenseXMeans.ClusterInfo result = new DenseXMeans().execute(points, 2, 1000);
+        _logger.debug("number of clusters: %d", result.K);
+        assertTrue(result.K >= 2);
+        assertEquals(points.length / 2, result.clusterAssignment.length);
+    }
+
+}
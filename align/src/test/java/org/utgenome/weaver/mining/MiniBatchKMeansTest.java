@@ -0,0 +1,227 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// MiniBatchKMeansTest.java
+// Since: 2012/05/27
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.mining;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.utgenome.weaver.mining.MiniBatchKMeans.PointReader;
+import org.xerial.util.FileResource;
+
+public class MiniBatchKMeansTest
+{
+    private static final double[][] center = { { 0, 0 }, { 50, 0 }, { 0, 50 }, { 50, 50 } };
+
+    private static List<double[]> pointList(int numPointsPerCenter) {
+        double[] points = DenseKMeansTest.blobs(center, numPointsPerCenter, 0);
+        List<double[]> list = new ArrayList<double[]>();
+        for (int i = 0; i < points.length; i += 2)
+            list.add(new double[] { points[i], points[i + 1] });
+        return list;
+    }
+
+    @Test
+    public void stream() throws Exception {
+        List<double[]> points = pointList(10000);
+        MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+        config.batchSize = 1000;
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(4, 2, config);
+        assertEquals(points.size(), kmeans.fit(MiniBatchKMeans.fromIterator(points.iterator(), 2)));
+        assertEquals(points.size(), kmeans.getNumPoints());
+
+        double[] centroid = kmeans.getCentroids();
+        long total = 0;
+        for (int k = 0; k < 4; ++k) {
+            total += kmeans.getCount(k);
+            // each point has the variance 1 in each dimension
+            assertEquals(2.0, kmeans.getSquaredError(k) / kmeans.getCount(k), 0.1);
+        }
+        assertEquals(points.size(), total);
+        for (double[] c : center) {
+            boolean found = false;
+            for (int k = 0; k < 4; ++k)
+                found |= DenseKMeans.squaredDistance(c, 0, centroid, k * 2, 2) < 0.1;
+            assertTrue(found);
+        }
+
+        int[] assignment = kmeans.assign(new double[] { 1, 1, 49, 51 });
+        assertTrue(assignment[0] != assignment[1]);
+    }
+
+    @Test
+    public void online() throws Exception {
+        List<double[]> points = pointList(2000);
+        for (int batchSize : new int[] { 1, 3 }) {
+            // batches smaller than K
+            final MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+            config.batchSize = batchSize;
+            final PointReader in = MiniBatchKMeans.fromIterator(points.iterator(), 2);
+            MiniBatchKMeans kmeans = new MiniBatchKMeans(4, 2, config);
+            assertEquals(points.size(), kmeans.fit(new PointReader() {
+                private boolean isFirst = true;
+
+                @Override
+                public int read(double[] buffer) throws IOException {
+                    // the first batch has K points, and the rest have at most batchSize points
+                    assertTrue(isFirst ? buffer.length == 4 * 2 : buffer.length <= config.batchSize * 2);
+                    isFirst = false;
+                    return in.read(buffer);
+                }
+            }));
+
+            double[] centroid = kmeans.getCentroids();
+            for (double[] c : center) {
+                boolean found = false;
+                for (int k = 0; k < 4; ++k)
+                    found |= DenseKMeans.squaredDistance(c, 0, centroid, k * 2, 2) < 0.1;
+                assertTrue(found);
+            }
+        }
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws Exception {
+        List<double[]> points = pointList(5000);
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File checkpoint = File.createTempFile("kmeans", ".checkpoint", tmpDir);
+        checkpoint.deleteOnExit();
+
+        MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+        config.batchSize = 500;
+        MiniBatchKMeans full = new MiniBatchKMeans(4, 2, config);
+        full.fit(MiniBatchKMeans.fromIterator(points.iterator(), 2));
+
+        // process the first half, then resume from the checkpoint
+        config.checkpointFile = checkpoint;
+        config.checkpointInterval = 3;
+        MiniBatchKMeans first = new MiniBatchKMeans(4, 2, config);
+        first.fit(MiniBatchKMeans.fromIterator(points.subList(0, points.size() / 2).iterator(), 2));
+
+        MiniBatchKMeans resumed = MiniBatchKMeans.loadFrom(checkpoint, config);
+        assertEquals(points.size() / 2, resumed.getNumPoints());
+        resumed.fit(MiniBatchKMeans.fromIterator(points.iterator(), 2), resumed.getNumPoints());
+        assertEquals(points.size(), resumed.getNumPoints());
+        assertArrayEquals(full.getCentroids(), resumed.getCentroids(), 0);
+        for (int k = 0; k < 4; ++k) {
+            assertEquals(full.getCount(k), resumed.getCount(k));
+            assertEquals(full.getSquaredError(k), resumed.getSquaredError(k), 1e-6);
+        }
+        assertFalse(new File(checkpoint.getPath() + ".tmp").exists());
+
+        // killed after deleting the checkpoint and before renaming the temporary file
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        tmp.deleteOnExit();
+        assertTrue(checkpoint.renameTo(tmp));
+        assertEquals(points.size(), MiniBatchKMeans.loadFrom(checkpoint, config).getNumPoints());
+        tmp.delete();
+    }
+
+    @Test
+    public void rejectCorruptedCheckpoint() throws Exception {
+        File tmpDir = new File("target");
+        if (!tmpDir.exists())
+            tmpDir.mkdirs();
+        File checkpoint = File.createTempFile("kmeans", ".checkpoint", tmpDir);
+        checkpoint.deleteOnExit();
+        new MiniBatchKMeans(4, 2).saveTo(checkpoint);
+
+        // overwrite K
+        RandomAccessFile f = new RandomAccessFile(checkpoint, "rw");
+        f.seek(4);
+        f.writeInt(Integer.MAX_VALUE);
+        f.close();
+        try {
+            MiniBatchKMeans.loadFrom(checkpoint, new MiniBatchKMeans.Config());
+            fail("K must be validated");
+        }
+        catch (IOException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void invalidConfig() throws Exception {
+        MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+        config.checkpointInterval = 0;
+        try {
+            new MiniBatchKMeans(4, 2, config);
+            fail("checkpointInterval must be positive");
+        }
+        catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void shortReads() throws Exception {
+        final List<double[]> points = pointList(1000);
+        MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+        config.batchSize = 100;
+        MiniBatchKMeans full = new MiniBatchKMeans(4, 2, config);
+        full.fit(MiniBatchKMeans.fromIterator(points.iterator(), 2));
+
+        // a reader returning at most 3 points at a time
+        final PointReader in = MiniBatchKMeans.fromIterator(points.iterator(), 2);
+        MiniBatchKMeans kmeans = new MiniBatchKMeans(4, 2, config);
+        assertEquals(points.size(), kmeans.fit(new PointReader() {
+            @Override
+            public int read(double[] buffer) throws IOException {
+                double[] part = new double[Math.min(buffer.length, 3 * 2)];
+                int n = in.read(part);
+                System.arraycopy(part, 0, buffer, 0, n * 2);
+                return n;
+            }
+        }));
+        // the batches are the same
+        assertArrayEquals(full.getCentroids(), kmeans.getCentroids(), 0);
+    }
+
+    @Test
+    public void readText() throws Exception {
+        BufferedReader faithful = FileResource.open(MiniBatchKMeansTest.class, "faithful.txt");
+        try {
+            PointReader in = MiniBatchKMeans.fromText(faithful, 2);
+            MiniBatchKMeans.Config config = new MiniBatchKMeans.Config();
+            config.batchSize = 50;
+            MiniBatchKMeans kmeans = new MiniBatchKMeans(2, 2, config);
+            long n = kmeans.fit(in);
+            assertEquals(DenseKMeansTest.faithful().length / 2, n);
+            assertEquals(n, kmeans.getCount(0) + kmeans.getCount(1));
+        }
+        finally {
+            faithful.close();
+        }
+    }
+
+}
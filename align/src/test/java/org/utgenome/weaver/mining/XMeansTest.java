@@ -24,10 +24,14 @@
 //--------------------------------------
 package org.utgenome.weaver.mining;
 
+import static org.junit.Assert.*;
+
 import java.awt.geom.Point2D;
 import java.io.BufferedReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 import org.utgenome.weaver.mining.XMeans.ClusterInfo;
@@ -72,4 +76,35 @@ public class XMeansTest
 
     }
 
+    @Test
+    public void independentOfThreads() throws Exception {
+        List<Point2D> input = new ArrayList<Point2D>();
+        BufferedReader faithful = FileResource.open(XMeansTest.class, "faithful.txt");
+        try {
+            for (String line; (line = faithful.readLine()) != null;) {
+                String[] c = line.split("\\s+");
+                input.add(new Point2D.Double(Double.parseDouble(c[0]), Double.parseDouble(c[1])));
+            }
+        }
+        finally {
+            faithful.close();
+        }
+
+        ClusterInfo<Point2D> r1 = new XMeans<Point2D>(new EuclidDistanceMetric2D()).execute(input, 1000);
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        try {
+            XMeans<Point2D> xmeans = new XMeans<Point2D>(new EuclidDistanceMetric2D(), threadPool);
+            for (int i = 0; i < 2; ++i) {
+                // the thread pool is reused
+                ClusterInfo<Point2D> r2 = xmeans.execute(input, 1000);
+                assertEquals(r1.K, r2.K);
+                assertArrayEquals(r1.clusterAssignment, r2.clusterAssignment);
+                assertEquals(r1.BIC, r2.BIC, 0);
+            }
+        }
+        finally {
+            threadPool.shutdown();
+        }
+    }
+
 }
@@ -24,7 +24,15 @@
 //--------------------------------------
 package org.utgenome.weaver.parallel;
 
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
+import org.utgenome.UTGBException;
 import org.utgenome.weaver.parallel.Actor.RemoteActor;
 import org.utgenome.weaver.parallel.Actor.RemoteServer;
 import org.xerial.util.log.Logger;
@@ -40,6 +48,28 @@ public class ActorTest
         }
     }
 
+    public static class CounterActor
+    {
+        private long count;
+
+        public CounterActor(int init) {
+            this.count = init;
+        }
+
+        public long add(int v) {
+            count += v;
+            return count;
+        }
+
+        public String concat(String a, byte[] b) {
+            return a + new String(b);
+        }
+
+        public void fail() {
+            throw new IllegalStateException("fail");
+        }
+    }
+
     @Test
     public void sample() throws Exception {
         RemoteServer remote = Actor.remote("localhost", 8990);
@@ -47,4 +77,67 @@ public class ActorTest
 
         remoteActor.call("hello");
     }
+
+    @Test
+    public void call() throws Exception {
+        RemoteServer remote = Actor.remote("localhost", 8995);
+        try {
+            RemoteActor counter = remote.register(CounterActor.class, 10);
+            assertEquals(15L, counter.call("add", 5));
+            assertEquals(16L, counter.call("add", 1));
+            assertEquals("ACGT", counter.call("concat", "AC", "GT".getBytes()));
+            try {
+                counter.call("fail");
+                fail("must report an error");
+            }
+            catch (UTGBException e) {
+                _logger.debug(e);
+            }
+            try {
+                counter.call("add", "string");
+                fail("must report an error");
+            }
+            catch (UTGBException e) {
+                _logger.debug(e);
+            }
+            counter.close();
+        }
+        finally {
+            remote.shutdown();
+        }
+    }
+
+    @Test
+    public void pipelinedCalls() throws Exception {
+        RemoteServer remote = Actor.remote("localhost", 8996);
+        try {
+            remote.register("counter", CounterActor.class, 0);
+            // at most 4 calls are in flight
+            RemoteActor counter = new RemoteActor(new InetSocketAddress("localhost", 8996), "counter", 4);
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 1; i <= 1000; ++i) {
+                results.add(counter.send("add", 1));
+            }
+            // the calls from a connection are executed in order
+            for (int i = 0; i < results.size(); ++i) {
+                assertEquals((long) (i + 1), results.get(i).get());
+            }
+            counter.close();
+        }
+        finally {
+            remote.shutdown();
+        }
+    }
+
+    @Test
+    public void ping() throws Exception {
+        RemoteServer remote = Actor.remote("localhost", 8997);
+        try {
+            assertTrue(NettyConnection.connect("localhost", 8997));
+            assertFalse(NettyConnection.connect("localhost", 8998));
+        }
+        finally {
+            remote.shutdown();
+        }
+    }
 }
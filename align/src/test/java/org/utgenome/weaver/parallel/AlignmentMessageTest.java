@@ -0,0 +1,189 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentMessageTest.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.Strand;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.PairedEndRead;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.SingleEndRead;
+import org.xerial.util.log.Logger;
+
+public class AlignmentMessageTest
+{
+    private static Logger _logger = Logger.getLogger(AlignmentMessageTest.class);
+
+    private static AlignmentMessage roundTrip(AlignmentMessage msg) throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        msg.writeTo(out);
+        out.close();
+        return AlignmentMessage.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+    }
+
+    @Test
+    public void readBatch() throws Exception {
+        List<Read> reads = new ArrayList<Read>();
+        reads.add(new SingleEndRead("r1", "ACGTNNACGTTGCA", "IIIIIIIIIIIIII"));
+        reads.add(new SingleEndRead("r2", "ACGTA", null));
+        reads.add(new PairedEndRead(new SingleEndRead("p1", "AACCGGTT", "########"), new SingleEndRead("p1",
+                "TTGGNCA", "%%%%%%%")));
+
+        AlignmentMessage m = roundTrip(AlignmentMessage.readBatch(3, reads));
+        assertEquals(AlignmentMessage.Type.READ_BATCH, m.type);
+        assertEquals(3, m.batchId);
+        assertEquals(reads.size(), m.reads.size());
+        for (int i = 0; i < reads.size(); ++i) {
+            Read expected = reads.get(i);
+            Read r = m.reads.get(i);
+            assertEquals(expected.name(), r.name());
+            assertEquals(expected.getClass(), r.getClass());
+            int numFragments = expected instanceof PairedEndRead ? 2 : 1;
+            for (int f = 0; f < numFragments; ++f) {
+                assertEquals(expected.getRead(f).toString(), r.getRead(f).toString());
+                assertEquals(expected.getQual(f), r.getQual(f));
+            }
+        }
+    }
+
+    @Test
+    public void resultBatch() throws Exception {
+        List<AlignmentRecord> records = new ArrayList<AlignmentRecord>();
+        AlignmentRecord split = new AlignmentRecord("r1", "chr2", Strand.REVERSE, 100, 110, 0, null, "ACGTACGTAC",
+                null, 10, 1, null, null);
+        AlignmentRecord r = new AlignmentRecord("r1", "chr1", Strand.FORWARD, 3, 13, 1, null, "ACGTTCGTAC",
+                "IIIIIIIIII", 9, 2, "state", split);
+        r.setCIGAR("4M1I5M");
+        records.add(r);
+        records.add(new AlignmentRecord());
+
+        AlignmentMessage m = roundTrip(AlignmentMessage.resultBatch(5, records));
+        assertEquals(AlignmentMessage.Type.RESULT_BATCH, m.type);
+        assertEquals(5, m.batchId);
+        assertEquals(2, m.records.size());
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i).toSAMLine(), m.records.get(i).toSAMLine());
+        }
+    }
+
+    @Test
+    public void longSplitChain() throws Exception {
+        // deep enough to overflow the stack if the chain were decoded recursively
+        final int chainLength = 100000;
+        AlignmentRecord r = null;
+        for (int i = chainLength - 1; i >= 0; --i)
+            r = new AlignmentRecord("r1", "chr1", Strand.FORWARD, i, i + 10, 0, null, "ACGTACGTAC", null, i, 1,
+                    null, r);
+
+        AlignmentMessage m = roundTrip(AlignmentMessage.resultBatch(1, Arrays.asList(r)));
+        assertEquals(1, m.records.size());
+        int count = 0;
+        for (AlignmentRecord a = r, b = m.records.get(0); a != null; a = a.split, b = b.split, ++count) {
+            assertNotNull(b);
+            assertEquals(a.start, b.start);
+            assertEquals(a.score, b.score);
+        }
+        assertEquals(chainLength, count);
+    }
+
+    @Test
+    public void config() throws Exception {
+        AlignmentConfig config = new AlignmentConfig();
+        config.refSeq = "hg19.fa";
+        config.k = 3;
+        config.strategy = AlignmentConfig.Strategy.BD;
+        config.indexType = FMIndexOnGenome.IndexType.WAVELET;
+        config.readFiles = Arrays.asList("r1.fastq", "r2.fastq");
+        config.outputFile = "out.sam";
+        config.bssMode = true;
+        config.topL = 7;
+
+        AlignmentMessage m = roundTrip(AlignmentMessage.config(config));
+        assertEquals(AlignmentMessage.Type.CONFIG, m.type);
+        assertEquals("hg19.fa", m.config.refSeq);
+        assertEquals(3, m.config.k, 0.0);
+        assertEquals(AlignmentConfig.Strategy.BD, m.config.strategy);
+        assertEquals(FMIndexOnGenome.IndexType.WAVELET, m.config.indexType);
+        assertEquals(config.readFiles, m.config.readFiles);
+        assertEquals("out.sam", m.config.outputFile);
+        assertNull(m.config.query);
+        assertTrue(m.config.bssMode);
+        assertEquals(7, m.config.topL);
+
+        AlignmentMessage e = roundTrip(AlignmentMessage.error(4, "failed"));
+        assertEquals(AlignmentMessage.Type.ERROR, e.type);
+        assertEquals("failed", e.errorMessage);
+    }
+
+    @Test
+    public void longRead() throws Exception {
+        StringBuilder seq = new StringBuilder();
+        StringBuilder qual = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            seq.append("ACGT".charAt(i % 4));
+            qual.append('I');
+        }
+        List<Read> reads = new ArrayList<Read>();
+        reads.add(new SingleEndRead("long", seq.toString(), qual.toString()));
+
+        AlignmentMessage m = roundTrip(AlignmentMessage.readBatch(1, reads));
+        assertEquals(seq.toString(), m.reads.get(0).getRead(0).toString());
+        assertEquals(qual.toString(), m.reads.get(0).getQual(0));
+    }
+
+    @Test
+    public void rejectInvalidLength() throws Exception {
+        for (int len : new int[] { -2, FrameCodec.MAX_FRAME_LENGTH + 1 }) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeByte(AlignmentMessage.Type.ERROR.ordinal());
+            out.writeInt(0);
+            out.writeInt(len);
+            out.close();
+            try {
+                AlignmentMessage.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+                fail("length " + len + " must be rejected");
+            }
+            catch (IOException e) {
+                _logger.debug(e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// AlignmentServerTest.java
+// Since: 2012/05/22
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.ACGT;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+import org.utgenome.weaver.align.record.AlignmentRecord;
+import org.utgenome.weaver.align.record.Read;
+import org.utgenome.weaver.align.record.ReadReader;
+import org.utgenome.weaver.align.record.SingleEndRead;
+import org.xerial.util.ObjectHandler;
+import org.xerial.util.log.Logger;
+
+public class AlignmentServerTest
+{
+    private static Logger          _logger = Logger.getLogger(AlignmentServerTest.class);
+
+    private static ACGTSequence    ref;
+    private static CommonDataSet   common;
+    private static AlignmentServer server1;
+    private static AlignmentServer server2;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Random r = new Random(0);
+        ref = new ACGTSequence();
+        for (int i = 0; i < 2000; ++i) {
+            ref.append(ACGT.decode(r.nextInt(4)));
+        }
+        FMIndexOnGenome fmIndex = FMIndexOnGenome.buildFromSequence("seq", ref);
+        common = new CommonDataSet(fmIndex, ref, new AlignmentConfig(), null);
+        server1 = new AlignmentServer("localhost", 8992, "seq", common, 2);
+        server1.start();
+        server2 = new AlignmentServer("localhost", 8993, "seq", common, 2);
+        server2.start();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        server1.shutdown();
+        server2.shutdown();
+    }
+
+    private static List<Read> sampleReads(int n) {
+        Random r = new Random(1);
+        List<Read> reads = new ArrayList<Read>();
+        for (int i = 0; i < n; ++i) {
+            int start = r.nextInt((int) ref.textSize() - 50);
+            reads.add(new SingleEndRead("read" + i, ref.subString(start, start + 40), null));
+        }
+        return reads;
+    }
+
+    private static ReadReader reader(final List<Read> reads) {
+        return new ReadReader() {
+            private Iterator<Read> it = reads.iterator();
+
+            @Override
+            public Read next() throws Exception {
+                return it.hasNext() ? it.next() : null;
+            }
+
+            @Override
+            public void parse(ObjectHandler<Read> handler) throws Exception {
+                for (Read each; (each = next()) != null;)
+                    handler.handle(each);
+            }
+
+            @Override
+            public void close() throws IOException {}
+        };
+    }
+
+    private static class Collector implements Reporter
+    {
+        List<AlignmentRecord> result = new ArrayList<AlignmentRecord>();
+
+        @Override
+        public void emit(Object r) throws Exception {
+            result.add((AlignmentRecord) r);
+        }
+    }
+
+    @Test
+    public void distribute() throws Exception {
+        List<Read> reads = sampleReads(500);
+        AlignmentConfig config = new AlignmentConfig();
+        config.workers = "localhost:8992,localhost:8993";
+        config.batchSize = 16;
+
+        Collector out = new Collector();
+        new AlignmentCoordinator(config, out, 2).run(reader(reads));
+
+        // compare with the local alignment
+        assertEquals(toSAM(server1.align(config, reads)), toSAM(out.result));
+    }
+
+    private static List<String> toSAM(List<AlignmentRecord> records) {
+        List<String> sam = new ArrayList<String>();
+        for (AlignmentRecord each : records)
+            sam.add(each.toSAMLine());
+        Collections.sort(sam);
+        return sam;
+    }
+
+    @Test
+    public void unreachableServer() throws Exception {
+        List<Read> reads = sampleReads(100);
+        AlignmentConfig config = new AlignmentConfig();
+        config.workers = "localhost:8992,localhost:8999";
+        config.batchSize = 10;
+
+        Collector out = new Collector();
+        new AlignmentCoordinator(config, out).run(reader(reads));
+        assertEquals(toSAM(server1.align(config, reads)), toSAM(out.result));
+    }
+
+    @Test
+    public void retryOnServerLoss() throws Exception {
+        // A server that crashes when it receives a read batch
+        ServerBootstrap crashing = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        crashing.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return AlignmentMessage.newServerPipeline(new SimpleChannelUpstreamHandler() {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+                        if (((AlignmentMessage) e.getMessage()).type == AlignmentMessage.Type.READ_BATCH)
+                            e.getChannel().close();
+                    }
+                }, null);
+            }
+        });
+        Channel crashingServer = crashing.bind(new InetSocketAddress("localhost", 8994));
+        try {
+            List<Read> reads = sampleReads(200);
+            AlignmentConfig config = new AlignmentConfig();
+            config.workers = "localhost:8994,localhost:8993";
+            config.batchSize = 10;
+
+            Collector out = new Collector();
+            new AlignmentCoordinator(config, out).run(reader(reads));
+            assertEquals(toSAM(server2.align(config, reads)), toSAM(out.result));
+        }
+        finally {
+            crashingServer.close().awaitUninterruptibly();
+            crashing.releaseExternalResources();
+        }
+    }
+
+    @Test
+    public void job() throws Exception {
+        List<Read> reads = sampleReads(300);
+        new File("target").mkdirs();
+        File readFile = File.createTempFile("reads", ".fa", new File("target"));
+        File samFile = File.createTempFile("result", ".sam", new File("target"));
+        readFile.deleteOnExit();
+        samFile.deleteOnExit();
+        FileWriter w = new FileWriter(readFile);
+        for (Read each : reads)
+            w.write(String.format(">%s\n%s\n", each.name(), each.getRead(0)));
+        w.close();
+
+        // submit two jobs concurrently to the daemon 
+        final AlignmentConfig config = new AlignmentConfig();
+        config.daemon = "localhost:8992";
+        config.readFiles = new ArrayList<String>();
+        config.readFiles.add(readFile.getPath());
+        config.outputFile = samFile.getPath();
+        final AlignmentConfig config2 = new AlignmentConfig();
+        config2.daemon = "localhost:8992";
+        config2.query = reads.get(0).getRead(0).toString();
+        config2.outputFile = new File("target", "single.sam").getPath();
+        new File(config2.outputFile).deleteOnExit();
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AlignmentJobClient.submit(config2);
+                }
+                catch (Exception e) {
+                    _logger.error(e);
+                }
+            }
+        });
+        t.start();
+        AlignmentJobClient.submit(config);
+        t.join();
+
+        List<String> expected = new ArrayList<String>();
+        for (String each : toSAM(server1.align(config, reads)))
+            expected.addAll(Arrays.asList(each.split("\n")));
+        Collections.sort(expected);
+        assertEquals(expected, readSAM(samFile));
+        assertEquals(1, readSAM(new File(config2.outputFile)).size());
+    }
+
+    private static List<String> readSAM(File samFile) throws IOException {
+        List<String> sam = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new FileReader(samFile));
+        for (String line; (line = in.readLine()) != null;) {
+            if (!line.startsWith("@"))
+                sam.add(line);
+        }
+        in.close();
+        Collections.sort(sam);
+        return sam;
+    }
+
+    @Test
+    public void missingReference() throws Exception {
+        AlignmentConfig config = new AlignmentConfig();
+        config.daemon = "localhost:8992";
+        config.refSeq = "target/no-such-reference.fa";
+        config.query = "ACGTACGTACGTACGTACGT";
+        config.outputFile = "target/missing.sam";
+        try {
+            AlignmentJobClient.submit(config);
+            fail("must report an error");
+        }
+        catch (UTGBException e) {
+            _logger.debug(e);
+        }
+    }
+
+    @Test
+    public void outsideOfOutputDirectory() throws Exception {
+        File outside = new File(new File(".").getCanonicalFile().getParentFile(), "outside-of-server.sam");
+        AlignmentConfig config = new AlignmentConfig();
+        config.daemon = "localhost:8992";
+        config.query = "ACGTACGTACGTACGTACGT";
+        config.outputFile = outside.getPath();
+        try {
+            AlignmentJobClient.submit(config);
+            fail("must reject the output file");
+        }
+        catch (UTGBException e) {
+            _logger.debug(e);
+        }
+        assertFalse(outside.exists());
+    }
+
+    @Test
+    public void authenticate() throws Exception {
+        new File("target").mkdirs();
+        File secretFile = File.createTempFile("secret", ".txt", new File("target"));
+        File wrongSecretFile = File.createTempFile("secret", ".txt", new File("target"));
+        secretFile.deleteOnExit();
+        wrongSecretFile.deleteOnExit();
+        FileWriter w = new FileWriter(secretFile);
+        w.write("correct horse battery staple\n");
+        w.close();
+        w = new FileWriter(wrongSecretFile);
+        w.write("wrong\n");
+        w.close();
+
+        AlignmentServer server = new AlignmentServer("localhost", 8995, "seq", common, 1);
+        server.setSecret(Handshake.readSecret(secretFile.getPath()));
+        server.start();
+        try {
+            AlignmentConfig config = new AlignmentConfig();
+            config.daemon = "localhost:8995";
+            config.query = "ACGTACGTACGTACGTACGT";
+            config.outputFile = new File("target", "auth.sam").getPath();
+            new File(config.outputFile).deleteOnExit();
+
+            // without the secret, and with a wrong secret
+            for (String each : Arrays.asList(null, wrongSecretFile.getPath())) {
+                config.secretFile = each;
+                try {
+                    AlignmentJobClient.submit(config);
+                    fail("must reject the client");
+                }
+                catch (UTGBException e) {
+                    _logger.debug(e);
+                }
+            }
+            assertFalse(new File(config.outputFile).exists());
+
+            config.secretFile = secretFile.getPath();
+            AlignmentJobClient.submit(config);
+            assertTrue(new File(config.outputFile).exists());
+        }
+        finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void requireSecretForNonLoopbackAddress() throws Exception {
+        AlignmentServer server = new AlignmentServer("0.0.0.0", 8996, 1);
+        try {
+            server.start();
+            fail("must require a secret");
+        }
+        catch (UTGBException e) {
+            _logger.debug(e);
+        }
+        finally {
+            server.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// RPCMessageTest.java
+// Since: 2012/05/28
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Date;
+
+import org.junit.Test;
+import org.utgenome.UTGBException;
+import org.xerial.util.log.Logger;
+
+public class RPCMessageTest
+{
+    private static Logger _logger = Logger.getLogger(RPCMessageTest.class);
+
+    private static RPCMessage roundTrip(RPCMessage msg) throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        msg.writeTo(out);
+        out.close();
+        return RPCMessage.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+    }
+
+    @Test
+    public void request() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 100000; ++i)
+            longString.append('A');
+        RPCMessage m = roundTrip(RPCMessage.request(3, "counter", "add", null, true, 1, 2L, 0.5, longString
+                .toString(), new byte[] { 1, 2 }));
+        assertEquals(RPCMessage.Type.REQUEST, m.type);
+        assertEquals(3, m.id);
+        assertEquals("counter", m.target);
+        assertEquals("add", m.method);
+        assertEquals(7, m.args.length);
+        assertNull(m.args[0]);
+        assertEquals(true, m.args[1]);
+        assertEquals(1, m.args[2]);
+        assertEquals(2L, m.args[3]);
+        assertEquals(0.5, m.args[4]);
+        assertEquals(longString.toString(), m.args[5]);
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) m.args[6]);
+    }
+
+    @Test
+    public void rejectSerializedObject() throws Exception {
+        try {
+            roundTrip(RPCMessage.response(1, new Date()));
+            fail("must not send a serializable object");
+        }
+        catch (IllegalArgumentException e) {
+            _logger.debug(e.getMessage());
+        }
+
+        // a value tagged as a Java-serialized object
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(RPCMessage.Type.RESPONSE.ordinal());
+        out.writeInt(1);
+        out.writeByte(7);
+        out.writeInt(4);
+        out.write(new byte[] { (byte) 0xAC, (byte) 0xED, 0, 5 });
+        out.close();
+        try {
+            RPCMessage.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+            fail("must reject the object value");
+        }
+        catch (UTGBException e) {
+            _logger.debug(e);
+        }
+    }
+
+}
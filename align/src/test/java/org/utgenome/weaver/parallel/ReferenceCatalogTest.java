@@ -0,0 +1,126 @@
+/*--------------------------------------------------------------------------
+ *  Copyright 2012 utgenome.org
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *--------------------------------------------------------------------------*/
+//--------------------------------------
+// genome-weaver Project
+//
+// ReferenceCatalogTest.java
+// Since: 2012/05/25
+//
+// $URL$ 
+// $Author$
+//--------------------------------------
+package org.utgenome.weaver.parallel;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.utgenome.UTGBException;
+import org.utgenome.weaver.align.ACGT;
+import org.utgenome.weaver.align.ACGTSequence;
+import org.utgenome.weaver.align.Align.CommonDataSet;
+import org.utgenome.weaver.align.AlignmentConfig;
+import org.utgenome.weaver.align.FMIndexOnGenome;
+
+public class ReferenceCatalogTest
+{
+    private static ACGTSequence  ref;
+    private static CommonDataSet common;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Random r = new Random(0);
+        ref = new ACGTSequence();
+        for (int i = 0; i < 500; ++i) {
+            ref.append(ACGT.decode(r.nextInt(4)));
+        }
+        FMIndexOnGenome fmIndex = FMIndexOnGenome.buildFromSequence("seq", ref);
+        common = new CommonDataSet(fmIndex, ref, new AlignmentConfig(), null);
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        final long m = common.getIndexMemory();
+        ReferenceCatalog catalog = new ReferenceCatalog(m * 2 + m / 2);
+        catalog.add("a.fa", FMIndexOnGenome.IndexType.OCC, common);
+        catalog.add("b.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals(m * 2, catalog.getResidentMemory());
+
+        // touch a.fa so that b.fa becomes the least recently used one
+        assertSame(common, catalog.get("a.fa", FMIndexOnGenome.IndexType.OCC));
+        catalog.add("c.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals(Arrays.asList("a.fa", "c.fa"), catalog.getResidentReferences());
+        assertEquals(m * 2, catalog.getResidentMemory());
+
+        // the newly added reference is kept even if it exceeds the budget alone
+        catalog.setMemoryBudget(m / 2);
+        catalog.add("d.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals(Arrays.asList("d.fa"), catalog.getResidentReferences());
+
+        catalog.setMemoryBudget(0);
+        catalog.add("e.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals(Arrays.asList("d.fa", "e.fa"), catalog.getResidentReferences());
+        assertTrue(catalog.evict("d.fa"));
+        assertFalse(catalog.evict("d.fa"));
+        assertEquals(m, catalog.getResidentMemory());
+    }
+
+    @Test
+    public void indexTypes() throws Exception {
+        CommonDataSet wavelet = new CommonDataSet(FMIndexOnGenome.buildFromSequence("seq", ref,
+                FMIndexOnGenome.IndexType.WAVELET), ref, new AlignmentConfig(), null);
+        ReferenceCatalog catalog = new ReferenceCatalog(0);
+        catalog.add("a.fa", FMIndexOnGenome.IndexType.OCC, common);
+        catalog.add("a.fa", FMIndexOnGenome.IndexType.WAVELET, wavelet);
+
+        // the same reference with another index type is held separately
+        assertSame(common, catalog.get("a.fa", FMIndexOnGenome.IndexType.OCC));
+        assertSame(wavelet, catalog.get("a.fa", FMIndexOnGenome.IndexType.WAVELET));
+        assertEquals(common.getIndexMemory() + wavelet.getIndexMemory(), catalog.getResidentMemory());
+        assertEquals(Arrays.asList("a.fa"), catalog.getResidentReferences());
+
+        assertTrue(catalog.evict("a.fa"));
+        assertEquals(0, catalog.getResidentMemory());
+    }
+
+    @Test
+    public void resolve() throws Exception {
+        ReferenceCatalog catalog = new ReferenceCatalog(0);
+        catalog.register("hg19", "/data/hg19.fa");
+        assertEquals("/data/hg19.fa", catalog.resolve(null));
+        assertEquals("/data/hg19.fa", catalog.resolve("hg19"));
+        assertEquals("/data/hg19.fa", catalog.resolve("/mnt/remote/hg19.fa"));
+        assertEquals("mm10.fa", catalog.resolve("mm10.fa"));
+
+        catalog.add("/data/mm10.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals("/data/mm10.fa", catalog.resolve("mm10.fa"));
+
+        // the file name is ambiguous
+        catalog.add("/data/old/mm10.fa", FMIndexOnGenome.IndexType.OCC, common);
+        assertEquals("/mnt/remote/mm10.fa", catalog.resolve("/mnt/remote/mm10.fa"));
+        try {
+            catalog.resolve(null);
+            fail("reference must be specified when the catalog holds several references");
+        }
+        catch (UTGBException e) {
+            // OK
+        }
+    }
+
+}
@@ -147,6 +147,13 @@ object GenomeWeaverBuild extends Build {
       //"com.typesafe.akka" % "akka-actor" % "2.0",
       //"com.typesafe.akka" % "akka-remote" % "2.0"
     )
+
+    val JMH_VERSION = "1.0"
+
+    val benchLib = Seq(
+      "org.openjdk.jmh" % "jmh-core" % JMH_VERSION,
+      "org.openjdk.jmh" % "jmh-generator-annprocess" % JMH_VERSION
+    )
   }
 
 
@@ -184,6 +191,21 @@ object GenomeWeaverBuild extends Build {
       ++ Seq(libraryDependencies ++= bootLib ++ testLib ++ coreLib)
   ) dependsOn (gwLens % dependentScope)
 
+  // JMH benchmarks. The annotation processor in jmh-generator-annprocess generates the benchmark harness
+  // at compile time. Run with: bin/sbt "project align-bench" "run (JMH options)"
+  lazy val gwAlignBench = Project(
+    id = "align-bench",
+    base = file("align/bench"),
+    settings = buildSettings
+      ++ Seq(
+      libraryDependencies ++= benchLib,
+      publishArtifact := false,
+      // JMH launches the benchmark JVMs with the classpath of the current JVM
+      fork in run := true,
+      mainClass in (Compile, run) := Some("org.openjdk.jmh.Main")
+    )
+  ) dependsOn (gwAlign)
+
 
   lazy val copyDependencies = TaskKey[Unit]("copy-dependencies")
 